@@ -0,0 +1,55 @@
+package com.csv.bench;
+
+import com.csv.io.MappedCsvReader;
+import com.csv.util.FileUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input shared by the benchmarks: generated CSV files in a temp folder of their own, deleted by {@link #close()}.
+ */
+public class BenchmarkData implements AutoCloseable {
+	private final Path folder;
+
+	public BenchmarkData() throws IOException {
+		folder = Files.createTempDirectory("csv_benchmark");
+	}
+
+	public Path getFolder() {
+		return folder;
+	}
+
+	/**
+	 * Generates {@code rows} rows with the default columns of {@link CsvDataGenerator}.
+	 */
+	public Path generate(long rows, KeyDistribution keys) throws IOException {
+		Path input = folder.resolve("input_" + keys.name().toLowerCase() + "_" + rows + ".csv");
+		CsvDataGenerator generator = new CsvDataGenerator(rows);
+		generator.keyDistribution = keys;
+		generator.write(input);
+		return input;
+	}
+
+	/**
+	 * Reads every record of a file into memory.
+	 */
+	public static List<List<String>> readRecords(Path input) throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		try (MappedCsvReader reader = new MappedCsvReader(input.toString())) {
+			List<String> record;
+			while ((record = reader.readRecord()) != null) {
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	@Override
+	public void close() {
+		new FileUtil().deleteFolder(folder.toFile());
+	}
+}
@@ -0,0 +1,154 @@
+package com.csv.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes reproducible CSV files for the benchmarks: the same arguments and seed always give the same bytes. Column 0
+ * holds the key, drawn by a {@link KeyDistribution} and zero-padded to the column width, the other columns hold random
+ * letters. A share of the other fields, the quote density, is quoted and holds a comma and a doubled quote.
+ * <p>
+ * Usage: {@code CsvDataGenerator <rows> <outputFile> [--columns n] [--width n] [--keys distribution]
+ * [--quote-density d] [--seed s]}
+ */
+public class CsvDataGenerator {
+	private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+	private static final int DUPLICATE_KEYS = 100;
+	public long rows;
+	public int columns = 5;
+	public int columnWidth = 12;
+	public KeyDistribution keyDistribution = KeyDistribution.UNIFORM;
+	// Share of the non-key fields written quoted, with a comma and a doubled quote inside
+	public double quoteDensity = 0.1;
+	public long seed = 42;
+
+	public CsvDataGenerator(long rows) {
+		this.rows = rows;
+	}
+
+	public static void main(String[] args) throws IOException {
+		CsvDataGenerator generator = new CsvDataGenerator(Long.parseLong(args[0]));
+		for (int i = 2; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for option " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--columns":
+					generator.columns = Integer.parseInt(value);
+					break;
+				case "--width":
+					generator.columnWidth = Integer.parseInt(value);
+					break;
+				case "--keys":
+					generator.keyDistribution = KeyDistribution.fromName(value);
+					break;
+				case "--quote-density":
+					generator.quoteDensity = Double.parseDouble(value);
+					break;
+				case "--seed":
+					generator.seed = Long.parseLong(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		generator.write(Paths.get(args[1]));
+	}
+
+	public void write(Path outputFile) throws IOException {
+		if (columns < 1 || columnWidth < 1) {
+			throw new IllegalArgumentException("columns and columnWidth must be at least 1");
+		}
+		Random random = new Random(seed);
+		KeySource keys = keySource(random);
+		char[] field = new char[columnWidth];
+		try (Writer writer = new BufferedWriter(Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8), 1 << 16)) {
+			for (long row = 0; row < rows; row++) {
+				writer.write(pad(keys.next(row)));
+				for (int column = 1; column < columns; column++) {
+					writer.write(',');
+					for (int i = 0; i < columnWidth; i++) {
+						field[i] = LETTERS[random.nextInt(LETTERS.length)];
+					}
+					if (random.nextDouble() < quoteDensity) {
+						writer.write('"');
+						writer.write(field, 0, columnWidth / 2);
+						writer.write(", \"\"");
+						writer.write(field, columnWidth / 2, columnWidth - columnWidth / 2);
+						writer.write('"');
+					} else {
+						writer.write(field);
+					}
+				}
+				writer.write('\n');
+			}
+		}
+	}
+
+	private String pad(long key) {
+		String digits = Long.toString(key);
+		if (digits.length() >= columnWidth) {
+			return digits;
+		}
+		char[] padded = new char[columnWidth];
+		Arrays.fill(padded, 0, columnWidth - digits.length(), '0');
+		digits.getChars(0, digits.length(), padded, columnWidth - digits.length());
+		return new String(padded);
+	}
+
+	private KeySource keySource(Random random) {
+		switch (keyDistribution) {
+			case UNIFORM:
+				return row -> (long) (random.nextDouble() * rows * 10);
+			case ZIPFIAN:
+				return new ZipfKeys(random, (int) Math.min(rows, 1 << 24))::next;
+			case PRESORTED:
+				return row -> row;
+			case REVERSE:
+				return row -> rows - 1 - row;
+			case DUPLICATES:
+				return row -> random.nextInt(DUPLICATE_KEYS);
+			default:
+				throw new IllegalStateException("Unknown key distribution " + keyDistribution);
+		}
+	}
+
+	private interface KeySource {
+		long next(long row);
+	}
+
+	/**
+	 * Draws ranks {@code 0..n-1} where rank {@code k} has a probability proportional to {@code 1 / (k + 1)}, by a
+	 * binary search of the cumulative distribution.
+	 */
+	private static class ZipfKeys {
+		private final Random random;
+		private final double[] cumulative;
+
+		ZipfKeys(Random random, int n) {
+			this.random = random;
+			this.cumulative = new double[Math.max(1, n)];
+			double sum = 0;
+			for (int k = 0; k < cumulative.length; k++) {
+				sum += 1.0 / (k + 1);
+				cumulative[k] = sum;
+			}
+			for (int k = 0; k < cumulative.length; k++) {
+				cumulative[k] /= sum;
+			}
+		}
+
+		long next(long row) {
+			int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+			return rank >= 0 ? rank : Math.min(cumulative.length - 1, -rank - 1);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.csv.bench;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.service.FileSorter;
+import com.csv.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole sort from input CSV to output CSV, as run from the command line. Each invocation is timed once, a sort
+ * is long enough that JMH's per-call overhead does not matter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+	@Param("1000000")
+	public long rows;
+	@Param("50000")
+	public int maxRecordsInMemory;
+	@Param({"uniform", "zipfian", "presorted", "reverse", "duplicates"})
+	public String keys;
+	@Param({"opencsv", "mmap"})
+	public String parser;
+	@Param({"merge", "sample"})
+	public String algorithm;
+	private BenchmarkData data;
+	private Path input;
+	private FileSorter fileSorter;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new BenchmarkData();
+		input = data.generate(rows, KeyDistribution.fromName(keys));
+		fileSorter = new FileSorter(new FileUtil());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fileSorter.shutdown();
+		data.close();
+	}
+
+	@Benchmark
+	public void sortFile() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"0", String.valueOf(maxRecordsInMemory),
+				input.toString(), data.getFolder().resolve("output.csv").toString(),
+				String.valueOf(Runtime.getRuntime().availableProcessors()), "--parser", parser, "--algorithm", algorithm});
+		args.tempFolder = data.getFolder().toString();
+		fileSorter.sortFile(args);
+	}
+}
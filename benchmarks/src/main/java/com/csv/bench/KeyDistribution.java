@@ -0,0 +1,31 @@
+package com.csv.bench;
+
+/**
+ * How the keys of a generated CSV file are drawn.
+ */
+public enum KeyDistribution {
+	/**
+	 * Independent keys drawn uniformly from ten times as many values as rows, few repeats.
+	 */
+	UNIFORM,
+	/**
+	 * Keys drawn from as many values as rows with Zipf's law, a few keys make up most rows.
+	 */
+	ZIPFIAN,
+	/**
+	 * Keys in ascending order.
+	 */
+	PRESORTED,
+	/**
+	 * Keys in descending order.
+	 */
+	REVERSE,
+	/**
+	 * Keys drawn uniformly from 100 values only.
+	 */
+	DUPLICATES;
+
+	public static KeyDistribution fromName(String name) {
+		return valueOf(name.toUpperCase().replace('-', '_'));
+	}
+}
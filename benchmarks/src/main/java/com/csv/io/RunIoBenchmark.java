@@ -0,0 +1,100 @@
+package com.csv.io;
+
+import com.csv.bench.BenchmarkData;
+import com.csv.bench.KeyDistribution;
+import com.csv.key.SortKey;
+import com.csv.model.SortRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading a run file with each spill codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RunIoBenchmark {
+	private static final byte[] LINE_SEPARATOR = {'\n'};
+	@Param("200000")
+	public long rows;
+	@Param({"none", "deflate", "lz"})
+	public String codec;
+	private BenchmarkData data;
+	private SpillCodec spillCodec;
+	private final List<SortRecord> records = new ArrayList<>();
+	private String writtenRunFileName;
+	private String readRunFileName;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new BenchmarkData();
+		spillCodec = SpillCodec.forName(codec);
+		SortKey sortKey = SortKey.singleField(0);
+		for (List<String> record : BenchmarkData.readRecords(data.generate(rows, KeyDistribution.UNIFORM))) {
+			records.add(new SortRecord(sortKey.encode(record), record));
+		}
+		records.sort((a, b) -> SortKey.compare(a.getKey(), b.getKey()));
+		writtenRunFileName = data.getFolder().resolve("written.run").toString();
+		readRunFileName = data.getFolder().resolve("read.run").toString();
+		writeRun(readRunFileName);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		data.close();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		writeRun(writtenRunFileName);
+	}
+
+	@Benchmark
+	public void readAsCsv(Blackhole blackhole) throws IOException {
+		OutputStream sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(len);
+			}
+		};
+		try (RunFileReader reader = new RunFileReader(readRunFileName)) {
+			for (; reader.hasRecord(); reader.nextRecord()) {
+				reader.writeCurrentRecordAsCsv(sink, LINE_SEPARATOR);
+			}
+		}
+	}
+
+	private void writeRun(String runFileName) throws IOException {
+		try (RunFileWriter writer = new RunFileWriter(runFileName, spillCodec, null)) {
+			for (SortRecord record : records) {
+				writer.write(record.getKey(), record.getFields());
+			}
+		}
+	}
+}
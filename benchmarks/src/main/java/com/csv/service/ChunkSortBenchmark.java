@@ -0,0 +1,55 @@
+package com.csv.service;
+
+import com.csv.bench.BenchmarkData;
+import com.csv.bench.KeyDistribution;
+import com.csv.key.SortKey;
+import com.csv.model.SortRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting one in-memory chunk: encoding every key once and sorting by the encoded bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkSortBenchmark {
+	@Param("100000")
+	public long rows;
+	@Param({"uniform", "zipfian", "presorted", "reverse", "duplicates"})
+	public String keys;
+	@Param({"0", "0:int:desc"})
+	public String key;
+	private List<List<String>> chunk;
+	private SortKey sortKey;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		try (BenchmarkData data = new BenchmarkData()) {
+			chunk = BenchmarkData.readRecords(data.generate(rows, KeyDistribution.fromName(keys)));
+		}
+		sortKey = SortKey.parse(key);
+	}
+
+	@Benchmark
+	public List<SortRecord> sortChunk() {
+		return FileSorter.sortChunk(sortKey, chunk);
+	}
+}
@@ -0,0 +1,90 @@
+package com.csv.service;
+
+import com.csv.bench.BenchmarkData;
+import com.csv.bench.KeyDistribution;
+import com.csv.config.MergeEngine;
+import com.csv.io.NoneCodec;
+import com.csv.io.RunFileReader;
+import com.csv.key.SortKey;
+import com.csv.util.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging sorted runs with each {@link MergeEngine}, reading the runs and comparing keys without writing output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+	@Param("200000")
+	public long rows;
+	@Param({"4", "16", "64"})
+	public int runs;
+	@Param({"heap", "loser-tree"})
+	public String engine;
+	@Param({"uniform", "duplicates"})
+	public String keys;
+	private BenchmarkData data;
+	private final List<String> runFileNames = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new BenchmarkData();
+		List<List<String>> records = BenchmarkData.readRecords(data.generate(rows, KeyDistribution.fromName(keys)));
+		FileUtil fileUtil = new FileUtil();
+		SortKey sortKey = SortKey.singleField(0);
+		int runLength = (records.size() + runs - 1) / runs;
+		for (int run = 0; run < runs; run++) {
+			List<List<String>> chunk = records.subList(Math.min(records.size(), run * runLength),
+					Math.min(records.size(), (run + 1) * runLength));
+			String runFileName = data.getFolder().resolve("run_" + run + ".run").toString();
+			fileUtil.writeRunToFile(FileSorter.sortChunk(sortKey, chunk), runFileName, NoneCodec.INSTANCE, null);
+			runFileNames.add(runFileName);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		data.close();
+	}
+
+	@Benchmark
+	public void merge(Blackhole blackhole) throws IOException {
+		List<RunFileReader> readers = new ArrayList<>();
+		try {
+			for (String runFileName : runFileNames) {
+				readers.add(new RunFileReader(runFileName));
+			}
+			RunMerger merger = RunMerger.create(MergeEngine.fromName(engine), readers);
+			for (RunFileReader smallest = merger.peek(); smallest != null; smallest = merger.peek()) {
+				blackhole.consume(smallest.getKeyLength());
+				merger.advance();
+			}
+		} finally {
+			for (RunFileReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.csv.service;
+
+import com.csv.bench.BenchmarkData;
+import com.csv.bench.KeyDistribution;
+import com.csv.config.MergeEngine;
+import com.csv.io.NoneCodec;
+import com.csv.io.RunFileReader;
+import com.csv.key.SortKey;
+import com.csv.model.SortRecord;
+import com.csv.util.FileUtil;
+import com.csv.util.IoThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wide merges and spills with their I/O on platform or on virtual threads, as {@code --io-threads} chooses. The
+ * merge reads every run ahead on the I/O pool, as the merge passes do; the spill writes every run as its own task,
+ * on two platform threads or on a virtual thread each, as run generation does. Virtual threads need Java 21 and the
+ * multi-release jar, on older JDKs both modes use platform threads. The widest fan-in keeps 10,000 files open, so the
+ * file descriptor limit ({@code ulimit -n}) has to be above that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WideMergeBenchmark {
+	private static final int PLATFORM_SPILL_WRITERS = 2;
+	@Param("1000000")
+	public long rows;
+	@Param({"100", "1000", "10000"})
+	public int fanIn;
+	@Param({"platform", "virtual"})
+	public String ioThreads;
+	@Param("4k")
+	public String readBuffer;
+	private BenchmarkData data;
+	private ExecutorService ioExecutor;
+	private ExecutorService spillExecutor;
+	private int readBufferSize;
+	private final List<List<SortRecord>> sortedRuns = new ArrayList<>();
+	private final List<String> runFileNames = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new BenchmarkData();
+		boolean virtual = ioThreads.equals("virtual");
+		ioExecutor = IoThreads.newExecutor("merge-io", virtual);
+		spillExecutor = virtual && IoThreads.virtualThreadsAvailable()
+				? IoThreads.newExecutor("spill-writer", true)
+				: Executors.newFixedThreadPool(PLATFORM_SPILL_WRITERS);
+		readBufferSize = Integer.parseInt(readBuffer.replace("k", "")) * 1024;
+		List<List<String>> records = BenchmarkData.readRecords(data.generate(rows, KeyDistribution.UNIFORM));
+		FileUtil fileUtil = new FileUtil();
+		SortKey sortKey = SortKey.singleField(0);
+		int runLength = (records.size() + fanIn - 1) / fanIn;
+		for (int run = 0; run < fanIn; run++) {
+			List<List<String>> chunk = records.subList(Math.min(records.size(), run * runLength),
+					Math.min(records.size(), (run + 1) * runLength));
+			List<SortRecord> sortedRun = FileSorter.sortChunk(sortKey, chunk);
+			String runFileName = data.getFolder().resolve("run_" + run + ".run").toString();
+			fileUtil.writeRunToFile(sortedRun, runFileName, NoneCodec.INSTANCE, null);
+			sortedRuns.add(sortedRun);
+			runFileNames.add(runFileName);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ioExecutor.shutdown();
+		spillExecutor.shutdown();
+		data.close();
+	}
+
+	@Benchmark
+	public void merge(Blackhole blackhole) throws IOException {
+		List<RunFileReader> readers = new ArrayList<>();
+		try {
+			for (String runFileName : runFileNames) {
+				readers.add(new RunFileReader(runFileName, readBufferSize, null, ioExecutor));
+			}
+			RunMerger merger = RunMerger.create(MergeEngine.LOSER_TREE, readers);
+			for (RunFileReader smallest = merger.peek(); smallest != null; smallest = merger.peek()) {
+				blackhole.consume(smallest.getKeyLength());
+				merger.advance();
+			}
+		} finally {
+			for (RunFileReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	@Benchmark
+	public void spill() throws InterruptedException, ExecutionException {
+		FileUtil fileUtil = new FileUtil();
+		List<Future<?>> spills = new ArrayList<>();
+		for (int run = 0; run < fanIn; run++) {
+			List<SortRecord> sortedRun = sortedRuns.get(run);
+			String runFileName = data.getFolder().resolve("spill_" + run + ".run").toString();
+			spills.add(spillExecutor.submit(() ->
+					fileUtil.writeRunToFile(sortedRun, runFileName, NoneCodec.INSTANCE, null)));
+		}
+		for (Future<?> spill : spills) {
+			spill.get();
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package com.csv;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.config.SortAlgorithm;
+import com.csv.key.SortKey;
+import com.csv.service.FileSorter;
+import com.csv.service.SortedRecordIterator;
+import com.csv.util.FileUtil;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Sorts CSV data from code. A sorter is built once and may run any number of sorts, also at the same time: every sort
+ * gets a temp folder and thread pools of its own, which are removed once it is done.
+ * <p>
+ * The input is a file, a stream of CSV text or an iterator of records; streams and iterators are first written to a
+ * file in the temp folder. The output is a file, a stream of CSV text or an iterator of sorted records: stream and
+ * iterator outputs come straight from the final merge, without an output file, so the temp folder of an iterator
+ * lives until the iterator is closed. Iterator outputs always use the merge algorithm.
+ * <pre>{@code
+ * CsvSorter sorter = CsvSorter.builder().key("2:int,0").threads(4).memory("1g").build();
+ * try (CsvSorter.SortedRecords records = sorter.sorted(inputStream)) {
+ *     records.forEachRemaining(record -> ...);
+ * }
+ * }</pre>
+ */
+public final class CsvSorter {
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+	private final FileUtil fileUtil = new FileUtil();
+	private final int keyFieldIndex;
+	private final int threads;
+	private final int maxRecordsInMemory;
+	private final File tempDirectory;
+	private final Map<String, String> options;
+	private final Consumer<String> messages;
+
+	private CsvSorter(Builder builder) {
+		this.keyFieldIndex = builder.keyFieldIndex;
+		this.threads = builder.threads;
+		this.maxRecordsInMemory = builder.maxRecordsInMemory;
+		this.tempDirectory = builder.tempDirectory.toFile();
+		this.options = new LinkedHashMap<>(builder.options);
+		this.messages = builder.messages;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public void sort(Path input, Path output) throws IOException {
+		sortToFile(tempFolder -> input.toString(), output);
+	}
+
+	public void sort(InputStream input, Path output) throws IOException {
+		sortToFile(tempFolder -> copyToFile(input, tempFolder), output);
+	}
+
+	public void sort(Iterator<? extends List<String>> records, Path output) throws IOException {
+		sortToFile(tempFolder -> writeToFile(records, tempFolder), output);
+	}
+
+	/**
+	 * Writes the sorted input to {@code output} as CSV lines. The stream is flushed but left open.
+	 */
+	public void sort(Path input, OutputStream output) throws IOException {
+		sortToStream(tempFolder -> input.toString(), output);
+	}
+
+	public void sort(InputStream input, OutputStream output) throws IOException {
+		sortToStream(tempFolder -> copyToFile(input, tempFolder), output);
+	}
+
+	public void sort(Iterator<? extends List<String>> records, OutputStream output) throws IOException {
+		sortToStream(tempFolder -> writeToFile(records, tempFolder), output);
+	}
+
+	/**
+	 * Sorts the input up to the final merge and returns that merge as an iterator, which must be closed.
+	 */
+	public SortedRecords sorted(Path input) throws IOException {
+		return sortToIterator(tempFolder -> input.toString());
+	}
+
+	public SortedRecords sorted(InputStream input) throws IOException {
+		return sortToIterator(tempFolder -> copyToFile(input, tempFolder));
+	}
+
+	public SortedRecords sorted(Iterator<? extends List<String>> records) throws IOException {
+		return sortToIterator(tempFolder -> writeToFile(records, tempFolder));
+	}
+
+	private void sortToFile(Input input, Path output) throws IOException {
+		try (Sort sort = new Sort(input)) {
+			sort.args.outputFileName = output.toAbsolutePath().toString();
+			sort.fileSorter.sortFile(sort.args);
+		}
+	}
+
+	private void sortToStream(Input input, OutputStream output) throws IOException {
+		try (Sort sort = new Sort(input)) {
+			if (sort.args.algorithm == SortAlgorithm.SAMPLE) {
+				// The sample sort writes its buckets at their offsets in a file
+				sort.args.outputFileName = new File(sort.tempFolder, "output.csv").getAbsolutePath();
+				sort.fileSorter.sortFile(sort.args);
+				Files.copy(Paths.get(sort.args.outputFileName), output);
+			} else {
+				OutputStream buffered = new BufferedOutputStream(output, sort.args.writeBufferSize);
+				try (SortedRecordIterator records = sort.openSortedRecords()) {
+					records.writeCsv(buffered, LINE_SEPARATOR);
+				}
+				buffered.flush();
+				sort.writeReport();
+			}
+		}
+	}
+
+	private SortedRecords sortToIterator(Input input) throws IOException {
+		Sort sort = new Sort(input);
+		try {
+			return new SortedRecords(sort, sort.openSortedRecords());
+		} catch (IOException | RuntimeException e) {
+			sort.close();
+			throw e;
+		}
+	}
+
+	private String copyToFile(InputStream input, File tempFolder) throws IOException {
+		Path inputFile = new File(tempFolder, "input.csv").toPath();
+		Files.copy(input, inputFile);
+		return inputFile.toString();
+	}
+
+	private String writeToFile(Iterator<? extends List<String>> records, File tempFolder) throws IOException {
+		String inputFileName = new File(tempFolder, "input.csv").getPath();
+		fileUtil.writeRecordsToCsvFile(records, inputFileName, newArgs().inputParser);
+		return inputFileName;
+	}
+
+	private FileSorterArgs newArgs() {
+		FileSorterArgs args = new FileSorterArgs();
+		args.keyFieldIndex = keyFieldIndex;
+		args.maxRecordsInMemory = maxRecordsInMemory;
+		args.numThreads = threads;
+		args.mergeParallelism = threads;
+		args.sortKey = SortKey.singleField(keyFieldIndex);
+		args.messages = messages;
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			args.setOption(option.getKey(), option.getValue());
+		}
+		return args;
+	}
+
+	private interface Input {
+		/**
+		 * Returns the name of the input file, writing it to the temp folder first if the input is not a file.
+		 */
+		String prepare(File tempFolder) throws IOException;
+	}
+
+	/**
+	 * One sort: its arguments, temp folders and sorter with its thread pools, all released on close.
+	 */
+	private class Sort implements Closeable {
+		private final List<File> tempFolders;
+		private final File tempFolder;
+		private final FileSorterArgs args;
+		private final FileSorter fileSorter;
+
+		Sort(Input input) throws IOException {
+			args = newArgs();
+			tempFolders = fileUtil.createTempFolders(args, tempDirectory);
+			tempFolder = tempFolders.get(0);
+			fileSorter = new FileSorter(fileUtil);
+			try {
+				args.inputFileName = input.prepare(tempFolder);
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		SortedRecordIterator openSortedRecords() throws IOException {
+			try {
+				return fileSorter.openSortedRecords(args);
+			} catch (CsvValidationException e) {
+				throw new IOException(e);
+			}
+		}
+
+		void writeReport() throws IOException {
+			if (args.reportFileName != null) {
+				fileSorter.getMetrics().writeReport(args, args.reportFileName);
+			}
+		}
+
+		@Override
+		public void close() {
+			fileSorter.shutdown();
+			tempFolders.forEach(fileUtil::deleteFolder);
+		}
+	}
+
+	/**
+	 * The sorted records of a sort, merged as they are read. Closing it removes the temp folder of the sort.
+	 */
+	public static final class SortedRecords implements Iterator<List<String>>, Closeable {
+		private final Sort sort;
+		private final SortedRecordIterator records;
+
+		private SortedRecords(Sort sort, SortedRecordIterator records) {
+			this.sort = sort;
+			this.records = records;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return records.hasNext();
+		}
+
+		@Override
+		public List<String> next() {
+			return records.next();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				records.close();
+				sort.writeReport();
+			} finally {
+				sort.close();
+			}
+		}
+	}
+
+	public static final class Builder {
+		private int keyFieldIndex;
+		private int threads = Runtime.getRuntime().availableProcessors();
+		private int maxRecordsInMemory = Integer.MAX_VALUE;
+		private Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+		private final Map<String, String> options = new LinkedHashMap<>();
+		private Consumer<String> messages = message -> {
+		};
+
+		private Builder() {
+			options.put("--memory", "25%");
+		}
+
+		/**
+		 * Sorts by the column as a string, see {@link #key(String)} for typed and compound keys.
+		 */
+		public Builder keyField(int keyFieldIndex) {
+			this.keyFieldIndex = keyFieldIndex;
+			options.remove("--key");
+			return this;
+		}
+
+		/**
+		 * Sorts by the columns of a {@code --key} spec, e.g. {@code 3:int:desc,0}.
+		 */
+		public Builder key(String key) {
+			return option("--key", key);
+		}
+
+		public Builder threads(int threads) {
+			if (threads < 1) {
+				throw new IllegalArgumentException("threads must be at least 1");
+			}
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * Caps the records sorted in memory at once, none by default.
+		 */
+		public Builder maxRecordsInMemory(int maxRecordsInMemory) {
+			if (maxRecordsInMemory < 2) {
+				throw new IllegalArgumentException("maxRecordsInMemory must be at least 2");
+			}
+			this.maxRecordsInMemory = maxRecordsInMemory;
+			return this;
+		}
+
+		/**
+		 * The heap the sort may hold records in, as for {@code --memory}. Defaults to {@code 25%}.
+		 */
+		public Builder memory(String memory) {
+			return option("--memory", memory);
+		}
+
+		/**
+		 * The folder the temp folders of the sorts are created in. Defaults to {@code java.io.tmpdir}. The
+		 * {@code --temp-dirs} option replaces it with several folders the runs are spread over.
+		 */
+		public Builder tempDirectory(Path tempDirectory) {
+			this.tempDirectory = tempDirectory;
+			return this;
+		}
+
+		/**
+		 * Receives the lines a sort reports, as the command line prints them: the merge plan, the summary of every
+		 * phase and, with {@code --progress}, its progress. Sorts report nothing by default.
+		 */
+		public Builder messages(Consumer<String> messages) {
+			this.messages = messages;
+			return this;
+		}
+
+		/**
+		 * Sets any other command line option, e.g. {@code option("--fan-in", "16")}.
+		 */
+		public Builder option(String name, String value) {
+			options.put(name, value);
+			return this;
+		}
+
+		/**
+		 * Builds the sorter, failing on options that do not parse.
+		 */
+		public CsvSorter build() {
+			CsvSorter sorter = new CsvSorter(this);
+			sorter.newArgs();
+			return sorter;
+		}
+	}
+}
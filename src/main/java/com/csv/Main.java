@@ -5,19 +5,24 @@ import com.csv.service.FileSorter;
 import com.csv.util.FileUtil;
 
 import java.io.File;
+import java.util.List;
 
 public class Main {
-	public static File tempFolder;
 
 	public static void main(String[] args) {
 		FileUtil fileUtil = new FileUtil();
-		tempFolder = fileUtil.createTempFolder();
-
 		FileSorterArgs fileSorterArgs = new FileSorterArgs(args);
-		FileSorter fileSorter = new FileSorter(fileUtil);
-		fileSorter.externalMergeSortFile(fileSorterArgs);
+		fileSorterArgs.messages = System.out::println;
+		fileSorterArgs.resetPeakHeap = true;
+		List<File> tempFolders = fileUtil.createTempFolders(fileSorterArgs, new File(System.getProperty("user.dir")));
 
-		fileUtil.deleteFolder(tempFolder);
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		try {
+			fileSorter.sortFile(fileSorterArgs);
+		} finally {
+			fileSorter.shutdown();
+			tempFolders.forEach(fileUtil::deleteFolder);
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,26 @@
+package com.csv.config;
+
+/**
+ * How the chunks of run generation are held in memory while they are sorted.
+ */
+public enum ChunkFormat {
+	/**
+	 * A list of records, one list of Strings per row.
+	 */
+	RECORDS,
+	/**
+	 * A {@link com.csv.io.RecordArena}: the rows as bytes in pooled slabs, sorted through a primitive index.
+	 */
+	ARENA;
+
+	public static ChunkFormat fromName(String name) {
+		switch (name) {
+			case "records":
+				return RECORDS;
+			case "arena":
+				return ARENA;
+			default:
+				throw new IllegalArgumentException("Unknown chunk format " + name);
+		}
+	}
+}
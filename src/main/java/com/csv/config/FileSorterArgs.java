@@ -1,24 +1,331 @@
 package com.csv.config;
 
+import com.csv.io.NoneCodec;
+import com.csv.io.SpillCodec;
+import com.csv.key.SortKey;
+import com.csv.reduce.RecordReducer;
+import com.csv.util.SpillFolders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
 public class FileSorterArgs {
+	// Descriptors of maxOpenFiles kept free for the input file, the JVM and the OS
+	public static final int RESERVED_FILES = 16;
+	// Descriptors of a merge of two runs into one output file, the narrowest merge there is
+	private static final int FILES_PER_NARROWEST_MERGE = 3;
 	public int keyFieldIndex;
 	public int maxRecordsInMemory;
 	public String inputFileName;
 	public String outputFileName;
 	public int numThreads;
 	public String tempFolder;
+	// Folders the temp folders of the sort are created in, one each, none for a single one in the default place
+	public List<String> tempDirs = new ArrayList<>();
+	public TempPlacement tempPlacement = TempPlacement.ROUND_ROBIN;
+	// The temp folders the runs are spread over, null when the sort has only its temp folder
+	public SpillFolders spillFolders;
+	// Runs the I/O threads of reads ahead, writes behind and spills on virtual threads where the JDK has them
+	public boolean virtualIoThreads;
+	public int mergeParallelism;
+	public int fanIn = 64;
+	public int maxOpenFiles = 1024;
+	public long mergeMemory = 64L * 1024 * 1024;
+	public int readBufferSize = 64 * 1024;
+	public int writeBufferSize = 512 * 1024;
+	public SpillCodec spillCodec = NoneCodec.INSTANCE;
+	public MergeEngine mergeEngine = MergeEngine.LOSER_TREE;
+	public RunGeneration runGeneration = RunGeneration.CHUNK;
+	public ChunkFormat chunkFormat = ChunkFormat.RECORDS;
+	// Codes the low-cardinality columns of the input while runs are generated by chunks
+	public boolean dictionaryEncoding;
+	public InputParser inputParser = InputParser.OPENCSV;
+	public SortAlgorithm algorithm = SortAlgorithm.MERGE;
+	// Heap bytes the chunks of run generation may hold in total, 0 to cut chunks by record count only
+	public long memoryBudget;
+	// Records of the sorted output written, -1 for all, after skipping the first offset records
+	public long limit = -1;
+	public long offset;
+	// Folds the records of equal keys into one, null to keep them all
+	public RecordReducer reducer;
+	// Sorted file the sorted input is merged into, the output then holding both, null for a sort of the input alone
+	public String incrementalFileName;
+	// Interval of the progress output, 0 for none
+	public long progressIntervalMillis;
+	// Receives the lines the sort reports, its merge plan, phase summaries and progress; none by default, the
+	// command line prints them
+	public Consumer<String> messages = message -> {
+	};
+	// Resets the process-wide heap peaks as every phase starts, for a sort that runs alone in its JVM as on the
+	// command line; concurrent sorts leave them alone and report the peak of the process
+	public boolean resetPeakHeap;
+	// JSON report of the phases written once the sort is done, none if null
+	public String reportFileName;
+	// Columns the records are ordered by, the key field compared as a string unless --key says otherwise
+	public SortKey sortKey;
+
+	/**
+	 * Arguments to be filled in by code rather than parsed, with the defaults of the options set. The caller sets the
+	 * input, output, temp folder, thread count and limits, as {@link com.csv.CsvSorter} does.
+	 */
+	public FileSorterArgs() {
+	}
 
 	public FileSorterArgs(String[] args) {
 		keyFieldIndex = Integer.parseInt(args[0]);
 		maxRecordsInMemory = Integer.parseInt(args[1]);
-		if (maxRecordsInMemory < 2) {
-			throw new IllegalArgumentException("maxRecordsInMemory must be at least 2");
-		}
 		inputFileName = args[2];
 		outputFileName = args[3];
 		numThreads = Integer.parseInt(args[4]);
 		if (numThreads < 1) {
 			throw new IllegalArgumentException("numThreads must be at least 1");
 		}
+		mergeParallelism = numThreads;
+		sortKey = SortKey.singleField(keyFieldIndex);
+		parseOptions(args);
+		// With a memory budget the record count is an optional cap, 0 turns it off
+		if (maxRecordsInMemory == 0 && memoryBudget > 0) {
+			maxRecordsInMemory = Integer.MAX_VALUE;
+		}
+		if (maxRecordsInMemory < 2) {
+			throw new IllegalArgumentException("maxRecordsInMemory must be at least 2");
+		}
+	}
+
+	private void parseOptions(String[] args) {
+		for (int i = 5; i < args.length; i += 2) {
+			String option = args[i];
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for option " + option);
+			}
+			setOption(option, args[i + 1]);
+		}
+	}
+
+	/**
+	 * Sets the option named as on the command line, e.g. {@code setOption("--fan-in", "16")}.
+	 */
+	public void setOption(String option, String value) {
+		switch (option) {
+			case "--merge-parallelism":
+				mergeParallelism = Integer.parseInt(value);
+				if (mergeParallelism < 1) {
+					throw new IllegalArgumentException("mergeParallelism must be at least 1");
+				}
+				break;
+			case "--fan-in":
+				fanIn = Integer.parseInt(value);
+				if (fanIn < 2) {
+					throw new IllegalArgumentException("fanIn must be at least 2");
+				}
+				break;
+			case "--max-open-files":
+				maxOpenFiles = Integer.parseInt(value);
+				int minOpenFiles = RESERVED_FILES + mergeParallelism * FILES_PER_NARROWEST_MERGE;
+				if (maxOpenFiles < minOpenFiles) {
+					throw new IllegalArgumentException("maxOpenFiles must be at least " + minOpenFiles + " for "
+							+ mergeParallelism + " merges of two runs at once");
+				}
+				break;
+			case "--merge-memory":
+				mergeMemory = parseSize(value);
+				break;
+			case "--read-buffer":
+				readBufferSize = parseBufferSize(value);
+				break;
+			case "--write-buffer":
+				writeBufferSize = parseBufferSize(value);
+				break;
+			case "--spill-codec":
+				spillCodec = SpillCodec.forName(value);
+				break;
+			case "--memory":
+				memoryBudget = parseMemory(value);
+				break;
+			case "--run-generation":
+				runGeneration = RunGeneration.fromName(value);
+				break;
+			case "--chunk-format":
+				chunkFormat = ChunkFormat.fromName(value);
+				break;
+			case "--dictionary":
+				dictionaryEncoding = parseDictionary(value);
+				break;
+			case "--merge-engine":
+				mergeEngine = MergeEngine.fromName(value);
+				break;
+			case "--parser":
+				inputParser = InputParser.fromName(value);
+				break;
+			case "--algorithm":
+				algorithm = SortAlgorithm.fromName(value);
+				break;
+			case "--limit":
+				limit = Long.parseLong(value);
+				if (limit < 0) {
+					throw new IllegalArgumentException("limit must not be negative");
+				}
+				break;
+			case "--offset":
+				offset = Long.parseLong(value);
+				if (offset < 0) {
+					throw new IllegalArgumentException("offset must not be negative");
+				}
+				break;
+			case "--dedup":
+				setReducer(RecordReducer.forDedup(value));
+				break;
+			case "--aggregate":
+				setReducer(RecordReducer.forAggregates(value));
+				break;
+			case "--incremental":
+				incrementalFileName = value;
+				break;
+			case "--progress":
+				progressIntervalMillis = (long) (Double.parseDouble(value) * 1000);
+				if (progressIntervalMillis < 0) {
+					throw new IllegalArgumentException("progress interval must not be negative");
+				}
+				break;
+			case "--temp-dirs":
+				tempDirs = new ArrayList<>(Arrays.asList(value.split(",")));
+				break;
+			case "--temp-placement":
+				tempPlacement = TempPlacement.fromName(value);
+				break;
+			case "--io-threads":
+				virtualIoThreads = parseIoThreads(value);
+				break;
+			case "--report":
+				reportFileName = value;
+				break;
+			case "--key":
+				sortKey = SortKey.parse(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+		}
+		checkReducer();
+	}
+
+	private static boolean parseDictionary(String value) {
+		switch (value) {
+			case "auto":
+				return true;
+			case "off":
+				return false;
+			default:
+				throw new IllegalArgumentException("Unknown dictionary mode " + value);
+		}
+	}
+
+	private static boolean parseIoThreads(String value) {
+		switch (value) {
+			case "virtual":
+				return true;
+			case "platform":
+				return false;
+			default:
+				throw new IllegalArgumentException("Unknown I/O threads " + value);
+		}
+	}
+
+	private void setReducer(RecordReducer reducer) {
+		if (this.reducer != null) {
+			throw new IllegalArgumentException("Only one of --dedup and --aggregate may be given");
+		}
+		this.reducer = reducer;
+	}
+
+	/**
+	 * Rejects the options a {@link #reducer} cannot run with. Equal keys are folded while chunks of records are sorted,
+	 * and only the merge algorithm keeps the first record of a key first.
+	 */
+	public void checkReducer() {
+		if (reducer == null) {
+			return;
+		}
+		if (algorithm == SortAlgorithm.SAMPLE) {
+			throw new IllegalArgumentException("--dedup and --aggregate cannot be combined with --algorithm sample");
+		}
+		if (runGeneration != RunGeneration.CHUNK) {
+			throw new IllegalArgumentException("--dedup and --aggregate need --run-generation chunk");
+		}
+		if (chunkFormat == ChunkFormat.ARENA) {
+			throw new IllegalArgumentException("--dedup and --aggregate cannot be combined with --chunk-format arena");
+		}
+	}
+
+	/**
+	 * Whether merges time their key comparisons, which costs two clock reads per record, so only when a report or the
+	 * progress output asks for the figures of the sort.
+	 */
+	public boolean timesMerges() {
+		return reportFileName != null || progressIntervalMillis > 0;
+	}
+
+	/**
+	 * Whether only a window of the sorted output is written, see {@link #limit} and {@link #offset}.
+	 */
+	public boolean isLimited() {
+		return limit >= 0 || offset > 0;
+	}
+
+	/**
+	 * The number of leading sorted records the output window needs, offset and limit together, or
+	 * {@link Long#MAX_VALUE} without a limit.
+	 */
+	public long recordsNeeded() {
+		return limit < 0 ? Long.MAX_VALUE : offset + limit;
+	}
+
+	/**
+	 * Parses a byte count, or a share of the maximum heap written as {@code 0.5} or {@code 50%}.
+	 */
+	static long parseMemory(String value) {
+		String memory = value.trim();
+		double fraction;
+		if (memory.endsWith("%")) {
+			fraction = Double.parseDouble(memory.substring(0, memory.length() - 1)) / 100;
+		} else if (memory.contains(".")) {
+			fraction = Double.parseDouble(memory);
+		} else {
+			return parseSize(memory);
+		}
+		if (fraction <= 0 || fraction > 1) {
+			throw new IllegalArgumentException("Memory fraction must be in (0, 1]: " + value);
+		}
+		return (long) (Runtime.getRuntime().maxMemory() * fraction);
+	}
+
+	/**
+	 * Parses a buffer size as {@link #parseSize(String)} does, rejecting the sizes an array cannot have.
+	 */
+	private static int parseBufferSize(String value) {
+		long bytes = parseSize(value);
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Buffer size must be below 2g: " + value);
+		}
+		return (int) bytes;
+	}
+
+	/**
+	 * Parses a byte count such as {@code 65536}, {@code 512k}, {@code 64m} or {@code 2g}.
+	 */
+	static long parseSize(String value) {
+		String size = value.trim().toLowerCase();
+		long multiplier = 1;
+		char unit = size.charAt(size.length() - 1);
+		if (unit == 'k' || unit == 'm' || unit == 'g') {
+			multiplier = unit == 'k' ? 1024L : unit == 'm' ? 1024L * 1024 : 1024L * 1024 * 1024;
+			size = size.substring(0, size.length() - 1);
+		}
+		long bytes = Long.parseLong(size) * multiplier;
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("Size must be positive: " + value);
+		}
+		return bytes;
 	}
 }
@@ -0,0 +1,27 @@
+package com.csv.config;
+
+/**
+ * How the input CSV is tokenized during run generation.
+ */
+public enum InputParser {
+	/**
+	 * OpenCSV over a {@link java.io.FileReader}: every field becomes a String. Also accepts backslash escapes.
+	 */
+	OPENCSV,
+	/**
+	 * {@link com.csv.io.MappedCsvReader}: scans the memory-mapped bytes, copies each row once into its run payload and
+	 * only decodes the key fields. Strict RFC 4180 quoting.
+	 */
+	MMAP;
+
+	public static InputParser fromName(String name) {
+		switch (name) {
+			case "opencsv":
+				return OPENCSV;
+			case "mmap":
+				return MMAP;
+			default:
+				throw new IllegalArgumentException("Unknown parser " + name);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.csv.config;
+
+/**
+ * How a merge picks the next record among its runs.
+ */
+public enum MergeEngine {
+	/**
+	 * A binary heap, one poll and one re-insert per record, about 2·log k comparisons.
+	 */
+	HEAP,
+	/**
+	 * A tournament tree of losers, one leaf-to-root replay per record, about log k comparisons.
+	 */
+	LOSER_TREE;
+
+	public static MergeEngine fromName(String name) {
+		return valueOf(name.toUpperCase().replace('-', '_'));
+	}
+}
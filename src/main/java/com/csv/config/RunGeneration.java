@@ -0,0 +1,35 @@
+package com.csv.config;
+
+/**
+ * How the input is cut into the sorted runs that are later merged.
+ */
+public enum RunGeneration {
+	/**
+	 * Fills memory, sorts it and spills it, runs are as long as a chunk. Sorting is spread over the worker threads.
+	 */
+	CHUNK,
+	/**
+	 * Replacement selection: a heap of the memory size keeps emitting the smallest record that can still extend the
+	 * current run. Runs are about twice the memory size on random input, and a presorted input becomes one run.
+	 */
+	REPLACEMENT_SELECTION,
+	/**
+	 * Chunks as with {@link #CHUNK}, but a chunk read in order is not sorted: it starts a natural run that takes the
+	 * following records for as long as they stay in order. A presorted input becomes one run written in one pass.
+	 */
+	NATURAL;
+
+	public static RunGeneration fromName(String name) {
+		switch (name) {
+			case "chunk":
+				return CHUNK;
+			case "replacement":
+			case "replacement-selection":
+				return REPLACEMENT_SELECTION;
+			case "natural":
+				return NATURAL;
+			default:
+				throw new IllegalArgumentException("Unknown run generation " + name);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.csv.config;
+
+/**
+ * How the input is sorted once it does not fit in memory.
+ */
+public enum SortAlgorithm {
+	/**
+	 * Sorted runs are generated and merged, see {@link RunGeneration} and {@link MergeEngine}.
+	 */
+	MERGE,
+	/**
+	 * Sample sort: splitter keys from a sample of the input distribute the records into buckets that are sorted
+	 * independently and written to their place in the output, with no merge.
+	 */
+	SAMPLE;
+
+	public static SortAlgorithm fromName(String name) {
+		switch (name) {
+			case "merge":
+				return MERGE;
+			case "sample":
+				return SAMPLE;
+			default:
+				throw new IllegalArgumentException("Unknown sort algorithm " + name);
+		}
+	}
+}
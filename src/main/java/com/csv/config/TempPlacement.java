@@ -0,0 +1,26 @@
+package com.csv.config;
+
+/**
+ * How the runs of a sort are spread over the folders given with {@code --temp-dirs}.
+ */
+public enum TempPlacement {
+	/**
+	 * Every new run goes to the next folder in turn.
+	 */
+	ROUND_ROBIN,
+	/**
+	 * Every new run goes to the folder whose file system has the most usable space at the time.
+	 */
+	FREE_SPACE;
+
+	public static TempPlacement fromName(String name) {
+		switch (name) {
+			case "round-robin":
+				return ROUND_ROBIN;
+			case "free-space":
+				return FREE_SPACE;
+			default:
+				throw new IllegalArgumentException("Unknown temp placement " + name);
+		}
+	}
+}
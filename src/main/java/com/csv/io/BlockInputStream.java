@@ -0,0 +1,159 @@
+package com.csv.io;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the blocks written by {@link BlockOutputStream}. When given an executor, the next block is read and
+ * decompressed in the background while the current one is consumed.
+ */
+class BlockInputStream extends InputStream {
+	private final DataInputStream in;
+	// Used by one block read at a time, like the stored buffer
+	private final SpillCodec.Decompressor decompressor;
+	private final SpillStats stats;
+	private final ExecutorService readAheadExecutor;
+	private Block current = new Block(new byte[0], 0);
+	private int position;
+	private Future<Block> nextBlock;
+	private Block spare;
+	// Only one block is read at a time, so the compressed bytes always go through the same buffer
+	private byte[] stored = new byte[0];
+	private boolean endOfStream;
+
+	BlockInputStream(InputStream in, SpillCodec codec, SpillStats stats, ExecutorService readAheadExecutor) {
+		this.in = new DataInputStream(in);
+		this.decompressor = codec.newDecompressor();
+		this.stats = stats;
+		this.readAheadExecutor = readAheadExecutor;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == current.length && !advance()) {
+			return -1;
+		}
+		return current.bytes[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (position == current.length && !advance()) {
+			return -1;
+		}
+		int copied = Math.min(length, current.length - position);
+		System.arraycopy(current.bytes, position, bytes, offset, copied);
+		position += copied;
+		return copied;
+	}
+
+	private boolean advance() throws IOException {
+		if (endOfStream) {
+			return false;
+		}
+		Block consumed = current;
+		long waitStart = System.nanoTime();
+		current = nextBlock != null ? await(nextBlock) : readBlock(spare);
+		if (stats != null) {
+			stats.recordIoWait(System.nanoTime() - waitStart);
+		}
+		nextBlock = null;
+		spare = consumed;
+		position = 0;
+		if (current == null) {
+			endOfStream = true;
+			current = consumed;
+			position = consumed.length;
+			return false;
+		}
+		if (readAheadExecutor != null) {
+			Block reusable = spare;
+			spare = null;
+			nextBlock = readAheadExecutor.submit((Callable<Block>) () -> readBlock(reusable));
+		}
+		return true;
+	}
+
+	/**
+	 * Reads and decompresses the next block into {@code reusable} if it is large enough, returns null at the end.
+	 */
+	private Block readBlock(Block reusable) throws IOException {
+		int rawLength = in.readInt();
+		int storedLength = in.readInt();
+		if (rawLength == 0) {
+			return null;
+		}
+		if (rawLength < 0 || storedLength < 0 || storedLength > rawLength) {
+			throw new IOException("Corrupt block header: " + rawLength + "/" + storedLength);
+		}
+		if (stats != null) {
+			stats.recordRead(8 + storedLength);
+		}
+		Block block = reusable != null && reusable.bytes.length >= rawLength ? reusable : new Block(new byte[rawLength], 0);
+		block.length = rawLength;
+		if (storedLength == rawLength) {
+			in.readFully(block.bytes, 0, rawLength);
+			return block;
+		}
+		if (stored.length < storedLength) {
+			stored = new byte[storedLength];
+		}
+		in.readFully(stored, 0, storedLength);
+		long start = SpillStats.cpuTimeNanos();
+		decompressor.decompress(stored, storedLength, block.bytes, rawLength);
+		if (stats != null) {
+			stats.recordDecompression(SpillStats.cpuTimeNanos() - start);
+		}
+		return block;
+	}
+
+	private Block await(Future<Block> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading ahead", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (nextBlock != null) {
+			try {
+				await(nextBlock);
+			} catch (IOException | RuntimeException ignored) {
+				// The block is discarded, only the file needs closing
+			} finally {
+				nextBlock = null;
+			}
+		}
+		try {
+			in.close();
+		} finally {
+			decompressor.close();
+		}
+	}
+
+	private static class Block {
+		private final byte[] bytes;
+		private int length;
+
+		private Block(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+	}
+}
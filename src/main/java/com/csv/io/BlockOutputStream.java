@@ -0,0 +1,142 @@
+package com.csv.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Cuts a stream into blocks and compresses each one with a {@link SpillCodec}. Every block is written as
+ * {@code int rawLength, int storedLength, bytes}, a block that does not shrink is stored raw, which readers detect
+ * from {@code storedLength == rawLength}. A zero-length block ends the stream.
+ */
+class BlockOutputStream extends OutputStream {
+	static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	private final DataOutputStream out;
+	private final SpillCodec codec;
+	private final SpillCodec.Compressor compressor;
+	private final SpillStats stats;
+	private final byte[] block;
+	private final byte[] compressed;
+	private int blockLength;
+	// Bytes written to the underlying stream so far
+	private long bytesWritten;
+	private boolean finished;
+	private boolean closed;
+
+	BlockOutputStream(OutputStream out, SpillCodec codec, SpillStats stats, int blockSize) {
+		this.out = new DataOutputStream(out);
+		this.codec = codec;
+		this.compressor = codec.newCompressor();
+		this.stats = stats;
+		this.block = new byte[blockSize];
+		this.compressed = new byte[codec.maxCompressedLength(blockSize)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (blockLength == block.length) {
+			writeBlock();
+		}
+		block[blockLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (blockLength == block.length) {
+				writeBlock();
+			}
+			int copied = Math.min(length, block.length - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, copied);
+			blockLength += copied;
+			offset += copied;
+			length -= copied;
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (blockLength == 0) {
+			return;
+		}
+		long start = SpillStats.cpuTimeNanos();
+		int compressedLength = codec.getId() == NoneCodec.ID ? blockLength : compressor.compress(block, blockLength, compressed);
+		long cpuNanos = SpillStats.cpuTimeNanos() - start;
+		long writeStart = System.nanoTime();
+		out.writeInt(blockLength);
+		if (compressedLength < blockLength) {
+			out.writeInt(compressedLength);
+			out.write(compressed, 0, compressedLength);
+		} else {
+			compressedLength = blockLength;
+			out.writeInt(blockLength);
+			out.write(block, 0, blockLength);
+		}
+		if (stats != null) {
+			stats.recordIoWait(System.nanoTime() - writeStart);
+			stats.recordCompression(blockLength, compressedLength, cpuNanos);
+		}
+		bytesWritten += 8 + compressedLength;
+		blockLength = 0;
+	}
+
+	/**
+	 * Writes the current block out if it is full, so the next byte written is the first one of a new block.
+	 */
+	void writeBlockIfFull() throws IOException {
+		if (blockLength == block.length) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Offset in the underlying stream at which the current block will be written.
+	 */
+	long getBlockOffset() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Bytes already in the current block, the offset within the block of the next byte written.
+	 */
+	int getBlockLength() {
+		return blockLength;
+	}
+
+	/**
+	 * Writes the pending block and the end-of-stream marker without closing the underlying stream.
+	 */
+	void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		writeBlock();
+		out.writeInt(0);
+		out.writeInt(0);
+		bytesWritten += 8;
+	}
+
+	/**
+	 * Releases the compressor once the stream is finished, for a caller that closes the underlying stream itself.
+	 */
+	void release() {
+		compressor.close();
+	}
+
+	/**
+	 * Writes the pending block and the end-of-stream marker, and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			finish();
+		} finally {
+			release();
+			out.close();
+		}
+	}
+}
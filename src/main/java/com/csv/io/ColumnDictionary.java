@@ -0,0 +1,226 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Codes for the values of the low-cardinality columns of an input, found from a sample of its first records. A
+ * payload coded with the dictionary (see {@link RunFormat}) holds a small number in place of every value of a coded
+ * column that the dictionary knows, so records repeating the same few values take a fraction of their size in memory
+ * and in run files, and key fields decode to one shared String. The values of every column are kept in sorted order,
+ * so codes order like the values they stand for. Every run file carries the dictionary it was written with, and
+ * runs of the same sort share its id, which lets merges copy coded payloads as they are.
+ */
+public final class ColumnDictionary {
+	// Most values a column may have to be coded, so that codes take at most two bytes
+	public static final int MAX_VALUES = 4096;
+	// A column is coded when its values repeat this many times on average in the sample
+	private static final int MIN_REPEATS = 4;
+	private final long id;
+	// Per column the sorted values, null for a column that is not coded
+	private final String[][] values;
+	private final byte[][][] valueBytes;
+	// Per coded column an open addressing table of code + 1 by the hash of the value bytes
+	private final int[][] slots;
+
+	private ColumnDictionary(long id, String[][] values) {
+		this.id = id;
+		this.values = values;
+		this.valueBytes = new byte[values.length][][];
+		this.slots = new int[values.length][];
+		for (int column = 0; column < values.length; column++) {
+			if (values[column] == null) {
+				continue;
+			}
+			valueBytes[column] = new byte[values[column].length][];
+			slots[column] = new int[Integer.highestOneBit(4 * values[column].length - 1) << 1];
+			for (int code = 0; code < values[column].length; code++) {
+				byte[] bytes = values[column][code].getBytes(StandardCharsets.UTF_8);
+				valueBytes[column][code] = bytes;
+				int[] table = slots[column];
+				int slot = hash(bytes, 0, bytes.length) & (table.length - 1);
+				while (table[slot] != 0) {
+					slot = (slot + 1) & (table.length - 1);
+				}
+				table[slot] = code + 1;
+			}
+		}
+	}
+
+	/**
+	 * Reads up to {@code sampleSize} records and codes every column with at most {@link #MAX_VALUES} distinct values
+	 * that repeat enough to be worth it. Returns null when no column qualifies.
+	 */
+	public static ColumnDictionary sample(RecordReader reader, int sampleSize) throws IOException, CsvValidationException {
+		List<Set<String>> distinct = new ArrayList<>();
+		int sampled = 0;
+		List<String> record;
+		while (sampled < sampleSize && (record = reader.readRecord()) != null) {
+			for (int column = 0; column < record.size(); column++) {
+				if (column == distinct.size()) {
+					// Columns missing from the records before are not coded
+					distinct.add(sampled == 0 ? new HashSet<>() : null);
+				}
+				Set<String> columnValues = distinct.get(column);
+				if (columnValues != null && columnValues.add(record.get(column)) && columnValues.size() > MAX_VALUES) {
+					distinct.set(column, null);
+				}
+			}
+			sampled++;
+		}
+		String[][] values = new String[distinct.size()][];
+		boolean anyCoded = false;
+		for (int column = 0; column < values.length; column++) {
+			Set<String> columnValues = distinct.get(column);
+			if (columnValues != null && (long) columnValues.size() * MIN_REPEATS <= sampled) {
+				values[column] = sortedByBytes(columnValues);
+				anyCoded = true;
+			}
+		}
+		return anyCoded ? new ColumnDictionary(new Random().nextLong(), values) : null;
+	}
+
+	/**
+	 * Sorts values in the order of their UTF-8 bytes, which is the code point order string keys are sorted in.
+	 */
+	private static String[] sortedByBytes(Set<String> values) {
+		String[] sorted = values.toArray(new String[0]);
+		Arrays.sort(sorted, (a, b) -> {
+			byte[] aBytes = a.getBytes(StandardCharsets.UTF_8);
+			byte[] bBytes = b.getBytes(StandardCharsets.UTF_8);
+			return SortKey.compare(aBytes, bBytes);
+		});
+		return sorted;
+	}
+
+	/**
+	 * The records of {@code reader} as payload records coded with this dictionary.
+	 */
+	public RecordReader coding(RecordReader reader) {
+		return new RecordReader() {
+			@Override
+			public List<String> readRecord() throws IOException, CsvValidationException {
+				List<String> record = reader.readRecord();
+				return record == null ? null : PayloadRecord.of(record, ColumnDictionary.this);
+			}
+
+			@Override
+			public long getBytesRead() {
+				return reader.getBytesRead();
+			}
+
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	boolean isCoded(int column) {
+		return column < values.length && values[column] != null;
+	}
+
+	/**
+	 * The code of a value of a coded column, -1 if the dictionary does not know it.
+	 */
+	int code(int column, byte[] bytes, int offset, int length) {
+		int[] table = slots[column];
+		byte[][] columnBytes = valueBytes[column];
+		for (int slot = hash(bytes, offset, length) & (table.length - 1); table[slot] != 0;
+			 slot = (slot + 1) & (table.length - 1)) {
+			byte[] candidate = columnBytes[table[slot] - 1];
+			if (candidate.length == length && regionEquals(candidate, bytes, offset)) {
+				return table[slot] - 1;
+			}
+		}
+		return -1;
+	}
+
+	String value(int column, int code) {
+		return values[column][code];
+	}
+
+	byte[] valueBytes(int column, int code) {
+		return valueBytes[column][code];
+	}
+
+	/**
+	 * The coded columns with their number of values, e.g. {@code 1 (120 values), 4 (3 values)}.
+	 */
+	public String describe() {
+		StringBuilder description = new StringBuilder();
+		for (int column = 0; column < values.length; column++) {
+			if (values[column] != null) {
+				if (description.length() > 0) {
+					description.append(", ");
+				}
+				description.append(column).append(" (").append(values[column].length).append(" values)");
+			}
+		}
+		return description.toString();
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(id);
+		RunFormat.writeVarInt(out, values.length);
+		for (byte[][] column : valueBytes) {
+			RunFormat.writeVarInt(out, column == null ? 0 : column.length + 1);
+			if (column != null) {
+				for (byte[] value : column) {
+					RunFormat.writeVarInt(out, value.length);
+					out.write(value);
+				}
+			}
+		}
+	}
+
+	static ColumnDictionary read(DataInput in) throws IOException {
+		long id = in.readLong();
+		String[][] values = new String[RunFormat.readVarInt(in)][];
+		for (int column = 0; column < values.length; column++) {
+			int count = RunFormat.readVarInt(in) - 1;
+			if (count < 0) {
+				continue;
+			}
+			values[column] = new String[count];
+			for (int code = 0; code < count; code++) {
+				byte[] value = new byte[RunFormat.readVarInt(in)];
+				in.readFully(value);
+				values[column][code] = new String(value, StandardCharsets.UTF_8);
+			}
+		}
+		return new ColumnDictionary(id, values);
+	}
+
+	private static boolean regionEquals(byte[] value, byte[] bytes, int offset) {
+		for (int i = 0; i < value.length; i++) {
+			if (value[i] != bytes[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(byte[] bytes, int offset, int length) {
+		int hash = 1;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+}
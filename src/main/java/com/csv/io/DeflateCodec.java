@@ -0,0 +1,90 @@
+package com.csv.io;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * JDK deflate at its fastest level. Deflaters hold native memory, so every stream reuses one of its own for all its
+ * blocks and ends it when the stream is closed.
+ */
+public final class DeflateCodec implements SpillCodec {
+	public static final String NAME = "deflate";
+	public static final byte ID = 1;
+	public static final DeflateCodec INSTANCE = new DeflateCodec();
+
+	private DeflateCodec() {
+	}
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int maxCompressedLength(int length) {
+		// Same bound as zlib's deflateBound, with some slack for the block headers
+		return length + (length >> 12) + (length >> 14) + 64;
+	}
+
+	@Override
+	public Compressor newCompressor() {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		return new Compressor() {
+			@Override
+			public int compress(byte[] source, int length, byte[] target) {
+				deflater.reset();
+				deflater.setInput(source, 0, length);
+				deflater.finish();
+				int compressedLength = 0;
+				while (!deflater.finished()) {
+					compressedLength += deflater.deflate(target, compressedLength, target.length - compressedLength);
+				}
+				return compressedLength;
+			}
+
+			@Override
+			public void close() {
+				deflater.end();
+			}
+		};
+	}
+
+	@Override
+	public Decompressor newDecompressor() {
+		Inflater inflater = new Inflater(true);
+		return new Decompressor() {
+			@Override
+			public void decompress(byte[] source, int sourceLength, byte[] target, int length) throws IOException {
+				inflater.reset();
+				inflater.setInput(source, 0, sourceLength);
+				try {
+					int restored = 0;
+					while (restored < length && !inflater.finished()) {
+						int inflated = inflater.inflate(target, restored, length - restored);
+						if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+							break;
+						}
+						restored += inflated;
+					}
+					if (restored != length) {
+						throw new IOException("Deflate block restored " + restored + " of " + length + " bytes");
+					}
+				} catch (DataFormatException e) {
+					throw new IOException("Corrupt deflate block", e);
+				}
+			}
+
+			@Override
+			public void close() {
+				inflater.end();
+			}
+		};
+	}
+}
@@ -0,0 +1,166 @@
+package com.csv.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A byte-oriented LZ77 block codec in the style of LZ4, written in plain Java so spill compression needs no native
+ * library. A block is a sequence of (literals, match) pairs, each introduced by a token byte whose high nibble is the
+ * literal count and low nibble the match length minus {@link #MIN_MATCH}, with 255-continued extensions when a
+ * nibble is 15. Matches are a 2-byte little-endian back offset. The last sequence has literals only.
+ */
+public final class LzCodec implements SpillCodec {
+	public static final String NAME = "lz";
+	public static final byte ID = 2;
+	public static final LzCodec INSTANCE = new LzCodec();
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int HASH_BITS = 14;
+	// Matches stop this far from the end, so the block always ends with a few literals
+	private static final int LAST_LITERALS = 5;
+
+	private LzCodec() {
+	}
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Every compressor keeps its own hash table for all the blocks of its stream.
+	 */
+	@Override
+	public Compressor newCompressor() {
+		int[] table = new int[1 << HASH_BITS];
+		return (source, length, target) -> compress(source, length, target, table);
+	}
+
+	@Override
+	public Decompressor newDecompressor() {
+		return LzCodec::decompressBlock;
+	}
+
+	private static int compress(byte[] source, int length, byte[] target, int[] table) {
+		Arrays.fill(table, -1);
+		int matchLimit = length - LAST_LITERALS;
+		int anchor = 0;
+		int position = 0;
+		int out = 0;
+		while (position + MIN_MATCH <= matchLimit) {
+			int sequence = readInt(source, position);
+			int hash = (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+			int candidate = table[hash];
+			table[hash] = position;
+			if (candidate < 0 || position - candidate > MAX_OFFSET || readInt(source, candidate) != sequence) {
+				position++;
+				continue;
+			}
+			int matchLength = MIN_MATCH;
+			while (position + matchLength < matchLimit && source[candidate + matchLength] == source[position + matchLength]) {
+				matchLength++;
+			}
+			out = writeSequence(source, anchor, position - anchor, position - candidate, matchLength - MIN_MATCH, target, out);
+			position += matchLength;
+			anchor = position;
+		}
+		return writeSequence(source, anchor, length - anchor, 0, -1, target, out);
+	}
+
+	/**
+	 * Writes one sequence, {@code extraMatchLength} is -1 for the final literals-only sequence.
+	 */
+	private static int writeSequence(byte[] source, int literalsStart, int literalCount, int offset, int extraMatchLength,
+									 byte[] target, int out) {
+		int matchNibble = extraMatchLength < 0 ? 0 : Math.min(extraMatchLength, 15);
+		target[out++] = (byte) (Math.min(literalCount, 15) << 4 | matchNibble);
+		out = writeLengthExtension(target, out, literalCount);
+		System.arraycopy(source, literalsStart, target, out, literalCount);
+		out += literalCount;
+		if (extraMatchLength >= 0) {
+			target[out++] = (byte) offset;
+			target[out++] = (byte) (offset >>> 8);
+			out = writeLengthExtension(target, out, extraMatchLength);
+		}
+		return out;
+	}
+
+	private static int writeLengthExtension(byte[] target, int out, int length) {
+		if (length >= 15) {
+			int remaining = length - 15;
+			while (remaining >= 255) {
+				target[out++] = (byte) 255;
+				remaining -= 255;
+			}
+			target[out++] = (byte) remaining;
+		}
+		return out;
+	}
+
+	private static void decompressBlock(byte[] source, int sourceLength, byte[] target, int length) throws IOException {
+		int in = 0;
+		int out = 0;
+		try {
+			while (true) {
+				int token = source[in++] & 0xFF;
+				int literalCount = token >>> 4;
+				if (literalCount == 15) {
+					int b;
+					do {
+						b = source[in++] & 0xFF;
+						literalCount += b;
+					} while (b == 255);
+				}
+				System.arraycopy(source, in, target, out, literalCount);
+				in += literalCount;
+				out += literalCount;
+				if (in >= sourceLength) {
+					break;
+				}
+				int offset = (source[in++] & 0xFF) | (source[in++] & 0xFF) << 8;
+				int matchLength = token & 0x0F;
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = source[in++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+				int from = out - offset;
+				if (offset == 0 || from < 0 || out + matchLength > length) {
+					throw new IOException("Corrupt lz block: bad match at output position " + out);
+				}
+				if (offset >= matchLength) {
+					System.arraycopy(target, from, target, out, matchLength);
+					out += matchLength;
+				} else {
+					// Byte by byte, because the match overlaps the bytes it produces
+					for (int i = 0; i < matchLength; i++) {
+						target[out++] = target[from + i];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt lz block", e);
+		}
+		if (out != length) {
+			throw new IOException("Lz block restored " + out + " of " + length + " bytes");
+		}
+	}
+
+	private static int readInt(byte[] bytes, int position) {
+		return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+				| (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+	}
+}
@@ -0,0 +1,248 @@
+package com.csv.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Tokenizes an RFC 4180 CSV file by scanning its memory-mapped bytes for commas, quotes and line ends. The fields
+ * of a row are found as slices of the mapping and copied once, unescaped, into a {@link PayloadRecord}, which decodes
+ * a field to a String only when it is asked for.
+ * <p>
+ * The file is mapped one window at a time. A record crossing the end of a window is tokenized again from a window
+ * mapped at its first byte, and a record longer than a whole window makes the window grow.
+ * <p>
+ * Fields may be quoted, a quote inside a quoted field is written twice, and quoted fields may hold commas and line
+ * breaks. Lines end with LF, CRLF or CR. An empty line is a record with one empty field, as with OpenCSV.
+ */
+public class MappedCsvReader implements RecordReader {
+	static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+	private static final byte QUOTE = '"';
+	private static final byte COMMA = ',';
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+	private final String fileName;
+	private final FileChannel channel;
+	// File offsets of the first byte to read and of the byte after the last one
+	private final long start;
+	private final long end;
+	private int windowSize;
+	private MappedByteBuffer window;
+	// File offset of the first byte of the window
+	private long windowStart;
+	// Window offset of the first byte after the current record
+	private int position;
+	private int fieldCount;
+	// Window offset and length of every field as it appears in the file, without surrounding quotes
+	private int[] fieldStarts = new int[16];
+	private int[] rawLengths = new int[16];
+	// Length once doubled quotes are unescaped
+	private int[] fieldLengths = new int[16];
+
+	public MappedCsvReader(String fileName) throws IOException {
+		this(fileName, 0, -1, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Reads the records in the bytes {@code [start, end)}, which must start and end at record boundaries, see
+	 * {@link RecordRangeSplitter}.
+	 */
+	public MappedCsvReader(String fileName, long start, long end) throws IOException {
+		this(fileName, start, end, DEFAULT_WINDOW_SIZE);
+	}
+
+	MappedCsvReader(String fileName, int windowSize) throws IOException {
+		this(fileName, 0, -1, windowSize);
+	}
+
+	// An end of -1 reads to the end of the file
+	private MappedCsvReader(String fileName, long start, long end, int windowSize) throws IOException {
+		this.fileName = fileName;
+		this.windowSize = windowSize;
+		this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		this.start = start;
+		try {
+			this.end = end < 0 ? channel.size() : end;
+			map(start);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Tokenizes the next record, returns false at the end of the input. The field slices stay valid until the next call.
+	 */
+	private boolean nextRecord() throws IOException {
+		if (windowStart + position >= end) {
+			fieldCount = 0;
+			return false;
+		}
+		int recordEnd;
+		while ((recordEnd = tokenize(position)) < 0) {
+			if (position == 0) {
+				if (windowSize == Integer.MAX_VALUE) {
+					throw new IOException("Record at byte " + windowStart + " of " + fileName + " exceeds 2GB");
+				}
+				windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+			}
+			map(windowStart + position);
+		}
+		position = recordEnd;
+		return true;
+	}
+
+	@Override
+	public PayloadRecord readRecord() throws IOException {
+		return nextRecord() ? toPayloadRecord() : null;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return windowStart + position - start;
+	}
+
+	/**
+	 * Copies the unescaped bytes of a field into {@code target} at {@code position}, returns the position after them.
+	 */
+	private int copyField(int field, byte[] target, int position) {
+		int start = fieldStarts[field];
+		int rawLength = rawLengths[field];
+		if (rawLength == fieldLengths[field]) {
+			window.position(start);
+			window.get(target, position, rawLength);
+			return position + rawLength;
+		}
+		for (int i = start; i < start + rawLength; i++) {
+			byte b = window.get(i);
+			target[position++] = b;
+			if (b == QUOTE) {
+				i++;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Copies the current record into the payload layout of a run file.
+	 */
+	private PayloadRecord toPayloadRecord() {
+		int size = varIntSize(fieldCount << 1);
+		for (int i = 0; i < fieldCount; i++) {
+			size += varIntSize(fieldLengths[i]) + fieldLengths[i];
+		}
+		byte[] payload = new byte[size];
+		int payloadPosition = RunFormat.writeVarInt(payload, 0, fieldCount << 1);
+		for (int i = 0; i < fieldCount; i++) {
+			payloadPosition = RunFormat.writeVarInt(payload, payloadPosition, fieldLengths[i]);
+			payloadPosition = copyField(i, payload, payloadPosition);
+		}
+		return new PayloadRecord(payload, fieldCount);
+	}
+
+	/**
+	 * Splits the record starting at {@code start} into fields. Returns the window offset after its line end, or -1 if
+	 * the record may continue past the end of the window.
+	 */
+	private int tokenize(int start) throws IOException {
+		int limit = window.limit();
+		boolean lastWindow = windowStart + limit == end;
+		int p = start;
+		fieldCount = 0;
+		while (true) {
+			if (p < limit && window.get(p) == QUOTE) {
+				int fieldStart = ++p;
+				int doubledQuotes = 0;
+				while (true) {
+					if (p >= limit) {
+						if (lastWindow) {
+							throw new IOException("Unterminated quoted field at byte " + (windowStart + fieldStart - 1)
+									+ " of " + fileName);
+						}
+						return -1;
+					}
+					if (window.get(p) == QUOTE) {
+						if (p + 1 < limit && window.get(p + 1) == QUOTE) {
+							doubledQuotes++;
+							p += 2;
+							continue;
+						}
+						if (p + 1 >= limit && !lastWindow) {
+							return -1;
+						}
+						break;
+					}
+					p++;
+				}
+				addField(fieldStart, p - fieldStart, p - fieldStart - doubledQuotes);
+				p++;
+				if (p < limit && !isDelimiter(window.get(p))) {
+					throw new IOException("Unexpected character after closing quote at byte " + (windowStart + p)
+							+ " of " + fileName);
+				}
+			} else {
+				int fieldStart = p;
+				while (p < limit && !isDelimiter(window.get(p))) {
+					p++;
+				}
+				addField(fieldStart, p - fieldStart, p - fieldStart);
+			}
+
+			if (p >= limit) {
+				return lastWindow ? p : -1;
+			}
+			byte delimiter = window.get(p);
+			if (delimiter == COMMA) {
+				p++;
+			} else if (delimiter == LF) {
+				return p + 1;
+			} else if (p + 1 < limit) {
+				return window.get(p + 1) == LF ? p + 2 : p + 1;
+			} else {
+				// A CR at the end of the window may be followed by the LF of a CRLF
+				return lastWindow ? p + 1 : -1;
+			}
+		}
+	}
+
+	private static boolean isDelimiter(byte b) {
+		return b == COMMA || b == LF || b == CR;
+	}
+
+	private void addField(int start, int rawLength, int length) {
+		if (fieldCount == fieldStarts.length) {
+			fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+			rawLengths = Arrays.copyOf(rawLengths, fieldCount * 2);
+			fieldLengths = Arrays.copyOf(fieldLengths, fieldCount * 2);
+		}
+		fieldStarts[fieldCount] = start;
+		rawLengths[fieldCount] = rawLength;
+		fieldLengths[fieldCount] = length;
+		fieldCount++;
+	}
+
+	private void map(long offset) throws IOException {
+		windowStart = offset;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, end - offset));
+		position = 0;
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The mapping itself is released when it is garbage collected
+		window = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,41 @@
+package com.csv.io;
+
+/**
+ * Stores blocks as they are.
+ */
+public final class NoneCodec implements SpillCodec {
+	public static final String NAME = "none";
+	public static final byte ID = 0;
+	public static final NoneCodec INSTANCE = new NoneCodec();
+
+	private NoneCodec() {
+	}
+
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int maxCompressedLength(int length) {
+		return length;
+	}
+
+	@Override
+	public Compressor newCompressor() {
+		return (source, length, target) -> {
+			System.arraycopy(source, 0, target, 0, length);
+			return length;
+		};
+	}
+
+	@Override
+	public Decompressor newDecompressor() {
+		return (source, sourceLength, target, length) -> System.arraycopy(source, 0, target, 0, length);
+	}
+}
@@ -0,0 +1,87 @@
+package com.csv.io;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+public class OpenCsvRecordReader implements RecordReader {
+	private final CSVReader csvReader;
+	private final CountingInputStream countingIn;
+
+	public OpenCsvRecordReader(CSVReader csvReader) {
+		this(csvReader, null);
+	}
+
+	private OpenCsvRecordReader(CSVReader csvReader, CountingInputStream countingIn) {
+		this.csvReader = csvReader;
+		this.countingIn = countingIn;
+	}
+
+	/**
+	 * Opens a file in the platform charset, as a {@link java.io.FileReader} would, counting the bytes read from it.
+	 */
+	public static OpenCsvRecordReader open(String fileName) throws FileNotFoundException {
+		CountingInputStream countingIn = new CountingInputStream(new FileInputStream(fileName));
+		return new OpenCsvRecordReader(new CSVReader(new InputStreamReader(countingIn)), countingIn);
+	}
+
+	@Override
+	public List<String> readRecord() throws IOException, CsvValidationException {
+		String[] values = csvReader.readNext();
+		return values == null ? null : Arrays.asList(values);
+	}
+
+	/**
+	 * Bytes the parser has pulled from the file, which runs ahead of the records returned by its read buffers.
+	 */
+	@Override
+	public long getBytesRead() {
+		return countingIn == null ? -1 : countingIn.count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		csvReader.close();
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int read = super.read(bytes, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.csv.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A record kept as its run payload bytes (see {@link RunFormat}) instead of one String per field. Fields are decoded
+ * only when asked for, so encoding the sort key touches just the key fields, and {@link RunFileWriter} writes the
+ * payload as it is. A payload coded with a {@link ColumnDictionary} keeps the dictionary to decode its coded fields,
+ * which decode to the dictionary's own Strings.
+ */
+public class PayloadRecord extends AbstractList<String> {
+	private final byte[] payload;
+	private final int fieldCount;
+	// Null unless the payload is coded
+	private final ColumnDictionary dictionary;
+	// Start and length of every field, built on the first get; a coded field has -1 - code as its start
+	private int[] fieldOffsets;
+
+	PayloadRecord(byte[] payload, int fieldCount) {
+		this(payload, fieldCount, null);
+	}
+
+	private PayloadRecord(byte[] payload, int fieldCount, ColumnDictionary dictionary) {
+		this.payload = payload;
+		this.fieldCount = fieldCount;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * The record itself if it already is a payload record, otherwise its fields encoded into one.
+	 */
+	public static PayloadRecord of(List<String> record) {
+		if (record instanceof PayloadRecord) {
+			return (PayloadRecord) record;
+		}
+		return of(record, null);
+	}
+
+	/**
+	 * The record as a payload coded with {@code dictionary}: the record itself if it already is, otherwise its fields
+	 * encoded into one. A null dictionary gives an uncoded payload, as {@link #of(List)} does.
+	 */
+	public static PayloadRecord of(List<String> record, ColumnDictionary dictionary) {
+		if (record instanceof PayloadRecord) {
+			PayloadRecord payloadRecord = (PayloadRecord) record;
+			if (dictionary == null ? payloadRecord.dictionary == null
+					: payloadRecord.dictionary != null && payloadRecord.dictionary.getId() == dictionary.getId()) {
+				return payloadRecord;
+			}
+			if (payloadRecord.dictionary == null) {
+				return payloadRecord.codedWith(dictionary);
+			}
+		}
+		byte[][] fields = new byte[record.size()][];
+		int size = 5;
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = record.get(i).getBytes(StandardCharsets.UTF_8);
+			size += 6 + fields[i].length;
+		}
+		byte[] payload = new byte[size];
+		int position = RunFormat.writeVarInt(payload, 0, fields.length << 1 | (dictionary != null ? RunFormat.CODED : 0));
+		for (int i = 0; i < fields.length; i++) {
+			position = writeField(payload, position, i, fields[i], 0, fields[i].length, dictionary);
+		}
+		return new PayloadRecord(Arrays.copyOf(payload, position), fields.length, dictionary);
+	}
+
+	/**
+	 * Codes an uncoded payload with the dictionary, straight from its bytes.
+	 */
+	private PayloadRecord codedWith(ColumnDictionary dictionary) {
+		try {
+			RunFormat.PayloadFields fields = new RunFormat.PayloadFields(payload, 0, payload.length, null);
+			byte[] coded = new byte[payload.length + fieldCount + 5];
+			int position = RunFormat.writeVarInt(coded, 0, fieldCount << 1 | RunFormat.CODED);
+			while (fields.next()) {
+				position = writeField(coded, position, fields.getField(), fields.getBytes(), fields.getOffset(),
+						fields.getLength(), dictionary);
+			}
+			return new PayloadRecord(Arrays.copyOf(coded, position), fieldCount, dictionary);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int writeField(byte[] target, int position, int field, byte[] bytes, int offset, int length,
+								  ColumnDictionary dictionary) {
+		if (dictionary != null && dictionary.isCoded(field)) {
+			int code = dictionary.code(field, bytes, offset, length);
+			position = RunFormat.writeVarInt(target, position, code + 1);
+			if (code >= 0) {
+				return position;
+			}
+		}
+		position = RunFormat.writeVarInt(target, position, length);
+		System.arraycopy(bytes, offset, target, position, length);
+		return position + length;
+	}
+
+	static PayloadRecord fromPayload(byte[] payload, ColumnDictionary dictionary) {
+		int header = 0;
+		int position = 0;
+		int b;
+		do {
+			b = payload[position] & 0xFF;
+			header |= (b & 0x7F) << (7 * position++);
+		} while ((b & 0x80) != 0);
+		return new PayloadRecord(payload, header >>> 1, (header & RunFormat.CODED) != 0 ? dictionary : null);
+	}
+
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= fieldCount) {
+			throw new IndexOutOfBoundsException("Field " + index + " of " + fieldCount);
+		}
+		if (fieldOffsets == null) {
+			fieldOffsets = indexFields();
+		}
+		int start = fieldOffsets[2 * index];
+		if (start < 0) {
+			return dictionary.value(index, -1 - start);
+		}
+		return new String(payload, start, fieldOffsets[2 * index + 1], StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public int size() {
+		return fieldCount;
+	}
+
+	byte[] getPayload() {
+		return payload;
+	}
+
+	ColumnDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public int getPayloadLength() {
+		return payload.length;
+	}
+
+	/**
+	 * Length of the record as a CSV line, without the line separator.
+	 */
+	public int csvLength() throws IOException {
+		return RunFormat.csvLineLength(payload, payload.length, dictionary);
+	}
+
+	/**
+	 * Writes the fields separated by commas, as the CSV output is written from runs.
+	 */
+	public void writeCsvLine(OutputStream out, byte[] lineSeparator) throws IOException {
+		RunFormat.writeCsvLine(payload, payload.length, dictionary, out, lineSeparator);
+	}
+
+	/**
+	 * Heap retained by the record once sorted: the object, its payload array and the field index built for the key.
+	 */
+	public long estimatedBytes() {
+		return 24 + 16 + payload.length + 16 + 8L * fieldCount;
+	}
+
+	private int[] indexFields() {
+		int[] offsets = new int[2 * fieldCount];
+		try {
+			RunFormat.PayloadFields fields = new RunFormat.PayloadFields(payload, 0, payload.length, dictionary);
+			while (fields.next()) {
+				int field = fields.getField();
+				offsets[2 * field] = fields.getCode() >= 0 ? -1 - fields.getCode() : fields.getOffset();
+				offsets[2 * field + 1] = fields.getLength();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return offsets;
+	}
+}
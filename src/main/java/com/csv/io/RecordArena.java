@@ -0,0 +1,264 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A chunk of records held as bytes rather than objects. Every record is copied into a slab as its normalized key and
+ * its run payload (see {@link RunFormat}), and a {@code long[]} index holds two entries per record: the first eight
+ * key bytes and the record's address in the slabs. Sorting moves index entries only and compares the key bytes in
+ * the slabs when the prefixes tie, and a sorted arena is written by copying the bytes out of the slabs. The heap a
+ * chunk holds is then a few arrays however many records it has, so the garbage collector has next to nothing to trace.
+ */
+public final class RecordArena {
+	// Key length and payload length in front of every record
+	private static final int RECORD_HEADER = 8;
+	private static final int INITIAL_INDEX = 1024;
+	private final SlabPool pool;
+	// Dictionary the payloads are coded with, null if none
+	private final ColumnDictionary dictionary;
+	private final List<byte[]> slabs = new ArrayList<>();
+	private byte[] slab;
+	private int slabPosition;
+	private long slabBytes;
+	// Key prefix and address, slab number << 32 | offset, of every record
+	private long[] index = new long[2 * INITIAL_INDEX];
+	private int size;
+
+	public RecordArena(SlabPool pool) {
+		this(pool, null);
+	}
+
+	public RecordArena(SlabPool pool, ColumnDictionary dictionary) {
+		this.pool = pool;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Copies a record and its normalized key into the arena.
+	 */
+	public void add(byte[] key, List<String> record) {
+		byte[] payload = PayloadRecord.of(record, dictionary).getPayload();
+		int recordLength = RECORD_HEADER + key.length + payload.length;
+		if (slab == null || slabPosition + recordLength > slab.length) {
+			newSlab(recordLength);
+		}
+		long address = (long) (slabs.size() - 1) << 32 | slabPosition;
+		writeInt(slab, slabPosition, key.length);
+		writeInt(slab, slabPosition + 4, payload.length);
+		System.arraycopy(key, 0, slab, slabPosition + RECORD_HEADER, key.length);
+		System.arraycopy(payload, 0, slab, slabPosition + RECORD_HEADER + key.length, payload.length);
+		slabPosition += recordLength;
+
+		if (2 * size == index.length) {
+			index = Arrays.copyOf(index, 2 * index.length);
+		}
+		index[2 * size] = prefix(key);
+		index[2 * size + 1] = address;
+		size++;
+	}
+
+	/**
+	 * Starts a slab for a record of {@code recordLength} bytes. A record larger than a pooled slab gets a slab of its
+	 * own size, which is not returned to the pool.
+	 */
+	private void newSlab(int recordLength) {
+		slab = recordLength <= pool.slabSize ? pool.take() : new byte[recordLength];
+		slabs.add(slab);
+		slabPosition = 0;
+		slabBytes += slab.length;
+	}
+
+	public ColumnDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Heap held by the arena: its slabs and its index.
+	 */
+	public long getBytes() {
+		return slabBytes + 8L * index.length;
+	}
+
+	/**
+	 * Sorts the records by key, records with equal keys keep the order they were added in. The sort is a natural
+	 * merge sort: the ascending stretches of the index are merged as they are and strictly descending ones are
+	 * reversed first, so an arena filled in order is sorted in one pass over it.
+	 */
+	public void sort() {
+		int[] runStarts = new int[size + 1];
+		int runs = 0;
+		for (int start = 0, end; start < size; start = end) {
+			end = start + 1;
+			if (end < size && compare(index, end, start) < 0) {
+				while (end < size && compare(index, end, end - 1) < 0) {
+					end++;
+				}
+				reverse(start, end);
+			} else {
+				while (end < size && compare(index, end, end - 1) >= 0) {
+					end++;
+				}
+			}
+			runStarts[runs++] = start;
+		}
+		runStarts[runs] = size;
+		long[] source = index;
+		long[] target = runs > 1 ? new long[index.length] : null;
+		while (runs > 1) {
+			int merged = 0;
+			for (int run = 0; run < runs; run += 2) {
+				merge(source, target, runStarts[run], runStarts[Math.min(run + 1, runs)],
+						runStarts[Math.min(run + 2, runs)]);
+				runStarts[merged++] = runStarts[run];
+			}
+			runStarts[merged] = size;
+			runs = merged;
+			long[] mergedEntries = target;
+			target = source;
+			source = mergedEntries;
+		}
+		index = source;
+	}
+
+	private void reverse(int start, int end) {
+		for (int i = start, j = end - 1; i < j; i++, j--) {
+			long prefix = index[2 * i];
+			long address = index[2 * i + 1];
+			index[2 * i] = index[2 * j];
+			index[2 * i + 1] = index[2 * j + 1];
+			index[2 * j] = prefix;
+			index[2 * j + 1] = address;
+		}
+	}
+
+	private void merge(long[] source, long[] target, int start, int middle, int end) {
+		int left = start;
+		int right = middle;
+		for (int i = start; i < end; i++) {
+			int next = left < middle && (right >= end || compare(source, left, right) <= 0) ? left++ : right++;
+			target[2 * i] = source[2 * next];
+			target[2 * i + 1] = source[2 * next + 1];
+		}
+	}
+
+	private int compare(long[] entries, int a, int b) {
+		int comparison = Long.compareUnsigned(entries[2 * a], entries[2 * b]);
+		if (comparison != 0) {
+			return comparison;
+		}
+		long addressA = entries[2 * a + 1];
+		long addressB = entries[2 * b + 1];
+		byte[] slabA = slabs.get((int) (addressA >>> 32));
+		byte[] slabB = slabs.get((int) (addressB >>> 32));
+		int offsetA = (int) addressA;
+		int offsetB = (int) addressB;
+		return SortKey.compare(slabA, offsetA + RECORD_HEADER, readInt(slabA, offsetA),
+				slabB, offsetB + RECORD_HEADER, readInt(slabB, offsetB));
+	}
+
+	/**
+	 * Writes the records in index order, sorted once {@link #sort()} has run, to a writer with the dictionary of the
+	 * arena.
+	 */
+	public void writeTo(RunFileWriter writer) throws IOException {
+		for (int i = 0; i < size; i++) {
+			long address = index[2 * i + 1];
+			byte[] recordSlab = slabs.get((int) (address >>> 32));
+			int offset = (int) address;
+			int keyLength = readInt(recordSlab, offset);
+			writer.write(recordSlab, offset + RECORD_HEADER, keyLength, offset + RECORD_HEADER + keyLength,
+					readInt(recordSlab, offset + 4));
+		}
+	}
+
+	/**
+	 * Writes the records in index order as CSV lines, the way the final merge writes its output.
+	 */
+	public void writeCsvTo(OutputStream out, byte[] lineSeparator) throws IOException {
+		for (int i = 0; i < size; i++) {
+			long address = index[2 * i + 1];
+			byte[] recordSlab = slabs.get((int) (address >>> 32));
+			int offset = (int) address;
+			int keyLength = readInt(recordSlab, offset);
+			RunFormat.writeCsvLine(recordSlab, offset + RECORD_HEADER + keyLength, readInt(recordSlab, offset + 4),
+					dictionary, out, lineSeparator);
+		}
+	}
+
+	/**
+	 * Returns the slabs to the pool, the arena is empty afterwards.
+	 */
+	public void release() {
+		for (byte[] released : slabs) {
+			if (released.length == pool.slabSize) {
+				pool.give(released);
+			}
+		}
+		slabs.clear();
+		slab = null;
+		slabBytes = 0;
+		index = new long[2 * INITIAL_INDEX];
+		size = 0;
+	}
+
+	/**
+	 * The first eight bytes of a key as an unsigned number, shorter keys padded with zeros.
+	 */
+	private static long prefix(byte[] key) {
+		long prefix = 0;
+		for (int i = 0; i < 8; i++) {
+			prefix = prefix << 8 | (i < key.length ? key[i] & 0xFF : 0);
+		}
+		return prefix;
+	}
+
+	private static void writeInt(byte[] buffer, int position, int value) {
+		buffer[position] = (byte) (value >>> 24);
+		buffer[position + 1] = (byte) (value >>> 16);
+		buffer[position + 2] = (byte) (value >>> 8);
+		buffer[position + 3] = (byte) value;
+	}
+
+	private static int readInt(byte[] buffer, int position) {
+		return (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16
+				| (buffer[position + 2] & 0xFF) << 8 | buffer[position + 3] & 0xFF;
+	}
+
+	/**
+	 * Slabs shared by the arenas of one sort, so that the slabs of a spilled chunk fill the next one instead of being
+	 * garbage collected.
+	 */
+	public static final class SlabPool {
+		public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+		private final int slabSize;
+		private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+		public SlabPool() {
+			this(DEFAULT_SLAB_SIZE);
+		}
+
+		public SlabPool(int slabSize) {
+			this.slabSize = slabSize;
+		}
+
+		byte[] take() {
+			byte[] slab = free.poll();
+			return slab != null ? slab : new byte[slabSize];
+		}
+
+		void give(byte[] slab) {
+			free.add(slab);
+		}
+	}
+}
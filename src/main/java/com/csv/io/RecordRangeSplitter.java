@@ -0,0 +1,130 @@
+package com.csv.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Cuts a CSV file into byte ranges that start and end at record boundaries, so each range can be parsed on its own.
+ * <p>
+ * A line feed ends a record only if an even number of quotes comes before it, otherwise it is inside a quoted field.
+ * Doubled quotes inside quoted fields keep that parity. The file is first cut into equal ranges and their quotes are
+ * counted in parallel, which gives the parity at every cut. Each cut then moves forward to just after the first line
+ * feed with even parity.
+ */
+public final class RecordRangeSplitter {
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+	private static final byte QUOTE = '"';
+	private static final byte LF = '\n';
+
+	private RecordRangeSplitter() {
+	}
+
+	/**
+	 * Returns the range boundaries: {@code 0}, the record starts found for up to {@code ranges - 1} cuts, and the file
+	 * size, in ascending order without duplicates.
+	 */
+	public static long[] split(String fileName, int ranges, ExecutorService executor) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			long rangeSize = Math.max(1, fileSize / Math.max(1, ranges));
+			List<Future<Long>> quoteCounts = new ArrayList<>();
+			for (int i = 0; i < ranges - 1; i++) {
+				long start = i * rangeSize;
+				quoteCounts.add(executor.submit(() -> countQuotes(channel, start, Math.min(fileSize, start + rangeSize))));
+			}
+
+			List<Long> boundaries = new ArrayList<>();
+			boundaries.add(0L);
+			long quotesBefore = 0;
+			for (int i = 1; i < ranges; i++) {
+				long cut = i * rangeSize;
+				quotesBefore += await(quoteCounts.get(i - 1));
+				if (cut >= fileSize) {
+					break;
+				}
+				long boundary = nextRecordStart(channel, cut, quotesBefore % 2 == 0, fileSize);
+				if (boundary > boundaries.get(boundaries.size() - 1) && boundary < fileSize) {
+					boundaries.add(boundary);
+				}
+			}
+			boundaries.add(fileSize);
+
+			long[] result = new long[boundaries.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = boundaries.get(i);
+			}
+			return result;
+		}
+	}
+
+	private static long countQuotes(FileChannel channel, long start, long end) throws IOException {
+		long quotes = 0;
+		for (long windowStart = start; windowStart < end; windowStart += WINDOW_SIZE) {
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					Math.min(WINDOW_SIZE, end - windowStart));
+			for (int i = 0, limit = window.limit(); i < limit; i++) {
+				if (window.get(i) == QUOTE) {
+					quotes++;
+				}
+			}
+		}
+		return quotes;
+	}
+
+	/**
+	 * The first record start at or after {@code cut}, given whether an even number of quotes precedes {@code cut}.
+	 */
+	private static long nextRecordStart(FileChannel channel, long cut, boolean evenQuotes, long fileSize) throws IOException {
+		// The cut is a record start itself if the byte before it ends a record, a line feed is never a quote
+		if (evenQuotes && readByte(channel, cut - 1) == LF) {
+			return cut;
+		}
+		boolean even = evenQuotes;
+		for (long windowStart = cut; windowStart < fileSize; windowStart += WINDOW_SIZE) {
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+					Math.min(WINDOW_SIZE, fileSize - windowStart));
+			for (int i = 0, limit = window.limit(); i < limit; i++) {
+				byte b = window.get(i);
+				if (b == QUOTE) {
+					even = !even;
+				} else if (b == LF && even) {
+					return windowStart + i + 1;
+				}
+			}
+		}
+		return fileSize;
+	}
+
+	private static byte readByte(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1);
+		if (channel.read(buffer, position) != 1) {
+			throw new EOFException("No byte at " + position);
+		}
+		return buffer.get(0);
+	}
+
+	private static long await(Future<Long> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while counting quotes");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.csv.io;
+
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the input one record at a time.
+ */
+public interface RecordReader extends Closeable {
+	/**
+	 * Returns the fields of the next record, or null at the end of the input.
+	 */
+	List<String> readRecord() throws IOException, CsvValidationException;
+
+	/**
+	 * Bytes of the input consumed so far, -1 if the reader cannot tell.
+	 */
+	default long getBytesRead() {
+		return -1;
+	}
+}
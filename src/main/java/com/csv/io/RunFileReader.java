@@ -0,0 +1,278 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Reads a run written by {@link RunFileWriter} one record at a time. Only the normalized key is read eagerly, the
+ * fields of a record are decoded on request. The record count and checksum are verified once the last record is read.
+ */
+public class RunFileReader implements Closeable {
+	private static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+	private final String runFileName;
+	private final DataInputStream blockIn;
+	private final CRC32 checksum = new CRC32();
+	private final DataInputStream recordIn;
+	// Fences of a reader opened on a key range, null when the run is read from its start
+	private final List<RunIndex.Fence> fences;
+	private final byte[] upperKey;
+	// Dictionary the run was written with, null if none
+	private final ColumnDictionary dictionary;
+	// Fence at the start of the segment being read
+	private int segment;
+	private byte[] key = new byte[64];
+	private int keyLength;
+	private byte[] payload = new byte[256];
+	private int payloadLength;
+	// Records before the next one in the run
+	private long recordCount;
+	private boolean exhausted;
+
+	/**
+	 * Opens the run and positions it on its first record, if any.
+	 */
+	public RunFileReader(String runFileName) throws IOException {
+		this(runFileName, null, null);
+	}
+
+	/**
+	 * Opens the run and positions it on its first record, if any. With a {@code readAheadExecutor} the next block is
+	 * decompressed in the background.
+	 */
+	public RunFileReader(String runFileName, SpillStats stats, ExecutorService readAheadExecutor) throws IOException {
+		this(runFileName, DEFAULT_READ_BUFFER_SIZE, stats, readAheadExecutor);
+	}
+
+	/**
+	 * Opens the run with a file buffer of {@code readBufferSize} bytes, see {@link #memoryPerReader(int)}.
+	 */
+	public RunFileReader(String runFileName, int readBufferSize, SpillStats stats, ExecutorService readAheadExecutor) throws IOException {
+		this(runFileName, readBufferSize, stats, readAheadExecutor, null, null, null);
+	}
+
+	/**
+	 * Opens the records of a run with keys from {@code lowerKey}, inclusive, to {@code upperKey}, exclusive, either
+	 * of which may be null for no bound. Reading starts at the fence of {@code index} for {@code lowerKey}, so the
+	 * records before it are never read. The reader verifies the checksum of every segment between two fences it reads
+	 * completely, and the record count if it reaches the end.
+	 */
+	public static RunFileReader openRange(String runFileName, RunIndex index, byte[] lowerKey, byte[] upperKey,
+										  int readBufferSize, SpillStats stats, ExecutorService readAheadExecutor) throws IOException {
+		return new RunFileReader(runFileName, readBufferSize, stats, readAheadExecutor, index, lowerKey, upperKey);
+	}
+
+	private RunFileReader(String runFileName, int readBufferSize, SpillStats stats, ExecutorService readAheadExecutor,
+						  RunIndex index, byte[] lowerKey, byte[] upperKey) throws IOException {
+		this.runFileName = runFileName;
+		this.fences = index == null ? null : index.getFences();
+		this.upperKey = upperKey;
+		FileInputStream file = new FileInputStream(runFileName);
+		SpillCodec codec;
+		RunIndex.Fence startFence = null;
+		try {
+			byte[] header = new byte[RunFormat.HEADER_LENGTH];
+			new DataInputStream(file).readFully(header);
+			ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+			if (headerBuffer.getInt() != RunFormat.MAGIC) {
+				throw new IOException("Not a run file: " + runFileName);
+			}
+			byte version = headerBuffer.get();
+			if (version != RunFormat.VERSION) {
+				throw new IOException("Unsupported run file version " + version + ": " + runFileName);
+			}
+			codec = SpillCodec.forId(headerBuffer.get());
+			int dictionaryLength = headerBuffer.getInt();
+			if (dictionaryLength > 0) {
+				byte[] dictionaryBytes = new byte[dictionaryLength];
+				new DataInputStream(file).readFully(dictionaryBytes);
+				dictionary = ColumnDictionary.read(new DataInputStream(new ByteArrayInputStream(dictionaryBytes)));
+			} else {
+				dictionary = null;
+			}
+			if (index != null) {
+				segment = lowerKey != null ? index.startFenceFor(lowerKey) : fences.isEmpty() ? -1 : 0;
+				if (segment >= 0) {
+					startFence = fences.get(segment);
+					file.getChannel().position(startFence.getBlockOffset());
+					recordCount = startFence.getRecordNumber();
+				}
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		this.blockIn = new DataInputStream(new BlockInputStream(new BufferedInputStream(file, readBufferSize), codec, stats,
+				readAheadExecutor));
+		this.recordIn = new DataInputStream(new CheckedInputStream(blockIn, checksum));
+		try {
+			if (index != null && startFence == null) {
+				close();
+				return;
+			}
+			if (startFence != null) {
+				skipFully(blockIn, startFence.getOffsetInBlock());
+			}
+			nextRecord();
+			while (lowerKey != null && hasRecord() && SortKey.compare(key, keyLength, lowerKey, lowerKey.length) < 0) {
+				nextRecord();
+			}
+		} catch (IOException e) {
+			blockIn.close();
+			throw e;
+		}
+	}
+
+	private void skipFully(DataInputStream in, int bytes) throws IOException {
+		while (bytes > 0) {
+			int skipped = in.skipBytes(bytes);
+			if (skipped <= 0) {
+				throw new EOFException("Fence points past the end of run file " + runFileName);
+			}
+			bytes -= skipped;
+		}
+	}
+
+	/**
+	 * Memory held by one open reader: its file buffer, the block being consumed and the block read ahead.
+	 */
+	public static long memoryPerReader(int readBufferSize) {
+		return readBufferSize + 2L * BlockOutputStream.DEFAULT_BLOCK_SIZE;
+	}
+
+	public boolean hasRecord() {
+		return !exhausted;
+	}
+
+	/**
+	 * Moves to the next record, returns false and closes the file when there are no more records.
+	 */
+	public boolean nextRecord() throws IOException {
+		if (exhausted) {
+			return false;
+		}
+		if (fences != null && segment + 1 < fences.size() && recordCount == fences.get(segment + 1).getRecordNumber()) {
+			verifySegment();
+			segment++;
+		}
+		int keyLengthPlusOne = RunFormat.readVarInt(recordIn);
+		if (keyLengthPlusOne == RunFormat.END_OF_RECORDS) {
+			finish();
+			return false;
+		}
+		keyLength = keyLengthPlusOne - 1;
+		if (key.length < keyLength) {
+			key = new byte[Math.max(keyLength, key.length * 2)];
+		}
+		recordIn.readFully(key, 0, keyLength);
+		payloadLength = RunFormat.readVarInt(recordIn);
+		if (payload.length < payloadLength) {
+			payload = new byte[Math.max(payloadLength, payload.length * 2)];
+		}
+		recordIn.readFully(payload, 0, payloadLength);
+		recordCount++;
+		if (upperKey != null && SortKey.compare(key, keyLength, upperKey, upperKey.length) >= 0) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	private void verifySegment() throws IOException {
+		if (fences.get(segment).getSegmentChecksum() != (int) checksum.getValue()) {
+			throw new IOException("Corrupt run file " + runFileName + ": checksum mismatch in the segment at record "
+					+ fences.get(segment).getRecordNumber());
+		}
+		checksum.reset();
+	}
+
+	private void finish() throws IOException {
+		exhausted = true;
+		try {
+			if (fences != null) {
+				verifySegment();
+			}
+			long expectedRecordCount = blockIn.readLong();
+			int expectedChecksum = blockIn.readInt();
+			// A reader started at a fence has only seen the checksum of its segments
+			boolean checksumMatches = fences != null || expectedChecksum == (int) checksum.getValue();
+			if (expectedRecordCount != recordCount || !checksumMatches) {
+				throw new IOException("Corrupt run file " + runFileName + ": expected " + expectedRecordCount
+						+ " records, read " + recordCount + " or checksum mismatch");
+			}
+		} finally {
+			blockIn.close();
+		}
+	}
+
+	/**
+	 * The normalized key of the current record, valid in the first {@link #getKeyLength()} bytes until the next call
+	 * to {@link #nextRecord()}.
+	 */
+	public byte[] getKeyBytes() {
+		return key;
+	}
+
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	public List<String> getCurrentRecord() throws IOException {
+		return RunFormat.decodePayload(payload, payloadLength, dictionary);
+	}
+
+	/**
+	 * Writes the current record as a CSV line straight from its UTF-8 bytes, without decoding the fields.
+	 */
+	public void writeCurrentRecordAsCsv(OutputStream out, byte[] lineSeparator) throws IOException {
+		RunFormat.writeCsvLine(payload, payloadLength, dictionary, out, lineSeparator);
+	}
+
+	/**
+	 * Copies the current record out of the reader, keeping its payload bytes.
+	 */
+	public PayloadRecord getCurrentPayloadRecord() {
+		return PayloadRecord.fromPayload(Arrays.copyOf(payload, payloadLength), dictionary);
+	}
+
+	/**
+	 * Length of the current record as a CSV line, without the line separator.
+	 */
+	public int getCurrentCsvLength() throws IOException {
+		return RunFormat.csvLineLength(payload, payloadLength, dictionary);
+	}
+
+	byte[] getPayloadBytes() {
+		return payload;
+	}
+
+	/**
+	 * The dictionary the run was written with, null if none.
+	 */
+	public ColumnDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+	@Override
+	public void close() throws IOException {
+		exhausted = true;
+		blockIn.close();
+	}
+}
@@ -0,0 +1,183 @@
+package com.csv.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a sorted run in the {@link RunFormat binary run format}.
+ */
+public class RunFileWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final DataOutputStream fileOut;
+	private final BlockOutputStream blockStream;
+	private final DataOutputStream blockOut;
+	private final CRC32 checksum = new CRC32();
+	private final CRC32 segmentChecksum = new CRC32();
+	private final DataOutputStream recordOut;
+	private final List<RunIndex.Fence> fences = new ArrayList<>();
+	// Dictionary the payloads are coded with, null if none
+	private final ColumnDictionary dictionary;
+	private final int headerLength;
+	private byte[] payloadBuffer = new byte[256];
+	private long recordCount;
+
+	public RunFileWriter(String runFileName) throws IOException {
+		this(runFileName, NoneCodec.INSTANCE, null);
+	}
+
+	public RunFileWriter(String runFileName, SpillCodec codec, SpillStats stats) throws IOException {
+		this(runFileName, codec, stats, null);
+	}
+
+	/**
+	 * Writes a run whose records are coded with {@code dictionary}, which the run carries for its readers.
+	 */
+	public RunFileWriter(String runFileName, SpillCodec codec, SpillStats stats, ColumnDictionary dictionary)
+			throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(runFileName), BUFFER_SIZE), codec, stats, dictionary);
+	}
+
+	/**
+	 * Writes the run to {@code out}, which is closed with the writer.
+	 */
+	public RunFileWriter(OutputStream out, SpillCodec codec, SpillStats stats) throws IOException {
+		this(out, codec, stats, null);
+	}
+
+	public RunFileWriter(OutputStream out, SpillCodec codec, SpillStats stats, ColumnDictionary dictionary)
+			throws IOException {
+		this.fileOut = new DataOutputStream(out);
+		this.dictionary = dictionary;
+		fileOut.writeInt(RunFormat.MAGIC);
+		fileOut.writeByte(RunFormat.VERSION);
+		fileOut.writeByte(codec.getId());
+		if (dictionary == null) {
+			fileOut.writeInt(0);
+			headerLength = RunFormat.HEADER_LENGTH;
+		} else {
+			ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+			dictionary.write(new DataOutputStream(dictionaryBytes));
+			fileOut.writeInt(dictionaryBytes.size());
+			dictionaryBytes.writeTo(fileOut);
+			headerLength = RunFormat.HEADER_LENGTH + dictionaryBytes.size();
+		}
+		this.blockStream = new BlockOutputStream(fileOut, codec, stats, BlockOutputStream.DEFAULT_BLOCK_SIZE);
+		this.blockOut = new DataOutputStream(blockStream);
+		this.recordOut = new DataOutputStream(new CheckedOutputStream(new CheckedOutputStream(blockOut, segmentChecksum), checksum));
+	}
+
+	/**
+	 * Writes a record under its normalized key, see {@link com.csv.key.SortKey#encode(List)}.
+	 */
+	public void write(byte[] key, List<String> record) throws IOException {
+		if (record instanceof PayloadRecord) {
+			PayloadRecord payloadRecord = PayloadRecord.of(record, dictionary);
+			byte[] payload = payloadRecord.getPayload();
+			writeRecord(key, 0, key.length, payload, 0, payload.length);
+			return;
+		}
+		if (dictionary != null) {
+			byte[] payload = PayloadRecord.of(record, dictionary).getPayload();
+			writeRecord(key, 0, key.length, payload, 0, payload.length);
+			return;
+		}
+		int payloadLength = encodePayload(record);
+		writeRecord(key, 0, key.length, payloadBuffer, 0, payloadLength);
+	}
+
+	/**
+	 * Copies the current record of {@code reader}, without decoding its fields unless the reader's run is coded with
+	 * another dictionary.
+	 */
+	public void write(RunFileReader reader) throws IOException {
+		if (sameDictionary(reader.getDictionary())
+				|| dictionary == null && !RunFormat.isCoded(reader.getPayloadBytes(), 0)) {
+			writeRecord(reader.getKeyBytes(), 0, reader.getKeyLength(), reader.getPayloadBytes(), 0,
+					reader.getPayloadLength());
+			return;
+		}
+		write(Arrays.copyOf(reader.getKeyBytes(), reader.getKeyLength()), reader.getCurrentPayloadRecord());
+	}
+
+	private boolean sameDictionary(ColumnDictionary other) {
+		return dictionary == null ? other == null : other != null && other.getId() == dictionary.getId();
+	}
+
+	/**
+	 * Writes a record whose key and payload are held in {@code buffer}, as a {@link RecordArena} holds them, coded
+	 * with the dictionary of this writer if coded at all.
+	 */
+	void write(byte[] buffer, int keyOffset, int keyLength, int payloadOffset, int payloadLength) throws IOException {
+		writeRecord(buffer, keyOffset, keyLength, buffer, payloadOffset, payloadLength);
+	}
+
+	private void writeRecord(byte[] key, int keyOffset, int keyLength, byte[] payload, int payloadOffset,
+							 int payloadLength) throws IOException {
+		blockStream.writeBlockIfFull();
+		long blockOffset = headerLength + blockStream.getBlockOffset();
+		if (fences.isEmpty() || fences.get(fences.size() - 1).getBlockOffset() != blockOffset) {
+			// The first record starting in this block
+			endSegment();
+			fences.add(new RunIndex.Fence(blockOffset, blockStream.getBlockLength(), recordCount, 0,
+					Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength)));
+		}
+		RunFormat.writeVarInt(recordOut, keyLength + 1);
+		recordOut.write(key, keyOffset, keyLength);
+		RunFormat.writeVarInt(recordOut, payloadLength);
+		recordOut.write(payload, payloadOffset, payloadLength);
+		recordCount++;
+	}
+
+	private int encodePayload(List<String> record) {
+		int position = RunFormat.writeVarInt(ensurePayloadCapacity(0, 5), 0, record.size() << 1);
+		for (String field : record) {
+			byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+			ensurePayloadCapacity(position, 5 + bytes.length);
+			position = RunFormat.writeVarInt(payloadBuffer, position, bytes.length);
+			System.arraycopy(bytes, 0, payloadBuffer, position, bytes.length);
+			position += bytes.length;
+		}
+		return position;
+	}
+
+	private byte[] ensurePayloadCapacity(int position, int extra) {
+		if (position + extra > payloadBuffer.length) {
+			payloadBuffer = Arrays.copyOf(payloadBuffer, Math.max(payloadBuffer.length * 2, position + extra));
+		}
+		return payloadBuffer;
+	}
+
+	private void endSegment() {
+		if (!fences.isEmpty()) {
+			fences.get(fences.size() - 1).setSegmentChecksum((int) segmentChecksum.getValue());
+		}
+		segmentChecksum.reset();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			RunFormat.writeVarInt(recordOut, RunFormat.END_OF_RECORDS);
+			recordOut.flush();
+			endSegment();
+			blockOut.writeLong(recordCount);
+			blockOut.writeInt((int) checksum.getValue());
+			blockStream.finish();
+			RunIndex.write(fileOut, headerLength + blockStream.getBlockOffset(), fences);
+		} finally {
+			blockStream.release();
+			fileOut.close();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package com.csv.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of the binary run files written between merge passes.
+ * <pre>
+ * header:  int magic, byte version, byte codec id, int dictionary length, the {@link ColumnDictionary} if any
+ * body:    blocks of the codec (see {@link BlockOutputStream}) holding the records and the end marker
+ * record:  varint (keyLength + 1), key bytes, varint payloadLength, payload
+ * payload: varint (fieldCount &lt;&lt; 1 | coded), then per field: varint length, UTF-8 bytes; in a coded payload a
+ *          field of a dictionary column is instead varint (code + 1), or 0 followed by the field as above
+ * end:     varint 0, long recordCount, int CRC32 of every record byte
+ * index:   after the blocks, int fenceCount, the fences (see {@link RunIndex}), long index offset, int index magic
+ * </pre>
+ * The key is the normalized key of {@link com.csv.key.SortKey} and comes first, so a merge orders records by
+ * comparing bytes without decoding their fields.
+ */
+final class RunFormat {
+	static final int MAGIC = 0x43535652; // "CSVR"
+	static final byte VERSION = 5;
+	// Magic, version, codec id and dictionary length, before the dictionary itself
+	static final int HEADER_LENGTH = 10;
+	static final int END_OF_RECORDS = 0;
+	// Low bit of the field count varint of a payload holding dictionary codes
+	static final int CODED = 1;
+
+	private RunFormat() {
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in run file");
+	}
+
+	static int writeVarInt(byte[] buffer, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+
+	static List<String> decodePayload(byte[] payload, int length, ColumnDictionary dictionary) throws IOException {
+		PayloadFields fields = new PayloadFields(payload, 0, length, dictionary);
+		List<String> values = new ArrayList<>(fields.getFieldCount());
+		while (fields.next()) {
+			values.add(fields.value());
+		}
+		return values;
+	}
+
+	/**
+	 * Writes the fields of a payload separated by commas, as the CSV output has always been written: unquoted.
+	 */
+	static void writeCsvLine(byte[] payload, int length, ColumnDictionary dictionary, OutputStream out,
+							 byte[] lineSeparator) throws IOException {
+		writeCsvLine(payload, 0, length, dictionary, out, lineSeparator);
+	}
+
+	/**
+	 * Same as {@link #writeCsvLine(byte[], int, ColumnDictionary, OutputStream, byte[])} for a payload starting at
+	 * {@code offset}.
+	 */
+	static void writeCsvLine(byte[] payload, int offset, int length, ColumnDictionary dictionary, OutputStream out,
+							 byte[] lineSeparator) throws IOException {
+		PayloadFields fields = new PayloadFields(payload, offset, length, dictionary);
+		while (fields.next()) {
+			if (fields.getField() > 0) {
+				out.write(',');
+			}
+			out.write(fields.getBytes(), fields.getOffset(), fields.getLength());
+		}
+		out.write(lineSeparator);
+	}
+
+	/**
+	 * Length of the CSV line {@link #writeCsvLine} writes for a payload, without the line separator.
+	 */
+	static int csvLineLength(byte[] payload, int length, ColumnDictionary dictionary) throws IOException {
+		PayloadFields fields = new PayloadFields(payload, 0, length, dictionary);
+		int csvLength = Math.max(0, fields.getFieldCount() - 1);
+		while (fields.next()) {
+			csvLength += fields.getLength();
+		}
+		return csvLength;
+	}
+
+	/**
+	 * Whether a payload holds dictionary codes, see {@link ColumnDictionary}.
+	 */
+	static boolean isCoded(byte[] payload, int offset) {
+		return (payload[offset] & CODED) != 0;
+	}
+
+	/**
+	 * Walks the fields of a payload, looking the coded ones up in the dictionary of the run.
+	 */
+	static final class PayloadFields {
+		private final byte[] payload;
+		private final int[] position;
+		private final int limit;
+		// Null when the payload is not coded
+		private final ColumnDictionary dictionary;
+		private final int fieldCount;
+		private int field = -1;
+		// The current field: its UTF-8 bytes from offset, and its code or -1 when it is not coded
+		private byte[] bytes;
+		private int offset;
+		private int length;
+		private int code;
+
+		PayloadFields(byte[] payload, int offset, int length, ColumnDictionary dictionary) throws IOException {
+			this.payload = payload;
+			this.position = new int[]{offset};
+			this.limit = offset + length;
+			int header = readVarInt(payload, position, limit);
+			this.fieldCount = header >>> 1;
+			if ((header & CODED) != 0 && dictionary == null) {
+				throw new IOException("Record coded with a dictionary its run does not carry");
+			}
+			this.dictionary = (header & CODED) != 0 ? dictionary : null;
+		}
+
+		int getFieldCount() {
+			return fieldCount;
+		}
+
+		boolean next() throws IOException {
+			if (++field >= fieldCount) {
+				return false;
+			}
+			if (dictionary != null && dictionary.isCoded(field)) {
+				int codePlusOne = readVarInt(payload, position, limit);
+				if (codePlusOne > 0) {
+					code = codePlusOne - 1;
+					bytes = dictionary.valueBytes(field, code);
+					offset = 0;
+					length = bytes.length;
+					return true;
+				}
+			}
+			code = -1;
+			length = readVarInt(payload, position, limit);
+			if (position[0] + length > limit) {
+				throw new EOFException("Field runs past the end of its record");
+			}
+			bytes = payload;
+			offset = position[0];
+			position[0] += length;
+			return true;
+		}
+
+		int getField() {
+			return field;
+		}
+
+		int getOffset() {
+			return offset;
+		}
+
+		int getLength() {
+			return length;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+
+		int getCode() {
+			return code;
+		}
+
+		String value() {
+			return code >= 0 ? dictionary.value(field, code) : new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static int readVarInt(byte[] buffer, int[] position, int limit) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (position[0] >= limit) {
+				throw new EOFException("Varint runs past the end of its record");
+			}
+			int b = buffer[position[0]++] & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint in run file");
+	}
+}
@@ -0,0 +1,142 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fence index of a run: one fence for every block in which a record starts, holding the key of that first
+ * record and where it is. It is written after the end of the blocks (see {@link RunFormat}), so a reader can start
+ * at any fence and a merge can split the key space by the fence keys without reading the records.
+ * <p>
+ * Every fence also holds the CRC32 of the record bytes from it to the next fence, so a reader that starts at a fence
+ * and stops before the end can still verify every segment it reads completely.
+ */
+public class RunIndex {
+	private static final int INDEX_MAGIC = 0x43535649; // "CSVI"
+	private final List<Fence> fences;
+
+	RunIndex(List<Fence> fences) {
+		this.fences = Collections.unmodifiableList(fences);
+	}
+
+	public List<Fence> getFences() {
+		return fences;
+	}
+
+	/**
+	 * The last fence whose key is smaller than {@code key}, where every record with a key of at least {@code key} is
+	 * found, or the first fence if there is none. Returns -1 for an empty run.
+	 */
+	int startFenceFor(byte[] key) {
+		int low = 0;
+		int high = fences.size() - 1;
+		int start = fences.isEmpty() ? -1 : 0;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (SortKey.compare(fences.get(middle).key, key) < 0) {
+				start = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Reads the index at the end of a run file.
+	 */
+	public static RunIndex read(String runFileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(runFileName, "r")) {
+			long length = file.length();
+			if (length < RunFormat.HEADER_LENGTH + 12) {
+				throw new IOException("No fence index in run file " + runFileName);
+			}
+			file.seek(length - 12);
+			long indexStart = file.readLong();
+			if (file.readInt() != INDEX_MAGIC || indexStart < RunFormat.HEADER_LENGTH || indexStart > length - 12) {
+				throw new IOException("No fence index in run file " + runFileName);
+			}
+			file.seek(indexStart);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+			int fenceCount = in.readInt();
+			List<Fence> fences = new ArrayList<>(fenceCount);
+			for (int i = 0; i < fenceCount; i++) {
+				long blockOffset = in.readLong();
+				int offsetInBlock = in.readInt();
+				long recordNumber = in.readLong();
+				int segmentChecksum = in.readInt();
+				byte[] key = new byte[RunFormat.readVarInt(in)];
+				in.readFully(key);
+				fences.add(new Fence(blockOffset, offsetInBlock, recordNumber, segmentChecksum, key));
+			}
+			return new RunIndex(fences);
+		}
+	}
+
+	static void write(DataOutputStream out, long indexStart, List<Fence> fences) throws IOException {
+		out.writeInt(fences.size());
+		for (Fence fence : fences) {
+			out.writeLong(fence.blockOffset);
+			out.writeInt(fence.offsetInBlock);
+			out.writeLong(fence.recordNumber);
+			out.writeInt(fence.segmentChecksum);
+			RunFormat.writeVarInt(out, fence.key.length);
+			out.write(fence.key);
+		}
+		out.writeLong(indexStart);
+		out.writeInt(INDEX_MAGIC);
+	}
+
+	public static class Fence {
+		// File offset of the block the record starts in, and the record's offset in the decompressed block
+		private final long blockOffset;
+		private final int offsetInBlock;
+		// Number of records before this one in the run
+		private final long recordNumber;
+		private final byte[] key;
+		// CRC32 of the record bytes from this fence to the next one, known once the next fence is reached
+		private int segmentChecksum;
+
+		Fence(long blockOffset, int offsetInBlock, long recordNumber, int segmentChecksum, byte[] key) {
+			this.blockOffset = blockOffset;
+			this.offsetInBlock = offsetInBlock;
+			this.recordNumber = recordNumber;
+			this.segmentChecksum = segmentChecksum;
+			this.key = key;
+		}
+
+		public byte[] getKey() {
+			return key;
+		}
+
+		long getBlockOffset() {
+			return blockOffset;
+		}
+
+		int getOffsetInBlock() {
+			return offsetInBlock;
+		}
+
+		long getRecordNumber() {
+			return recordNumber;
+		}
+
+		int getSegmentChecksum() {
+			return segmentChecksum;
+		}
+
+		void setSegmentChecksum(int segmentChecksum) {
+			this.segmentChecksum = segmentChecksum;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.csv.io;
+
+import java.io.IOException;
+
+/**
+ * Compresses the blocks of a spill file. The codec of a run is stored in its header, so every run can use a
+ * different one.
+ */
+public interface SpillCodec {
+	/**
+	 * Identifier stored in the run header.
+	 */
+	byte getId();
+
+	String getName();
+
+	int maxCompressedLength(int length);
+
+	/**
+	 * A compressor for the blocks of one stream, holding whatever the codec reuses from block to block until closed.
+	 */
+	Compressor newCompressor();
+
+	/**
+	 * A decompressor for the blocks of one stream, holding whatever the codec reuses from block to block until closed.
+	 */
+	Decompressor newDecompressor();
+
+	/**
+	 * Compresses a single block, see {@link Compressor#compress(byte[], int, byte[])}.
+	 */
+	default int compress(byte[] source, int length, byte[] target) {
+		try (Compressor compressor = newCompressor()) {
+			return compressor.compress(source, length, target);
+		}
+	}
+
+	/**
+	 * Restores a single block, see {@link Decompressor#decompress(byte[], int, byte[], int)}.
+	 */
+	default void decompress(byte[] source, int sourceLength, byte[] target, int length) throws IOException {
+		try (Decompressor decompressor = newDecompressor()) {
+			decompressor.decompress(source, sourceLength, target, length);
+		}
+	}
+
+	interface Compressor extends AutoCloseable {
+		/**
+		 * Compresses {@code length} bytes of {@code source} into {@code target}, returns the compressed length.
+		 */
+		int compress(byte[] source, int length, byte[] target);
+
+		/**
+		 * Releases the state of the compressor, native memory included.
+		 */
+		@Override
+		default void close() {
+		}
+	}
+
+	interface Decompressor extends AutoCloseable {
+		/**
+		 * Restores exactly {@code length} bytes into {@code target}.
+		 */
+		void decompress(byte[] source, int sourceLength, byte[] target, int length) throws IOException;
+
+		/**
+		 * Releases the state of the decompressor, native memory included.
+		 */
+		@Override
+		default void close() {
+		}
+	}
+
+	static SpillCodec forName(String name) {
+		switch (name) {
+			case NoneCodec.NAME:
+				return NoneCodec.INSTANCE;
+			case DeflateCodec.NAME:
+				return DeflateCodec.INSTANCE;
+			case LzCodec.NAME:
+				return LzCodec.INSTANCE;
+			default:
+				throw new IllegalArgumentException("Unknown spill codec " + name);
+		}
+	}
+
+	static SpillCodec forId(byte id) throws IOException {
+		switch (id) {
+			case NoneCodec.ID:
+				return NoneCodec.INSTANCE;
+			case DeflateCodec.ID:
+				return DeflateCodec.INSTANCE;
+			case LzCodec.ID:
+				return LzCodec.INSTANCE;
+			default:
+				throw new IOException("Unknown spill codec id " + id);
+		}
+	}
+}
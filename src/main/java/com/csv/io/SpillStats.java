@@ -0,0 +1,88 @@
+package com.csv.io;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression and I/O figures of the spill files written and read during one phase of a sort. Shared by all the
+ * threads of the phase.
+ */
+public class SpillStats {
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+	private final String phase;
+	private final LongAdder rawBytesWritten = new LongAdder();
+	private final LongAdder storedBytesWritten = new LongAdder();
+	private final LongAdder compressNanos = new LongAdder();
+	private final LongAdder decompressNanos = new LongAdder();
+	private final LongAdder storedBytesRead = new LongAdder();
+	// Wall time threads spent blocked on file reads and writes, summed over the threads
+	private final LongAdder ioWaitNanos = new LongAdder();
+
+	public SpillStats(String phase) {
+		this.phase = phase;
+	}
+
+	/**
+	 * CPU time of the calling thread, or wall time where the JVM cannot measure CPU time.
+	 */
+	static long cpuTimeNanos() {
+		return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	void recordCompression(int rawBytes, int storedBytes, long cpuNanos) {
+		rawBytesWritten.add(rawBytes);
+		storedBytesWritten.add(storedBytes);
+		compressNanos.add(cpuNanos);
+	}
+
+	void recordDecompression(long cpuNanos) {
+		decompressNanos.add(cpuNanos);
+	}
+
+	void recordRead(int storedBytes) {
+		storedBytesRead.add(storedBytes);
+	}
+
+	void recordIoWait(long nanos) {
+		ioWaitNanos.add(nanos);
+	}
+
+	public long getRawBytesWritten() {
+		return rawBytesWritten.sum();
+	}
+
+	public long getStoredBytesWritten() {
+		return storedBytesWritten.sum();
+	}
+
+	public double getCompressionRatio() {
+		long stored = getStoredBytesWritten();
+		return stored == 0 ? 1 : (double) getRawBytesWritten() / stored;
+	}
+
+	public long getCompressNanos() {
+		return compressNanos.sum();
+	}
+
+	public long getDecompressNanos() {
+		return decompressNanos.sum();
+	}
+
+	public long getStoredBytesRead() {
+		return storedBytesRead.sum();
+	}
+
+	public long getIoWaitNanos() {
+		return ioWaitNanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d bytes spilled as %d (ratio %.2f), compress %d ms CPU, decompress %d ms CPU, "
+						+ "%d ms waiting on I/O",
+				phase, getRawBytesWritten(), getStoredBytesWritten(), getCompressionRatio(),
+				getCompressNanos() / 1_000_000, getDecompressNanos() / 1_000_000, getIoWaitNanos() / 1_000_000);
+	}
+}
@@ -0,0 +1,131 @@
+package com.csv.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Double-buffered output: once a buffer fills up it is written to the underlying stream on a background thread while
+ * the caller keeps filling the other one. Holds two buffers of {@code bufferSize} bytes.
+ */
+public class WriteBehindOutputStream extends OutputStream {
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final SpillStats stats;
+	private byte[] buffer;
+	private byte[] spare;
+	private int count;
+	private Future<?> pendingWrite;
+	private boolean closed;
+
+	public WriteBehindOutputStream(OutputStream out, int bufferSize, ExecutorService executor) {
+		this(out, bufferSize, executor, null);
+	}
+
+	/**
+	 * Also records in {@code stats} how long the caller waits for the background writes.
+	 */
+	public WriteBehindOutputStream(OutputStream out, int bufferSize, ExecutorService executor, SpillStats stats) {
+		this.out = out;
+		this.executor = executor;
+		this.stats = stats;
+		this.buffer = new byte[bufferSize];
+		this.spare = new byte[bufferSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			handOff();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (count == buffer.length) {
+				handOff();
+			}
+			int copied = Math.min(length, buffer.length - count);
+			System.arraycopy(bytes, offset, buffer, count, copied);
+			count += copied;
+			offset += copied;
+			length -= copied;
+		}
+	}
+
+	/**
+	 * Starts writing the filled buffer in the background and switches to the spare one, once its own write is done.
+	 */
+	private void handOff() throws IOException {
+		awaitPendingWrite();
+		byte[] filled = buffer;
+		int length = count;
+		buffer = spare;
+		spare = filled;
+		count = 0;
+		if (executor == null) {
+			long start = System.nanoTime();
+			out.write(filled, 0, length);
+			recordWait(start);
+		} else {
+			pendingWrite = executor.submit(() -> {
+				out.write(filled, 0, length);
+				return null;
+			});
+		}
+	}
+
+	private void awaitPendingWrite() throws IOException {
+		if (pendingWrite == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			pendingWrite.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing behind");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			pendingWrite = null;
+			recordWait(start);
+		}
+	}
+
+	private void recordWait(long start) {
+		if (stats != null) {
+			stats.recordIoWait(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (count > 0) {
+			handOff();
+		}
+		awaitPendingWrite();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.csv.key;
+
+/**
+ * One column of a sort key: which field, read as what, in which direction, and where empty or missing fields go.
+ */
+public class KeyColumn {
+	private final int fieldIndex;
+	private final KeyType type;
+	private final boolean descending;
+	private final boolean nullsLast;
+
+	public KeyColumn(int fieldIndex, KeyType type, boolean descending, boolean nullsLast) {
+		if (fieldIndex < 0) {
+			throw new IllegalArgumentException("Key field index must not be negative: " + fieldIndex);
+		}
+		this.fieldIndex = fieldIndex;
+		this.type = type;
+		this.descending = descending;
+		this.nullsLast = nullsLast;
+	}
+
+	public int getFieldIndex() {
+		return fieldIndex;
+	}
+
+	public KeyType getType() {
+		return type;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	public boolean isNullsLast() {
+		return nullsLast;
+	}
+
+	@Override
+	public String toString() {
+		return fieldIndex + ":" + type.getName() + (descending ? ":desc" : ":asc") + (nullsLast ? ":nulls-last" : "");
+	}
+}
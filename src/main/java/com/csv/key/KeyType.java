@@ -0,0 +1,119 @@
+package com.csv.key;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * How the text of a key field is interpreted and turned into bytes that sort the same way as the values.
+ */
+public enum KeyType {
+	/**
+	 * Unicode code point order. Zero bytes are escaped as {@code 00 FF} and the value ends with {@code 00 00}, so a
+	 * string sorts before every longer string it is a prefix of, also inside a composite key.
+	 */
+	STRING("string") {
+		@Override
+		int encode(String value, byte[] target, int position) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			for (byte b : bytes) {
+				target[position++] = b;
+				if (b == 0) {
+					target[position++] = (byte) 0xFF;
+				}
+			}
+			target[position++] = 0;
+			target[position++] = 0;
+			return position;
+		}
+
+		@Override
+		int maxEncodedLength(String value) {
+			// UTF-8 needs up to 3 bytes per UTF-16 char, an escaped zero byte 2, plus the terminator
+			return value.length() * 3 + 2;
+		}
+	},
+	/**
+	 * A signed 64-bit integer, written big-endian with the sign bit flipped.
+	 */
+	INT("int") {
+		@Override
+		int encode(String value, byte[] target, int position) {
+			long number;
+			try {
+				number = Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not an int: " + value, e);
+			}
+			return writeLong(number ^ Long.MIN_VALUE, target, position);
+		}
+	},
+	/**
+	 * A double, written as its IEEE 754 bits with the sign bit flipped for positives and every bit flipped for
+	 * negatives, which orders them numerically.
+	 */
+	DECIMAL("decimal") {
+		@Override
+		int encode(String value, byte[] target, int position) {
+			double number;
+			try {
+				number = Double.parseDouble(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a decimal: " + value, e);
+			}
+			// -0.0 and 0.0 are the same key
+			long bits = Double.doubleToLongBits(number == 0 ? 0.0 : number);
+			return writeLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE, target, position);
+		}
+	},
+	/**
+	 * An ISO-8601 date such as {@code 2024-03-31}, written as its epoch day like {@link #INT}.
+	 */
+	DATE("date") {
+		@Override
+		int encode(String value, byte[] target, int position) {
+			long epochDay;
+			try {
+				epochDay = LocalDate.parse(value.trim()).toEpochDay();
+			} catch (DateTimeParseException e) {
+				throw new IllegalArgumentException("Not an ISO date: " + value, e);
+			}
+			return writeLong(epochDay ^ Long.MIN_VALUE, target, position);
+		}
+	};
+
+	private final String name;
+
+	KeyType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Writes the order-preserving bytes of {@code value} at {@code position}, returns the position after them.
+	 */
+	abstract int encode(String value, byte[] target, int position);
+
+	int maxEncodedLength(String value) {
+		return Long.BYTES;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public static KeyType fromName(String name) {
+		for (KeyType type : values()) {
+			if (type.name.equals(name)) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("Unknown key type " + name);
+	}
+
+	private static int writeLong(long value, byte[] target, int position) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			target[position++] = (byte) (value >>> shift);
+		}
+		return position;
+	}
+}
@@ -0,0 +1,152 @@
+package com.csv.key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The columns a file is sorted by. Every record is encoded once into a normalized key, a byte string whose unsigned
+ * lexicographic order is the order of the records, so sorting and merging only ever compare bytes.
+ * <p>
+ * Each column contributes a marker byte, {@code 00} for a null sorting first, {@code 01} for a value and {@code 02}
+ * for a null sorting last, followed for values by the bytes of its {@link KeyType}, inverted for descending columns.
+ * Empty and missing fields are null.
+ */
+public class SortKey {
+	private static final byte NULL_FIRST = 0;
+	private static final byte VALUE = 1;
+	private static final byte NULL_LAST = 2;
+	private final List<KeyColumn> columns;
+
+	public SortKey(List<KeyColumn> columns) {
+		if (columns.isEmpty()) {
+			throw new IllegalArgumentException("A sort key needs at least one column");
+		}
+		this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+	}
+
+	/**
+	 * The key the positional arguments have always described: one field compared as a string.
+	 */
+	public static SortKey singleField(int fieldIndex) {
+		return new SortKey(Collections.singletonList(new KeyColumn(fieldIndex, KeyType.STRING, false, false)));
+	}
+
+	/**
+	 * Parses a comma separated list of {@code index[:type][:asc|desc][:nulls-first|nulls-last]} columns, for example
+	 * {@code 3:int:desc,0:string,5:date}. The type defaults to string and the direction to ascending.
+	 */
+	public static SortKey parse(String specification) {
+		List<KeyColumn> columns = new ArrayList<>();
+		for (String column : specification.split(",")) {
+			String[] parts = column.trim().split(":");
+			int fieldIndex = Integer.parseInt(parts[0]);
+			KeyType type = KeyType.STRING;
+			boolean descending = false;
+			boolean nullsLast = false;
+			for (int i = 1; i < parts.length; i++) {
+				switch (parts[i]) {
+					case "asc":
+						descending = false;
+						break;
+					case "desc":
+						descending = true;
+						break;
+					case "nulls-first":
+						nullsLast = false;
+						break;
+					case "nulls-last":
+						nullsLast = true;
+						break;
+					default:
+						type = KeyType.fromName(parts[i]);
+				}
+			}
+			columns.add(new KeyColumn(fieldIndex, type, descending, nullsLast));
+		}
+		return new SortKey(columns);
+	}
+
+	public List<KeyColumn> getColumns() {
+		return columns;
+	}
+
+	public byte[] encode(String[] record) {
+		return encode(Arrays.asList(record));
+	}
+
+	public byte[] encode(List<String> record) {
+		int maxLength = 0;
+		for (KeyColumn column : columns) {
+			String value = fieldOrNull(record, column.getFieldIndex());
+			maxLength += 1 + (value == null ? 0 : column.getType().maxEncodedLength(value));
+		}
+		byte[] key = new byte[maxLength];
+		int position = 0;
+		for (KeyColumn column : columns) {
+			String value = fieldOrNull(record, column.getFieldIndex());
+			if (value == null) {
+				key[position++] = column.isNullsLast() ? NULL_LAST : NULL_FIRST;
+				continue;
+			}
+			key[position++] = VALUE;
+			int valueStart = position;
+			try {
+				position = column.getType().encode(value, key, position);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Key column " + column + ": " + e.getMessage(), e);
+			}
+			if (column.isDescending()) {
+				for (int i = valueStart; i < position; i++) {
+					key[i] = (byte) ~key[i];
+				}
+			}
+		}
+		return position == key.length ? key : Arrays.copyOf(key, position);
+	}
+
+	private static String fieldOrNull(List<String> record, int fieldIndex) {
+		if (fieldIndex >= record.size()) {
+			return null;
+		}
+		String value = record.get(fieldIndex);
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Unsigned lexicographic comparison of two normalized keys, a key sorts before every longer key it prefixes.
+	 */
+	public static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+		return compare(a, 0, aLength, b, 0, bLength);
+	}
+
+	/**
+	 * Compares the keys held in {@code a} from {@code aOffset} and in {@code b} from {@code bOffset}.
+	 */
+	public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+		int length = Math.min(aLength, bLength);
+		for (int i = 0; i < length; i++) {
+			if (a[aOffset + i] != b[bOffset + i]) {
+				return (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+			}
+		}
+		return aLength - bLength;
+	}
+
+	public static int compare(byte[] a, byte[] b) {
+		return compare(a, a.length, b, b.length);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder specification = new StringBuilder();
+		for (KeyColumn column : columns) {
+			if (specification.length() > 0) {
+				specification.append(',');
+			}
+			specification.append(column);
+		}
+		return specification.toString();
+	}
+}
@@ -0,0 +1,64 @@
+package com.csv.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event spanning one phase of a sort. Only loaded where JFR exists, see {@link PhaseEvents}.
+ */
+@Name("com.csv.SortPhase")
+@Label("Sort Phase")
+@Category("CSV Sort")
+class PhaseEvent extends Event {
+	@Label("Phase")
+	String phase;
+	@Label("Records Read")
+	long recordsRead;
+	@Label("Records Written")
+	long recordsWritten;
+	@Label("Duplicates Folded")
+	long recordsReduced;
+	@Label("Bytes Read")
+	@DataAmount
+	long bytesRead;
+	@Label("Bytes Written")
+	@DataAmount
+	long bytesWritten;
+	@Label("Runs Written")
+	int runsOut;
+	@Label("Fan-in")
+	int fanIn;
+	@Label("I/O Wait")
+	@Timespan(Timespan.NANOSECONDS)
+	long ioWait;
+	@Label("Compare Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long compareTime;
+
+	static PhaseEvent begin(String phase) {
+		PhaseEvent event = new PhaseEvent();
+		event.phase = phase;
+		event.begin();
+		return event;
+	}
+
+	void commit(PhaseMetrics metrics) {
+		end();
+		if (shouldCommit()) {
+			recordsRead = metrics.getRecordsRead();
+			recordsWritten = metrics.getRecordsWritten();
+			recordsReduced = metrics.getRecordsReduced();
+			bytesRead = metrics.getBytesRead();
+			bytesWritten = metrics.getBytesWritten();
+			runsOut = metrics.getRunsOut();
+			fanIn = metrics.getFanIn();
+			ioWait = metrics.getSpillStats().getIoWaitNanos();
+			compareTime = metrics.getCompareNanos();
+			commit();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.csv.metrics;
+
+/**
+ * Emits a {@link PhaseEvent} per phase when the JVM has JFR. The sorter still runs on Java 8 builds without it,
+ * {@link PhaseEvent} is then never loaded.
+ */
+final class PhaseEvents {
+	private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+	private PhaseEvents() {
+	}
+
+	/**
+	 * Starts the event of a phase, returns null without JFR.
+	 */
+	static Object begin(String phase) {
+		return JFR_AVAILABLE ? PhaseEvent.begin(phase) : null;
+	}
+
+	static void commit(Object event, PhaseMetrics metrics) {
+		if (event != null) {
+			((PhaseEvent) event).commit(metrics);
+		}
+	}
+
+	private static boolean isJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.csv.metrics;
+
+import com.csv.io.RecordReader;
+import com.csv.io.SpillStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one phase of a sort, such as run generation or a merge pass. Shared by all the threads of the phase and
+ * read by the {@link ProgressReporter} while the phase runs. Spill file bytes are counted by the {@link SpillStats} of
+ * the phase, the input and the CSV output by the phase itself.
+ */
+public class PhaseMetrics {
+	private final String name;
+	private final SpillStats spillStats;
+	private final long startNanos = System.nanoTime();
+	private volatile long endNanos;
+	private final LongAdder recordsRead = new LongAdder();
+	private final LongAdder recordsWritten = new LongAdder();
+	private final LongAdder inputBytesRead = new LongAdder();
+	private final LongAdder csvBytesWritten = new LongAdder();
+	// Records folded into a record of the same key by --dedup or --aggregate
+	private final LongAdder recordsReduced = new LongAdder();
+	// Time merges spent comparing keys, reading the runs left out, when they time their comparisons
+	private final LongAdder compareNanos = new LongAdder();
+	// Work of the phase for the ETA, in input bytes or in records, 0 when unknown
+	private volatile long expectedInputBytes;
+	private volatile long expectedRecords;
+	private volatile int runsIn;
+	private volatile int runsOut;
+	private volatile int fanIn;
+	private final long gcCountAtStart = JvmStats.gcCount();
+	private final long gcMillisAtStart = JvmStats.gcMillis();
+	private long gcCount;
+	private long gcMillis;
+	private long peakHeapBytes;
+	private final Object event;
+
+	public PhaseMetrics(String name) {
+		this.name = name;
+		this.spillStats = new SpillStats(name);
+		this.event = PhaseEvents.begin(name);
+	}
+
+	public void addRead(long records, long inputBytes) {
+		recordsRead.add(records);
+		inputBytesRead.add(inputBytes);
+	}
+
+	public void addWritten(long records, long csvBytes) {
+		recordsWritten.add(records);
+		csvBytesWritten.add(csvBytes);
+	}
+
+	public void addReduced(long records) {
+		recordsReduced.add(records);
+	}
+
+	public void addCompareNanos(long nanos) {
+		compareNanos.add(nanos);
+	}
+
+	/**
+	 * Counts the records of {@code reader} into this phase, see {@link InputCounter}.
+	 */
+	public InputCounter countInput(RecordReader reader) {
+		return new InputCounter(reader);
+	}
+
+	public void setExpectedInputBytes(long expectedInputBytes) {
+		this.expectedInputBytes = expectedInputBytes;
+	}
+
+	public void setExpectedRecords(long expectedRecords) {
+		this.expectedRecords = expectedRecords;
+	}
+
+	public void setRuns(int runsIn, int runsOut, int fanIn) {
+		this.runsIn = runsIn;
+		this.runsOut = runsOut;
+		this.fanIn = fanIn;
+	}
+
+	public void setRunsOut(int runsOut) {
+		this.runsOut = runsOut;
+	}
+
+	void end() {
+		if (endNanos != 0) {
+			return;
+		}
+		gcCount = JvmStats.gcCount() - gcCountAtStart;
+		gcMillis = JvmStats.gcMillis() - gcMillisAtStart;
+		peakHeapBytes = JvmStats.peakHeapBytes();
+		endNanos = System.nanoTime();
+		PhaseEvents.commit(event, this);
+	}
+
+	public boolean isEnded() {
+		return endNanos != 0;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public SpillStats getSpillStats() {
+		return spillStats;
+	}
+
+	public long getElapsedMillis() {
+		return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1_000_000;
+	}
+
+	public long getRecordsRead() {
+		return recordsRead.sum();
+	}
+
+	public long getRecordsWritten() {
+		return recordsWritten.sum();
+	}
+
+	public long getRecordsReduced() {
+		return recordsReduced.sum();
+	}
+
+	public long getCompareNanos() {
+		return compareNanos.sum();
+	}
+
+	/**
+	 * Input bytes parsed plus spill file bytes read.
+	 */
+	public long getBytesRead() {
+		return inputBytesRead.sum() + spillStats.getStoredBytesRead();
+	}
+
+	/**
+	 * Spill file bytes written plus CSV output bytes written.
+	 */
+	public long getBytesWritten() {
+		return spillStats.getStoredBytesWritten() + csvBytesWritten.sum();
+	}
+
+	/**
+	 * Records moved per second: read or written, whichever the phase did more of.
+	 */
+	public long getRecordsPerSecond() {
+		long millis = Math.max(1, getElapsedMillis());
+		return Math.max(getRecordsRead(), getRecordsWritten()) * 1000 / millis;
+	}
+
+	public int getRunsIn() {
+		return runsIn;
+	}
+
+	public int getRunsOut() {
+		return runsOut;
+	}
+
+	public int getFanIn() {
+		return fanIn;
+	}
+
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	public long getGcMillis() {
+		return gcMillis;
+	}
+
+	public long getPeakHeapBytes() {
+		return peakHeapBytes;
+	}
+
+	/**
+	 * Share of the phase done, or -1 when its work is unknown.
+	 */
+	double getProgress() {
+		if (expectedInputBytes > 0) {
+			return Math.min(1, (double) inputBytesRead.sum() / expectedInputBytes);
+		}
+		if (expectedRecords > 0) {
+			return Math.min(1, (double) Math.max(getRecordsRead(), getRecordsWritten()) / expectedRecords);
+		}
+		return -1;
+	}
+
+	/**
+	 * A line for the progress output: counts, rate, share done and the time left at the rate so far.
+	 */
+	String progressLine() {
+		StringBuilder line = new StringBuilder(String.format("%s: %,d records read, %,d written, %,d MB read, %,d MB written, %,d records/s",
+				name, getRecordsRead(), getRecordsWritten(), getBytesRead() >> 20, getBytesWritten() >> 20,
+				getRecordsPerSecond()));
+		double progress = getProgress();
+		if (progress > 0) {
+			long remainingSeconds = (long) (getElapsedMillis() * (1 - progress) / progress / 1000);
+			line.append(String.format(", %.0f%% done, ETA %d:%02d:%02d", 100 * progress, remainingSeconds / 3600,
+					remainingSeconds / 60 % 60, remainingSeconds % 60));
+		}
+		line.append(String.format(", heap %,d MB", JvmStats.usedHeapBytes() >> 20));
+		return line.toString();
+	}
+
+	/**
+	 * A line summing up the ended phase.
+	 */
+	String summaryLine() {
+		long reduced = getRecordsReduced();
+		String summary = String.format("%s: %,d ms, %,d records read, %,d written, %,d records/s, %,d runs in, %,d out, fan-in %d, "
+						+ "%,d ms waiting on I/O, %d GCs taking %,d ms, peak heap %,d MB",
+				name, getElapsedMillis(), getRecordsRead(), getRecordsWritten(), getRecordsPerSecond(), runsIn, runsOut,
+				fanIn, spillStats.getIoWaitNanos() / 1_000_000, gcCount, gcMillis, peakHeapBytes >> 20);
+		long compareNanos = getCompareNanos();
+		if (compareNanos > 0) {
+			summary += String.format(", %,d ms comparing keys", compareNanos / 1_000_000);
+		}
+		return reduced == 0 ? summary : summary + String.format(", %,d duplicates folded", reduced);
+	}
+
+	/**
+	 * Counts the records one thread reads, handing the counts over to the shared counters every
+	 * {@value #BATCH} records so that the threads of a phase do not contend on them per record.
+	 */
+	public class InputCounter {
+		private static final int BATCH = 4096;
+		private final RecordReader reader;
+		private int records;
+		private long bytesCounted;
+
+		private InputCounter(RecordReader reader) {
+			this.reader = reader;
+		}
+
+		public void count(int read) {
+			records += read;
+			if (records >= BATCH) {
+				flush();
+			}
+		}
+
+		/**
+		 * Hands the records counted so far over, to be called once the reader is done.
+		 */
+		public void flush() {
+			long bytesRead = Math.max(0, reader.getBytesRead());
+			addRead(records, bytesRead - bytesCounted);
+			bytesCounted = bytesRead;
+			records = 0;
+		}
+	}
+}
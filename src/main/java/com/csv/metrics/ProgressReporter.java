@@ -0,0 +1,40 @@
+package com.csv.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the progress of the running phase of a sort at a fixed interval, from a daemon thread of its own.
+ */
+public class ProgressReporter implements AutoCloseable {
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts reporting every {@code intervalMillis}, or not at all if it is 0.
+	 */
+	public ProgressReporter(SortMetrics metrics, long intervalMillis) {
+		if (intervalMillis <= 0) {
+			scheduler = null;
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(() -> {
+			PhaseMetrics phase = metrics.getCurrentPhase();
+			if (phase != null && !phase.isEnded()) {
+				metrics.report(phase.progressLine());
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.csv.metrics;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.SpillStats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The phases of one sort, in the order they ran, and the JSON report written from them.
+ */
+public class SortMetrics {
+	private final List<PhaseMetrics> phases = new CopyOnWriteArrayList<>();
+	private final long startMillis = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private volatile PhaseMetrics currentPhase;
+	private final Consumer<String> messages;
+	private final boolean resetPeakHeap;
+
+	/**
+	 * Metrics that report nothing as phases end.
+	 */
+	public SortMetrics() {
+		this(message -> {
+		});
+	}
+
+	/**
+	 * Metrics that hand the summary of every phase that ends, and the progress lines, to {@code messages}.
+	 */
+	public SortMetrics(Consumer<String> messages) {
+		this(messages, false);
+	}
+
+	/**
+	 * Metrics that, with {@code resetPeakHeap}, reset the heap peaks of the JVM as every phase starts, so that each
+	 * phase reports a peak of its own. The peaks are process-wide, so only a sort that has the process to itself may
+	 * reset them; otherwise the peak heap of a phase is the peak of the process so far.
+	 */
+	public SortMetrics(Consumer<String> messages, boolean resetPeakHeap) {
+		this.messages = messages;
+		this.resetPeakHeap = resetPeakHeap;
+	}
+
+	public PhaseMetrics startPhase(String name) {
+		if (resetPeakHeap) {
+			JvmStats.resetPeakHeap();
+		}
+		PhaseMetrics phase = new PhaseMetrics(name);
+		phases.add(phase);
+		currentPhase = phase;
+		return phase;
+	}
+
+	/**
+	 * Ends the phase and reports its summary, after its spill figures if it read or wrote run files.
+	 */
+	public void endPhase(PhaseMetrics phase) {
+		phase.end();
+		SpillStats spillStats = phase.getSpillStats();
+		if (spillStats.getStoredBytesWritten() > 0 || spillStats.getStoredBytesRead() > 0) {
+			messages.accept(spillStats.toString());
+		}
+		messages.accept(phase.summaryLine());
+	}
+
+	void report(String line) {
+		messages.accept(line);
+	}
+
+	PhaseMetrics getCurrentPhase() {
+		return currentPhase;
+	}
+
+	public List<PhaseMetrics> getPhases() {
+		return phases;
+	}
+
+	/**
+	 * Records in the input, as read by the first phase, or 0 before it ran.
+	 */
+	public long getInputRecords() {
+		return phases.isEmpty() ? 0 : phases.get(0).getRecordsRead();
+	}
+
+	/**
+	 * Records folded into others by {@code --dedup} or {@code --aggregate} over all phases. Every folded record is
+	 * gone from the later phases, so the phases never count the same record twice.
+	 */
+	public long getRecordsReduced() {
+		long reduced = 0;
+		for (PhaseMetrics phase : phases) {
+			reduced += phase.getRecordsReduced();
+		}
+		return reduced;
+	}
+
+	/**
+	 * A line telling how much folding equal keys cut the records of the sort.
+	 */
+	public String reductionLine() {
+		long inputRecords = getInputRecords();
+		long reduced = getRecordsReduced();
+		return String.format("duplicates folded: %,d of %,d input records, %.1f%% fewer records to sort and write",
+				reduced, inputRecords, inputRecords == 0 ? 0.0 : 100.0 * reduced / inputRecords);
+	}
+
+	/**
+	 * Writes the figures of the sort and of every phase as one JSON object.
+	 */
+	public void writeReport(FileSorterArgs args, String reportFileName) throws IOException {
+		long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+		long peakHeapBytes = 0;
+		for (PhaseMetrics phase : phases) {
+			peakHeapBytes = Math.max(peakHeapBytes, phase.getPeakHeapBytes());
+		}
+		StringBuilder json = new StringBuilder("{\n");
+		field(json, "  ", "input", args.inputFileName).append(",\n");
+		field(json, "  ", "output", args.outputFileName).append(",\n");
+		field(json, "  ", "algorithm", args.algorithm.name().toLowerCase()).append(",\n");
+		field(json, "  ", "threads", args.numThreads).append(",\n");
+		field(json, "  ", "inputBytes", Files.size(Paths.get(args.inputFileName))).append(",\n");
+		field(json, "  ", "inputRecords", getInputRecords()).append(",\n");
+		if (args.reducer != null) {
+			field(json, "  ", "reducer", args.reducer.getName()).append(",\n");
+			field(json, "  ", "recordsReduced", getRecordsReduced()).append(",\n");
+		}
+		field(json, "  ", "startEpochMillis", startMillis).append(",\n");
+		field(json, "  ", "elapsedMillis", elapsedMillis).append(",\n");
+		field(json, "  ", "peakHeapBytes", peakHeapBytes).append(",\n");
+		json.append("  \"phases\": [");
+		for (int i = 0; i < phases.size(); i++) {
+			json.append(i == 0 ? "\n" : ",\n");
+			appendPhase(json, phases.get(i));
+		}
+		json.append("\n  ]\n}\n");
+		try (Writer writer = Files.newBufferedWriter(Paths.get(reportFileName), StandardCharsets.UTF_8)) {
+			writer.write(json.toString());
+		}
+	}
+
+	private static void appendPhase(StringBuilder json, PhaseMetrics phase) {
+		SpillStats spillStats = phase.getSpillStats();
+		String indent = "      ";
+		json.append("    {\n");
+		field(json, indent, "name", phase.getName()).append(",\n");
+		field(json, indent, "elapsedMillis", phase.getElapsedMillis()).append(",\n");
+		field(json, indent, "recordsRead", phase.getRecordsRead()).append(",\n");
+		field(json, indent, "recordsWritten", phase.getRecordsWritten()).append(",\n");
+		field(json, indent, "recordsReduced", phase.getRecordsReduced()).append(",\n");
+		field(json, indent, "recordsPerSecond", phase.getRecordsPerSecond()).append(",\n");
+		field(json, indent, "bytesRead", phase.getBytesRead()).append(",\n");
+		field(json, indent, "bytesWritten", phase.getBytesWritten()).append(",\n");
+		field(json, indent, "spillRawBytes", spillStats.getRawBytesWritten()).append(",\n");
+		field(json, indent, "runsIn", phase.getRunsIn()).append(",\n");
+		field(json, indent, "runsOut", phase.getRunsOut()).append(",\n");
+		field(json, indent, "fanIn", phase.getFanIn()).append(",\n");
+		field(json, indent, "ioWaitMillis", spillStats.getIoWaitNanos() / 1_000_000).append(",\n");
+		field(json, indent, "compareMillis", phase.getCompareNanos() / 1_000_000).append(",\n");
+		field(json, indent, "compressCpuMillis", spillStats.getCompressNanos() / 1_000_000).append(",\n");
+		field(json, indent, "decompressCpuMillis", spillStats.getDecompressNanos() / 1_000_000).append(",\n");
+		field(json, indent, "gcCount", phase.getGcCount()).append(",\n");
+		field(json, indent, "gcMillis", phase.getGcMillis()).append(",\n");
+		field(json, indent, "peakHeapBytes", phase.getPeakHeapBytes()).append('\n');
+		json.append("    }");
+	}
+
+	private static StringBuilder field(StringBuilder json, String indent, String name, long value) {
+		return json.append(indent).append('"').append(name).append("\": ").append(value);
+	}
+
+	private static StringBuilder field(StringBuilder json, String indent, String name, String value) {
+		json.append(indent).append('"').append(name).append("\": \"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		return json.append('"');
+	}
+}
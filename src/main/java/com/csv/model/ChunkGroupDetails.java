@@ -1,31 +1,44 @@
 package com.csv.model;
 
+import java.util.Collections;
+import java.util.List;
+
 public class ChunkGroupDetails {
 	private final int passNumber;
-	private final int startIndex;
-	private final int endIndex;
+	private final List<Integer> inputChunkNumbers;
 	private final int chunkNumber;
+	private final long estimatedBytes;
 
-	public ChunkGroupDetails(int passNumber, int startIndex, int endIndex, int chunkNumber) {
+	public ChunkGroupDetails(int passNumber, List<Integer> inputChunkNumbers, int chunkNumber, long estimatedBytes) {
 		this.passNumber = passNumber;
-		this.startIndex = startIndex;
-		this.endIndex = endIndex;
+		this.inputChunkNumbers = Collections.unmodifiableList(inputChunkNumbers);
 		this.chunkNumber = chunkNumber;
+		this.estimatedBytes = estimatedBytes;
 	}
 
 	public int getPassNumber() {
 		return passNumber;
 	}
 
-	public int getStartIndex() {
-		return startIndex;
-	}
-
-	public int getEndIndex() {
-		return endIndex;
+	/**
+	 * Chunk numbers, within {@link #getPassNumber()}, of the runs merged by this group.
+	 */
+	public List<Integer> getInputChunkNumbers() {
+		return inputChunkNumbers;
 	}
 
 	public int getChunkNumber() {
 		return chunkNumber;
 	}
+
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	/**
+	 * A group with a single input is not merged, its run is carried over to the next pass as is.
+	 */
+	public boolean isCarryOver() {
+		return inputChunkNumbers.size() == 1;
+	}
 }
@@ -0,0 +1,68 @@
+package com.csv.model;
+
+import java.util.Collections;
+import java.util.List;
+
+public class MergePlan {
+	private final int fanIn;
+	private final int initialRuns;
+	private final List<List<ChunkGroupDetails>> passes;
+
+	public MergePlan(int fanIn, int initialRuns, List<List<ChunkGroupDetails>> passes) {
+		this.fanIn = fanIn;
+		this.initialRuns = initialRuns;
+		this.passes = Collections.unmodifiableList(passes);
+	}
+
+	public int getFanIn() {
+		return fanIn;
+	}
+
+	public int getInitialRuns() {
+		return initialRuns;
+	}
+
+	public List<List<ChunkGroupDetails>> getPasses() {
+		return passes;
+	}
+
+	/**
+	 * Bytes the plan writes to temp files, the final pass excluded.
+	 */
+	public long getIntermediateBytesWritten() {
+		long bytes = 0;
+		for (int pass = 0; pass < passes.size() - 1; pass++) {
+			for (ChunkGroupDetails group : passes.get(pass)) {
+				if (!group.isCarryOver()) {
+					bytes += group.getEstimatedBytes();
+				}
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder description = new StringBuilder()
+				.append("Merge plan: ").append(initialRuns).append(" runs, fan-in ").append(fanIn)
+				.append(", ").append(passes.size()).append(" passes, ")
+				.append(getIntermediateBytesWritten()).append(" intermediate bytes");
+		for (int pass = 0; pass < passes.size(); pass++) {
+			int merged = 0;
+			int carried = 0;
+			int widest = 0;
+			for (ChunkGroupDetails group : passes.get(pass)) {
+				if (group.isCarryOver()) {
+					carried++;
+				} else {
+					merged++;
+					widest = Math.max(widest, group.getInputChunkNumbers().size());
+				}
+			}
+			description.append(System.lineSeparator())
+					.append("  pass ").append(pass).append(": ").append(merged).append(" merges (widest ")
+					.append(widest).append("), ").append(carried).append(" runs carried over");
+		}
+		return description.toString();
+	}
+}
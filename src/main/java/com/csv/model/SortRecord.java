@@ -0,0 +1,24 @@
+package com.csv.model;
+
+import java.util.List;
+
+/**
+ * A record held in memory together with its normalized sort key, encoded once when the record is read.
+ */
+public class SortRecord {
+	private final byte[] key;
+	private final List<String> fields;
+
+	public SortRecord(byte[] key, List<String> fields) {
+		this.key = key;
+		this.fields = fields;
+	}
+
+	public byte[] getKey() {
+		return key;
+	}
+
+	public List<String> getFields() {
+		return fields;
+	}
+}
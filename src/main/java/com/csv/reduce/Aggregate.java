@@ -0,0 +1,103 @@
+package com.csv.reduce;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * One aggregate column of {@code --aggregate}: the count of the records of a key, or the sum, minimum or maximum of
+ * one of their fields. Sums are exact decimals. Minimum and maximum compare numerically when both values are numbers
+ * and as strings otherwise. Empty and missing fields are left out of all but the count.
+ */
+final class Aggregate {
+	enum Function {
+		COUNT, SUM, MIN, MAX
+	}
+
+	private final Function function;
+	private final int fieldIndex;
+
+	Aggregate(Function function, int fieldIndex) {
+		if (function != Function.COUNT && fieldIndex < 0) {
+			throw new IllegalArgumentException("Aggregate field index must not be negative: " + fieldIndex);
+		}
+		this.function = function;
+		this.fieldIndex = fieldIndex;
+	}
+
+	/**
+	 * Parses {@code count}, {@code sum:<field>}, {@code min:<field>} or {@code max:<field>}.
+	 */
+	static Aggregate parse(String spec) {
+		String[] parts = spec.split(":");
+		Function function;
+		try {
+			function = Function.valueOf(parts[0].toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown aggregate " + parts[0]);
+		}
+		if (function == Function.COUNT) {
+			if (parts.length != 1) {
+				throw new IllegalArgumentException("count takes no field: " + spec);
+			}
+			return new Aggregate(function, -1);
+		}
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Expected " + parts[0] + ":<field>, got " + spec);
+		}
+		return new Aggregate(function, Integer.parseInt(parts[1]));
+	}
+
+	/**
+	 * The aggregate of the record alone.
+	 */
+	String start(List<String> record) {
+		if (function == Function.COUNT) {
+			return "1";
+		}
+		String value = fieldIndex < record.size() ? record.get(fieldIndex) : "";
+		if (function == Function.SUM && !value.isEmpty()) {
+			// Checked now, so a bad value is reported with the record that holds it
+			toNumber(value);
+		}
+		return value;
+	}
+
+	String combine(String a, String b) {
+		if (function == Function.COUNT) {
+			return String.valueOf(Long.parseLong(a) + Long.parseLong(b));
+		}
+		if (a.isEmpty() || b.isEmpty()) {
+			return a.isEmpty() ? b : a;
+		}
+		switch (function) {
+			case SUM:
+				return toNumber(a).add(toNumber(b)).toPlainString();
+			case MIN:
+				return compare(a, b) <= 0 ? a : b;
+			default:
+				return compare(a, b) >= 0 ? a : b;
+		}
+	}
+
+	private BigDecimal toNumber(String value) {
+		try {
+			return new BigDecimal(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Cannot sum field " + fieldIndex + ", not a number: " + value);
+		}
+	}
+
+	private static int compare(String a, String b) {
+		try {
+			return new BigDecimal(a.trim()).compareTo(new BigDecimal(b.trim()));
+		} catch (NumberFormatException e) {
+			return a.compareTo(b);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String name = function.name().toLowerCase();
+		return function == Function.COUNT ? name : name + ":" + fieldIndex;
+	}
+}
@@ -0,0 +1,130 @@
+package com.csv.reduce;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Folds records with equal sort keys into one, as they meet while runs are generated and in every merge. A record is
+ * first brought into its reduced form by {@link #start(List)}, and two reduced records are folded by
+ * {@link #combine(List, List)}, the earlier record in input order coming first. Runs hold reduced records, so a merge
+ * folds them without starting them again.
+ */
+public abstract class RecordReducer {
+	private static final RecordReducer KEEP_FIRST = new RecordReducer() {
+		@Override
+		public List<String> combine(List<String> kept, List<String> next) {
+			return kept;
+		}
+
+		@Override
+		public boolean keepsFirst() {
+			return true;
+		}
+
+		@Override
+		public String getName() {
+			return "first";
+		}
+	};
+	private static final RecordReducer KEEP_LAST = new RecordReducer() {
+		@Override
+		public List<String> combine(List<String> kept, List<String> next) {
+			return next;
+		}
+
+		@Override
+		public String getName() {
+			return "last";
+		}
+	};
+
+	/**
+	 * The reducer of {@code --dedup}: {@code first} keeps the first record of every key in input order, {@code last}
+	 * the last one.
+	 */
+	public static RecordReducer forDedup(String name) {
+		switch (name) {
+			case "first":
+				return KEEP_FIRST;
+			case "last":
+				return KEEP_LAST;
+			default:
+				throw new IllegalArgumentException("Unknown dedup mode " + name);
+		}
+	}
+
+	/**
+	 * The reducer of {@code --aggregate}: keeps the first record of every key with the aggregates of the
+	 * comma-separated list appended as columns, e.g. {@code count,sum:3,max:2}.
+	 */
+	public static RecordReducer forAggregates(String spec) {
+		List<Aggregate> aggregates = new ArrayList<>();
+		for (String aggregate : spec.split(",")) {
+			aggregates.add(Aggregate.parse(aggregate.trim()));
+		}
+		return new Aggregating(aggregates);
+	}
+
+	/**
+	 * The record in reduced form, the record itself unless columns are added to it.
+	 */
+	public List<String> start(List<String> record) {
+		return record;
+	}
+
+	/**
+	 * Folds two reduced records of the same key, {@code kept} coming before {@code next} in input order.
+	 */
+	public abstract List<String> combine(List<String> kept, List<String> next);
+
+	/**
+	 * Whether {@link #combine(List, List)} always returns {@code kept}, so the records after the first of a key can
+	 * be dropped without being read.
+	 */
+	public boolean keepsFirst() {
+		return false;
+	}
+
+	/**
+	 * The option value the reducer was made from.
+	 */
+	public abstract String getName();
+
+	private static final class Aggregating extends RecordReducer {
+		private final List<Aggregate> aggregates;
+
+		private Aggregating(List<Aggregate> aggregates) {
+			this.aggregates = aggregates;
+		}
+
+		@Override
+		public List<String> start(List<String> record) {
+			List<String> reduced = new ArrayList<>(record.size() + aggregates.size());
+			reduced.addAll(record);
+			for (Aggregate aggregate : aggregates) {
+				reduced.add(aggregate.start(record));
+			}
+			return reduced;
+		}
+
+		@Override
+		public List<String> combine(List<String> kept, List<String> next) {
+			List<String> combined = new ArrayList<>(kept);
+			int keptStart = kept.size() - aggregates.size();
+			int nextStart = next.size() - aggregates.size();
+			for (int i = 0; i < aggregates.size(); i++) {
+				combined.set(keptStart + i, aggregates.get(i).combine(kept.get(keptStart + i), next.get(nextStart + i)));
+			}
+			return combined;
+		}
+
+		@Override
+		public String getName() {
+			StringBuilder name = new StringBuilder();
+			for (Aggregate aggregate : aggregates) {
+				name.append(name.length() == 0 ? "" : ",").append(aggregate);
+			}
+			return name.toString();
+		}
+	}
+}
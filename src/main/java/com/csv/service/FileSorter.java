@@ -1,144 +1,1014 @@
 package com.csv.service;
 
+import com.csv.config.ChunkFormat;
 import com.csv.config.FileSorterArgs;
+import com.csv.config.InputParser;
+import com.csv.config.RunGeneration;
+import com.csv.config.SortAlgorithm;
+import com.csv.io.ColumnDictionary;
+import com.csv.io.RecordArena;
+import com.csv.io.RecordRangeSplitter;
+import com.csv.io.RecordReader;
+import com.csv.io.RunFileReader;
+import com.csv.io.RunIndex;
+import com.csv.io.RunFileWriter;
+import com.csv.io.WriteBehindOutputStream;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.metrics.ProgressReporter;
+import com.csv.metrics.SortMetrics;
 import com.csv.model.ChunkGroupDetails;
-import com.csv.model.RecordPointer;
+import com.csv.model.MergePlan;
+import com.csv.model.SortRecord;
+import com.csv.reduce.RecordReducer;
 import com.csv.util.FileUtil;
-import com.opencsv.CSVReader;
+import com.csv.util.IoThreads;
 import com.opencsv.exceptions.CsvValidationException;
 
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class FileSorter {
+	private static final int SPILL_WRITER_THREADS = 2;
+	// Smallest input range worth a parsing thread of its own
+	static final long MIN_RANGE_BYTES = 1024 * 1024;
+	// Records the dictionary of a sort is built from
+	private static final int DICTIONARY_SAMPLE_SIZE = 10_000;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
 	private final FileUtil fileUtil;
+	private final MergePlanner mergePlanner = new MergePlanner();
+	private ExecutorService mergeExecutor;
+	private ExecutorService ioExecutor;
+	// I/O thread of every device the runs are spread over, by device number
+	private final Map<Integer, ExecutorService> deviceIoExecutors = new HashMap<>();
+	private SortMetrics metrics = new SortMetrics();
+	// Cuts the runs of a sort that only needs the first records of its output, null otherwise
+	private volatile RunCutoff runCutoff;
+	// Codes the low-cardinality columns of the chunks being sorted into runs, null when they are not coded
+	private volatile ColumnDictionary dictionary;
 
 	public FileSorter(FileUtil fileUtil) {
 		this.fileUtil = fileUtil;
 	}
 
+	/**
+	 * The phases of the last sort, or of the phases run so far when they are called one by one.
+	 */
+	public SortMetrics getMetrics() {
+		return metrics;
+	}
+
 	public int splitToSortedRecordsChunks(FileSorterArgs args) throws IOException, CsvValidationException {
+		return splitToSortedRecordsChunks(args, true);
+	}
+
+	/**
+	 * Sorts the input into runs. When {@code writeSingleRun} is set and the input makes a single run, that run is
+	 * written as the output file instead and 1 is returned.
+	 */
+	private int splitToSortedRecordsChunks(FileSorterArgs args, boolean writeSingleRun)
+			throws IOException, CsvValidationException {
+		PhaseMetrics phase = metrics.startPhase("run generation");
+		phase.setExpectedInputBytes(new File(args.inputFileName).length());
+		try {
+			dictionary = args.dictionaryEncoding ? sampleDictionary(args) : null;
+			int runCount = splitToSortedRecordsChunks(args, phase, writeSingleRun);
+			phase.setRunsOut(runCount);
+			return runCount;
+		} finally {
+			metrics.endPhase(phase);
+		}
+	}
+
+	/**
+	 * Finds the low-cardinality columns from the first records of the input, see {@link ColumnDictionary}.
+	 */
+	private ColumnDictionary sampleDictionary(FileSorterArgs args) throws IOException, CsvValidationException {
+		ColumnDictionary sampled;
+		try (RecordReader recordReader = fileUtil.createRecordReader(args)) {
+			sampled = ColumnDictionary.sample(recordReader, DICTIONARY_SAMPLE_SIZE);
+		}
+		args.messages.accept(sampled == null ? "No low-cardinality columns to code"
+				: "Dictionary coded columns: " + sampled.describe());
+		return sampled;
+	}
+
+	/**
+	 * The records of {@code recordReader} coded with the dictionary of the sort, if it has one.
+	 */
+	private RecordReader coded(RecordReader recordReader) {
+		ColumnDictionary sortDictionary = dictionary;
+		return sortDictionary == null ? recordReader : sortDictionary.coding(recordReader);
+	}
+
+	private int splitToSortedRecordsChunks(FileSorterArgs args, PhaseMetrics phase, boolean writeSingleRun)
+			throws IOException, CsvValidationException {
+		if (args.inputParser == InputParser.MMAP && args.numThreads > 1) {
+			int ranges = (int) Math.min(args.numThreads, new File(args.inputFileName).length() / MIN_RANGE_BYTES);
+			if (ranges > 1) {
+				return splitRangesToSortedRecordsChunks(args, ranges, phase, writeSingleRun);
+			}
+		}
+		if (usesArena(args)) {
+			return splitToSortedArenas(args, phase, writeSingleRun);
+		}
 		int chunkNumber = 0;
-		try (CSVReader csvReader = fileUtil.createCSVReader(args.inputFileName)) {
-			while (true) {
-				List<List<String>> recordsChunk = fileUtil.readChunk(args.maxRecordsInMemory, csvReader);
-				if (recordsChunk.isEmpty()) {
-					break;
-				}
+		ExecutorService sortExecutor = createExecutorService(args.numThreads);
+		ExecutorService spillExecutor = createSpillExecutor(args);
+		// Every chunk between the reader and the spill writers holds a permit, so at most
+		// numThreads chunks are sorting and SPILL_WRITER_THREADS are being written at any time
+		Semaphore chunksInFlight = new Semaphore(args.numThreads + SPILL_WRITER_THREADS);
+		List<Future<?>> spills = new ArrayList<>();
+		long maxChunkBytes = maxChunkBytes(args);
+		try (RecordReader recordReader = coded(fileUtil.createRecordReader(args))) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			List<List<String>> recordsChunk = fileUtil.readChunk(args.maxRecordsInMemory, maxChunkBytes, recordReader);
+			inputCounter.count(recordsChunk.size());
+			while (!recordsChunk.isEmpty()) {
+				List<List<String>> nextRecordsChunk = fileUtil.readChunk(args.maxRecordsInMemory, maxChunkBytes, recordReader);
+				inputCounter.count(nextRecordsChunk.size());
 				// If the file is small enough to fit in memory, sort it in memory
-				if (recordsChunk.size() < args.maxRecordsInMemory) {
-					sortAllFileInOneChunk(args, recordsChunk);
+				if (writeSingleRun && chunkNumber == 0 && nextRecordsChunk.isEmpty()) {
+					inputCounter.flush();
+					int written = sortAllFileInOneChunk(args, recordsChunk, phase);
+					phase.addWritten(written, new File(args.outputFileName).length());
 					return 1;
 				}
-				List<List<String>> sortedRecordsChunk = sortChunk(args.keyFieldIndex, recordsChunk);
-				String chunkFileName = fileUtil.getChunkFileName(args, chunkNumber, 0);
-				fileUtil.writeChunkToFile(sortedRecordsChunk, chunkFileName);
+				acquire(chunksInFlight);
+				spills.add(submitSortAndSpill(args, recordsChunk, chunkNumber, sortExecutor, spillExecutor, chunksInFlight, phase));
 
+				recordsChunk = nextRecordsChunk;
 				chunkNumber++;
 			}
+			inputCounter.flush();
+			awaitAll(spills);
+		} finally {
+			sortExecutor.shutdownNow();
+			spillExecutor.shutdownNow();
+		}
 
+		return chunkNumber;
+	}
+
+	/**
+	 * The run generation of {@link #splitToSortedRecordsChunks(FileSorterArgs, PhaseMetrics, boolean)} with every chunk
+	 * read into a {@link RecordArena}, whose slabs go back to a pool once the chunk is spilled.
+	 */
+	private int splitToSortedArenas(FileSorterArgs args, PhaseMetrics phase, boolean writeSingleRun)
+			throws IOException, CsvValidationException {
+		int chunkNumber = 0;
+		ExecutorService sortExecutor = createExecutorService(args.numThreads);
+		ExecutorService spillExecutor = createSpillExecutor(args);
+		Semaphore chunksInFlight = new Semaphore(args.numThreads + SPILL_WRITER_THREADS);
+		List<Future<?>> spills = new ArrayList<>();
+		long maxChunkBytes = maxChunkBytes(args);
+		RecordArena.SlabPool slabPool = new RecordArena.SlabPool(slabSize(maxChunkBytes));
+		try (RecordReader recordReader = coded(fileUtil.createRecordReader(args))) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			RecordArena arena = fileUtil.readArena(args.maxRecordsInMemory, maxChunkBytes, recordReader, args.sortKey,
+					slabPool, dictionary);
+			inputCounter.count(arena.size());
+			while (arena.size() > 0) {
+				RecordArena nextArena = fileUtil.readArena(args.maxRecordsInMemory, maxChunkBytes, recordReader,
+						args.sortKey, slabPool, dictionary);
+				inputCounter.count(nextArena.size());
+				if (writeSingleRun && chunkNumber == 0 && nextArena.size() == 0) {
+					inputCounter.flush();
+					arena.sort();
+					try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args.outputFileName),
+							args.writeBufferSize)) {
+						arena.writeCsvTo(out, LINE_SEPARATOR);
+					}
+					phase.addWritten(arena.size(), new File(args.outputFileName).length());
+					return 1;
+				}
+				acquire(chunksInFlight);
+				spills.add(submitSortAndSpill(args, arena, chunkNumber, sortExecutor, spillExecutor, chunksInFlight, phase));
+
+				arena = nextArena;
+				chunkNumber++;
+			}
+			inputCounter.flush();
+			awaitAll(spills);
+		} finally {
+			sortExecutor.shutdownNow();
+			spillExecutor.shutdownNow();
 		}
 
 		return chunkNumber;
 	}
 
-	public void sortAllFileInOneChunk(FileSorterArgs args, List<List<String>> recordsChunk) {
-		List<List<String>> sortedRecordsChunk = sortChunk(args.keyFieldIndex, recordsChunk);
+	/**
+	 * Cuts the input into byte ranges at record starts and has every sort thread parse, sort and spill a range of its
+	 * own. Once all ranges are done their runs are numbered in range order, so the runs are the same on every sort and
+	 * equal keys keep their input order through the merge. Returns 1 when the output file is already written.
+	 */
+	private int splitRangesToSortedRecordsChunks(FileSorterArgs args, int ranges, PhaseMetrics phase,
+												 boolean writeSingleRun) throws IOException, CsvValidationException {
+		ExecutorService rangeExecutor = createExecutorService(args.numThreads);
+		long maxChunkBytes = maxChunkBytes(args);
+		try {
+			long[] boundaries = RecordRangeSplitter.split(args.inputFileName, ranges, rangeExecutor);
+			int[] runsPerRange = new int[boundaries.length - 1];
+			List<Future<?>> rangeSorts = new ArrayList<>();
+			for (int i = 0; i < runsPerRange.length; i++) {
+				int rangeNumber = i;
+				rangeSorts.add(rangeExecutor.submit(() -> {
+					runsPerRange[rangeNumber] = sortRange(args, rangeNumber, boundaries[rangeNumber],
+							boundaries[rangeNumber + 1], maxChunkBytes, phase);
+					return null;
+				}));
+			}
+			awaitAll(rangeSorts);
+
+			int chunkNumber = 0;
+			for (int rangeNumber = 0; rangeNumber < runsPerRange.length; rangeNumber++) {
+				for (int run = 0; run < runsPerRange[rangeNumber]; run++) {
+					fileUtil.moveRangeChunk(args, rangeNumber, run, chunkNumber++);
+				}
+			}
+			if (writeSingleRun && chunkNumber == 1) {
+				writeSingleRunAsOutput(args, phase);
+			}
+			return chunkNumber;
+		} finally {
+			rangeExecutor.shutdownNow();
+		}
+	}
+
+	private int sortRange(FileSorterArgs args, int rangeNumber, long start, long end, long maxChunkBytes,
+						  PhaseMetrics phase) throws IOException, CsvValidationException {
+		if (usesArena(args)) {
+			return sortRangeArenas(args, rangeNumber, start, end, maxChunkBytes, phase);
+		}
+		int runs = 0;
+		try (RecordReader recordReader = coded(fileUtil.createRecordReader(args, start, end))) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			List<List<String>> recordsChunk;
+			while (!(recordsChunk = fileUtil.readChunk(args.maxRecordsInMemory, maxChunkBytes, recordReader)).isEmpty()) {
+				inputCounter.count(recordsChunk.size());
+				String chunkFileName = fileUtil.getRangeChunkFileName(args, rangeNumber, runs++);
+				List<SortRecord> run = cutRun(sortChunk(args, recordsChunk, phase));
+				writeRun(args, run, chunkFileName, phase);
+				phase.addWritten(run.size(), 0);
+			}
+			inputCounter.flush();
+		}
+		return runs;
+	}
+
+	private int sortRangeArenas(FileSorterArgs args, int rangeNumber, long start, long end, long maxChunkBytes,
+								PhaseMetrics phase) throws IOException, CsvValidationException {
+		int runs = 0;
+		RecordArena.SlabPool slabPool = new RecordArena.SlabPool(slabSize(maxChunkBytes));
+		try (RecordReader recordReader = coded(fileUtil.createRecordReader(args, start, end))) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			RecordArena arena;
+			while ((arena = fileUtil.readArena(args.maxRecordsInMemory, maxChunkBytes, recordReader, args.sortKey,
+					slabPool, dictionary)).size() > 0) {
+				inputCounter.count(arena.size());
+				String chunkFileName = fileUtil.getRangeChunkFileName(args, rangeNumber, runs++);
+				arena.sort();
+				fileUtil.writeArenaToFile(arena, chunkFileName, args.spillCodec, phase.getSpillStats());
+				phase.addWritten(arena.size(), 0);
+				arena.release();
+			}
+			inputCounter.flush();
+		}
+		return runs;
+	}
+
+	/**
+	 * Whether run generation holds its chunks in a {@link RecordArena}. An arena holds records as they were read, so
+	 * sorts that cut their runs keep the records format.
+	 */
+	private static boolean usesArena(FileSorterArgs args) {
+		return args.chunkFormat == ChunkFormat.ARENA && !args.isLimited();
+	}
+
+	/**
+	 * Slabs of at most a sixteenth of a chunk, so that the partly filled last slab of an arena wastes little memory.
+	 */
+	static int slabSize(long maxChunkBytes) {
+		return (int) Math.max(4096, Math.min(RecordArena.SlabPool.DEFAULT_SLAB_SIZE, maxChunkBytes / 16));
+	}
+
+	/**
+	 * Splits the memory budget between every chunk that can be alive at once: one per sort worker and spill writer,
+	 * plus the chunk being read and the one read after it.
+	 */
+	static long maxChunkBytes(FileSorterArgs args) {
+		if (args.memoryBudget <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(1, args.memoryBudget / (args.numThreads + SPILL_WRITER_THREADS + 2));
+	}
+
+	/**
+	 * The part of a sorted run a limited sort can still output, the whole run otherwise.
+	 */
+	private List<SortRecord> cutRun(List<SortRecord> sortedRun) {
+		RunCutoff cutoff = runCutoff;
+		return cutoff == null ? sortedRun : cutoff.cut(sortedRun);
+	}
+
+	private Future<?> submitSortAndSpill(FileSorterArgs args, List<List<String>> recordsChunk, int chunkNumber,
+										 ExecutorService sortExecutor, ExecutorService spillExecutor, Semaphore chunksInFlight,
+										 PhaseMetrics phase) {
+		CompletableFuture<Void> spilled = new CompletableFuture<>();
+		sortExecutor.execute(() -> {
+			try {
+				List<SortRecord> sortedRecordsChunk = cutRun(sortChunk(args, recordsChunk, phase));
+				spillExecutor.execute(() -> {
+					try {
+						String chunkFileName = fileUtil.getChunkFileName(args, chunkNumber, 0);
+						writeRun(args, sortedRecordsChunk, chunkFileName, phase);
+						phase.addWritten(sortedRecordsChunk.size(), 0);
+						spilled.complete(null);
+					} catch (Throwable t) {
+						spilled.completeExceptionally(t);
+					} finally {
+						chunksInFlight.release();
+					}
+				});
+			} catch (Throwable t) {
+				chunksInFlight.release();
+				spilled.completeExceptionally(t);
+			}
+		});
+		return spilled;
+	}
+
+	private Future<?> submitSortAndSpill(FileSorterArgs args, RecordArena arena, int chunkNumber,
+										 ExecutorService sortExecutor, ExecutorService spillExecutor, Semaphore chunksInFlight,
+										 PhaseMetrics phase) {
+		CompletableFuture<Void> spilled = new CompletableFuture<>();
+		sortExecutor.execute(() -> {
+			try {
+				arena.sort();
+				spillExecutor.execute(() -> {
+					try {
+						String chunkFileName = fileUtil.getChunkFileName(args, chunkNumber, 0);
+						fileUtil.writeArenaToFile(arena, chunkFileName, args.spillCodec, phase.getSpillStats());
+						phase.addWritten(arena.size(), 0);
+						arena.release();
+						spilled.complete(null);
+					} catch (Throwable t) {
+						spilled.completeExceptionally(t);
+					} finally {
+						chunksInFlight.release();
+					}
+				});
+			} catch (Throwable t) {
+				chunksInFlight.release();
+				spilled.completeExceptionally(t);
+			}
+		});
+		return spilled;
+	}
+
+	private void writeRun(FileSorterArgs args, List<SortRecord> sortedRun, String runFileName, PhaseMetrics phase) {
+		ColumnDictionary sortDictionary = dictionary;
+		if (sortDictionary == null) {
+			fileUtil.writeRunToFile(sortedRun, runFileName, args.spillCodec, phase.getSpillStats());
+		} else {
+			fileUtil.writeRunToFile(sortedRun, runFileName, args.spillCodec, phase.getSpillStats(), sortDictionary);
+		}
+	}
+
+	static void acquire(Semaphore semaphore) throws IOException {
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a free chunk slot");
+		}
+	}
+
+	static void awaitAll(List<Future<?>> futures) throws IOException, CsvValidationException {
+		for (Future<?> future : futures) {
+			await(future);
+		}
+	}
+
+	/**
+	 * The result of a task, throwing what the task threw.
+	 */
+	static <T> T await(Future<T> future) throws IOException, CsvValidationException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a task of the sort");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof CsvValidationException) {
+				throw (CsvValidationException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Sorts the chunk and writes it as the output, or the window of it chosen by the limit and offset. Returns the
+	 * number of records written.
+	 */
+	public int sortAllFileInOneChunk(FileSorterArgs args, List<List<String>> recordsChunk, PhaseMetrics phase) {
+		List<SortRecord> sorted = sortChunk(args, recordsChunk, phase);
+		int start = (int) Math.min(args.offset, sorted.size());
+		int end = (int) Math.min(args.recordsNeeded(), sorted.size());
+		List<List<String>> sortedRecordsChunk = new ArrayList<>(Math.max(0, end - start));
+		for (SortRecord record : sorted.subList(start, Math.max(start, end))) {
+			sortedRecordsChunk.add(record.getFields());
+		}
 		fileUtil.writeChunkToFile(sortedRecordsChunk, args.outputFileName);
+		return sortedRecordsChunk.size();
 	}
 
-	private List<List<String>> sortChunk(int keyFieldIndex, List<List<String>> chunk) {
-		chunk.sort(Comparator.comparing(o -> o.get(keyFieldIndex)));
-		return chunk;
+	/**
+	 * Sorts the chunk and, with a {@link FileSorterArgs#reducer}, folds the records of every key into one, counting
+	 * the records folded into the phase.
+	 */
+	static List<SortRecord> sortChunk(FileSorterArgs args, List<List<String>> chunk, PhaseMetrics phase) {
+		List<SortRecord> sorted = sortChunk(args.sortKey, chunk);
+		if (args.reducer == null) {
+			return sorted;
+		}
+		List<SortRecord> reduced = reduceSorted(args.reducer, sorted);
+		phase.addReduced(sorted.size() - reduced.size());
+		return reduced;
 	}
 
-	public void externalMergeSortFile(FileSorterArgs args) {
+	/**
+	 * Encodes the key of every record once and sorts by it, records with equal keys keep their input order.
+	 */
+	static List<SortRecord> sortChunk(SortKey sortKey, List<List<String>> chunk) {
+		List<SortRecord> records = new ArrayList<>(chunk.size());
+		for (List<String> fields : chunk) {
+			records.add(new SortRecord(sortKey.encode(fields), fields));
+		}
+		records.sort((a, b) -> SortKey.compare(a.getKey(), b.getKey()));
+		return records;
+	}
+
+	/**
+	 * Folds the records of every key in sorted records, which hold equal keys in input order, into one reduced
+	 * record.
+	 */
+	static List<SortRecord> reduceSorted(RecordReducer reducer, List<SortRecord> sorted) {
+		List<SortRecord> reduced = new ArrayList<>();
+		SortRecord kept = null;
+		for (SortRecord record : sorted) {
+			if (kept != null && SortKey.compare(kept.getKey(), record.getKey()) == 0) {
+				if (!reducer.keepsFirst()) {
+					kept = new SortRecord(kept.getKey(), reducer.combine(kept.getFields(), reducer.start(record.getFields())));
+				}
+				continue;
+			}
+			if (kept != null) {
+				reduced.add(kept);
+			}
+			List<String> started = reducer.start(record.getFields());
+			kept = started == record.getFields() ? record : new SortRecord(record.getKey(), started);
+		}
+		if (kept != null) {
+			reduced.add(kept);
+		}
+		return reduced;
+	}
+
+	/**
+	 * Sorts the input into the output file with the algorithm of {@link FileSorterArgs#algorithm}.
+	 */
+	public void sortFile(FileSorterArgs args) {
+		args.checkReducer();
+		metrics = new SortMetrics(args.messages, args.resetPeakHeap);
+		ProgressReporter progressReporter = new ProgressReporter(metrics, args.progressIntervalMillis);
+		try {
+			if (args.incrementalFileName != null) {
+				incrementalSortFile(args);
+			} else if (args.isLimited()) {
+				limitSortFile(args);
+			} else if (args.algorithm == SortAlgorithm.SAMPLE) {
+				sampleSortFile(args);
+			} else {
+				externalMergeSortFile(args);
+			}
+		} finally {
+			progressReporter.close();
+		}
+		if (args.reducer != null) {
+			args.messages.accept(metrics.reductionLine());
+		}
+		if (args.reportFileName != null) {
+			try {
+				metrics.writeReport(args, args.reportFileName);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public void sampleSortFile(FileSorterArgs args) {
+		ExecutorService workerExecutor = createExecutorService(args.numThreads);
 		try {
-			int sortedChunksCount = splitToSortedRecordsChunks(args);
-			mergeAllSortedChunks(args, sortedChunksCount);
+			new SampleSorter(fileUtil, workerExecutor, getIoExecutor(args), metrics).sort(args);
 		} catch (CsvValidationException | IOException e) {
 			throw new RuntimeException(e);
+		} finally {
+			workerExecutor.shutdownNow();
 		}
 	}
 
-	public void mergeAllSortedChunks(FileSorterArgs args, int initialTotalChunks) throws IOException, CsvValidationException {
-		int passNumber = 0;
-		int totalChunks = initialTotalChunks;
+	/**
+	 * Merges the sorted input into {@link FileSorterArgs#incrementalFileName}, see {@link IncrementalSorter}.
+	 */
+	public void incrementalSortFile(FileSorterArgs args) {
+		try {
+			new IncrementalSorter(fileUtil, this, metrics).sort(args);
+		} catch (CsvValidationException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Writes only the window of the sorted input chosen by {@link FileSorterArgs#limit} and
+	 * {@link FileSorterArgs#offset}. When its records fit in memory they are selected in one pass without spilling.
+	 * Otherwise the runs are cut to what the output can still need and every merge stops once it has written the
+	 * records needed. With a {@link FileSorterArgs#reducer} the records needed are only known once equal keys are
+	 * folded, so only the merges stop early.
+	 */
+	public void limitSortFile(FileSorterArgs args) {
+		try {
+			if (args.reducer == null && TopKSorter.fitsInMemory(fileUtil, args)) {
+				ExecutorService workerExecutor = createExecutorService(args.numThreads);
+				try {
+					new TopKSorter(fileUtil, workerExecutor, metrics).sort(args);
+				} finally {
+					workerExecutor.shutdownNow();
+				}
+				return;
+			}
+			runCutoff = createRunCutoff(args);
+			mergeAllSortedChunks(args, splitToSortedRecordsChunks(args));
+		} catch (CsvValidationException | IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			runCutoff = null;
+		}
+	}
 
-		while (totalChunks > 1) {
-			int currentPassChunkNumber = 0;
+	private static RunCutoff createRunCutoff(FileSorterArgs args) {
+		return args.limit >= 0 && args.reducer == null ? new RunCutoff(args.recordsNeeded()) : null;
+	}
 
-			for (int index = 0; index < totalChunks; index += args.maxRecordsInMemory) {
-				int endIndex = Math.min(index + args.maxRecordsInMemory, totalChunks);
+	/**
+	 * Sorts the input by generating runs and merging them.
+	 */
+	public void externalMergeSortFile(FileSorterArgs args) {
+		try {
+			mergeAllSortedChunks(args, generateRuns(args, true));
+		} catch (CsvValidationException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Generates the runs the way {@link FileSorterArgs#runGeneration} asks for, see
+	 * {@link #splitToSortedRecordsChunks(FileSorterArgs, boolean)} for {@code writeSingleRun}.
+	 */
+	private int generateRuns(FileSorterArgs args, boolean writeSingleRun) throws IOException, CsvValidationException {
+		if (usesReplacementSelection(args)) {
+			return generateRunsByReplacementSelection(args, writeSingleRun);
+		}
+		if (usesNaturalRuns(args)) {
+			return generateNaturalRuns(args, writeSingleRun);
+		}
+		return splitToSortedRecordsChunks(args, writeSingleRun);
+	}
 
-				// Merge chunks within a group
-				ChunkGroupDetails chunkGroupDetails = new ChunkGroupDetails(passNumber, index, endIndex, currentPassChunkNumber);
-				mergeChunkGroupByRecordsLimit(args, chunkGroupDetails);
+	private static boolean usesReplacementSelection(FileSorterArgs args) {
+		return args.runGeneration == RunGeneration.REPLACEMENT_SELECTION;
+	}
 
-				currentPassChunkNumber++;
+	private static boolean usesNaturalRuns(FileSorterArgs args) {
+		return args.runGeneration == RunGeneration.NATURAL;
+	}
+
+	/**
+	 * Generates the runs by chunks, keeping the stretches of the input that are already in order as natural runs.
+	 * Returns 1 when the output file is already written, which a presorted input always does.
+	 */
+	private int generateNaturalRuns(FileSorterArgs args, boolean writeSingleRun)
+			throws IOException, CsvValidationException {
+		PhaseMetrics phase = metrics.startPhase("run generation");
+		phase.setExpectedInputBytes(new File(args.inputFileName).length());
+		ExecutorService sortExecutor = createExecutorService(args.numThreads);
+		try {
+			dictionary = null;
+			int runCount = new NaturalRunGenerator(fileUtil, sortExecutor, getIoExecutor(args))
+					.generateRuns(args, maxChunkBytes(args), phase);
+			phase.setRunsOut(runCount);
+			if (writeSingleRun && runCount == 1) {
+				writeSingleRunAsOutput(args, phase);
 			}
+			return runCount;
+		} finally {
+			sortExecutor.shutdownNow();
+			metrics.endPhase(phase);
+		}
+	}
+
+	/**
+	 * Generates the runs by replacement selection. Like {@link #splitToSortedRecordsChunks(FileSorterArgs)}, returns 1
+	 * when the output file is already written, which here happens when the input comes out as a single run.
+	 */
+	public int generateRunsByReplacementSelection(FileSorterArgs args) throws IOException, CsvValidationException {
+		return generateRunsByReplacementSelection(args, true);
+	}
 
-			totalChunks = (int) Math.ceil((double) totalChunks / args.maxRecordsInMemory);
-			passNumber++;
-			if (totalChunks == 1) {
-				fileUtil.createFinalOutputFile(args, passNumber);
+	private int generateRunsByReplacementSelection(FileSorterArgs args, boolean writeSingleRun)
+			throws IOException, CsvValidationException {
+		PhaseMetrics phase = metrics.startPhase("run generation");
+		phase.setExpectedInputBytes(new File(args.inputFileName).length());
+		try {
+			dictionary = null;
+			int runCount = new ReplacementSelectionRunGenerator(fileUtil, getIoExecutor(args)).generateRuns(args, phase);
+			phase.setRunsOut(runCount);
+			if (writeSingleRun && runCount == 1) {
+				writeSingleRunAsOutput(args, phase);
 			}
+			return runCount;
+		} finally {
+			metrics.endPhase(phase);
 		}
 	}
 
-	private void mergeChunkGroupByRecordsLimit(FileSorterArgs args, ChunkGroupDetails chunkGroupDetails) throws IOException, CsvValidationException {
-		PriorityQueue<RecordPointer> minHeap = new PriorityQueue<>(Comparator.comparing(o -> o.getCurrentRecord().get(args.keyFieldIndex)));
-		int passNumber = chunkGroupDetails.getPassNumber();
-		ExecutorService executor = createExecutorService(args.numThreads);
-
-		// Initialize the heap with the first record from each remaining chunk
-		List<Future<RecordPointer>> futures = new ArrayList<>();
-		for (int i = chunkGroupDetails.getStartIndex(); i < chunkGroupDetails.getEndIndex(); i++) {
-			final int index = i;
-			futures.add(executor.submit(() -> {
-				String chunkFileName = fileUtil.getChunkFileName(args, index, passNumber);
-				CSVReader csvReader = new CSVReader(new FileReader(chunkFileName));
-				RecordPointer recordPointer = new RecordPointer(csvReader);
-				List<String> currentRecord = recordPointer.getCurrentRecord();
-				return currentRecord != null ? recordPointer : null;
-			}));
+	private void writeSingleRunAsOutput(FileSorterArgs args, PhaseMetrics phase) throws IOException {
+		List<Integer> onlyRun = new ArrayList<>();
+		onlyRun.add(0);
+		ChunkGroupDetails copyToOutput = new ChunkGroupDetails(0, onlyRun, 0, fileUtil.getChunkFileSize(args, 0, 0));
+		mergeChunkGroupByRecordsLimit(args, copyToOutput, true, phase);
+		fileUtil.createFinalOutputFile(args, 1);
+	}
+
+	public void mergeAllSortedChunks(FileSorterArgs args, int initialTotalChunks) throws IOException, CsvValidationException {
+		if (initialTotalChunks <= 1) {
+			return;
 		}
+		MergePlan mergePlan = planMerge(args, initialTotalChunks);
+		int passNumber = runMergePasses(args, mergePlan, mergePlan.getPasses().size());
+		PhaseMetrics phase = metrics.startPhase("final output");
+		fileUtil.createFinalOutputFile(args, passNumber);
+		metrics.endPhase(phase);
+	}
+
+	/**
+	 * Sorts the input like {@link #externalMergeSortFile(FileSorterArgs)} but, instead of running the final merge
+	 * into the output file, returns it as an iterator over the sorted records, so they can be consumed without an
+	 * output file. The runs it reads stay in the temp folder until the iterator is closed.
+	 */
+	public SortedRecordIterator openSortedRecords(FileSorterArgs args) throws IOException, CsvValidationException {
+		if (args.incrementalFileName != null) {
+			throw new IllegalArgumentException("--incremental merges into a file, it needs an output file");
+		}
+		args.checkReducer();
+		metrics = new SortMetrics(args.messages, args.resetPeakHeap);
+		return sortToIterator(args);
+	}
 
-		for (Future<RecordPointer> future : futures) {
+	/**
+	 * {@link #openSortedRecords(FileSorterArgs)} within the sort running, adding its phases to it.
+	 */
+	SortedRecordIterator sortToIterator(FileSorterArgs args) throws IOException, CsvValidationException {
+		int runCount;
+		if (args.isLimited()) {
+			runCutoff = createRunCutoff(args);
 			try {
-				RecordPointer recordPointer = future.get();
-				if (recordPointer != null) {
-					minHeap.add(recordPointer);
+				runCount = splitToSortedRecordsChunks(args, false);
+			} finally {
+				runCutoff = null;
+			}
+		} else {
+			runCount = generateRuns(args, false);
+		}
+		List<Integer> finalRuns = new ArrayList<>();
+		int passNumber = 0;
+		if (runCount == 1) {
+			finalRuns.add(0);
+		} else if (runCount > 1) {
+			MergePlan mergePlan = planMerge(args, runCount);
+			List<List<ChunkGroupDetails>> passes = mergePlan.getPasses();
+			passNumber = runMergePasses(args, mergePlan, passes.size() - 1);
+			// The final pass has a single group
+			finalRuns.addAll(passes.get(passes.size() - 1).get(0).getInputChunkNumbers());
+		}
+		PhaseMetrics phase = metrics.startPhase("merge pass " + passNumber);
+		phase.setRuns(finalRuns.size(), 0, finalRuns.size());
+		phase.setExpectedRecords(metrics.getInputRecords());
+		List<RunFileReader> runs = new ArrayList<>();
+		try {
+			for (int chunkNumber : finalRuns) {
+				String runFileName = fileUtil.getChunkFileName(args, chunkNumber, passNumber);
+				runs.add(new RunFileReader(runFileName, args.readBufferSize, phase.getSpillStats(),
+						getIoExecutor(args, runFileName)));
+			}
+			return new SortedRecordIterator(runs, RunMerger.create(args.mergeEngine, runs, args.timesMerges()), args.reducer, args.offset,
+					args.recordsNeeded(), metrics, phase);
+		} catch (IOException | RuntimeException e) {
+			for (RunFileReader run : runs) {
+				run.close();
+			}
+			metrics.endPhase(phase);
+			throw e;
+		}
+	}
+
+	private MergePlan planMerge(FileSorterArgs args, int initialTotalChunks) {
+		long[] runSizes = new long[initialTotalChunks];
+		for (int i = 0; i < initialTotalChunks; i++) {
+			runSizes[i] = fileUtil.getChunkFileSize(args, i, 0);
+		}
+		// Folding equal keys keeps the first of them in input order, which only merges of adjacent runs preserve
+		int fanIn = mergePlanner.effectiveFanIn(args);
+		String fanInLimit = mergePlanner.fanInLimit(args);
+		if (fanInLimit != null && initialTotalChunks > fanIn) {
+			args.messages.accept(fanInLimit);
+		}
+		MergePlan mergePlan = mergePlanner.plan(runSizes, fanIn, args.reducer != null);
+		args.messages.accept(mergePlan.toString());
+		return mergePlan;
+	}
+
+	/**
+	 * Runs the first {@code passCount} passes of the plan, the last pass of the plan writing the CSV output, and
+	 * returns the number of the pass that comes next.
+	 */
+	private int runMergePasses(FileSorterArgs args, MergePlan mergePlan, int passCount)
+			throws IOException, CsvValidationException {
+		ExecutorService executor = getMergeExecutor(args);
+		int finalPassNumber = mergePlan.getPasses().size() - 1;
+		int passNumber = 0;
+		for (; passNumber < passCount; passNumber++) {
+			List<ChunkGroupDetails> pass = mergePlan.getPasses().get(passNumber);
+			boolean finalPass = passNumber == finalPassNumber;
+			PhaseMetrics phase = startMergePhase(passNumber, pass);
+			List<Future<?>> groupMerges = new ArrayList<>();
+			for (ChunkGroupDetails chunkGroupDetails : pass) {
+				if (chunkGroupDetails.isCarryOver()) {
+					fileUtil.moveChunk(args, chunkGroupDetails.getInputChunkNumbers().get(0), passNumber,
+							chunkGroupDetails.getChunkNumber(), passNumber + 1);
+					continue;
 				}
-			} catch (InterruptedException | ExecutionException e) {
-				e.printStackTrace();
+				// Key ranges merge in parallel only when the whole output is written
+				if (finalPass && args.mergeParallelism > 1 && !args.isLimited()) {
+					mergeFinalGroupByKeyRanges(args, chunkGroupDetails, phase);
+					continue;
+				}
+				// Groups of a pass share no files, so they are all merged concurrently
+				groupMerges.add(executor.submit(() -> {
+					mergeChunkGroupByRecordsLimit(args, chunkGroupDetails, finalPass, phase);
+					return null;
+				}));
+			}
+			try {
+				awaitAll(groupMerges);
+			} finally {
+				metrics.endPhase(phase);
+			}
+		}
+		return passNumber;
+	}
+
+	/**
+	 * Starts the phase of a merge pass. The records it has to merge are estimated from the share of the run bytes
+	 * it merges, runs carried over to the next pass are not read.
+	 */
+	private PhaseMetrics startMergePhase(int passNumber, List<ChunkGroupDetails> pass) {
+		PhaseMetrics phase = metrics.startPhase("merge pass " + passNumber);
+		int runsIn = 0;
+		int fanIn = 0;
+		long totalBytes = 0;
+		long mergedBytes = 0;
+		for (ChunkGroupDetails group : pass) {
+			int groupRuns = group.getInputChunkNumbers().size();
+			runsIn += groupRuns;
+			totalBytes += group.getEstimatedBytes();
+			if (!group.isCarryOver()) {
+				fanIn = Math.max(fanIn, groupRuns);
+				mergedBytes += group.getEstimatedBytes();
 			}
 		}
+		phase.setRuns(runsIn, pass.size(), fanIn);
+		if (totalBytes > 0) {
+			phase.setExpectedRecords((long) (metrics.getInputRecords() * ((double) mergedBytes / totalBytes)));
+		}
+		return phase;
+	}
 
-		String outputFileName = fileUtil.getChunkFileName(args, chunkGroupDetails.getChunkNumber(), passNumber + 1);
-		try (FileWriter writer = new FileWriter(outputFileName)) {
-			while (!minHeap.isEmpty()) {
-				RecordPointer smallest = minHeap.poll();
-				List<String> smallestRecord = smallest.getCurrentRecord();
+	/**
+	 * Merges the runs of a group into one run of the next pass. The group of the final pass is written as CSV,
+	 * every other group as a binary run.
+	 */
+	private void mergeChunkGroupByRecordsLimit(FileSorterArgs args, ChunkGroupDetails chunkGroupDetails, boolean writeCsv,
+											   PhaseMetrics phase) throws IOException {
+		List<RunFileReader> runs = new ArrayList<>();
+		List<String> runFileNames = new ArrayList<>();
+		int passNumber = chunkGroupDetails.getPassNumber();
+		try {
+			for (int chunkNumber : chunkGroupDetails.getInputChunkNumbers()) {
+				String runFileName = fileUtil.getChunkFileName(args, chunkNumber, passNumber);
+				runFileNames.add(runFileName);
+				runs.add(new RunFileReader(runFileName, args.readBufferSize, phase.getSpillStats(),
+						getIoExecutor(args, runFileName)));
+			}
+			String outputFileName = fileUtil.getMergeOutputFileName(args, runFileNames,
+					chunkGroupDetails.getChunkNumber(), passNumber + 1);
+			mergeRuns(args, runs, outputFileName, writeCsv, phase);
+		} finally {
+			for (RunFileReader run : runs) {
+				run.close();
+			}
+		}
+	}
 
-				writer.write(String.join(",", smallestRecord) + System.lineSeparator());
+	/**
+	 * Merges the final group on {@link FileSorterArgs#mergeParallelism} threads at once. The key space is cut at
+	 * splitter keys picked evenly from the fence indexes of the runs, which sit one block apart, so every key range
+	 * holds about the same number of bytes. Each range is merged from all runs, every run read from the fence before
+	 * the range only, into a segment of its own, and the segments are appended to the first one in key order.
+	 */
+	private void mergeFinalGroupByKeyRanges(FileSorterArgs args, ChunkGroupDetails chunkGroupDetails,
+											PhaseMetrics phase) throws IOException, CsvValidationException {
+		int passNumber = chunkGroupDetails.getPassNumber();
+		List<String> runFileNames = new ArrayList<>();
+		List<RunIndex> indexes = new ArrayList<>();
+		for (int chunkNumber : chunkGroupDetails.getInputChunkNumbers()) {
+			String runFileName = fileUtil.getChunkFileName(args, chunkNumber, passNumber);
+			runFileNames.add(runFileName);
+			indexes.add(RunIndex.read(runFileName));
+		}
+		List<byte[]> splitters = chooseSplitters(indexes, args.mergeParallelism);
 
-				List<String> nextRecord = smallest.getNextRecord();
-				if (nextRecord != null) {
-					minHeap.add(smallest);
+		List<String> segmentFileNames = new ArrayList<>();
+		List<Future<?>> rangeMerges = new ArrayList<>();
+		for (int range = 0; range <= splitters.size(); range++) {
+			byte[] lowerKey = range == 0 ? null : splitters.get(range - 1);
+			byte[] upperKey = range == splitters.size() ? null : splitters.get(range);
+			String segmentFileName = range == 0
+					? fileUtil.getMergeOutputFileName(args, runFileNames, chunkGroupDetails.getChunkNumber(), passNumber + 1)
+					: fileUtil.getSegmentFileName(args, range);
+			segmentFileNames.add(segmentFileName);
+			rangeMerges.add(getMergeExecutor(args).submit(() -> {
+				List<RunFileReader> runs = new ArrayList<>();
+				try {
+					for (int i = 0; i < runFileNames.size(); i++) {
+						runs.add(RunFileReader.openRange(runFileNames.get(i), indexes.get(i), lowerKey, upperKey,
+								args.readBufferSize, phase.getSpillStats(), getIoExecutor(args, runFileNames.get(i))));
+					}
+					mergeRuns(args, runs, segmentFileName, true, phase);
+				} finally {
+					for (RunFileReader run : runs) {
+						run.close();
+					}
 				}
+				return null;
+			}));
+		}
+		awaitAll(rangeMerges);
+		fileUtil.appendAndDeleteFiles(segmentFileNames.get(0), segmentFileNames.subList(1, segmentFileNames.size()));
+	}
+
+	/**
+	 * Up to {@code ranges - 1} distinct keys cutting the fence keys of all runs into equal parts, in ascending order.
+	 */
+	static List<byte[]> chooseSplitters(List<RunIndex> indexes, int ranges) {
+		List<byte[]> fenceKeys = new ArrayList<>();
+		for (RunIndex index : indexes) {
+			for (RunIndex.Fence fence : index.getFences()) {
+				fenceKeys.add(fence.getKey());
+			}
+		}
+		fenceKeys.sort(SortKey::compare);
+		List<byte[]> splitters = new ArrayList<>();
+		for (int i = 1; i < ranges; i++) {
+			byte[] splitter = fenceKeys.isEmpty() ? null : fenceKeys.get((int) ((long) i * fenceKeys.size() / ranges));
+			if (splitter != null && (splitters.isEmpty() || SortKey.compare(splitters.get(splitters.size() - 1), splitter) < 0)) {
+				splitters.add(splitter);
 			}
 		}
-		executor.shutdown();
+		return splitters;
+	}
+
+	/**
+	 * Merges the runs into {@code outputFileName}, as CSV or as a binary run.
+	 */
+	private void mergeRuns(FileSorterArgs args, List<RunFileReader> runs, String outputFileName, boolean writeCsv,
+						   PhaseMetrics phase) throws IOException {
+		RunMerger merger = RunMerger.create(args.mergeEngine, runs, args.timesMerges());
+		// Run output waits are counted by the run writer, which writes through this stream
+		OutputStream output = new WriteBehindOutputStream(new FileOutputStream(outputFileName), args.writeBufferSize,
+				getIoExecutor(args, outputFileName), writeCsv ? phase.getSpillStats() : null);
+		// A limited sort skips the offset in the output and needs no records past the window from any merge
+		try (MergeOutput mergeOutput = writeCsv
+				? MergeOutput.csv(output, LINE_SEPARATOR, args.reducer, args.offset, args.recordsNeeded(), phase)
+				: MergeOutput.run(new RunFileWriter(output, args.spillCodec, phase.getSpillStats(),
+				runs.isEmpty() ? null : runs.get(0).getDictionary()), args.reducer, args.recordsNeeded(), phase)) {
+			for (RunFileReader smallest = merger.peek(); smallest != null && !mergeOutput.isFull(); smallest = merger.peek()) {
+				mergeOutput.write(smallest);
+				merger.advance();
+			}
+		} finally {
+			phase.addCompareNanos(merger.getCompareNanos());
+		}
+		if (writeCsv) {
+			phase.addWritten(0, new File(outputFileName).length());
+		}
+	}
+
+	/**
+	 * Returns the pool that merges chunk groups, creating it on first use. The pool lives as long as this
+	 * sorter and is sized by {@link FileSorterArgs#mergeParallelism}, which caps how many groups merge at once.
+	 */
+	private synchronized ExecutorService getMergeExecutor(FileSorterArgs args) {
+		if (mergeExecutor == null) {
+			mergeExecutor = createExecutorService(args.mergeParallelism);
+		}
+		return mergeExecutor;
+	}
+
+	/**
+	 * Returns the pool that reads run blocks ahead of the merges and writes merge output behind them. Its threads
+	 * mostly wait on I/O, so it grows with the number of open files instead of being sized by the thread count, and
+	 * runs every task on a virtual thread of its own with {@code --io-threads virtual} where the JDK has them.
+	 */
+	private synchronized ExecutorService getIoExecutor(FileSorterArgs args) {
+		if (ioExecutor == null) {
+			ioExecutor = IoThreads.newExecutor("merge-io", args.virtualIoThreads);
+		}
+		return ioExecutor;
+	}
+
+	/**
+	 * Returns the pool that reads ahead or writes behind the file named. When the runs are spread over several temp
+	 * folders, every device has a single I/O thread of its own, so a slow device only holds up the runs it stores.
+	 */
+	private synchronized ExecutorService getIoExecutor(FileSorterArgs args, String fileName) {
+		int device = args.spillFolders != null ? args.spillFolders.deviceOf(fileName) : -1;
+		if (device < 0) {
+			return getIoExecutor(args);
+		}
+		return deviceIoExecutors.computeIfAbsent(device, number -> Executors.newSingleThreadExecutor(
+				IoThreads.factory("spill-io-" + number, args.virtualIoThreads)));
+	}
+
+	public synchronized void shutdown() {
+		if (mergeExecutor != null) {
+			mergeExecutor.shutdown();
+			mergeExecutor = null;
+		}
+		if (ioExecutor != null) {
+			ioExecutor.shutdown();
+			ioExecutor = null;
+		}
+		deviceIoExecutors.values().forEach(ExecutorService::shutdown);
+		deviceIoExecutors.clear();
+	}
+
+	/**
+	 * Returns the pool that writes sorted chunks to run files. On virtual threads every spill gets a thread of its
+	 * own, the chunks in flight still bounded by the permits of the caller, and otherwise
+	 * {@link #SPILL_WRITER_THREADS} platform threads write them.
+	 */
+	private ExecutorService createSpillExecutor(FileSorterArgs args) {
+		if (args.virtualIoThreads && IoThreads.virtualThreadsAvailable()) {
+			return IoThreads.newExecutor("spill-writer", true);
+		}
+		return createExecutorService(SPILL_WRITER_THREADS);
 	}
 
 	public ExecutorService createExecutorService(int numThreads) {
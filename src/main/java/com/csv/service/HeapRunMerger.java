@@ -0,0 +1,66 @@
+package com.csv.service;
+
+import com.csv.io.RunFileReader;
+import com.csv.key.SortKey;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.PriorityQueue;
+
+class HeapRunMerger implements RunMerger {
+	private final PriorityQueue<Entry> minHeap;
+	private Entry smallest;
+	private final boolean timeComparisons;
+	private long compareNanos;
+
+	HeapRunMerger(List<RunFileReader> runs, boolean timeComparisons) {
+		this.timeComparisons = timeComparisons;
+		minHeap = new PriorityQueue<>(Math.max(1, runs.size()));
+		for (int i = 0; i < runs.size(); i++) {
+			if (runs.get(i).hasRecord()) {
+				minHeap.add(new Entry(runs.get(i), i));
+			}
+		}
+		smallest = minHeap.poll();
+	}
+
+	@Override
+	public RunFileReader peek() {
+		return smallest == null ? null : smallest.run;
+	}
+
+	@Override
+	public void advance() throws IOException {
+		boolean hasRecord = smallest.run.nextRecord();
+		long start = timeComparisons ? System.nanoTime() : 0;
+		if (hasRecord) {
+			minHeap.add(smallest);
+		}
+		smallest = minHeap.poll();
+		if (timeComparisons) {
+			compareNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public long getCompareNanos() {
+		return compareNanos;
+	}
+
+	private static class Entry implements Comparable<Entry> {
+		private final RunFileReader run;
+		private final int index;
+
+		private Entry(RunFileReader run, int index) {
+			this.run = run;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int comparison = SortKey.compare(run.getKeyBytes(), run.getKeyLength(),
+					other.run.getKeyBytes(), other.run.getKeyLength());
+			return comparison != 0 ? comparison : Integer.compare(index, other.index);
+		}
+	}
+}
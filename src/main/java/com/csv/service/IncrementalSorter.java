@@ -0,0 +1,200 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.PayloadRecord;
+import com.csv.io.RecordReader;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.metrics.SortMetrics;
+import com.csv.util.FileUtil;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Merges newly arrived input into a file sorted before, {@link FileSorterArgs#incrementalFileName}, so that only the
+ * new records are sorted. The input is sorted into runs whose final merge streams straight into one pass over the
+ * sorted file, with the records of the sorted file first among equal keys. When the manifest of the sorted file says
+ * its last key is before the first new key, the new records are appended instead and the sorted file is not read.
+ * The output gets a manifest of its own, for the next increment.
+ */
+class IncrementalSorter {
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+	private final FileUtil fileUtil;
+	private final FileSorter fileSorter;
+	private final SortMetrics metrics;
+
+	IncrementalSorter(FileUtil fileUtil, FileSorter fileSorter, SortMetrics metrics) {
+		this.fileUtil = fileUtil;
+		this.fileSorter = fileSorter;
+		this.metrics = metrics;
+	}
+
+	void sort(FileSorterArgs args) throws IOException, CsvValidationException {
+		if (args.isLimited()) {
+			throw new IllegalArgumentException("--incremental cannot be combined with --limit or --offset");
+		}
+		String sortedFileName = args.incrementalFileName;
+		boolean sortedFileExists = new File(sortedFileName).isFile();
+		SortManifest manifest = sortedFileExists ? SortManifest.read(sortedFileName) : null;
+		if (manifest != null) {
+			manifest.checkMatches(args, sortedFileName);
+		}
+		try (SortedRecordIterator newRecords = fileSorter.sortToIterator(args)) {
+			PhaseMetrics phase = metrics.startPhase("incremental merge");
+			try {
+				List<String> first = newRecords.hasNext() ? newRecords.next() : null;
+				byte[] firstKey = first == null ? null : args.sortKey.encode(first);
+				if (!sortedFileExists) {
+					write(args, first, newRecords, phase);
+				} else if (manifest != null && (first == null || isAfter(args, firstKey, manifest.getLastKey()))) {
+					append(args, manifest, first, newRecords, phase);
+				} else {
+					merge(args, first, firstKey, newRecords, phase);
+				}
+			} finally {
+				metrics.endPhase(phase);
+			}
+		}
+	}
+
+	/**
+	 * Whether records with {@code key} go after all records with {@code lastKey}: equal keys do too, unless they
+	 * have to be folded together.
+	 */
+	private static boolean isAfter(FileSorterArgs args, byte[] key, byte[] lastKey) {
+		if (lastKey == null) {
+			return true;
+		}
+		int comparison = SortKey.compare(key, lastKey);
+		return comparison > 0 || comparison == 0 && args.reducer == null;
+	}
+
+	/**
+	 * Writes the new records as the output, the sorted file being missing or empty.
+	 */
+	private void write(FileSorterArgs args, List<String> first, SortedRecordIterator newRecords, PhaseMetrics phase)
+			throws IOException {
+		File output = new File(args.outputFileName);
+		String writtenFileName = new File(args.tempFolder, "incremental_output.csv").getPath();
+		Tail tail;
+		try (OutputStream out = open(writtenFileName, false, args)) {
+			tail = writeAll(args, first, newRecords, out, phase);
+		}
+		phase.addWritten(0, new File(writtenFileName).length());
+		Files.move(Paths.get(writtenFileName), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		new SortManifest(args, output.length(), tail.records, tail.lastKey).write(args.outputFileName);
+	}
+
+	/**
+	 * Appends the new records to the sorted file, which is copied to the output first unless it is the output.
+	 */
+	private void append(FileSorterArgs args, SortManifest manifest, List<String> first, SortedRecordIterator newRecords,
+						PhaseMetrics phase) throws IOException {
+		File output = new File(args.outputFileName);
+		if (!output.getCanonicalFile().equals(new File(args.incrementalFileName).getCanonicalFile())) {
+			Files.copy(Paths.get(args.incrementalFileName), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		// Dropped first, so an append cut short leaves the output without a manifest rather than with a wrong one
+		Files.deleteIfExists(SortManifest.fileFor(args.outputFileName).toPath());
+		long sortedBytes = output.length();
+		Tail tail;
+		try (OutputStream out = open(args.outputFileName, true, args)) {
+			tail = writeAll(args, first, newRecords, out, phase);
+		}
+		phase.addWritten(0, output.length() - sortedBytes);
+		byte[] lastKey = tail.lastKey != null ? tail.lastKey : manifest.getLastKey();
+		new SortManifest(args, output.length(), manifest.getRecords() + tail.records, lastKey).write(args.outputFileName);
+	}
+
+	/**
+	 * Merges the sorted file with the new records into a new file that then replaces the output. The records of the
+	 * sorted file are checked to be in order, since without a manifest nothing else vouches for it.
+	 */
+	private void merge(FileSorterArgs args, List<String> first, byte[] firstKey, SortedRecordIterator newRecords,
+					   PhaseMetrics phase) throws IOException, CsvValidationException {
+		String mergedFileName = new File(args.tempFolder, "incremental_output.csv").getPath();
+		long records = 0;
+		long reduced = 0;
+		byte[] lastKey = null;
+		try (RecordReader sortedReader = fileUtil.createRecordReader(args.incrementalFileName, args.inputParser);
+			 OutputStream out = open(mergedFileName, false, args)) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(sortedReader);
+			List<String> sortedRecord = sortedReader.readRecord();
+			byte[] sortedKey = sortedRecord == null ? null : args.sortKey.encode(sortedRecord);
+			List<String> newRecord = first;
+			byte[] newKey = firstKey;
+			while (sortedRecord != null || newRecord != null) {
+				int comparison = sortedRecord == null ? 1 : newRecord == null ? -1 : SortKey.compare(sortedKey, newKey);
+				List<String> record;
+				if (comparison < 0 || comparison == 0 && args.reducer == null) {
+					record = sortedRecord;
+					lastKey = sortedKey;
+				} else if (comparison > 0) {
+					record = newRecord;
+					lastKey = newKey;
+				} else {
+					record = args.reducer.combine(sortedRecord, newRecord);
+					lastKey = newKey;
+					reduced++;
+				}
+				PayloadRecord.of(record).writeCsvLine(out, LINE_SEPARATOR);
+				records++;
+				if (comparison <= 0) {
+					inputCounter.count(1);
+					sortedRecord = sortedReader.readRecord();
+					byte[] previousKey = sortedKey;
+					sortedKey = sortedRecord == null ? null : args.sortKey.encode(sortedRecord);
+					if (sortedKey != null && SortKey.compare(previousKey, sortedKey) > 0) {
+						throw new IllegalStateException(args.incrementalFileName + " is not sorted by " + args.sortKey
+								+ ", record " + sortedRecord + " is out of order");
+					}
+				}
+				if (comparison >= 0 && !(comparison == 0 && args.reducer == null)) {
+					newRecord = newRecords.hasNext() ? newRecords.next() : null;
+					newKey = newRecord == null ? null : args.sortKey.encode(newRecord);
+				}
+			}
+			inputCounter.flush();
+		}
+		phase.addWritten(records, new File(mergedFileName).length());
+		phase.addReduced(reduced);
+		Files.move(Paths.get(mergedFileName), Paths.get(args.outputFileName), StandardCopyOption.REPLACE_EXISTING);
+		new SortManifest(args, new File(args.outputFileName).length(), records, lastKey).write(args.outputFileName);
+	}
+
+	/**
+	 * Writes {@code first} and the records after it, returning how many there were and the key of the last one.
+	 */
+	private Tail writeAll(FileSorterArgs args, List<String> first, SortedRecordIterator newRecords, OutputStream out,
+						  PhaseMetrics phase) throws IOException {
+		Tail tail = new Tail();
+		List<String> last = null;
+		for (List<String> record = first; record != null; record = newRecords.hasNext() ? newRecords.next() : null) {
+			PayloadRecord.of(record).writeCsvLine(out, LINE_SEPARATOR);
+			last = record;
+			tail.records++;
+		}
+		tail.lastKey = last == null ? null : args.sortKey.encode(last);
+		phase.addWritten(tail.records, 0);
+		return tail;
+	}
+
+	private static OutputStream open(String fileName, boolean append, FileSorterArgs args) throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(fileName, append), args.writeBufferSize);
+	}
+
+	private static final class Tail {
+		private long records;
+		private byte[] lastKey;
+	}
+}
@@ -0,0 +1,92 @@
+package com.csv.service;
+
+import com.csv.io.RunFileReader;
+import com.csv.key.SortKey;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A tournament tree over k runs stored as an implicit binary tree: leaves are the nodes k..2k-1, node j has the
+ * children 2j and 2j+1, and every internal node 1..k-1 keeps the loser of the match played there. Only the path from
+ * the winner's leaf to the root is replayed when the winner advances, one comparison per level.
+ */
+class LoserTreeRunMerger implements RunMerger {
+	private final RunFileReader[] runs;
+	private final boolean[] exhausted;
+	private final int[] losers;
+	private int winner;
+	private final boolean timeComparisons;
+	private long compareNanos;
+
+	LoserTreeRunMerger(List<RunFileReader> runs, boolean timeComparisons) {
+		this.timeComparisons = timeComparisons;
+		int k = runs.size();
+		this.runs = runs.toArray(new RunFileReader[0]);
+		this.exhausted = new boolean[k];
+		this.losers = new int[Math.max(1, k)];
+		for (int i = 0; i < k; i++) {
+			exhausted[i] = !this.runs[i].hasRecord();
+		}
+		winner = k == 0 ? -1 : playMatches(1);
+	}
+
+	/**
+	 * Plays every match below {@code node}, stores the losers and returns the winner.
+	 */
+	private int playMatches(int node) {
+		int k = runs.length;
+		if (node >= k) {
+			return node - k;
+		}
+		int left = playMatches(2 * node);
+		int right = playMatches(2 * node + 1);
+		if (beats(left, right)) {
+			losers[node] = right;
+			return left;
+		}
+		losers[node] = left;
+		return right;
+	}
+
+	@Override
+	public RunFileReader peek() {
+		return winner < 0 || exhausted[winner] ? null : runs[winner];
+	}
+
+	@Override
+	public void advance() throws IOException {
+		RunFileReader run = runs[winner];
+		exhausted[winner] = !run.nextRecord();
+		long start = timeComparisons ? System.nanoTime() : 0;
+		int candidate = winner;
+		for (int node = (winner + runs.length) >> 1; node >= 1; node >>= 1) {
+			if (beats(losers[node], candidate)) {
+				int loser = candidate;
+				candidate = losers[node];
+				losers[node] = loser;
+			}
+		}
+		winner = candidate;
+		if (timeComparisons) {
+			compareNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public long getCompareNanos() {
+		return compareNanos;
+	}
+
+	/**
+	 * Whether run {@code a} goes before run {@code b}, exhausted runs go last and ties go to the lower index.
+	 */
+	private boolean beats(int a, int b) {
+		if (exhausted[a] || exhausted[b]) {
+			return exhausted[b] && (!exhausted[a] || a < b);
+		}
+		int comparison = SortKey.compare(runs[a].getKeyBytes(), runs[a].getKeyLength(),
+				runs[b].getKeyBytes(), runs[b].getKeyLength());
+		return comparison < 0 || comparison == 0 && a < b;
+	}
+}
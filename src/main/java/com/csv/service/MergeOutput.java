@@ -0,0 +1,148 @@
+package com.csv.service;
+
+import com.csv.io.PayloadRecord;
+import com.csv.io.RunFileReader;
+import com.csv.io.RunFileWriter;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.reduce.RecordReducer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where a merge writes the records it takes from its runs in sorted order: CSV lines or a binary run. Only the window
+ * from {@code skip} to {@code end} of the merge output is written, and with a {@link RecordReducer} the records of a
+ * key are folded into one before they count towards it. Records are copied from the run buffers as they are unless two
+ * of them have to be combined.
+ */
+final class MergeOutput implements Closeable {
+	// Records counted locally before adding them to the shared counters of the phase
+	private static final int PROGRESS_BATCH = 4096;
+	private final OutputStream csvOut;
+	private final byte[] lineSeparator;
+	private final RunFileWriter runWriter;
+	private final RecordReducer reducer;
+	private final long skip;
+	private final long end;
+	private final PhaseMetrics phase;
+	// Records of the merge output so far, skipped ones included
+	private long position;
+	private int recordsRead;
+	private int recordsWritten;
+	private long recordsReduced;
+	// Key of the last record taken, when reducing
+	private byte[] key = new byte[64];
+	private int keyLength = -1;
+	// Folded record of the last key, written once a record of another key comes, when the reducer combines records
+	private List<String> pending;
+
+	private MergeOutput(OutputStream csvOut, byte[] lineSeparator, RunFileWriter runWriter, RecordReducer reducer,
+						long skip, long end, PhaseMetrics phase) {
+		this.csvOut = csvOut;
+		this.lineSeparator = lineSeparator;
+		this.runWriter = runWriter;
+		this.reducer = reducer;
+		this.skip = skip;
+		this.end = end;
+		this.phase = phase;
+	}
+
+	static MergeOutput csv(OutputStream out, byte[] lineSeparator, RecordReducer reducer, long skip, long end,
+						   PhaseMetrics phase) {
+		return new MergeOutput(out, lineSeparator, null, reducer, skip, end, phase);
+	}
+
+	static MergeOutput run(RunFileWriter writer, RecordReducer reducer, long end, PhaseMetrics phase) {
+		return new MergeOutput(null, null, writer, reducer, 0, end, phase);
+	}
+
+	/**
+	 * Whether the window is written, so the merge can stop.
+	 */
+	boolean isFull() {
+		return position >= end;
+	}
+
+	/**
+	 * Takes the current record of {@code reader}, the smallest one left in the merge.
+	 */
+	void write(RunFileReader reader) throws IOException {
+		if (++recordsRead == PROGRESS_BATCH) {
+			phase.addRead(recordsRead, 0);
+			recordsRead = 0;
+		}
+		if (reducer == null) {
+			write(reader, null);
+			return;
+		}
+		boolean sameKey = keyLength >= 0
+				&& SortKey.compare(key, keyLength, reader.getKeyBytes(), reader.getKeyLength()) == 0;
+		if (sameKey) {
+			if (!reducer.keepsFirst()) {
+				pending = reducer.combine(pending, reader.getCurrentPayloadRecord());
+			}
+			recordsReduced++;
+			return;
+		}
+		writePending();
+		keyLength = reader.getKeyLength();
+		if (key.length < keyLength) {
+			key = new byte[Math.max(keyLength, key.length * 2)];
+		}
+		System.arraycopy(reader.getKeyBytes(), 0, key, 0, keyLength);
+		if (reducer.keepsFirst()) {
+			write(reader, null);
+		} else {
+			pending = reader.getCurrentPayloadRecord();
+		}
+	}
+
+	private void writePending() throws IOException {
+		if (pending != null) {
+			List<String> record = pending;
+			pending = null;
+			write(null, record);
+		}
+	}
+
+	/**
+	 * Writes the current record of {@code reader}, or {@code record} under the last key taken.
+	 */
+	private void write(RunFileReader reader, List<String> record) throws IOException {
+		if (position >= end || position++ < skip) {
+			return;
+		}
+		if (csvOut != null) {
+			if (reader != null) {
+				reader.writeCurrentRecordAsCsv(csvOut, lineSeparator);
+			} else {
+				PayloadRecord.of(record).writeCsvLine(csvOut, lineSeparator);
+			}
+		} else if (reader != null) {
+			runWriter.write(reader);
+		} else {
+			runWriter.write(Arrays.copyOf(key, keyLength), record);
+		}
+		if (++recordsWritten == PROGRESS_BATCH) {
+			phase.addWritten(recordsWritten, 0);
+			recordsWritten = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		Closeable out = csvOut != null ? csvOut : runWriter;
+		try {
+			writePending();
+		} finally {
+			phase.addRead(recordsRead, 0);
+			phase.addWritten(recordsWritten, 0);
+			phase.addReduced(recordsReduced);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.RunFileReader;
+import com.csv.model.ChunkGroupDetails;
+import com.csv.model.MergePlan;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses how the sorted runs are merged: the fan-in, the number of passes, and which runs every group merges.
+ * The plan uses the minimum number of passes for the fan-in, and within each non-final pass only merges the
+ * smallest runs needed to get down to what the remaining passes can handle, the rest are carried over. Merging the
+ * smallest runs mixes up the input order of records with equal keys, so a sort that needs it, such as keeping the
+ * first record of every key, plans with adjacent runs only.
+ */
+public class MergePlanner {
+	// Every merging group also holds its output file open
+	private static final int OUTPUT_FILES_PER_GROUP = 1;
+
+	/**
+	 * The widest merge allowed by the fan-in setting, the file-descriptor limit and the merge memory budget, taking
+	 * into account that {@link FileSorterArgs#mergeParallelism} groups can be merging at the same time. Each group
+	 * holds two output buffers, and each of its runs a read buffer plus a block being consumed and one read ahead.
+	 */
+	public int effectiveFanIn(FileSorterArgs args) {
+		long fanIn = Math.min(args.fanIn, Math.min(fanInByFiles(args), fanInByMemory(args)));
+		return (int) Math.max(2, fanIn);
+	}
+
+	/**
+	 * A line saying which limit lowers the fan-in below {@link FileSorterArgs#fanIn}, or null if none does. A limit
+	 * too tight for even two runs per group is exceeded, as merges need two runs at least, and the line says so.
+	 */
+	public String fanInLimit(FileSorterArgs args) {
+		int fanIn = effectiveFanIn(args);
+		if (fanIn >= args.fanIn) {
+			return null;
+		}
+		long byFiles = fanInByFiles(args);
+		long byMemory = fanInByMemory(args);
+		String limit = byFiles <= byMemory
+				? String.format("--max-open-files %d", args.maxOpenFiles)
+				: String.format("--merge-memory of %,d bytes with %,d byte read buffers", args.mergeMemory, args.readBufferSize);
+		String line = String.format("Fan-in lowered from %d to %d by %s for %d groups merging at once", args.fanIn, fanIn,
+				limit, args.mergeParallelism);
+		return Math.min(byFiles, byMemory) < fanIn ? line + ", which exceeds it" : line;
+	}
+
+	private static long fanInByFiles(FileSorterArgs args) {
+		return (args.maxOpenFiles - FileSorterArgs.RESERVED_FILES) / args.mergeParallelism - OUTPUT_FILES_PER_GROUP;
+	}
+
+	private static long fanInByMemory(FileSorterArgs args) {
+		long readMemory = args.mergeMemory - 2L * args.writeBufferSize * args.mergeParallelism;
+		return readMemory / (RunFileReader.memoryPerReader(args.readBufferSize) * args.mergeParallelism);
+	}
+
+	public MergePlan plan(long[] runSizes, int fanIn) {
+		return plan(runSizes, fanIn, false);
+	}
+
+	/**
+	 * Plans the merge, with {@code adjacentRuns} merging only runs next to each other in input order, so that records
+	 * with equal keys come out of the final pass in input order.
+	 */
+	public MergePlan plan(long[] runSizes, int fanIn, boolean adjacentRuns) {
+		if (fanIn < 2) {
+			throw new IllegalArgumentException("fanIn must be at least 2");
+		}
+		List<List<ChunkGroupDetails>> passes = new ArrayList<>();
+		List<Run> runs = new ArrayList<>();
+		for (int i = 0; i < runSizes.length; i++) {
+			runs.add(new Run(i, runSizes[i]));
+		}
+
+		int passNumber = 0;
+		while (runs.size() > 1) {
+			int remainingPasses = passesNeeded(runs.size(), fanIn);
+			long targetRuns = maxRunsFor(remainingPasses - 1, fanIn);
+			List<ChunkGroupDetails> groups = remainingPasses == 1
+					? finalPass(passNumber, runs)
+					: adjacentRuns
+					? adjacentIntermediatePass(passNumber, runs, fanIn, targetRuns)
+					: intermediatePass(passNumber, runs, fanIn, targetRuns);
+			passes.add(groups);
+
+			runs = new ArrayList<>();
+			for (ChunkGroupDetails group : groups) {
+				runs.add(new Run(group.getChunkNumber(), group.getEstimatedBytes()));
+			}
+			passNumber++;
+		}
+		return new MergePlan(fanIn, runSizes.length, passes);
+	}
+
+	private List<ChunkGroupDetails> finalPass(int passNumber, List<Run> runs) {
+		List<Integer> inputs = new ArrayList<>();
+		long bytes = 0;
+		for (Run run : runs) {
+			inputs.add(run.chunkNumber);
+			bytes += run.bytes;
+		}
+		List<ChunkGroupDetails> groups = new ArrayList<>();
+		groups.add(new ChunkGroupDetails(passNumber, inputs, 0, bytes));
+		return groups;
+	}
+
+	private List<ChunkGroupDetails> intermediatePass(int passNumber, List<Run> runs, int fanIn, long targetRuns) {
+		List<Run> bySize = new ArrayList<>(runs);
+		bySize.sort(Comparator.comparingLong((Run run) -> run.bytes).thenComparingInt(run -> run.chunkNumber));
+
+		List<ChunkGroupDetails> groups = new ArrayList<>();
+		long runsToEliminate = runs.size() - targetRuns;
+		int next = 0;
+		int outputChunkNumber = 0;
+		while (runsToEliminate > 0) {
+			// A group of g runs leaves one run behind
+			int groupSize = (int) Math.min(fanIn, runsToEliminate + 1);
+			List<Integer> inputs = new ArrayList<>();
+			long bytes = 0;
+			for (int i = 0; i < groupSize; i++) {
+				Run run = bySize.get(next++);
+				inputs.add(run.chunkNumber);
+				bytes += run.bytes;
+			}
+			groups.add(new ChunkGroupDetails(passNumber, inputs, outputChunkNumber++, bytes));
+			runsToEliminate -= groupSize - 1;
+		}
+		for (; next < bySize.size(); next++) {
+			groups.add(carryOver(passNumber, bySize.get(next), outputChunkNumber++));
+		}
+		return groups;
+	}
+
+	/**
+	 * Like {@link #intermediatePass(int, List, int, long)} but merges the consecutive runs with the fewest bytes between
+	 * them, and numbers the runs of the next pass in the order of the runs they come from.
+	 */
+	private List<ChunkGroupDetails> adjacentIntermediatePass(int passNumber, List<Run> runs, int fanIn, long targetRuns) {
+		long runsToEliminate = runs.size() - targetRuns;
+		long groupCount = (runsToEliminate + fanIn - 2) / (fanIn - 1);
+		int merged = (int) (runsToEliminate + groupCount);
+		long windowBytes = 0;
+		for (int i = 0; i < merged; i++) {
+			windowBytes += runs.get(i).bytes;
+		}
+		int start = 0;
+		long fewestBytes = windowBytes;
+		for (int i = 1; i + merged <= runs.size(); i++) {
+			windowBytes += runs.get(i + merged - 1).bytes - runs.get(i - 1).bytes;
+			if (windowBytes < fewestBytes) {
+				fewestBytes = windowBytes;
+				start = i;
+			}
+		}
+
+		List<ChunkGroupDetails> groups = new ArrayList<>();
+		int outputChunkNumber = 0;
+		int next = 0;
+		for (; next < start; next++) {
+			groups.add(carryOver(passNumber, runs.get(next), outputChunkNumber++));
+		}
+		while (runsToEliminate > 0) {
+			int groupSize = (int) Math.min(fanIn, runsToEliminate + 1);
+			List<Integer> inputs = new ArrayList<>();
+			long bytes = 0;
+			for (int i = 0; i < groupSize; i++) {
+				Run run = runs.get(next++);
+				inputs.add(run.chunkNumber);
+				bytes += run.bytes;
+			}
+			groups.add(new ChunkGroupDetails(passNumber, inputs, outputChunkNumber++, bytes));
+			runsToEliminate -= groupSize - 1;
+		}
+		for (; next < runs.size(); next++) {
+			groups.add(carryOver(passNumber, runs.get(next), outputChunkNumber++));
+		}
+		return groups;
+	}
+
+	private static ChunkGroupDetails carryOver(int passNumber, Run run, int outputChunkNumber) {
+		List<Integer> inputs = new ArrayList<>();
+		inputs.add(run.chunkNumber);
+		return new ChunkGroupDetails(passNumber, inputs, outputChunkNumber, run.bytes);
+	}
+
+	static int passesNeeded(int runs, int fanIn) {
+		int passes = 0;
+		long mergeable = 1;
+		while (mergeable < runs) {
+			mergeable *= fanIn;
+			passes++;
+		}
+		return passes;
+	}
+
+	private static long maxRunsFor(int passes, int fanIn) {
+		long runs = 1;
+		for (int i = 0; i < passes && runs < Integer.MAX_VALUE; i++) {
+			runs *= fanIn;
+		}
+		return runs;
+	}
+
+	private static class Run {
+		private final int chunkNumber;
+		private final long bytes;
+
+		private Run(int chunkNumber, long bytes) {
+			this.chunkNumber = chunkNumber;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.RecordReader;
+import com.csv.io.RunFileWriter;
+import com.csv.io.WriteBehindOutputStream;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.model.SortRecord;
+import com.csv.util.FileUtil;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Generates runs by chunks while watching for input that is already in order. The reader encodes every key and
+ * notes whether the chunk it fills stays in order. A chunk that does is not sorted: it is written as the start of a
+ * natural run, and every following record in order is streamed into that run, so the run is as long as the ordered
+ * stretch of the input rather than a chunk. The first record out of order ends the run and starts a chunk again.
+ * Chunks that are not in order are sorted on the worker threads, with the run-aware sort of {@link List#sort}, and
+ * spilled as usual. Runs are numbered in input order, so equal keys keep their input order through the merge.
+ */
+class NaturalRunGenerator {
+	private final FileUtil fileUtil;
+	private final ExecutorService sortExecutor;
+	private final ExecutorService ioExecutor;
+
+	NaturalRunGenerator(FileUtil fileUtil, ExecutorService sortExecutor, ExecutorService ioExecutor) {
+		this.fileUtil = fileUtil;
+		this.sortExecutor = sortExecutor;
+		this.ioExecutor = ioExecutor;
+	}
+
+	/**
+	 * Writes the runs of the input as pass 0 chunks and returns how many there are.
+	 */
+	int generateRuns(FileSorterArgs args, long maxChunkBytes, PhaseMetrics phase)
+			throws IOException, CsvValidationException {
+		// Every chunk handed to the sort threads holds a permit until it is spilled
+		Semaphore chunksInFlight = new Semaphore(args.numThreads);
+		List<Future<?>> spills = new ArrayList<>();
+		int runCount = 0;
+		RunFileWriter naturalRun = null;
+		long naturalRunRecords = 0;
+		byte[] lastKey = null;
+		List<SortRecord> chunk = new ArrayList<>();
+		long chunkBytes = 0;
+		boolean chunkInOrder = true;
+		try (RecordReader recordReader = fileUtil.createRecordReader(args)) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			List<String> record;
+			while ((record = recordReader.readRecord()) != null) {
+				inputCounter.count(1);
+				byte[] key = args.sortKey.encode(record);
+				if (naturalRun != null) {
+					if (SortKey.compare(key, lastKey) >= 0) {
+						naturalRun.write(key, record);
+						naturalRunRecords++;
+						lastKey = key;
+						continue;
+					}
+					naturalRun.close();
+					phase.addWritten(naturalRunRecords, 0);
+					naturalRun = null;
+				}
+				if (!chunk.isEmpty() && SortKey.compare(key, chunk.get(chunk.size() - 1).getKey()) < 0) {
+					chunkInOrder = false;
+				}
+				chunk.add(new SortRecord(key, record));
+				chunkBytes += FileUtil.estimateRecordBytes(record);
+				if (chunk.size() < args.maxRecordsInMemory && chunkBytes < maxChunkBytes) {
+					continue;
+				}
+				if (chunkInOrder) {
+					naturalRun = openRun(args, runCount++, phase);
+					for (SortRecord sortRecord : chunk) {
+						naturalRun.write(sortRecord.getKey(), sortRecord.getFields());
+					}
+					naturalRunRecords = chunk.size();
+					lastKey = chunk.get(chunk.size() - 1).getKey();
+				} else {
+					FileSorter.acquire(chunksInFlight);
+					spills.add(submitSortAndSpill(args, chunk, runCount++, chunksInFlight, phase));
+				}
+				chunk = new ArrayList<>();
+				chunkBytes = 0;
+				chunkInOrder = true;
+			}
+			inputCounter.flush();
+			if (naturalRun != null) {
+				naturalRun.close();
+				phase.addWritten(naturalRunRecords, 0);
+				naturalRun = null;
+			}
+			if (!chunk.isEmpty()) {
+				FileSorter.acquire(chunksInFlight);
+				spills.add(submitSortAndSpill(args, chunk, runCount++, chunksInFlight, phase));
+			}
+			FileSorter.awaitAll(spills);
+		} finally {
+			if (naturalRun != null) {
+				naturalRun.close();
+			}
+		}
+		return runCount;
+	}
+
+	private Future<?> submitSortAndSpill(FileSorterArgs args, List<SortRecord> chunk, int runNumber,
+										 Semaphore chunksInFlight, PhaseMetrics phase) {
+		return sortExecutor.submit(() -> {
+			try {
+				// Already sorted when the chunk was read in order, which takes the sort a single pass to find
+				chunk.sort((a, b) -> SortKey.compare(a.getKey(), b.getKey()));
+				fileUtil.writeRunToFile(chunk, fileUtil.getChunkFileName(args, runNumber, 0), args.spillCodec,
+						phase.getSpillStats());
+				phase.addWritten(chunk.size(), 0);
+				return null;
+			} finally {
+				chunksInFlight.release();
+			}
+		});
+	}
+
+	private RunFileWriter openRun(FileSorterArgs args, int runNumber, PhaseMetrics phase) throws IOException {
+		String runFileName = fileUtil.getChunkFileName(args, runNumber, 0);
+		return new RunFileWriter(new WriteBehindOutputStream(new FileOutputStream(runFileName), args.writeBufferSize, ioExecutor),
+				args.spillCodec, phase.getSpillStats());
+	}
+}
@@ -0,0 +1,118 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.RecordReader;
+import com.csv.io.RunFileWriter;
+import com.csv.io.WriteBehindOutputStream;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.util.FileUtil;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Generates runs by replacement selection (snow-plow). The heap holds as many records as a chunk would. Every record
+ * read replaces the one just written, it joins the current run if its key is not smaller than the last key written,
+ * and the next run otherwise. The current run ends when the heap only holds records of the next run.
+ */
+class ReplacementSelectionRunGenerator {
+	private final FileUtil fileUtil;
+	private final ExecutorService ioExecutor;
+
+	ReplacementSelectionRunGenerator(FileUtil fileUtil, ExecutorService ioExecutor) {
+		this.fileUtil = fileUtil;
+		this.ioExecutor = ioExecutor;
+	}
+
+	/**
+	 * Writes the runs of the input as pass 0 chunks and returns how many there are.
+	 */
+	int generateRuns(FileSorterArgs args, PhaseMetrics phase) throws IOException, CsvValidationException {
+		PriorityQueue<HeapEntry> heap = new PriorityQueue<>();
+		long maxHeapBytes = args.memoryBudget > 0 ? args.memoryBudget : Long.MAX_VALUE;
+		long heapBytes = 0;
+		long sequence = 0;
+		int currentRun = 0;
+		RunFileWriter writer = null;
+		int runRecords = 0;
+		try (RecordReader recordReader = fileUtil.createRecordReader(args)) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			List<String> record;
+			while (heap.size() < args.maxRecordsInMemory && heapBytes < maxHeapBytes
+					&& (record = recordReader.readRecord()) != null) {
+				heap.add(new HeapEntry(0, sequence++, record, args.sortKey));
+				inputCounter.count(1);
+				heapBytes += FileUtil.estimateRecordBytes(record);
+			}
+
+			while (!heap.isEmpty()) {
+				HeapEntry smallest = heap.poll();
+				heapBytes -= FileUtil.estimateRecordBytes(smallest.record);
+				if (writer == null || smallest.run != currentRun) {
+					if (writer != null) {
+						writer.close();
+						phase.addWritten(runRecords, 0);
+						runRecords = 0;
+					}
+					currentRun = smallest.run;
+					writer = openRun(args, currentRun, phase);
+				}
+				writer.write(smallest.key, smallest.record);
+				runRecords++;
+
+				// Refill up to the budget, a wide record may have freed room for several narrow ones
+				while (heap.size() < args.maxRecordsInMemory && heapBytes < maxHeapBytes
+						&& (record = recordReader.readRecord()) != null) {
+					HeapEntry next = new HeapEntry(currentRun, sequence++, record, args.sortKey);
+					if (SortKey.compare(next.key, smallest.key) < 0) {
+						next.run = currentRun + 1;
+					}
+					heap.add(next);
+					inputCounter.count(1);
+					heapBytes += FileUtil.estimateRecordBytes(record);
+				}
+			}
+			inputCounter.flush();
+		} finally {
+			if (writer != null) {
+				writer.close();
+				phase.addWritten(runRecords, 0);
+			}
+		}
+		return writer == null ? 0 : currentRun + 1;
+	}
+
+	private RunFileWriter openRun(FileSorterArgs args, int runNumber, PhaseMetrics phase) throws IOException {
+		String runFileName = fileUtil.getChunkFileName(args, runNumber, 0);
+		return new RunFileWriter(new WriteBehindOutputStream(new FileOutputStream(runFileName), args.writeBufferSize, ioExecutor),
+				args.spillCodec, phase.getSpillStats());
+	}
+
+	private static class HeapEntry implements Comparable<HeapEntry> {
+		private final long sequence;
+		private final List<String> record;
+		private final byte[] key;
+		private int run;
+
+		private HeapEntry(int run, long sequence, List<String> record, SortKey sortKey) {
+			this.run = run;
+			this.sequence = sequence;
+			this.record = record;
+			this.key = sortKey.encode(record);
+		}
+
+		@Override
+		public int compareTo(HeapEntry other) {
+			if (run != other.run) {
+				return Integer.compare(run, other.run);
+			}
+			int comparison = SortKey.compare(key, other.key);
+			return comparison != 0 ? comparison : Long.compare(sequence, other.sequence);
+		}
+	}
+}
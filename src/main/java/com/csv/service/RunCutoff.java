@@ -0,0 +1,75 @@
+package com.csv.service;
+
+import com.csv.key.SortKey;
+import com.csv.model.SortRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts the runs of a {@code --limit} sort that needs only the first {@code keep} records of the output. A run keeps at
+ * most {@code keep} records, and none with a key above the threshold: the smallest key known to have {@code keep}
+ * records at or below it in the runs cut so far. The threshold comes from every {@code step}th key of each run, which
+ * stands for the {@code step} records up to it, and only falls as runs are added.
+ */
+final class RunCutoff {
+	private static final int SAMPLES_PER_RUN = 64;
+	private final long keep;
+	private final int step;
+	private final List<byte[]> samples = new ArrayList<>();
+	private volatile byte[] threshold;
+
+	RunCutoff(long keep) {
+		this.keep = keep;
+		this.step = (int) Math.max(1, Math.min(Integer.MAX_VALUE, keep / SAMPLES_PER_RUN));
+	}
+
+	/**
+	 * Returns the part of the sorted run the output can still need, and lowers the threshold by it.
+	 */
+	List<SortRecord> cut(List<SortRecord> sortedRun) {
+		int end = (int) Math.min(sortedRun.size(), keep);
+		byte[] limitKey = threshold;
+		if (limitKey != null) {
+			end = upperBound(sortedRun, end, limitKey);
+		}
+		List<SortRecord> kept = sortedRun.subList(0, end);
+		addRun(kept);
+		return kept;
+	}
+
+	byte[] getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * The first index below {@code end} whose key is above {@code key}, or {@code end}.
+	 */
+	private static int upperBound(List<SortRecord> sortedRun, int end, byte[] key) {
+		int low = 0;
+		int high = end;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (SortKey.compare(sortedRun.get(middle).getKey(), key) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private synchronized void addRun(List<SortRecord> run) {
+		for (int i = step - 1; i < run.size(); i += step) {
+			samples.add(run.get(i).getKey());
+		}
+		if ((long) samples.size() * step < keep) {
+			return;
+		}
+		samples.sort(SortKey::compare);
+		int needed = (int) ((keep + step - 1) / step);
+		// Later thresholds are at or below this one, so the samples above it are never needed again
+		samples.subList(needed, samples.size()).clear();
+		threshold = samples.get(needed - 1);
+	}
+}
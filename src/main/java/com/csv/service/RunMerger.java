@@ -0,0 +1,41 @@
+package com.csv.service;
+
+import com.csv.config.MergeEngine;
+import com.csv.io.RunFileReader;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Orders the current records of a group of runs. Ties go to the run listed first, so merges are stable.
+ */
+interface RunMerger {
+	/**
+	 * The run holding the smallest current record, or null once every run is exhausted.
+	 */
+	RunFileReader peek();
+
+	/**
+	 * Moves the run returned by {@link #peek()} to its next record and restores the order.
+	 */
+	void advance() throws IOException;
+
+	/**
+	 * Time spent comparing keys in {@link #advance()}, reading the runs left out, 0 unless the merger was created to
+	 * time them.
+	 */
+	long getCompareNanos();
+
+	static RunMerger create(MergeEngine mergeEngine, List<RunFileReader> runs) {
+		return create(mergeEngine, runs, false);
+	}
+
+	/**
+	 * A merger that, with {@code timeComparisons}, reads the clock around the comparisons of every advance.
+	 */
+	static RunMerger create(MergeEngine mergeEngine, List<RunFileReader> runs, boolean timeComparisons) {
+		return mergeEngine == MergeEngine.HEAP
+				? new HeapRunMerger(runs, timeComparisons)
+				: new LoserTreeRunMerger(runs, timeComparisons);
+	}
+}
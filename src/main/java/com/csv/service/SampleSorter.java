@@ -0,0 +1,598 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.config.InputParser;
+import com.csv.io.PayloadRecord;
+import com.csv.io.RecordRangeSplitter;
+import com.csv.io.RecordReader;
+import com.csv.io.RunFileReader;
+import com.csv.io.RunFileWriter;
+import com.csv.io.SpillStats;
+import com.csv.io.WriteBehindOutputStream;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.metrics.SortMetrics;
+import com.csv.model.SortRecord;
+import com.csv.util.FileUtil;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts by distribution instead of merging (sample sort). Splitter keys picked from a sample of the keys cut the key
+ * space into buckets of about the same size, every record is streamed into the spill file of its bucket, and the
+ * buckets are sorted independently and in parallel. Distributing sums the CSV bytes of every bucket, so each bucket is
+ * written straight to its place in the output: records are written twice and never merged or concatenated.
+ * <p>
+ * A bucket too big for memory is distributed again by a sample of its own keys. A key making up more than a bucket's
+ * share of a sample gets a bucket of its own, and a bucket of equal keys is already sorted since records keep their
+ * input order, so heavy duplicates never have to fit in memory.
+ */
+class SampleSorter {
+	// Keys the reservoir keeps to pick the splitters from
+	static final int SAMPLE_SIZE = 16 * 1024;
+	// Buckets are planned this full, so that the sampling error rarely makes one too big for memory
+	private static final double BUCKET_FILL = 0.75;
+	private static final long SAMPLE_SEED = 0x5EED;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+	private final FileUtil fileUtil;
+	private final ExecutorService workerExecutor;
+	private final ExecutorService ioExecutor;
+	private final SortMetrics metrics;
+	private int resplitBuckets;
+
+	SampleSorter(FileUtil fileUtil, ExecutorService workerExecutor, ExecutorService ioExecutor, SortMetrics metrics) {
+		this.fileUtil = fileUtil;
+		this.workerExecutor = workerExecutor;
+		this.ioExecutor = ioExecutor;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sorts the input into the output file.
+	 */
+	void sort(FileSorterArgs args) throws IOException, CsvValidationException {
+		long inputLength = new File(args.inputFileName).length();
+		long[] boundaries = rangeBoundaries(args);
+		Sample sample;
+		PhaseMetrics phase = metrics.startPhase("sampling");
+		try {
+			phase.setExpectedInputBytes(inputLength);
+			sample = sampleInput(args, boundaries, phase);
+		} finally {
+			metrics.endPhase(phase);
+		}
+		int bucketCount = plannedBuckets(args, sample.records, sample.bytes, args.numThreads, boundaries.length - 1);
+		List<byte[]> splitters = chooseSplitters(sample.keys, bucketCount);
+		List<Bucket> buckets;
+		phase = metrics.startPhase("distribution");
+		try {
+			phase.setExpectedInputBytes(inputLength);
+			buckets = distributeInput(args, boundaries, splitters, phase);
+			phase.setRunsOut(buckets.size());
+		} finally {
+			metrics.endPhase(phase);
+		}
+
+		String outputFileName = fileUtil.getChunkFileName(args, 0, 1);
+		long outputLength = assignOffsets(buckets, 0);
+		try (RandomAccessFile output = new RandomAccessFile(outputFileName, "rw")) {
+			output.setLength(outputLength);
+		}
+		phase = metrics.startPhase("bucket sort");
+		try {
+			phase.setExpectedRecords(sample.records);
+			phase.setRuns(buckets.size(), 1, 0);
+			sortBuckets(args, buckets, outputFileName, phase);
+		} finally {
+			metrics.endPhase(phase);
+		}
+		args.messages.accept("Sample sort: " + sample.records + " records in " + buckets.size() + " buckets, "
+				+ resplitBuckets + " split again");
+		fileUtil.createFinalOutputFile(args, 1);
+	}
+
+	/**
+	 * Byte ranges of the input distributed on threads of their own, a single range unless the input is memory-mapped.
+	 */
+	private long[] rangeBoundaries(FileSorterArgs args) throws IOException {
+		long inputLength = new File(args.inputFileName).length();
+		int ranges = (int) Math.min(args.numThreads, inputLength / FileSorter.MIN_RANGE_BYTES);
+		if (args.inputParser == InputParser.MMAP && ranges > 1) {
+			return RecordRangeSplitter.split(args.inputFileName, ranges, workerExecutor);
+		}
+		return new long[]{0, -1};
+	}
+
+	private RecordReader openRange(FileSorterArgs args, long[] boundaries, int range) throws IOException {
+		return boundaries[1] < 0 ? fileUtil.createRecordReader(args)
+				: fileUtil.createRecordReader(args, boundaries[range], boundaries[range + 1]);
+	}
+
+	/**
+	 * Counts the records of the input and samples their keys, every range keeping a reservoir of its share of
+	 * {@link #SAMPLE_SIZE} keys.
+	 */
+	private Sample sampleInput(FileSorterArgs args, long[] boundaries, PhaseMetrics phase)
+			throws IOException, CsvValidationException {
+		int ranges = boundaries.length - 1;
+		List<Future<Sample>> rangeSamples = new ArrayList<>();
+		for (int range = 0; range < ranges; range++) {
+			int rangeNumber = range;
+			rangeSamples.add(workerExecutor.submit(() -> {
+				Sample sample = new Sample(Math.max(1, SAMPLE_SIZE / ranges), SAMPLE_SEED + rangeNumber);
+				try (RecordReader recordReader = openRange(args, boundaries, rangeNumber)) {
+					PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+					List<String> record;
+					while ((record = recordReader.readRecord()) != null) {
+						inputCounter.count(1);
+						int slot = sample.offer(FileUtil.estimateRecordBytes(record));
+						if (slot >= 0) {
+							sample.set(slot, args.sortKey.encode(record));
+						}
+					}
+					inputCounter.flush();
+				}
+				return sample;
+			}));
+		}
+		Sample sample = new Sample(SAMPLE_SIZE, SAMPLE_SEED);
+		for (Future<Sample> rangeSample : rangeSamples) {
+			Sample part = FileSorter.await(rangeSample);
+			sample.keys.addAll(part.keys);
+			sample.records += part.records;
+			sample.bytes += part.bytes;
+		}
+		return sample;
+	}
+
+	/**
+	 * Streams every input range into bucket files of its own, on a thread per range. Bucket {@code i} is made of the
+	 * files of every range in range order, so its records stay in input order.
+	 */
+	private List<Bucket> distributeInput(FileSorterArgs args, long[] boundaries, List<byte[]> splitters,
+										 PhaseMetrics phase) throws IOException, CsvValidationException {
+		int ranges = boundaries.length - 1;
+		List<Future<Distributor>> distributions = new ArrayList<>();
+		for (int range = 0; range < ranges; range++) {
+			int rangeNumber = range;
+			distributions.add(workerExecutor.submit(() -> {
+				try (Distributor distributor = new Distributor(args, "", rangeNumber, splitters, phase.getSpillStats());
+					 RecordReader recordReader = openRange(args, boundaries, rangeNumber)) {
+					PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+					List<String> record;
+					long records = 0;
+					while ((record = recordReader.readRecord()) != null) {
+						distributor.add(args.sortKey.encode(record), PayloadRecord.of(record));
+						inputCounter.count(1);
+						records++;
+					}
+					inputCounter.flush();
+					phase.addWritten(records, 0);
+					return distributor;
+				}
+			}));
+		}
+		List<Distributor> distributors = new ArrayList<>();
+		for (Future<Distributor> distribution : distributions) {
+			distributors.add(FileSorter.await(distribution));
+		}
+		return collectBuckets(distributors, splitters.size() + 1);
+	}
+
+	private static List<Bucket> collectBuckets(List<Distributor> distributors, int bucketCount) {
+		List<Bucket> buckets = new ArrayList<>();
+		for (int i = 0; i < bucketCount; i++) {
+			Bucket bucket = new Bucket(distributors.get(0).bucketId(i));
+			for (Distributor distributor : distributors) {
+				if (distributor.parts[i] != null) {
+					bucket.add(distributor.parts[i]);
+				}
+			}
+			buckets.add(bucket);
+		}
+		return buckets;
+	}
+
+	/**
+	 * Gives every bucket its offset in the output from {@code offset} on, returns the offset after the last bucket.
+	 */
+	private static long assignOffsets(List<Bucket> buckets, long offset) {
+		for (Bucket bucket : buckets) {
+			bucket.outputOffset = offset;
+			offset += bucket.csvLength;
+		}
+		return offset;
+	}
+
+	/**
+	 * Sorts the buckets on the worker threads. A bucket split again comes back as its sub-buckets, which are sorted
+	 * the same way.
+	 */
+	private void sortBuckets(FileSorterArgs args, List<Bucket> buckets, String outputFileName, PhaseMetrics phase)
+			throws IOException, CsvValidationException {
+		ExecutorCompletionService<List<Bucket>> completion = new ExecutorCompletionService<>(workerExecutor);
+		int pending = 0;
+		for (Bucket bucket : buckets) {
+			completion.submit(() -> sortBucket(args, bucket, outputFileName, phase));
+			pending++;
+		}
+		for (; pending > 0; pending--) {
+			List<Bucket> subBuckets = FileSorter.await(take(completion));
+			for (Bucket subBucket : subBuckets) {
+				completion.submit(() -> sortBucket(args, subBucket, outputFileName, phase));
+				pending++;
+			}
+		}
+	}
+
+	/**
+	 * Writes the bucket to its place in the output, or distributes it into sub-buckets it returns if it does not fit
+	 * in memory.
+	 */
+	private List<Bucket> sortBucket(FileSorterArgs args, Bucket bucket, String outputFileName, PhaseMetrics phase)
+			throws IOException {
+		List<Bucket> subBuckets = new ArrayList<>();
+		if (bucket.records == 0) {
+			return subBuckets;
+		}
+		SpillStats spillStats = phase.getSpillStats();
+		if (bucket.allKeysEqual()) {
+			copyBucket(args, bucket, outputFileName, spillStats);
+			phase.addWritten(bucket.records, bucket.csvLength);
+		} else if (bucket.records <= args.maxRecordsInMemory && bucket.bytes <= maxBucketBytes(args)) {
+			sortBucketInMemory(args, bucket, outputFileName, spillStats);
+			phase.addWritten(bucket.records, bucket.csvLength);
+		} else {
+			subBuckets = splitBucket(args, bucket, spillStats);
+		}
+		for (String partFileName : bucket.partFileNames) {
+			Files.delete(Paths.get(partFileName));
+		}
+		return subBuckets;
+	}
+
+	private void copyBucket(FileSorterArgs args, Bucket bucket, String outputFileName, SpillStats spillStats)
+			throws IOException {
+		try (OutputStream out = openOutputAt(args, outputFileName, bucket.outputOffset)) {
+			for (String partFileName : bucket.partFileNames) {
+				try (RunFileReader reader = new RunFileReader(partFileName, args.readBufferSize, spillStats, ioExecutor)) {
+					for (; reader.hasRecord(); reader.nextRecord()) {
+						reader.writeCurrentRecordAsCsv(out, LINE_SEPARATOR);
+					}
+				}
+			}
+		}
+	}
+
+	private void sortBucketInMemory(FileSorterArgs args, Bucket bucket, String outputFileName, SpillStats spillStats)
+			throws IOException {
+		List<SortRecord> records = new ArrayList<>((int) bucket.records);
+		for (String partFileName : bucket.partFileNames) {
+			try (RunFileReader reader = new RunFileReader(partFileName, args.readBufferSize, spillStats, ioExecutor)) {
+				for (; reader.hasRecord(); reader.nextRecord()) {
+					records.add(new SortRecord(Arrays.copyOf(reader.getKeyBytes(), reader.getKeyLength()),
+							reader.getCurrentPayloadRecord()));
+				}
+			}
+		}
+		records.sort((a, b) -> SortKey.compare(a.getKey(), b.getKey()));
+		try (OutputStream out = openOutputAt(args, outputFileName, bucket.outputOffset)) {
+			for (SortRecord record : records) {
+				((PayloadRecord) record.getFields()).writeCsvLine(out, LINE_SEPARATOR);
+			}
+		}
+	}
+
+	/**
+	 * Distributes a bucket too big for memory by splitters from a sample of its own keys.
+	 */
+	private List<Bucket> splitBucket(FileSorterArgs args, Bucket bucket, SpillStats spillStats) throws IOException {
+		Sample sample = new Sample(SAMPLE_SIZE, SAMPLE_SEED);
+		for (String partFileName : bucket.partFileNames) {
+			try (RunFileReader reader = new RunFileReader(partFileName, args.readBufferSize, spillStats, ioExecutor)) {
+				for (; reader.hasRecord(); reader.nextRecord()) {
+					int slot = sample.offer(recordBytes(reader.getKeyLength(), reader.getPayloadLength()));
+					if (slot >= 0) {
+						sample.set(slot, Arrays.copyOf(reader.getKeyBytes(), reader.getKeyLength()));
+					}
+				}
+			}
+		}
+		int bucketCount = Math.max(2, plannedBuckets(args, sample.records, sample.bytes, 2, 1));
+		List<byte[]> splitters = chooseSplitters(sample.keys, bucketCount);
+
+		Distributor distributor = new Distributor(args, bucket.id + "_", 0, splitters, spillStats);
+		try (Distributor closing = distributor) {
+			for (String partFileName : bucket.partFileNames) {
+				try (RunFileReader reader = new RunFileReader(partFileName, args.readBufferSize, spillStats, ioExecutor)) {
+					for (; reader.hasRecord(); reader.nextRecord()) {
+						closing.add(reader);
+					}
+				}
+			}
+		}
+		List<Bucket> subBuckets = collectBuckets(Collections.singletonList(distributor), splitters.size() + 1);
+		assignOffsets(subBuckets, bucket.outputOffset);
+		synchronized (this) {
+			resplitBuckets++;
+		}
+		return subBuckets;
+	}
+
+	private OutputStream openOutputAt(FileSorterArgs args, String outputFileName, long offset) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(outputFileName), StandardOpenOption.WRITE);
+		channel.position(offset);
+		return new WriteBehindOutputStream(Channels.newOutputStream(channel), args.writeBufferSize, ioExecutor);
+	}
+
+	/**
+	 * Enough buckets for each to fit in memory at {@link #BUCKET_FILL}, at least {@code minBuckets}, and no more than
+	 * every distribution thread can keep open at once.
+	 */
+	private static int plannedBuckets(FileSorterArgs args, long records, long bytes, int minBuckets, int writers) {
+		long bucketRecords = Math.max(1, (long) (args.maxRecordsInMemory * BUCKET_FILL));
+		long maxBucketBytes = maxBucketBytes(args);
+		long bucketBytes = maxBucketBytes == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(1, (long) (maxBucketBytes * BUCKET_FILL));
+		long buckets = Math.max(minBuckets, Math.max(ceilDiv(records, bucketRecords), ceilDiv(bytes, bucketBytes)));
+		int maxBuckets = Math.max(2, (args.maxOpenFiles - FileSorterArgs.RESERVED_FILES) / writers);
+		return (int) Math.min(buckets, maxBuckets);
+	}
+
+	/**
+	 * A bucket is sorted on every worker thread at once, so each gets its share of the memory budget.
+	 */
+	private static long maxBucketBytes(FileSorterArgs args) {
+		return args.memoryBudget > 0 ? Math.max(1, args.memoryBudget / args.numThreads) : Long.MAX_VALUE;
+	}
+
+	private static long ceilDiv(long dividend, long divisor) {
+		return (dividend + divisor - 1) / divisor;
+	}
+
+	/**
+	 * Heap of a record held by an in-memory bucket sort: its sort record, key, payload record and payload, and the
+	 * list slot.
+	 */
+	private static long recordBytes(int keyLength, int payloadLength) {
+		return 24 + 16 + keyLength + 24 + 16 + payloadLength + 8;
+	}
+
+	/**
+	 * Splitters cutting the sorted sample into {@code buckets} equal parts, in ascending order without duplicates.
+	 * Bucket {@code i} holds the keys from splitter {@code i - 1}, inclusive, to splitter {@code i}, exclusive. A key
+	 * filling more than a bucket's share of the sample is also followed by its successor, the smallest key after it,
+	 * so that it gets a bucket of its own.
+	 */
+	static List<byte[]> chooseSplitters(List<byte[]> sampleKeys, int buckets) {
+		List<byte[]> keys = new ArrayList<>(sampleKeys);
+		keys.sort(SortKey::compare);
+		double share = (double) keys.size() / buckets;
+		List<byte[]> candidates = new ArrayList<>();
+		for (int start = 0, end; start < keys.size(); start = end) {
+			end = start + 1;
+			while (end < keys.size() && SortKey.compare(keys.get(end), keys.get(start)) == 0) {
+				end++;
+			}
+			if (end - start > share) {
+				candidates.add(keys.get(start));
+				candidates.add(Arrays.copyOf(keys.get(start), keys.get(start).length + 1));
+			}
+		}
+		for (int i = 1; i < buckets && !keys.isEmpty(); i++) {
+			candidates.add(keys.get((int) ((long) i * keys.size() / buckets)));
+		}
+		candidates.sort(SortKey::compare);
+		List<byte[]> splitters = new ArrayList<>();
+		for (byte[] candidate : candidates) {
+			if (splitters.isEmpty() || SortKey.compare(splitters.get(splitters.size() - 1), candidate) < 0) {
+				splitters.add(candidate);
+			}
+		}
+		return splitters;
+	}
+
+	/**
+	 * The bucket of a key: the number of splitters not greater than it.
+	 */
+	static int bucketOf(List<byte[]> splitters, byte[] key, int keyLength) {
+		int low = 0;
+		int high = splitters.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			byte[] splitter = splitters.get(middle);
+			if (SortKey.compare(splitter, splitter.length, key, keyLength) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static <T> Future<T> take(ExecutorCompletionService<T> completion) throws IOException {
+		try {
+			return completion.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sorting buckets");
+		}
+	}
+
+	/**
+	 * A reservoir sample of keys, with the count and estimated heap of all records offered.
+	 */
+	private static class Sample {
+		private final List<byte[]> keys = new ArrayList<>();
+		private final int capacity;
+		private final Random random;
+		private long records;
+		private long bytes;
+
+		Sample(int capacity, long seed) {
+			this.capacity = capacity;
+			this.random = new Random(seed);
+		}
+
+		/**
+		 * Counts a record, returns the slot its key goes to or -1 if it is not sampled.
+		 */
+		int offer(long recordBytes) {
+			records++;
+			bytes += recordBytes;
+			if (keys.size() < capacity) {
+				return keys.size();
+			}
+			long slot = (long) (random.nextDouble() * records);
+			return slot < capacity ? (int) slot : -1;
+		}
+
+		void set(int slot, byte[] key) {
+			if (slot == keys.size()) {
+				keys.add(key);
+			} else {
+				keys.set(slot, key);
+			}
+		}
+	}
+
+	/**
+	 * The records of one distribution thread for one bucket.
+	 */
+	private static class BucketPart {
+		private final String fileName;
+		private long records;
+		private long bytes;
+		private long csvLength;
+		private byte[] firstKey;
+		private boolean allKeysEqual = true;
+
+		BucketPart(String fileName) {
+			this.fileName = fileName;
+		}
+	}
+
+	private static class Bucket {
+		private final String id;
+		private final List<String> partFileNames = new ArrayList<>();
+		private long records;
+		private long bytes;
+		private long csvLength;
+		private byte[] firstKey;
+		private boolean allKeysEqual = true;
+		private long outputOffset;
+
+		Bucket(String id) {
+			this.id = id;
+		}
+
+		void add(BucketPart part) {
+			partFileNames.add(part.fileName);
+			records += part.records;
+			bytes += part.bytes;
+			csvLength += part.csvLength;
+			if (firstKey == null) {
+				firstKey = part.firstKey;
+			}
+			allKeysEqual &= part.allKeysEqual && SortKey.compare(firstKey, part.firstKey) == 0;
+		}
+
+		boolean allKeysEqual() {
+			return allKeysEqual;
+		}
+	}
+
+	/**
+	 * Writes records into the bucket files of one distribution thread, opening each file on its first record.
+	 */
+	private class Distributor implements Closeable {
+		private final FileSorterArgs args;
+		private final String bucketIdPrefix;
+		private final int partNumber;
+		private final List<byte[]> splitters;
+		private final SpillStats spillStats;
+		private final RunFileWriter[] writers;
+		private final BucketPart[] parts;
+
+		Distributor(FileSorterArgs args, String bucketIdPrefix, int partNumber, List<byte[]> splitters, SpillStats spillStats) {
+			this.args = args;
+			this.bucketIdPrefix = bucketIdPrefix;
+			this.partNumber = partNumber;
+			this.splitters = splitters;
+			this.spillStats = spillStats;
+			this.writers = new RunFileWriter[splitters.size() + 1];
+			this.parts = new BucketPart[splitters.size() + 1];
+		}
+
+		String bucketId(int bucket) {
+			return bucketIdPrefix + bucket;
+		}
+
+		void add(byte[] key, PayloadRecord record) throws IOException {
+			int bucket = count(key, key.length, record.getPayloadLength(), record.csvLength());
+			writers[bucket].write(key, record);
+		}
+
+		void add(RunFileReader reader) throws IOException {
+			int bucket = count(reader.getKeyBytes(), reader.getKeyLength(), reader.getPayloadLength(),
+					reader.getCurrentCsvLength());
+			writers[bucket].write(reader);
+		}
+
+		/**
+		 * Counts a record into the part of its bucket, opening the part on its first record, and returns the bucket.
+		 */
+		private int count(byte[] key, int keyLength, int payloadLength, int csvLength) throws IOException {
+			int bucket = bucketOf(splitters, key, keyLength);
+			BucketPart part = parts[bucket];
+			if (part == null) {
+				part = new BucketPart(fileUtil.getBucketFileName(args, bucketId(bucket), partNumber));
+				part.firstKey = Arrays.copyOf(key, keyLength);
+				parts[bucket] = part;
+				writers[bucket] = new RunFileWriter(part.fileName, args.spillCodec, spillStats);
+			} else if (part.allKeysEqual && SortKey.compare(part.firstKey, part.firstKey.length, key, keyLength) != 0) {
+				part.allKeysEqual = false;
+			}
+			part.records++;
+			part.bytes += recordBytes(keyLength, payloadLength);
+			part.csvLength += csvLength + LINE_SEPARATOR.length;
+			return bucket;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException failure = null;
+			for (RunFileWriter writer : writers) {
+				try {
+					if (writer != null) {
+						writer.close();
+					}
+				} catch (IOException e) {
+					failure = failure == null ? e : failure;
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The sidecar of a sorted file written by an incremental sort, {@code <file>.manifest}: the sort key and reducer it
+ * is sorted with, its size, its record count and the normalized key of its last record. The size tells whether the
+ * file is still the one described; the last key tells whether new records can simply be appended to it.
+ */
+final class SortManifest {
+	private static final String SUFFIX = ".manifest";
+	private final String sortKey;
+	private final String reducer;
+	private final long bytes;
+	private final long records;
+	// Null for an empty file
+	private final byte[] lastKey;
+
+	SortManifest(FileSorterArgs args, long bytes, long records, byte[] lastKey) {
+		this(args.sortKey.toString(), reducerName(args), bytes, records, lastKey);
+	}
+
+	private SortManifest(String sortKey, String reducer, long bytes, long records, byte[] lastKey) {
+		this.sortKey = sortKey;
+		this.reducer = reducer;
+		this.bytes = bytes;
+		this.records = records;
+		this.lastKey = lastKey;
+	}
+
+	static File fileFor(String sortedFileName) {
+		return new File(sortedFileName + SUFFIX);
+	}
+
+	/**
+	 * The manifest of the sorted file if it has one that still describes it, null otherwise.
+	 */
+	static SortManifest read(String sortedFileName) throws IOException {
+		File manifestFile = fileFor(sortedFileName);
+		if (!manifestFile.isFile()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(manifestFile.toPath())) {
+			properties.load(in);
+		}
+		String lastKey = properties.getProperty("lastKey", "");
+		SortManifest manifest = new SortManifest(properties.getProperty("sortKey"), properties.getProperty("reducer"),
+				Long.parseLong(properties.getProperty("bytes", "-1")), Long.parseLong(properties.getProperty("records", "0")),
+				lastKey.isEmpty() ? null : fromHex(lastKey));
+		return manifest.bytes == new File(sortedFileName).length() ? manifest : null;
+	}
+
+	/**
+	 * Writes the manifest next to the sorted file, replacing the previous one at once.
+	 */
+	void write(String sortedFileName) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("sortKey", sortKey);
+		properties.setProperty("reducer", reducer);
+		properties.setProperty("bytes", String.valueOf(bytes));
+		properties.setProperty("records", String.valueOf(records));
+		properties.setProperty("lastKey", lastKey == null ? "" : toHex(lastKey));
+		Path manifestPath = fileFor(sortedFileName).toPath();
+		Path newManifest = manifestPath.resolveSibling(manifestPath.getFileName() + ".new");
+		try (OutputStream out = Files.newOutputStream(newManifest)) {
+			properties.store(out, "Sorted file manifest");
+		}
+		Files.move(newManifest, manifestPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Rejects merging into a file sorted by another key or reduced another way.
+	 */
+	void checkMatches(FileSorterArgs args, String sortedFileName) {
+		if (!sortKey.equals(args.sortKey.toString()) || !reducer.equals(reducerName(args))) {
+			throw new IllegalArgumentException(sortedFileName + " is sorted by " + sortKey + " with reducer " + reducer
+					+ ", not by " + args.sortKey + " with reducer " + reducerName(args));
+		}
+	}
+
+	long getRecords() {
+		return records;
+	}
+
+	byte[] getLastKey() {
+		return lastKey;
+	}
+
+	private static String reducerName(FileSorterArgs args) {
+		return args.reducer == null ? "none" : args.reducer.getName();
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+}
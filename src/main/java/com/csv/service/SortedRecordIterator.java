@@ -0,0 +1,161 @@
+package com.csv.service;
+
+import com.csv.io.PayloadRecord;
+import com.csv.io.RunFileReader;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.metrics.SortMetrics;
+import com.csv.reduce.RecordReducer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The final merge of a sort, run as its records are consumed. Returned by
+ * {@link FileSorter#openSortedRecords(com.csv.config.FileSorterArgs)}; must be closed to release the runs.
+ */
+public class SortedRecordIterator implements Iterator<List<String>>, Closeable {
+	// Records counted locally before adding them to the shared counters of the phase
+	private static final int PROGRESS_BATCH = 4096;
+	private final List<RunFileReader> runs;
+	private final RunMerger merger;
+	// Folds the records of a key into the first one returned, null to return them all
+	private final RecordReducer reducer;
+	private final SortMetrics metrics;
+	private final PhaseMetrics phase;
+	// Records past this position in the sorted order are not returned
+	private final long end;
+	private long position;
+	private int recordsRead;
+	private int recordsWritten;
+	private long recordsReduced;
+	private boolean closed;
+
+	/**
+	 * Returns the records of the merge from position {@code skip} up to {@code end}, as a limited sort needs, the
+	 * positions counting the records left once the {@code reducer}, if any, folded equal keys.
+	 */
+	SortedRecordIterator(List<RunFileReader> runs, RunMerger merger, RecordReducer reducer, long skip, long end,
+						 SortMetrics metrics, PhaseMetrics phase) throws IOException {
+		this.runs = runs;
+		this.merger = merger;
+		this.reducer = reducer;
+		this.end = end;
+		this.metrics = metrics;
+		this.phase = phase;
+		for (; position < skip && merger.peek() != null; position++) {
+			take(null);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !closed && position < end && merger.peek() != null;
+	}
+
+	/**
+	 * The next record. Reading a run may fail, which is thrown as an {@link UncheckedIOException}.
+	 */
+	@Override
+	public List<String> next() {
+		RunFileReader smallest = hasNext() ? merger.peek() : null;
+		if (smallest == null) {
+			throw new NoSuchElementException();
+		}
+		try {
+			List<String> record = take(smallest.getCurrentPayloadRecord());
+			count();
+			return record;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the records not consumed yet to {@code out} as CSV lines, straight from the run buffers.
+	 */
+	public void writeCsv(OutputStream out, byte[] lineSeparator) throws IOException {
+		while (hasNext()) {
+			RunFileReader smallest = merger.peek();
+			if (reducer == null || reducer.keepsFirst()) {
+				smallest.writeCurrentRecordAsCsv(out, lineSeparator);
+				take(null);
+			} else {
+				PayloadRecord.of(take(smallest.getCurrentPayloadRecord())).writeCsvLine(out, lineSeparator);
+			}
+			count();
+		}
+	}
+
+	/**
+	 * Moves past the smallest record and, with a reducer, past the records of the same key after it, returning them
+	 * folded into {@code record}, the smallest record read by the caller, if given.
+	 */
+	private List<String> take(List<String> record) throws IOException {
+		recordsRead++;
+		if (reducer == null) {
+			merger.advance();
+			return record;
+		}
+		RunFileReader smallest = merger.peek();
+		byte[] key = Arrays.copyOf(smallest.getKeyBytes(), smallest.getKeyLength());
+		merger.advance();
+		for (RunFileReader next = merger.peek(); next != null
+				&& SortKey.compare(key, key.length, next.getKeyBytes(), next.getKeyLength()) == 0; next = merger.peek()) {
+			if (record != null && !reducer.keepsFirst()) {
+				record = reducer.combine(record, next.getCurrentPayloadRecord());
+			}
+			merger.advance();
+			recordsRead++;
+			recordsReduced++;
+		}
+		return record;
+	}
+
+	private void count() {
+		position++;
+		if (++recordsWritten == PROGRESS_BATCH) {
+			phase.addRead(recordsRead, 0);
+			phase.addWritten(recordsWritten, 0);
+			recordsRead = 0;
+			recordsWritten = 0;
+		}
+	}
+
+	/**
+	 * The phases of the sort, the final merge ending when this iterator is closed.
+	 */
+	public SortMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		phase.addRead(recordsRead, 0);
+		phase.addWritten(recordsWritten, 0);
+		phase.addCompareNanos(merger.getCompareNanos());
+		phase.addReduced(recordsReduced);
+		metrics.endPhase(phase);
+		IOException failure = null;
+		for (RunFileReader run : runs) {
+			try {
+				run.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.config.InputParser;
+import com.csv.io.RecordRangeSplitter;
+import com.csv.io.RecordReader;
+import com.csv.key.SortKey;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.metrics.SortMetrics;
+import com.csv.util.FileUtil;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes the window of the sorted input chosen by {@code --limit} and {@code --offset} in one streaming pass, without
+ * spilling, when its records fit in memory. The input is cut into chunks, or byte ranges when it is memory-mapped,
+ * every worker keeps the smallest records of its share in a bounded max-heap, and the heaps are combined at the end.
+ */
+class TopKSorter {
+	// Records in a chunk handed to a worker, small enough that the workers take turns evenly
+	private static final int TASK_RECORDS = 16 * 1024;
+	// Records read to estimate the heap a record takes
+	private static final int ESTIMATE_RECORDS = 1000;
+	private final FileUtil fileUtil;
+	private final ExecutorService workerExecutor;
+	private final SortMetrics metrics;
+
+	TopKSorter(FileUtil fileUtil, ExecutorService workerExecutor, SortMetrics metrics) {
+		this.fileUtil = fileUtil;
+		this.workerExecutor = workerExecutor;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Whether the records needed fit in memory once per worker and once more for the combined heap, by the record
+	 * limit and by the memory budget, the size of a record estimated from the first records of the input.
+	 */
+	static boolean fitsInMemory(FileUtil fileUtil, FileSorterArgs args) throws IOException, CsvValidationException {
+		long needed = args.recordsNeeded();
+		int heaps = args.numThreads + 1;
+		if (args.limit < 0 || needed > args.maxRecordsInMemory / heaps) {
+			return false;
+		}
+		if (args.memoryBudget <= 0 || needed == 0) {
+			return true;
+		}
+		long bytes = 0;
+		int records = 0;
+		try (RecordReader recordReader = fileUtil.createRecordReader(args)) {
+			List<String> record;
+			while (records < ESTIMATE_RECORDS && (record = recordReader.readRecord()) != null) {
+				bytes += FileUtil.estimateRecordBytes(record);
+				records++;
+			}
+		}
+		return records == 0 || needed * heaps <= args.memoryBudget / (bytes / records + 1);
+	}
+
+	void sort(FileSorterArgs args) throws IOException, CsvValidationException {
+		PhaseMetrics phase = metrics.startPhase("top-k selection");
+		try {
+			phase.setExpectedInputBytes(new File(args.inputFileName).length());
+			Selection selection = args.recordsNeeded() == 0 ? new Selection(0) : select(args, phase);
+			List<List<String>> window = selection.sorted(args.offset);
+			fileUtil.writeChunkToFile(window, args.outputFileName);
+			phase.addWritten(window.size(), new File(args.outputFileName).length());
+		} finally {
+			metrics.endPhase(phase);
+		}
+	}
+
+	private Selection select(FileSorterArgs args, PhaseMetrics phase) throws IOException, CsvValidationException {
+		int k = (int) args.recordsNeeded();
+		Selection selection = new Selection(k);
+		int ranges = 1;
+		if (args.inputParser == InputParser.MMAP && args.numThreads > 1) {
+			ranges = (int) Math.min(args.numThreads, new File(args.inputFileName).length() / FileSorter.MIN_RANGE_BYTES);
+		}
+		List<Future<?>> tasks = new ArrayList<>();
+		if (ranges > 1) {
+			long[] boundaries = RecordRangeSplitter.split(args.inputFileName, ranges, workerExecutor);
+			for (int range = 0; range < ranges; range++) {
+				int rangeNumber = range;
+				tasks.add(workerExecutor.submit(() -> {
+					selection.addAll(selectRange(args, k, rangeNumber, boundaries, phase));
+					return null;
+				}));
+			}
+			FileSorter.awaitAll(tasks);
+			return selection;
+		}
+		// One thread reads, the workers select from the chunks it reads
+		Semaphore chunksInFlight = new Semaphore(args.numThreads + 1);
+		long sequence = 0;
+		try (RecordReader recordReader = fileUtil.createRecordReader(args)) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			List<List<String>> chunk;
+			while (!(chunk = fileUtil.readChunk(Math.min(args.maxRecordsInMemory, TASK_RECORDS),
+					FileSorter.maxChunkBytes(args), recordReader)).isEmpty()) {
+				inputCounter.count(chunk.size());
+				FileSorter.acquire(chunksInFlight);
+				tasks.add(submitChunk(args, k, chunk, sequence, selection, chunksInFlight));
+				sequence += chunk.size();
+			}
+			inputCounter.flush();
+		}
+		FileSorter.awaitAll(tasks);
+		return selection;
+	}
+
+	private Future<?> submitChunk(FileSorterArgs args, int k, List<List<String>> chunk, long firstSequence,
+								  Selection selection, Semaphore chunksInFlight) {
+		CompletableFuture<Void> selected = new CompletableFuture<>();
+		workerExecutor.execute(() -> {
+			try {
+				Selection chunkSelection = new Selection(k);
+				long sequence = firstSequence;
+				for (List<String> record : chunk) {
+					chunkSelection.offer(args.sortKey.encode(record), sequence++, record);
+				}
+				selection.addAll(chunkSelection);
+				selected.complete(null);
+			} catch (Throwable t) {
+				selected.completeExceptionally(t);
+			} finally {
+				chunksInFlight.release();
+			}
+		});
+		return selected;
+	}
+
+	private Selection selectRange(FileSorterArgs args, int k, int range, long[] boundaries, PhaseMetrics phase)
+			throws IOException, CsvValidationException {
+		Selection rangeSelection = new Selection(k);
+		// Ranges are in input order, so numbering them apart keeps ties in input order
+		long sequence = (long) range << 40;
+		try (RecordReader recordReader = fileUtil.createRecordReader(args, boundaries[range], boundaries[range + 1])) {
+			PhaseMetrics.InputCounter inputCounter = phase.countInput(recordReader);
+			List<String> record;
+			while ((record = recordReader.readRecord()) != null) {
+				rangeSelection.offer(args.sortKey.encode(record), sequence++, record);
+				inputCounter.count(1);
+			}
+			inputCounter.flush();
+		}
+		return rangeSelection;
+	}
+
+	/**
+	 * The {@code k} smallest records offered, by key and then by input order, in a max-heap whose top is the record
+	 * the next smaller one replaces.
+	 */
+	static final class Selection {
+		private final int k;
+		private final PriorityQueue<Entry> heap;
+
+		Selection(int k) {
+			this.k = k;
+			this.heap = new PriorityQueue<>(Math.min(k, 1024) + 1, Collections.reverseOrder());
+		}
+
+		void offer(byte[] key, long sequence, List<String> record) {
+			offer(new Entry(key, sequence, record));
+		}
+
+		private void offer(Entry entry) {
+			if (heap.size() < k) {
+				heap.add(entry);
+			} else if (k > 0 && entry.compareTo(heap.peek()) < 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+
+		synchronized void addAll(Selection other) {
+			for (Entry entry : other.heap) {
+				offer(entry);
+			}
+		}
+
+		/**
+		 * The selected records in sorted order, without the first {@code skip}.
+		 */
+		synchronized List<List<String>> sorted(long skip) {
+			List<Entry> entries = new ArrayList<>(heap);
+			Collections.sort(entries);
+			List<List<String>> records = new ArrayList<>();
+			for (int i = (int) Math.min(skip, entries.size()); i < entries.size(); i++) {
+				records.add(entries.get(i).record);
+			}
+			return records;
+		}
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+		private final byte[] key;
+		private final long sequence;
+		private final List<String> record;
+
+		Entry(byte[] key, long sequence, List<String> record) {
+			this.key = key;
+			this.sequence = sequence;
+			this.record = record;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int byKey = SortKey.compare(key, other.key);
+			return byKey != 0 ? byKey : Long.compare(sequence, other.sequence);
+		}
+	}
+}
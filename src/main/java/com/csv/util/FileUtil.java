@@ -1,45 +1,126 @@
 package com.csv.util;
 
 
-import com.csv.Main;
 import com.csv.config.FileSorterArgs;
+import com.csv.config.InputParser;
+import com.csv.io.ColumnDictionary;
+import com.csv.io.MappedCsvReader;
+import com.csv.io.OpenCsvRecordReader;
+import com.csv.io.PayloadRecord;
+import com.csv.io.RecordArena;
+import com.csv.io.RecordReader;
+import com.csv.io.RunFileWriter;
+import com.csv.io.SpillCodec;
+import com.csv.io.SpillStats;
+import com.csv.key.SortKey;
+import com.csv.model.SortRecord;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.CSVWriterBuilder;
 import com.opencsv.exceptions.CsvValidationException;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public class FileUtil {
 	public final static String TEMP_DIR = "temp";
+	// List slot, Arrays.asList wrapper and String[] header
+	private static final int RECORD_OVERHEAD_BYTES = 8 + 16 + 16;
+	private static final int REFERENCE_BYTES = 8;
+	// String object and its backing array header
+	private static final int FIELD_OVERHEAD_BYTES = 24 + 16;
 
 	public CSVReader createCSVReader(String inputFileName) throws FileNotFoundException {
 		return new CSVReader(new FileReader(inputFileName));
 	}
 
+	/**
+	 * Opens the input with the parser chosen by {@link FileSorterArgs#inputParser}.
+	 */
+	public RecordReader createRecordReader(FileSorterArgs args) throws IOException {
+		return createRecordReader(args.inputFileName, args.inputParser);
+	}
+
+	/**
+	 * Opens a CSV file other than the input, such as a sorted output, with the parser of {@code inputParser}.
+	 */
+	public RecordReader createRecordReader(String fileName, InputParser inputParser) throws IOException {
+		if (inputParser == InputParser.MMAP) {
+			return new MappedCsvReader(fileName);
+		}
+		return OpenCsvRecordReader.open(fileName);
+	}
+
+	/**
+	 * Opens the bytes {@code [start, end)} of the input, which must be cut at record boundaries.
+	 */
+	public RecordReader createRecordReader(FileSorterArgs args, long start, long end) throws IOException {
+		return new MappedCsvReader(args.inputFileName, start, end);
+	}
+
 	public CSVWriter createCSVWriter(String outputFileName) throws IOException {
 		return (CSVWriter) new CSVWriterBuilder(new FileWriter(outputFileName))
 				.withQuoteChar(CSVWriter.NO_QUOTE_CHARACTER)
 				.build();
 	}
 
+	/**
+	 * Creates a temp folder of its own under the working directory, see {@link #createTempFolder(File)}.
+	 */
 	public File createTempFolder() {
-		String projectDirectory = System.getProperty("user.dir");
-		File tempFolder = new File(projectDirectory, TEMP_DIR);
-		if (tempFolder.exists()) {
-			deleteFolder(tempFolder);
+		return createTempFolder(new File(System.getProperty("user.dir")));
+	}
+
+	/**
+	 * Creates a new, uniquely named temp folder under {@code parent} for the files of one sort, so sorts running at
+	 * the same time never share or delete each other's files.
+	 */
+	public File createTempFolder(File parent) {
+		try {
+			return Files.createTempDirectory(parent.toPath(), TEMP_DIR + "_").toFile();
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot create temp folder", e);
 		}
-		if (!tempFolder.mkdir()) {
-			throw new RuntimeException("Cannot create temp folder");
+	}
+
+	/**
+	 * Creates the temp folders of a sort and sets them in {@code args}: one under every {@code --temp-dirs} entry,
+	 * the runs spread over them, or a single one under {@code defaultParent}. The first folder is the temp folder of
+	 * the sort. Returns the folders, all to be deleted once the sort is done.
+	 */
+	public List<File> createTempFolders(FileSorterArgs args, File defaultParent) {
+		List<File> folders = new ArrayList<>();
+		try {
+			if (args.tempDirs.isEmpty()) {
+				folders.add(createTempFolder(defaultParent));
+			}
+			for (String tempDir : args.tempDirs) {
+				folders.add(createTempFolder(new File(tempDir)));
+			}
+		} catch (RuntimeException e) {
+			folders.forEach(this::deleteFolder);
+			throw e;
 		}
+		args.tempFolder = folders.get(0).getPath();
+		args.spillFolders = folders.size() > 1 ? new SpillFolders(folders, args.tempPlacement) : null;
+		return folders;
+	}
 
-		return tempFolder;
+	private static String getTempFolder(FileSorterArgs args) {
+		if (args.tempFolder == null) {
+			throw new IllegalStateException("No temp folder set for the sort");
+		}
+		return args.tempFolder;
 	}
 
 	public void deleteFolder(File folder) {
@@ -55,11 +136,25 @@ public class FileUtil {
 	}
 
 	public List<List<String>> readChunk(int maxRecordsInMemory, CSVReader csvReader) throws IOException, CsvValidationException {
+		return readChunk(maxRecordsInMemory, Long.MAX_VALUE, csvReader);
+	}
+
+	public List<List<String>> readChunk(int maxRecordsInMemory, long maxChunkBytes, CSVReader csvReader) throws IOException, CsvValidationException {
+		return readChunk(maxRecordsInMemory, maxChunkBytes, new OpenCsvRecordReader(csvReader));
+	}
+
+	/**
+	 * Reads records until {@code maxRecordsInMemory} records are read or their estimated heap size reaches
+	 * {@code maxChunkBytes}, whichever comes first. Every chunk holds at least one record.
+	 */
+	public List<List<String>> readChunk(int maxRecordsInMemory, long maxChunkBytes, RecordReader recordReader) throws IOException, CsvValidationException {
 		List<List<String>> records = new ArrayList<>();
-		for (int i = 0; i < maxRecordsInMemory; i++) {
-			String[] values = csvReader.readNext();
-			if (values != null) {
-				records.add(Arrays.asList(values));
+		long chunkBytes = 0;
+		for (int i = 0; i < maxRecordsInMemory && chunkBytes < maxChunkBytes; i++) {
+			List<String> record = recordReader.readRecord();
+			if (record != null) {
+				records.add(record);
+				chunkBytes += estimateRecordBytes(record);
 			} else {
 				break;
 			}
@@ -67,6 +162,46 @@ public class FileUtil {
 		return records;
 	}
 
+	/**
+	 * Reads records into an arena, with their keys encoded by {@code sortKey}, until {@code maxRecordsInMemory}
+	 * records are read or the arena holds {@code maxChunkBytes}, coding them with {@code dictionary} if not null. An
+	 * empty arena means the input is done.
+	 */
+	public RecordArena readArena(int maxRecordsInMemory, long maxChunkBytes, RecordReader recordReader, SortKey sortKey,
+								 RecordArena.SlabPool slabPool, ColumnDictionary dictionary)
+			throws IOException, CsvValidationException {
+		RecordArena arena = new RecordArena(slabPool, dictionary);
+		while (arena.size() < maxRecordsInMemory && arena.getBytes() < maxChunkBytes) {
+			List<String> record = recordReader.readRecord();
+			if (record == null) {
+				break;
+			}
+			arena.add(sortKey.encode(record), record);
+		}
+		return arena;
+	}
+
+	/**
+	 * Estimated heap retained by a record held as {@code Arrays.asList(values)} in a chunk list: the list slot, the
+	 * wrapper, the array, and per field a String with its backing array, assuming two bytes per character.
+	 */
+	public static long estimateRecordBytes(String[] values) {
+		return estimateRecordBytes(Arrays.asList(values));
+	}
+
+	/**
+	 * Like {@link #estimateRecordBytes(String[])}, a {@link PayloadRecord} reports its own size plus its list slot.
+	 */
+	public static long estimateRecordBytes(List<String> record) {
+		if (record instanceof PayloadRecord) {
+			return REFERENCE_BYTES + ((PayloadRecord) record).estimatedBytes();
+		}
+		long bytes = RECORD_OVERHEAD_BYTES + (long) REFERENCE_BYTES * record.size();
+		for (String value : record) {
+			bytes += FIELD_OVERHEAD_BYTES + 2L * value.length();
+		}
+		return bytes;
+	}
 
 	public void writeChunkToFile(List<List<String>> fileChunk, String chunkFileName) {
 		try (CSVWriter csvWriter = createCSVWriter(chunkFileName)) {
@@ -79,24 +214,154 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * Writes records as a CSV file that the parser of {@code inputParser} reads back field for field: every field is
+	 * quoted, quotes are doubled for {@code mmap} and backslash-escaped, with backslashes, for OpenCSV.
+	 */
+	public void writeRecordsToCsvFile(Iterator<? extends List<String>> records, String fileName, InputParser inputParser)
+			throws IOException {
+		char escapeChar = inputParser == InputParser.MMAP ? CSVWriter.DEFAULT_ESCAPE_CHARACTER : '\\';
+		try (CSVWriter csvWriter = (CSVWriter) new CSVWriterBuilder(new BufferedWriter(new FileWriter(fileName), 1 << 16))
+				.withEscapeChar(escapeChar)
+				.build()) {
+			while (records.hasNext()) {
+				csvWriter.writeNext(records.next().toArray(new String[0]));
+			}
+		}
+	}
+
+	public void writeRunToFile(List<SortRecord> sortedChunk, String runFileName, SpillCodec spillCodec,
+							   SpillStats spillStats) {
+		writeRunToFile(sortedChunk, runFileName, spillCodec, spillStats, null);
+	}
+
+	/**
+	 * Writes a sorted chunk as a run coded with {@code dictionary}, uncoded if it is null.
+	 */
+	public void writeRunToFile(List<SortRecord> sortedChunk, String runFileName, SpillCodec spillCodec,
+							   SpillStats spillStats, ColumnDictionary dictionary) {
+		try (RunFileWriter runFileWriter = new RunFileWriter(runFileName, spillCodec, spillStats, dictionary)) {
+			for (SortRecord record : sortedChunk) {
+				runFileWriter.write(record.getKey(), record.getFields());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void writeArenaToFile(RecordArena sortedArena, String runFileName, SpillCodec spillCodec,
+								 SpillStats spillStats) {
+		try (RunFileWriter runFileWriter = new RunFileWriter(runFileName, spillCodec, spillStats,
+				sortedArena.getDictionary())) {
+			sortedArena.writeTo(runFileWriter);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public String getChunkFileName(FileSorterArgs args, int chunkNumber, int passNumber) {
-		String tempFolderName = args.tempFolder != null ? args.tempFolder : Main.tempFolder.getName();
-		return tempFolderName + File.separator + "pass_" + passNumber + "_chunk_" + chunkNumber + ".csv";
+		return getRunFileName(args, chunkName(chunkNumber, passNumber));
+	}
+
+	/**
+	 * Name of the run a merge of the runs named writes, placed on a device none of them is on when the runs are
+	 * spread over several temp folders.
+	 */
+	public String getMergeOutputFileName(FileSorterArgs args, List<String> inputFileNames, int chunkNumber,
+										 int passNumber) {
+		if (args.spillFolders != null) {
+			args.spillFolders.placeAwayFrom(chunkName(chunkNumber, passNumber), inputFileNames);
+		}
+		return getChunkFileName(args, chunkNumber, passNumber);
+	}
+
+	/**
+	 * Name of a run written while the input ranges are still being parsed, before the runs get their final numbers.
+	 */
+	public String getRangeChunkFileName(FileSorterArgs args, int rangeNumber, int chunkNumber) {
+		return getRunFileName(args, rangeChunkName(rangeNumber, chunkNumber));
+	}
+
+	public void moveRangeChunk(FileSorterArgs args, int rangeNumber, int chunkNumber, int newChunkNumber) throws IOException {
+		Path source = Paths.get(getRangeChunkFileName(args, rangeNumber, chunkNumber));
+		if (args.spillFolders != null) {
+			args.spillFolders.placeLike(chunkName(newChunkNumber, 0), rangeChunkName(rangeNumber, chunkNumber));
+		}
+		Path target = Paths.get(getChunkFileName(args, newChunkNumber, 0));
+		Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String getRunFileName(FileSorterArgs args, String name) {
+		String folder = args.spillFolders != null ? args.spillFolders.folderFor(name).getPath() : getTempFolder(args);
+		return folder + File.separator + name;
+	}
+
+	private static String chunkName(int chunkNumber, int passNumber) {
+		return "pass_" + passNumber + "_chunk_" + chunkNumber + ".run";
+	}
+
+	private static String rangeChunkName(int rangeNumber, int chunkNumber) {
+		return "range_" + rangeNumber + "_chunk_" + chunkNumber + ".run";
+	}
+
+	/**
+	 * Name of the CSV segment a key range of the final merge is written to before it is appended to the output.
+	 */
+	public String getSegmentFileName(FileSorterArgs args, int segmentNumber) {
+		return getTempFolder(args) + File.separator + "final_segment_" + segmentNumber + ".csv";
+	}
+
+	/**
+	 * Name of the spill file the distribution worker {@code partNumber} writes the records of a sample sort bucket to.
+	 */
+	public String getBucketFileName(FileSorterArgs args, String bucketId, int partNumber) {
+		return getRunFileName(args, "bucket_" + bucketId + "_part_" + partNumber + ".run");
+	}
+
+	/**
+	 * Appends the {@code sources} to {@code target} in order and deletes them.
+	 */
+	public void appendAndDeleteFiles(String target, List<String> sources) throws IOException {
+		try (FileChannel out = FileChannel.open(Paths.get(target), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			for (String source : sources) {
+				try (FileChannel in = FileChannel.open(Paths.get(source), StandardOpenOption.READ)) {
+					long size = in.size();
+					for (long position = 0; position < size; ) {
+						position += in.transferTo(position, size - position, out);
+					}
+				}
+				Files.delete(Paths.get(source));
+			}
+		}
+	}
+
+	public long getChunkFileSize(FileSorterArgs args, int chunkNumber, int passNumber) {
+		return new File(getChunkFileName(args, chunkNumber, passNumber)).length();
+	}
+
+	public void moveChunk(FileSorterArgs args, int chunkNumber, int passNumber, int newChunkNumber, int newPassNumber) throws IOException {
+		Path source = Paths.get(getChunkFileName(args, chunkNumber, passNumber));
+		if (args.spillFolders != null) {
+			args.spillFolders.placeLike(chunkName(newChunkNumber, newPassNumber), chunkName(chunkNumber, passNumber));
+		}
+		Path target = Paths.get(getChunkFileName(args, newChunkNumber, newPassNumber));
+		Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
 	}
 
-	public void createFinalOutputFile(FileSorterArgs args, int passNumber) {
+	public void createFinalOutputFile(FileSorterArgs args, int passNumber) throws IOException {
 		String projectDirectory = System.getProperty("user.dir");
 		String finalOutputFileName = args.outputFileName;
 
-		Path outputPath = Paths.get(projectDirectory, finalOutputFileName);
+		// Absolute output paths are kept as they are
+		Path outputPath = Paths.get(projectDirectory).resolve(finalOutputFileName);
 
 		String chunkFileName = getChunkFileName(args, 0, passNumber);
 		File chunkFile = new File(chunkFileName);
 
-		if (chunkFile.exists()) {
-			chunkFile.renameTo(outputPath.toFile());
-		} else {
-			System.err.println("Error: Chunk file not found.");
+		if (!chunkFile.exists()) {
+			throw new FileNotFoundException("Final run " + chunkFileName + " not found");
 		}
+		// Falls back to copy and delete when the output is on another file system than the temp folder
+		Files.move(chunkFile.toPath(), outputPath, StandardCopyOption.REPLACE_EXISTING);
 	}
 }
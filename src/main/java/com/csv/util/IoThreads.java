@@ -0,0 +1,43 @@
+package com.csv.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for the work of a sort that mostly waits on files: reading runs ahead of the merges and writing spills and
+ * merge output behind them. This is the Java 8 version, which has platform threads only. The multi-release jar
+ * replaces it on Java 21 and later with the version in {@code src/main/java21}, which can run the same work on
+ * virtual threads.
+ */
+public final class IoThreads {
+
+	private IoThreads() {
+	}
+
+	/**
+	 * Whether the running JDK has virtual threads, false before Java 21.
+	 */
+	public static boolean virtualThreadsAvailable() {
+		return false;
+	}
+
+	/**
+	 * An executor that starts a thread named {@code name} for every task that finds no idle one. With
+	 * {@code virtual} set and virtual threads available, every task runs on a virtual thread of its own instead.
+	 */
+	public static ExecutorService newExecutor(String name, boolean virtual) {
+		return Executors.newCachedThreadPool(factory(name, virtual));
+	}
+
+	/**
+	 * Daemon threads named {@code name}, virtual ones when {@code virtual} is set and virtual threads are available.
+	 */
+	public static ThreadFactory factory(String name, boolean virtual) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,116 @@
+package com.csv.util;
+
+import com.csv.config.TempPlacement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The temp folders the run files of one sort are spread over, one per {@code --temp-dirs} entry. Every run file is
+ * placed in a folder when its name is first asked for and stays there, so readers find it by name alone. A run that
+ * is renamed keeps the folder of the file it was, and the output of a merge is placed on a device none of its inputs
+ * is on whenever there is one. Folders on the same file system count as one device.
+ */
+public final class SpillFolders {
+	private final List<File> folders;
+	// Per folder the number of its device, the index of the first folder on the same file system
+	private final int[] devices;
+	private final TempPlacement placement;
+	private final Map<String, Integer> folderByFileName = new ConcurrentHashMap<>();
+	private final AtomicInteger next = new AtomicInteger();
+
+	public SpillFolders(List<File> folders, TempPlacement placement) {
+		this.folders = new ArrayList<>(folders);
+		this.placement = placement;
+		this.devices = new int[folders.size()];
+		List<FileStore> stores = new ArrayList<>();
+		for (File folder : folders) {
+			try {
+				stores.add(Files.getFileStore(folder.toPath()));
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot find the file system of " + folder, e);
+			}
+		}
+		for (int folder = 0; folder < devices.length; folder++) {
+			devices[folder] = stores.indexOf(stores.get(folder));
+		}
+	}
+
+	public List<File> getFolders() {
+		return folders;
+	}
+
+	/**
+	 * The folder of a run file, placing it if it has none yet.
+	 */
+	File folderFor(String fileName) {
+		return folders.get(folderByFileName.computeIfAbsent(fileName, name -> choose(new HashSet<>())));
+	}
+
+	/**
+	 * Places a run file in the folder of another one, for a rename that should not copy the file.
+	 */
+	void placeLike(String fileName, String existingFileName) {
+		folderByFileName.put(fileName, folderByFileName.computeIfAbsent(existingFileName, name -> choose(new HashSet<>())));
+	}
+
+	/**
+	 * Places a run file away from the devices of {@code inputPaths}, on any device if they cover all of them.
+	 */
+	void placeAwayFrom(String fileName, Collection<String> inputPaths) {
+		Set<Integer> inputDevices = new HashSet<>();
+		for (String inputPath : inputPaths) {
+			int device = deviceOf(inputPath);
+			if (device >= 0) {
+				inputDevices.add(device);
+			}
+		}
+		folderByFileName.put(fileName, choose(inputDevices));
+	}
+
+	/**
+	 * The device a path is on, -1 if it is not in one of the folders.
+	 */
+	public int deviceOf(String path) {
+		String absolutePath = new File(path).getAbsolutePath();
+		for (int folder = 0; folder < folders.size(); folder++) {
+			if (absolutePath.startsWith(folders.get(folder).getAbsolutePath() + File.separator)) {
+				return devices[folder];
+			}
+		}
+		return -1;
+	}
+
+	private int choose(Set<Integer> avoidedDevices) {
+		if (placement == TempPlacement.FREE_SPACE) {
+			int best = -1;
+			for (int folder = 0; folder < folders.size(); folder++) {
+				if (avoidedDevices.contains(devices[folder])) {
+					continue;
+				}
+				if (best < 0 || folders.get(folder).getUsableSpace() > folders.get(best).getUsableSpace()) {
+					best = folder;
+				}
+			}
+			return best >= 0 ? best : choose(new HashSet<>());
+		}
+		int start = Math.floorMod(next.getAndIncrement(), folders.size());
+		for (int i = 0; i < folders.size(); i++) {
+			int folder = (start + i) % folders.size();
+			if (!avoidedDevices.contains(devices[folder])) {
+				return folder;
+			}
+		}
+		return start;
+	}
+}
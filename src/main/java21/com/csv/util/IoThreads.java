@@ -0,0 +1,45 @@
+package com.csv.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads for the work of a sort that mostly waits on files: reading runs ahead of the merges and writing spills and
+ * merge output behind them. This is the Java 21 version, loaded from the multi-release jar in place of the one in
+ * {@code src/main/java}. Virtual threads cost a few hundred bytes each and release their carrier while blocked in
+ * I/O, so a merge can read ahead of every one of thousands of runs without as many platform threads.
+ */
+public final class IoThreads {
+
+	private IoThreads() {
+	}
+
+	/**
+	 * Whether the running JDK has virtual threads, false before Java 21.
+	 */
+	public static boolean virtualThreadsAvailable() {
+		return true;
+	}
+
+	/**
+	 * An executor that starts a thread named {@code name} for every task that finds no idle one. With
+	 * {@code virtual} set and virtual threads available, every task runs on a virtual thread of its own instead.
+	 */
+	public static ExecutorService newExecutor(String name, boolean virtual) {
+		if (virtual) {
+			return Executors.newThreadPerTaskExecutor(factory(name, true));
+		}
+		return Executors.newCachedThreadPool(factory(name, false));
+	}
+
+	/**
+	 * Daemon threads named {@code name}, virtual ones when {@code virtual} is set and virtual threads are available.
+	 */
+	public static ThreadFactory factory(String name, boolean virtual) {
+		if (virtual) {
+			return Thread.ofVirtual().name(name).factory();
+		}
+		return Thread.ofPlatform().name(name).daemon().factory();
+	}
+}
@@ -0,0 +1,129 @@
+package com.csv;
+
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvSorterTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempDirectory;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempDirectory = Files.createTempDirectory("csv_sorter_test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempDirectory.toFile());
+	}
+
+	@Test
+	void givenIteratorOfRecords_whenSorted_thenRecordsComeBackSortedAndTempFolderRemovedOnClose() throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 500; i++) {
+			records.add(Arrays.asList(String.valueOf(i), "k" + random.nextInt(50), "a \"quote\", a \\ and\na line break"));
+		}
+		CsvSorter sorter = sorter().keyField(1).maxRecordsInMemory(40).option("--fan-in", "4").build();
+
+		List<List<String>> sorted = new ArrayList<>();
+		try (CsvSorter.SortedRecords sortedRecords = sorter.sorted(records.iterator())) {
+			sortedRecords.forEachRemaining(sorted::add);
+			assertEquals(1, Files.list(tempDirectory).count());
+		}
+
+		// Intermediate passes merge the smallest runs first, so only the order of the keys is checked
+		List<String> expectedKeys = records.stream().map(record -> record.get(1)).sorted().collect(Collectors.toList());
+		List<List<String>> byId = new ArrayList<>(sorted);
+		byId.sort(Comparator.comparing(record -> Integer.parseInt(record.get(0))));
+		assertAll(
+				() -> assertEquals(expectedKeys, sorted.stream().map(record -> record.get(1)).collect(Collectors.toList())),
+				() -> assertEquals(records, byId),
+				() -> assertEquals(0, Files.list(tempDirectory).count())
+		);
+	}
+
+	@Test
+	void givenInputStream_whenSortedToOutputStream_thenCsvLinesSortedByTypedKey() throws IOException {
+		List<String> lines = numberedLines(3000, 7);
+		byte[] input = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+		CsvSorter sorter = sorter().key("1:int:desc").maxRecordsInMemory(100).build();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		sorter.sort(new ByteArrayInputStream(input), output);
+
+		List<String> expected = lines.stream()
+				.sorted(Comparator.comparing((String line) -> Integer.parseInt(line.split(",")[1])).reversed())
+				.collect(Collectors.toList());
+		assertEquals(String.join(System.lineSeparator(), expected) + System.lineSeparator(),
+				new String(output.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void givenOneSorter_whenSortsRunAtTheSameTime_thenEverySortHasItsOwnFilesAndOutput() throws Exception {
+		CsvSorter mergeSorter = sorter().maxRecordsInMemory(50).build();
+		CsvSorter sampleSorter = sorter().maxRecordsInMemory(50).option("--algorithm", "sample").build();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> sorts = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				CsvSorter sorter = i % 2 == 0 ? mergeSorter : sampleSorter;
+				List<String> lines = numberedLines(2000, i);
+				Path input = tempDirectory.resolve("input_" + i + ".csv");
+				Path output = tempDirectory.resolve("output_" + i + ".csv");
+				Files.write(input, lines, StandardCharsets.UTF_8);
+				sorts.add(executor.submit(() -> {
+					sorter.sort(input, output);
+					List<String> expected = lines.stream()
+							.sorted(Comparator.comparing((String line) -> line.substring(0, line.indexOf(','))))
+							.collect(Collectors.toList());
+					return expected.equals(Files.readAllLines(output, StandardCharsets.UTF_8));
+				}));
+			}
+			for (Future<Boolean> sort : sorts) {
+				assertTrue(sort.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(Files.list(tempDirectory).allMatch(path -> path.getFileName().toString().endsWith(".csv")));
+	}
+
+	@Test
+	void givenUnknownOption_whenBuild_thenRejected() {
+		assertThrows(IllegalArgumentException.class, () -> sorter().option("--fan-out", "4").build());
+	}
+
+	private CsvSorter.Builder sorter() {
+		return CsvSorter.builder().threads(2).tempDirectory(tempDirectory);
+	}
+
+	private static List<String> numberedLines(int count, long seed) {
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			lines.add(String.format("k%05d,%d,%d", random.nextInt(1000), random.nextInt(100_000), i));
+		}
+		return lines;
+	}
+}
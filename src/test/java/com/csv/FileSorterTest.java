@@ -1,14 +1,17 @@
 package com.csv;
 
 import com.csv.config.FileSorterArgs;
+import com.csv.io.RecordReader;
+import com.csv.model.SortRecord;
 import com.csv.service.FileSorter;
 import com.csv.util.FileUtil;
-import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
@@ -24,7 +27,9 @@ import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -73,8 +78,8 @@ class FileSorterTest {
 	@BeforeAll
 	static void setUp() {
 
-		Main.tempFolder = new File(TEMP_FOLDER);
-		Main.tempFolder.mkdir();
+		new File(TEMP_FOLDER).mkdir();
+		FILE_SORTER_ARGS.tempFolder = TEMP_FOLDER;
 		writeSortedChunksToFile();
 		if (SHUFFLED_RECORDS.size() < FILE_SORTER_ARGS.maxRecordsInMemory) {
 			FILE_SORTER_ARGS.maxRecordsInMemory = SHUFFLED_RECORDS.size();
@@ -89,7 +94,7 @@ class FileSorterTest {
 	@AfterEach
 	void tearDown() {
 		FileUtil fileUtil = new FileUtil();
-		fileUtil.deleteFolder(Main.tempFolder);
+		fileUtil.deleteFolder(new File(TEMP_FOLDER));
 		//delete output file, comment this block if you want to see the output file
 		File file = new File(FILE_SORTER_ARGS.outputFileName);
 		if (file.exists()) {
@@ -99,9 +104,9 @@ class FileSorterTest {
 
 	@Test
 	void givenInputFile_whenSplitToSortedRecordsChunks_thenChunksAreSorted() throws Exception {
-		CSVReader csvReaderMock = mock(CSVReader.class);
-		when(fileUtilMock.createCSVReader(FILE_SORTER_ARGS.inputFileName)).thenReturn(csvReaderMock);
-		when(fileUtilMock.readChunk(FILE_SORTER_ARGS.maxRecordsInMemory, csvReaderMock)).thenAnswer(new Answer<List<List<String>>>() {
+		RecordReader recordReaderMock = mock(RecordReader.class);
+		when(fileUtilMock.createRecordReader(FILE_SORTER_ARGS)).thenReturn(recordReaderMock);
+		when(fileUtilMock.readChunk(FILE_SORTER_ARGS.maxRecordsInMemory, Long.MAX_VALUE, recordReaderMock)).thenAnswer(new Answer<List<List<String>>>() {
 			private int count = 0;
 
 			public List<List<String>> answer(InvocationOnMock invocation) {
@@ -119,31 +124,59 @@ class FileSorterTest {
 
 		//assert that the chunk is sorted
 		doAnswer((Answer<Void>) invocation -> {
-			List<List<String>> chunk = invocation.getArgument(0);
+			List<List<String>> chunk = fields(invocation.getArgument(0));
 			List<List<String>> sortedChunk = new ArrayList<>(chunk);
 			sortedChunk.sort(Comparator.comparing(o -> o.get(FILE_SORTER_ARGS.keyFieldIndex)));
 
 			assertEquals(sortedChunk, chunk, "Chunk is not sorted");
 
 			return null;
-		}).when(fileUtilMock).writeChunkToFile(anyList(), any());
+		}).when(fileUtilMock).writeRunToFile(anyList(), any(), any(), any());
 		int sortedChunksCount = fileSorter.splitToSortedRecordsChunks(FILE_SORTER_ARGS);
 		int expectedSortedChunksCount = (int) Math.ceil((double) INPUT_LINES / FILE_SORTER_ARGS.maxRecordsInMemory);
-		assertAll(() -> assertEquals(expectedSortedChunksCount, sortedChunksCount), () -> verify(fileUtilMock, times(expectedSortedChunksCount)).writeChunkToFile(anyList(), any()));
+		assertAll(() -> assertEquals(expectedSortedChunksCount, sortedChunksCount), () -> verify(fileUtilMock, times(expectedSortedChunksCount)).writeRunToFile(anyList(), any(), any(), any()));
 
 	}
 
-	private void writeSortedChunksToFile(FileUtil fileUtil, String outputFolder) {
+	@Test
+	void givenInputFile_whenSplitToSortedRecordsChunks_thenChunksAreNumberedInReadOrder() throws Exception {
+		RecordReader recordReaderMock = mock(RecordReader.class);
+		when(fileUtilMock.createRecordReader(FILE_SORTER_ARGS)).thenReturn(recordReaderMock);
+		when(fileUtilMock.readChunk(FILE_SORTER_ARGS.maxRecordsInMemory, Long.MAX_VALUE, recordReaderMock))
+				.thenReturn(new ArrayList<>(SORTED_CHUNK_3))
+				.thenReturn(new ArrayList<>(SORTED_CHUNK_1))
+				.thenReturn(new ArrayList<>(SORTED_CHUNK_2))
+				.thenReturn(Collections.emptyList());
+		for (int i = 0; i < SORTED_CHUNKS.size(); i++) {
+			when(fileUtilMock.getChunkFileName(FILE_SORTER_ARGS, i, 0)).thenReturn("chunk_" + i);
+		}
+
+		fileSorter.splitToSortedRecordsChunks(FILE_SORTER_ARGS);
+
+		assertAll(
+				() -> verify(fileUtilMock).writeRunToFile(argThat(records -> fields(records).equals(SORTED_CHUNK_3)), eq("chunk_0"), any(), any()),
+				() -> verify(fileUtilMock).writeRunToFile(argThat(records -> fields(records).equals(SORTED_CHUNK_1)), eq("chunk_1"), any(), any()),
+				() -> verify(fileUtilMock).writeRunToFile(argThat(records -> fields(records).equals(SORTED_CHUNK_2)), eq("chunk_2"), any(), any())
+		);
+	}
 
-		fileUtil.writeChunkToFile(SORTED_CHUNK_1, outputFolder + "/pass_0_chunk_0.csv");
-		fileUtil.writeChunkToFile(SORTED_CHUNK_2, outputFolder + "/pass_0_chunk_1.csv");
-		fileUtil.writeChunkToFile(SORTED_CHUNK_3, outputFolder + "/pass_0_chunk_2.csv");
+	private static List<List<String>> fields(List<SortRecord> records) {
+		return records.stream().map(SortRecord::getFields).collect(Collectors.toList());
+	}
+
+	private void writeSortedChunksToFile(FileUtil fileUtil, FileSorterArgs args) {
+		for (int i = 0; i < SORTED_CHUNKS.size(); i++) {
+			List<SortRecord> records = SORTED_CHUNKS.get(i).stream()
+					.map(record -> new SortRecord(args.sortKey.encode(record), record))
+					.collect(Collectors.toList());
+			fileUtil.writeRunToFile(records, fileUtil.getChunkFileName(args, i, 0), args.spillCodec, null);
+		}
 	}
 
 	@Test
 	void givenChunkGroup_whenMergeAllSortedChunks_andRequireOnePassMerge_thenOutputFileCreated() throws CsvValidationException, IOException {
 		//Note mocks are not used here, we are using the actual fileUtil and fileSorter objects
-		MergeAllSortedChunksResult result = getMergeAllSortedChunksResult();
+		MergeAllSortedChunksResult result = getMergeAllSortedChunksResult(MAX_RECORDS_IN_MEMORY);
 		List<String> outputFileContent = Files.readAllLines(Paths.get(result.customArgs.outputFileName));
 		List<String> expectedContent = RECORDS.stream().map(list -> String.join(",", list)).collect(Collectors.toList());
 		assertEquals(outputFileContent, expectedContent);
@@ -154,7 +187,7 @@ class FileSorterTest {
 	@Test
 	void givenChunkGroup_whenMergeAllSortedChunks_andRequireMultiplePassMerge_thenOutputFileCreated() throws CsvValidationException, IOException {
 		//Note mocks are not used here, we are using the actual fileUtil and fileSorter objects
-		MergeAllSortedChunksResult result = getMergeAllSortedChunksResult();
+		MergeAllSortedChunksResult result = getMergeAllSortedChunksResult(2);
 
 		assertEquals(Files.readAllLines(Paths.get(result.customArgs.outputFileName)), RECORDS.stream().map(list -> String.join(",", list)).collect(Collectors.toList()));
 		assert (Files.exists(Paths.get(result.customArgs.outputFileName)));
@@ -162,7 +195,7 @@ class FileSorterTest {
 
 	}
 
-	private MergeAllSortedChunksResult getMergeAllSortedChunksResult() throws IOException, CsvValidationException {
+	private MergeAllSortedChunksResult getMergeAllSortedChunksResult(int fanIn) throws IOException, CsvValidationException {
 		String outputFolder = getUniqueTempFolder();
 		FileUtil fileUtil = new FileUtil();
 		File outputFolderFile = new File(outputFolder);
@@ -171,11 +204,57 @@ class FileSorterTest {
 		FileSorterArgs customArgs = new FileSorterArgs(ARGS);
 		customArgs.outputFileName = customOutputFileName;
 		customArgs.tempFolder = outputFolder;
-		writeSortedChunksToFile(fileUtil, outputFolder);
+		customArgs.fanIn = fanIn;
+		writeSortedChunksToFile(fileUtil, customArgs);
 		FileSorter fileSorter = new FileSorter(fileUtil);
 		fileSorter.mergeAllSortedChunks(customArgs, SORTED_CHUNKS.size());
+		fileSorter.shutdown();
 		return new MergeAllSortedChunksResult(fileUtil, outputFolderFile, customArgs);
 	}
 
+	@ParameterizedTest
+	@ValueSource(strings = {"--parser opencsv", "--parser mmap", "--parser opencsv --chunk-format arena",
+			"--parser mmap --chunk-format arena", "--parser opencsv --dictionary auto", "--parser mmap --dictionary auto",
+			"--parser mmap --chunk-format arena --dictionary auto"})
+	void givenOptions_whenExternalMergeSortFile_thenOutputAsStableReferenceSort(String options) throws IOException {
+		String[] names = {"Smith", "Jones", "Brown", "Taylor", "Wilson"};
+		List<String> lines = new ArrayList<>();
+		Random random = new Random(22);
+		for (int i = 0; i < 60_000; i++) {
+			// Many equal keys, and names past the records sampled for a dictionary that it does not hold
+			String name = i < 20_000 ? names[random.nextInt(names.length)] : "Name" + random.nextInt(50);
+			lines.add(String.format("%d,%s,status-%d,a value wide enough for several ranges", i, name, random.nextInt(3)));
+		}
+
+		List<String> expected = lines.stream()
+				.sorted(Comparator.comparing((String line) -> line.split(",")[1]))
+				.collect(Collectors.toList());
+		assertEquals(expected, sortFile(lines, 1, 3000, options.split(" ")));
+	}
 
+	/**
+	 * Sorts {@code lines} on the field {@code keyFieldIndex} with real files in a folder of its own and returns the
+	 * lines of the output.
+	 */
+	private List<String> sortFile(List<String> lines, int keyFieldIndex, int maxRecordsInMemory, String... options)
+			throws IOException {
+		String outputFolder = getUniqueTempFolder();
+		File outputFolderFile = new File(outputFolder);
+		outputFolderFile.mkdir();
+		List<String> arguments = new ArrayList<>(Arrays.asList(String.valueOf(keyFieldIndex),
+				String.valueOf(maxRecordsInMemory), outputFolder + "/input.csv", outputFolder + "/output.csv", "4"));
+		arguments.addAll(Arrays.asList(options));
+		FileSorterArgs customArgs = new FileSorterArgs(arguments.toArray(new String[0]));
+		customArgs.tempFolder = outputFolder;
+		FileUtil fileUtil = new FileUtil();
+		try {
+			Files.write(Paths.get(customArgs.inputFileName), lines);
+			FileSorter fileSorter = new FileSorter(fileUtil);
+			fileSorter.externalMergeSortFile(customArgs);
+			fileSorter.shutdown();
+			return Files.readAllLines(Paths.get(customArgs.outputFileName));
+		} finally {
+			fileUtil.deleteFolder(outputFolderFile);
+		}
+	}
 }
@@ -0,0 +1,133 @@
+package com.csv.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileSorterArgsTest {
+
+	@Test
+	void givenOptions_whenParsed_thenFieldsSet() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"1", "100", "in.csv", "out.csv", "4",
+				"--fan-in", "16", "--merge-memory", "8m", "--memory", "2g", "--merge-engine", "heap"});
+
+		assertAll(
+				() -> assertEquals(16, args.fanIn),
+				() -> assertEquals(8L * 1024 * 1024, args.mergeMemory),
+				() -> assertEquals(2L * 1024 * 1024 * 1024, args.memoryBudget),
+				() -> assertEquals(MergeEngine.HEAP, args.mergeEngine),
+				() -> assertEquals(4, args.mergeParallelism)
+		);
+	}
+
+	@Test
+	void givenOutOfRangeOpenFilesOrBufferSizes_whenParsed_thenRejected() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "2", "--read-buffer", "1g"});
+
+		assertAll(
+				() -> assertEquals(1 << 30, args.readBufferSize),
+				() -> assertThrows(IllegalArgumentException.class, () -> args.setOption("--max-open-files", "21")),
+				() -> assertDoesNotThrow(() -> args.setOption("--max-open-files", "22")),
+				() -> assertThrows(IllegalArgumentException.class, () -> args.setOption("--read-buffer", "2g")),
+				() -> assertThrows(IllegalArgumentException.class, () -> args.setOption("--write-buffer", "4g"))
+		);
+	}
+
+	@Test
+	void givenTempDirs_whenParsed_thenListAndPlacementSet() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "2",
+				"--temp-dirs", "/mnt/a,/mnt/b", "--temp-placement", "free-space"});
+
+		assertAll(
+				() -> assertEquals(java.util.Arrays.asList("/mnt/a", "/mnt/b"), args.tempDirs),
+				() -> assertEquals(TempPlacement.FREE_SPACE, args.tempPlacement),
+				() -> assertThrows(IllegalArgumentException.class, () -> args.setOption("--temp-placement", "random"))
+		);
+	}
+
+	@Test
+	void givenIoThreadsOption_whenParsed_thenPlatformByDefaultAndVirtualOnRequest() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "2"});
+		assertFalse(args.virtualIoThreads);
+
+		args.setOption("--io-threads", "virtual");
+
+		assertAll(
+				() -> assertTrue(args.virtualIoThreads),
+				() -> assertThrows(IllegalArgumentException.class, () -> args.setOption("--io-threads", "green"))
+		);
+	}
+
+	@Test
+	void givenProgressOption_whenParsed_thenOffByDefaultAndOnRequest() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "2"});
+		assertEquals(0, args.progressIntervalMillis);
+		assertFalse(args.timesMerges());
+
+		args.setOption("--progress", "2.5");
+
+		assertAll(
+				() -> assertEquals(2500, args.progressIntervalMillis),
+				() -> assertTrue(args.timesMerges()),
+				() -> assertThrows(IllegalArgumentException.class, () -> args.setOption("--progress", "-1"))
+		);
+	}
+
+	@Test
+	void givenMemoryFraction_whenParsed_thenShareOfMaxHeap() {
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		assertAll(
+				() -> assertEquals(maxHeap / 2, FileSorterArgs.parseMemory("0.5"), 1),
+				() -> assertEquals(maxHeap / 4, FileSorterArgs.parseMemory("25%"), 1),
+				() -> assertThrows(IllegalArgumentException.class, () -> FileSorterArgs.parseMemory("1.5"))
+		);
+	}
+
+	@Test
+	void givenNoRecordLimit_whenMemoryBudgetGiven_thenRecordLimitDisabled() {
+		FileSorterArgs args = new FileSorterArgs(new String[]{"0", "0", "in.csv", "out.csv", "1", "--memory", "64m"});
+		assertEquals(Integer.MAX_VALUE, args.maxRecordsInMemory);
+
+		assertThrows(IllegalArgumentException.class, () -> new FileSorterArgs(new String[]{"0", "0", "in.csv", "out.csv", "1"}));
+	}
+
+	@Test
+	void givenKeyOption_whenParsed_thenOverridesKeyFieldIndex() {
+		FileSorterArgs positional = new FileSorterArgs(new String[]{"2", "100", "in.csv", "out.csv", "1"});
+		FileSorterArgs withKey = new FileSorterArgs(new String[]{"2", "100", "in.csv", "out.csv", "1", "--key", "3:int:desc,0"});
+
+		assertAll(
+				() -> assertEquals("2:string:asc", positional.sortKey.toString()),
+				() -> assertEquals("3:int:desc,0:string:asc", withKey.sortKey.toString())
+		);
+	}
+
+	@Test
+	void givenDedupOrAggregate_whenParsed_thenReducerSetAndBothRejected() {
+		FileSorterArgs dedup = new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "1", "--dedup", "last"});
+		FileSorterArgs aggregate = new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "1", "--aggregate", "count,sum:2"});
+
+		assertAll(
+				() -> assertEquals("last", dedup.reducer.getName()),
+				() -> assertEquals("count,sum:2", aggregate.reducer.getName()),
+				() -> assertThrows(IllegalArgumentException.class, () -> new FileSorterArgs(new String[]{"0", "100",
+						"in.csv", "out.csv", "1", "--dedup", "first", "--aggregate", "count"}))
+		);
+	}
+
+	@Test
+	void givenReducer_whenCombinedWithOptionsItCannotRunWith_thenRejectedInEitherOrder() {
+		assertAll(
+				() -> assertThrows(IllegalArgumentException.class, () -> dedup().setOption("--algorithm", "sample")),
+				() -> assertThrows(IllegalArgumentException.class, () -> dedup().setOption("--run-generation", "replacement")),
+				() -> assertThrows(IllegalArgumentException.class, () -> dedup().setOption("--run-generation", "natural")),
+				() -> assertThrows(IllegalArgumentException.class, () -> dedup().setOption("--chunk-format", "arena")),
+				() -> assertThrows(IllegalArgumentException.class, () -> new FileSorterArgs(new String[]{"0", "100",
+						"in.csv", "out.csv", "1", "--chunk-format", "arena", "--aggregate", "count"}))
+		);
+	}
+
+	private static FileSorterArgs dedup() {
+		return new FileSorterArgs(new String[]{"0", "100", "in.csv", "out.csv", "1", "--dedup", "first"});
+	}
+}
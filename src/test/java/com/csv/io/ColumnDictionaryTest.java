@@ -0,0 +1,122 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+import com.opencsv.exceptions.CsvValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnDictionaryTest {
+	private static final String[] STATUSES = {"open", "closed", "pending"};
+
+	@Test
+	void givenSample_whenDictionaryBuilt_thenOnlyRepeatingColumnsCodedWithSortedValues() throws Exception {
+		ColumnDictionary dictionary = ColumnDictionary.sample(readerOf(records(100)), 1000);
+
+		assertAll(
+				() -> assertFalse(dictionary.isCoded(0)),
+				() -> assertTrue(dictionary.isCoded(1)),
+				() -> assertEquals("1 (3 values)", dictionary.describe()),
+				() -> assertEquals("closed", dictionary.value(1, 0)),
+				() -> assertEquals("pending", dictionary.value(1, 2))
+		);
+	}
+
+	@Test
+	void givenCodedRecords_whenWrittenToRunAndReadBack_thenFieldsAndUnknownValuesPreserved() throws Exception {
+		ColumnDictionary dictionary = ColumnDictionary.sample(readerOf(records(100)), 1000);
+		List<List<String>> records = records(10);
+		records.add(Arrays.asList("id-new", "reopened"));
+		Path runFile = Files.createTempFile("coded", ".run");
+		try {
+			try (RunFileWriter writer = new RunFileWriter(runFile.toString(), NoneCodec.INSTANCE, null, dictionary)) {
+				for (List<String> record : records) {
+					PayloadRecord coded = PayloadRecord.of(record, dictionary);
+					writer.write(SortKey.singleField(0).encode(coded), coded);
+				}
+			}
+			List<List<String>> read = new ArrayList<>();
+			ByteArrayOutputStream csv = new ByteArrayOutputStream();
+			try (RunFileReader reader = new RunFileReader(runFile.toString())) {
+				while (reader.hasRecord()) {
+					read.add(reader.getCurrentPayloadRecord());
+					reader.writeCurrentRecordAsCsv(csv, "\n".getBytes(StandardCharsets.UTF_8));
+					reader.nextRecord();
+				}
+			}
+
+			assertAll(
+					() -> assertEquals(records, read),
+					() -> assertTrue(new String(csv.toByteArray(), StandardCharsets.UTF_8).endsWith("id-new,reopened\n"))
+			);
+		} finally {
+			Files.delete(runFile);
+		}
+	}
+
+	@Test
+	void givenCodedRun_whenCopiedToWriterWithoutDictionary_thenRecodedAsPlainPayloads() throws Exception {
+		ColumnDictionary dictionary = ColumnDictionary.sample(readerOf(records(100)), 1000);
+		Path coded = Files.createTempFile("coded", ".run");
+		Path plain = Files.createTempFile("plain", ".run");
+		try {
+			try (RunFileWriter writer = new RunFileWriter(coded.toString(), NoneCodec.INSTANCE, null, dictionary)) {
+				for (List<String> record : records(20)) {
+					writer.write(SortKey.singleField(0).encode(record), record);
+				}
+			}
+			try (RunFileReader reader = new RunFileReader(coded.toString());
+				 RunFileWriter writer = new RunFileWriter(plain.toString())) {
+				while (reader.hasRecord()) {
+					writer.write(reader);
+					reader.nextRecord();
+				}
+			}
+			List<List<String>> read = new ArrayList<>();
+			try (RunFileReader reader = new RunFileReader(plain.toString())) {
+				assertNull(reader.getDictionary());
+				while (reader.hasRecord()) {
+					read.add(reader.getCurrentRecord());
+					reader.nextRecord();
+				}
+			}
+
+			assertEquals(records(20), read);
+		} finally {
+			Files.delete(coded);
+			Files.delete(plain);
+		}
+	}
+
+	private static List<List<String>> records(int count) {
+		List<List<String>> records = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			records.add(Arrays.asList("id-" + i, STATUSES[i % STATUSES.length]));
+		}
+		return records;
+	}
+
+	private static RecordReader readerOf(List<List<String>> records) {
+		Iterator<List<String>> iterator = records.iterator();
+		return new RecordReader() {
+			@Override
+			public List<String> readRecord() throws CsvValidationException {
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
@@ -0,0 +1,132 @@
+package com.csv.io;
+
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedCsvReaderTest {
+	private static final String QUOTED_INPUT = "a001,\"Smith, John\",\"say \"\"hi\"\"\"\r\n"
+			+ "a002,\"two\nlines\",\n"
+			+ "\n"
+			+ "a003,,\"\"\n"
+			+ "a004,Ünïcödé";
+	private Path input;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		input = Files.createTempFile("input", ".csv");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		Files.deleteIfExists(input);
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {3, 8, MappedCsvReader.DEFAULT_WINDOW_SIZE})
+	void givenQuotedFieldsAndMixedLineEnds_whenRead_thenRfc4180Fields(int windowSize) throws IOException {
+		write(QUOTED_INPUT);
+
+		assertEquals(Arrays.asList(
+				Arrays.asList("a001", "Smith, John", "say \"hi\""),
+				Arrays.asList("a002", "two\nlines", ""),
+				Arrays.asList(""),
+				Arrays.asList("a003", "", ""),
+				Arrays.asList("a004", "Ünïcödé")
+		), readAll(windowSize));
+	}
+
+	@Test
+	void givenRfc4180File_whenReadWithSmallWindows_thenSameRecordsAsOpenCsv() throws Exception {
+		Random random = new Random(11);
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 2_000; i++) {
+			csv.append(String.format("k%05d", random.nextInt(100_000))).append(',')
+					.append(random.nextBoolean() ? "\"x, \"\"" + i + "\"\"\"" : "plain" + i).append(',')
+					.append(random.nextInt(3) == 0 ? "" : "v" + random.nextInt(1000))
+					.append(random.nextBoolean() ? "\n" : "\r\n");
+		}
+		write(csv.toString());
+
+		assertEquals(readAllWithOpenCsv(), readAll(4096));
+	}
+
+	@Test
+	void givenEmbeddedCommasQuotesAndLineBreaks_whenReadByRecordRanges_thenSameRecordsAsOpenCsv() throws Exception {
+		Random random = new Random(12);
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 5_000; i++) {
+			csv.append(String.format("k%06d", random.nextInt(1_000_000))).append(',')
+					.append(random.nextBoolean() ? "\"quoted, with a\nline break and \"\"quotes\"\"\"" : "plain" + i)
+					.append(',').append(i).append('\n');
+		}
+		write(csv.toString());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<List<String>> fromRanges = new ArrayList<>();
+		try {
+			long[] boundaries = RecordRangeSplitter.split(input.toString(), 16, executor);
+			for (int i = 0; i + 1 < boundaries.length; i++) {
+				try (MappedCsvReader reader = new MappedCsvReader(input.toString(), boundaries[i], boundaries[i + 1])) {
+					List<String> record;
+					while ((record = reader.readRecord()) != null) {
+						fromRanges.add(new ArrayList<>(record));
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(readAllWithOpenCsv(), fromRanges);
+	}
+
+	@Test
+	void givenUnterminatedQuote_whenRead_thenIOException() throws IOException {
+		write("a001,\"never closed\n");
+
+		assertThrows(IOException.class, () -> readAll(MappedCsvReader.DEFAULT_WINDOW_SIZE));
+	}
+
+	private List<List<String>> readAll(int windowSize) throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		try (MappedCsvReader reader = new MappedCsvReader(input.toString(), windowSize)) {
+			List<String> record;
+			while ((record = reader.readRecord()) != null) {
+				records.add(new ArrayList<>(record));
+			}
+		}
+		return records;
+	}
+
+	private List<List<String>> readAllWithOpenCsv() throws Exception {
+		List<List<String>> records = new ArrayList<>();
+		try (CSVReader csvReader = new CSVReader(new FileReader(input.toFile()))) {
+			String[] values;
+			while ((values = csvReader.readNext()) != null) {
+				records.add(Arrays.asList(values));
+			}
+		}
+		return records;
+	}
+
+	private void write(String content) throws IOException {
+		Files.write(input, content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,128 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordArenaTest {
+	private static final SortKey SORT_KEY = SortKey.singleField(0);
+
+	@Test
+	void givenKeysSharingTheirPrefix_whenSorted_thenOrderedByWholeKeyAndEqualKeysInInsertionOrder() throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		Random random = new Random(3);
+		for (int i = 0; i < 5000; i++) {
+			records.add(Arrays.asList("prefix__" + random.nextInt(300), String.valueOf(i)));
+		}
+		RecordArena arena = arenaOf(records, new RecordArena.SlabPool(4096));
+
+		arena.sort();
+
+		List<List<String>> expected = new ArrayList<>(records);
+		expected.sort(Comparator.comparing((List<String> record) -> record.get(0)));
+		assertEquals(expected, readRun(arena));
+	}
+
+	@Test
+	void givenAscendingAndDescendingStretches_whenSorted_thenSortedAndEqualKeysInInsertionOrder() throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			records.add(Arrays.asList(String.format("k%04d", i), "up" + i));
+		}
+		for (int i = 500; i > 100; i--) {
+			records.add(Arrays.asList(String.format("k%04d", i), "down" + i));
+		}
+		records.add(Arrays.asList("k0200", "last"));
+		RecordArena arena = arenaOf(records, new RecordArena.SlabPool(4096));
+
+		arena.sort();
+
+		List<List<String>> expected = new ArrayList<>(records);
+		expected.sort(Comparator.comparing((List<String> record) -> record.get(0)));
+		assertEquals(expected, readRun(arena));
+	}
+
+	@Test
+	void givenFieldsWithCommasQuotesAndLineBreaks_whenSortedAndWrittenToRun_thenFieldsPreserved() throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			records.add(Arrays.asList(String.format("k%03d", 999 - i), "Smith, \"John\"\nline " + i, ""));
+		}
+		RecordArena arena = arenaOf(records, new RecordArena.SlabPool(4096));
+
+		arena.sort();
+
+		List<List<String>> expected = new ArrayList<>(records);
+		Collections.reverse(expected);
+		assertEquals(expected, readRun(arena));
+	}
+
+	@Test
+	void givenRecordLargerThanASlab_whenSortedAndWrittenAsCsv_thenWrittenWhole() throws IOException {
+		String large = String.join("", Collections.nCopies(10_000, "x"));
+		RecordArena arena = arenaOf(Arrays.asList(Arrays.asList("b", "1"), Arrays.asList("a", large),
+				Arrays.asList("c", "2")), new RecordArena.SlabPool(4096));
+
+		arena.sort();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		arena.writeCsvTo(out, "\n".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("a," + large + "\nb,1\nc,2\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void givenReleasedArena_whenNextArenaFilled_thenItHoldsTheSameSlabs() {
+		RecordArena.SlabPool pool = new RecordArena.SlabPool(4096);
+		RecordArena first = arenaOf(Collections.nCopies(500, Arrays.asList("key", "value")), pool);
+		long bytes = first.getBytes();
+		first.release();
+
+		RecordArena second = arenaOf(Collections.nCopies(500, Arrays.asList("key", "value")), pool);
+
+		assertAll(
+				() -> assertEquals(0, first.size()),
+				() -> assertEquals(500, second.size()),
+				() -> assertEquals(bytes, second.getBytes())
+		);
+	}
+
+	private static RecordArena arenaOf(List<List<String>> records, RecordArena.SlabPool pool) {
+		RecordArena arena = new RecordArena(pool);
+		for (List<String> record : records) {
+			arena.add(SORT_KEY.encode(record), record);
+		}
+		return arena;
+	}
+
+	private static List<List<String>> readRun(RecordArena arena) throws IOException {
+		Path runFile = Files.createTempFile("arena", ".run");
+		try {
+			try (RunFileWriter writer = new RunFileWriter(runFile.toString())) {
+				arena.writeTo(writer);
+			}
+			List<List<String>> records = new ArrayList<>();
+			try (RunFileReader reader = new RunFileReader(runFile.toString())) {
+				while (reader.hasRecord()) {
+					records.add(reader.getCurrentRecord());
+					reader.nextRecord();
+				}
+			}
+			return records;
+		} finally {
+			Files.delete(runFile);
+		}
+	}
+}
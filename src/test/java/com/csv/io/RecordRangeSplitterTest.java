@@ -0,0 +1,75 @@
+package com.csv.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordRangeSplitterTest {
+	private Path input;
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		input = Files.createTempFile("input", ".csv");
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		executor.shutdownNow();
+		Files.deleteIfExists(input);
+	}
+
+	@Test
+	void givenQuotedLineBreaks_whenSplit_thenRangesReadTheSameRecordsAsTheWholeFile() throws IOException {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			// Long quoted fields full of line breaks, and quotes, so that many cuts land inside them
+			csv.append("k").append(i).append(",\"line\none\n\"\"two\"\"\nthree\",").append(i % 7).append('\n');
+		}
+		Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+		long[] boundaries = RecordRangeSplitter.split(input.toString(), 37, executor);
+		List<List<String>> fromRanges = new ArrayList<>();
+		for (int i = 0; i + 1 < boundaries.length; i++) {
+			assertTrue(boundaries[i] < boundaries[i + 1]);
+			fromRanges.addAll(readAll(new MappedCsvReader(input.toString(), boundaries[i], boundaries[i + 1])));
+		}
+
+		assertAll(
+				() -> assertTrue(boundaries.length > 10, "only " + boundaries.length + " boundaries"),
+				() -> assertEquals(0, boundaries[0]),
+				() -> assertEquals(Files.size(input), boundaries[boundaries.length - 1]),
+				() -> assertEquals(readAll(new MappedCsvReader(input.toString())), fromRanges)
+		);
+	}
+
+	@Test
+	void givenMoreRangesThanRecords_whenSplit_thenNoEmptyRanges() throws IOException {
+		Files.write(input, "a,1\nb,2\n".getBytes(StandardCharsets.UTF_8));
+
+		assertArrayEquals(new long[]{0, 4, 8}, RecordRangeSplitter.split(input.toString(), 8, executor));
+	}
+
+	private static List<List<String>> readAll(MappedCsvReader reader) throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		try (MappedCsvReader closing = reader) {
+			List<String> record;
+			while ((record = closing.readRecord()) != null) {
+				records.add(new ArrayList<>(record));
+			}
+		}
+		return records;
+	}
+}
@@ -0,0 +1,189 @@
+package com.csv.io;
+
+import com.csv.key.SortKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunFileTest {
+	private static final List<List<String>> RECORDS = Arrays.asList(
+			Arrays.asList("a001", "John", "Smith"),
+			Arrays.asList("a002", "", "Ünïcödé, with a comma"),
+			Arrays.asList("a003", "Doe")
+	);
+	private Path runFile;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		runFile = Files.createTempFile("run", ".run");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		Files.deleteIfExists(runFile);
+	}
+
+	@Test
+	void givenRecords_whenWrittenAndReadBack_thenKeysAndFieldsPreserved() throws IOException {
+		writeRecords(1);
+
+		List<byte[]> keys = new ArrayList<>();
+		List<List<String>> records = new ArrayList<>();
+		try (RunFileReader reader = new RunFileReader(runFile.toString())) {
+			while (reader.hasRecord()) {
+				keys.add(Arrays.copyOf(reader.getKeyBytes(), reader.getKeyLength()));
+				records.add(reader.getCurrentRecord());
+				reader.nextRecord();
+			}
+		}
+
+		assertAll(
+				() -> assertEquals(RECORDS, records),
+				() -> assertArrayEquals(SortKey.singleField(1).encode(RECORDS.get(0)), keys.get(0)),
+				() -> assertArrayEquals(SortKey.singleField(1).encode(RECORDS.get(1)), keys.get(1)),
+				() -> assertArrayEquals(SortKey.singleField(1).encode(RECORDS.get(2)), keys.get(2))
+		);
+	}
+
+	@Test
+	void givenReader_whenCopiedToWriter_thenRecordsCopiedWithoutDecoding() throws IOException {
+		writeRecords(0);
+		Path copy = Files.createTempFile("copy", ".run");
+		try (RunFileReader reader = new RunFileReader(runFile.toString());
+			 RunFileWriter writer = new RunFileWriter(copy.toString())) {
+			while (reader.hasRecord()) {
+				writer.write(reader);
+				reader.nextRecord();
+			}
+		}
+
+		try {
+			assertArrayEquals(Files.readAllBytes(runFile), Files.readAllBytes(copy));
+		} finally {
+			Files.delete(copy);
+		}
+	}
+
+	@Test
+	void givenCorruptedRecordByte_whenReadToEnd_thenChecksumMismatchReported() throws IOException {
+		writeRecords(0);
+		try (RandomAccessFile file = new RandomAccessFile(runFile.toFile(), "rw")) {
+			// Flip a byte inside the first key, after the 6 byte file header, the 8 byte block header and the key length
+			file.seek(15);
+			int original = file.read();
+			file.seek(15);
+			file.write(original ^ 0x01);
+		}
+
+		assertThrows(IOException.class, () -> {
+			try (RunFileReader reader = new RunFileReader(runFile.toString())) {
+				while (reader.nextRecord()) {
+					reader.getCurrentRecord();
+				}
+			}
+		});
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {NoneCodec.NAME, DeflateCodec.NAME, LzCodec.NAME})
+	void givenCodecAndReadAhead_whenManyBlocksWrittenAndReadBack_thenRecordsAndStatsPreserved(String codecName) throws IOException {
+		SpillStats stats = new SpillStats("test");
+		List<List<String>> written = new ArrayList<>();
+		try (RunFileWriter writer = new RunFileWriter(runFile.toString(), SpillCodec.forName(codecName), stats)) {
+			for (int i = 0; i < 20_000; i++) {
+				List<String> record = Arrays.asList(String.format("k%06d", i), "Name" + (i % 37), "Status" + (i % 3));
+				written.add(record);
+				writer.write(SortKey.singleField(0).encode(record), record);
+			}
+		}
+
+		ExecutorService readAhead = Executors.newSingleThreadExecutor();
+		List<List<String>> read = new ArrayList<>();
+		try (RunFileReader reader = new RunFileReader(runFile.toString(), stats, readAhead)) {
+			while (reader.hasRecord()) {
+				read.add(reader.getCurrentRecord());
+				reader.nextRecord();
+			}
+		} finally {
+			readAhead.shutdown();
+		}
+
+		assertEquals(written, read);
+		if (!codecName.equals(NoneCodec.NAME)) {
+			assertTrue(stats.getCompressionRatio() > 2, stats.toString());
+		}
+	}
+
+	@Test
+	void givenIndexedRun_whenOpenedOnKeyRange_thenOnlyRecordsInRangeRead() throws IOException {
+		SortKey sortKey = SortKey.singleField(0);
+		List<List<String>> written = new ArrayList<>();
+		try (RunFileWriter writer = new RunFileWriter(runFile.toString(), SpillCodec.forName(LzCodec.NAME), null)) {
+			for (int i = 0; i < 20_000; i++) {
+				// Every key twice, so equal keys straddle block boundaries
+				List<String> record = Arrays.asList(String.format("k%06d", i / 2), "Payload" + i);
+				written.add(record);
+				writer.write(sortKey.encode(record), record);
+			}
+		}
+		RunIndex index = RunIndex.read(runFile.toString());
+		byte[] lowerKey = sortKey.encode(Arrays.asList("k004000"));
+		byte[] upperKey = sortKey.encode(Arrays.asList("k007001"));
+
+		List<List<String>> read = new ArrayList<>();
+		try (RunFileReader reader = RunFileReader.openRange(runFile.toString(), index, lowerKey, upperKey, 4096, null, null)) {
+			while (reader.hasRecord()) {
+				read.add(reader.getCurrentRecord());
+				reader.nextRecord();
+			}
+		}
+
+		assertAll(
+				() -> assertTrue(index.getFences().size() > 2, "expected several blocks"),
+				() -> assertEquals(written.subList(8000, 14002), read)
+		);
+	}
+
+	@Test
+	void givenCorruptedSegment_whenReadFromFence_thenChecksumMismatchReported() throws IOException {
+		writeRecords(0);
+		try (RandomAccessFile file = new RandomAccessFile(runFile.toFile(), "rw")) {
+			file.seek(15);
+			int original = file.read();
+			file.seek(15);
+			file.write(original ^ 0x01);
+		}
+		RunIndex index = RunIndex.read(runFile.toString());
+
+		assertThrows(IOException.class, () -> {
+			try (RunFileReader reader = RunFileReader.openRange(runFile.toString(), index, null, null, 4096, null, null)) {
+				while (reader.nextRecord()) {
+					reader.getCurrentRecord();
+				}
+			}
+		});
+	}
+
+	private void writeRecords(int keyFieldIndex) throws IOException {
+		SortKey sortKey = SortKey.singleField(keyFieldIndex);
+		try (RunFileWriter writer = new RunFileWriter(runFile.toString())) {
+			for (List<String> record : RECORDS) {
+				writer.write(sortKey.encode(record), record);
+			}
+		}
+	}
+}
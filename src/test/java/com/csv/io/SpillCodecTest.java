@@ -0,0 +1,67 @@
+package com.csv.io;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillCodecTest {
+
+	@ParameterizedTest
+	@ValueSource(strings = {NoneCodec.NAME, DeflateCodec.NAME, LzCodec.NAME})
+	void givenBlocksOfDifferentShapes_whenCompressedAndDecompressed_thenBytesRestored(String codecName) throws IOException {
+		SpillCodec codec = SpillCodec.forName(codecName);
+		Random random = new Random(42);
+		byte[] randomBytes = new byte[70_000];
+		random.nextBytes(randomBytes);
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 3_000; i++) {
+			csv.append('a').append(i).append(",William,Jones,").append(i % 90).append('\n');
+		}
+		byte[] runOfOneByte = new byte[10_000];
+		Arrays.fill(runOfOneByte, (byte) 'x');
+
+		for (byte[] block : new byte[][]{new byte[0], {1, 2, 3}, randomBytes, csv.toString().getBytes(StandardCharsets.UTF_8), runOfOneByte}) {
+			byte[] compressed = new byte[codec.maxCompressedLength(block.length)];
+			int compressedLength = codec.compress(block, block.length, compressed);
+			byte[] restored = new byte[block.length];
+			codec.decompress(compressed, compressedLength, restored, block.length);
+			assertArrayEquals(block, restored, codecName + " failed on a block of " + block.length + " bytes");
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {NoneCodec.NAME, DeflateCodec.NAME, LzCodec.NAME})
+	void givenOneCompressorAndDecompressor_whenManyBlocks_thenEveryBlockRestored(String codecName) throws IOException {
+		SpillCodec codec = SpillCodec.forName(codecName);
+		Random random = new Random(7);
+		try (SpillCodec.Compressor compressor = codec.newCompressor();
+			 SpillCodec.Decompressor decompressor = codec.newDecompressor()) {
+			for (int i = 0; i < 20; i++) {
+				StringBuilder csv = new StringBuilder();
+				for (int row = 0; row < 500; row++) {
+					csv.append('k').append(random.nextInt(1000)).append(",Olivia,").append(i).append('\n');
+				}
+				byte[] block = csv.toString().getBytes(StandardCharsets.UTF_8);
+				byte[] compressed = new byte[codec.maxCompressedLength(block.length)];
+				int compressedLength = compressor.compress(block, block.length, compressed);
+				byte[] restored = new byte[block.length];
+				decompressor.decompress(compressed, compressedLength, restored, block.length);
+				assertArrayEquals(block, restored, codecName + " failed on block " + i);
+			}
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {NoneCodec.NAME, DeflateCodec.NAME, LzCodec.NAME})
+	void givenCodecName_whenLookedUpByNameAndId_thenSameCodec(String codecName) throws IOException {
+		SpillCodec codec = SpillCodec.forName(codecName);
+		assertSame(codec, SpillCodec.forId(codec.getId()));
+		assertEquals(codecName, codec.getName());
+	}
+}
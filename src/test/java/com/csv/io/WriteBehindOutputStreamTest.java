@@ -0,0 +1,58 @@
+package com.csv.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindOutputStreamTest {
+
+	@Test
+	void givenWritesLargerAndSmallerThanBuffer_whenClosed_thenAllBytesWrittenInOrder() throws IOException {
+		Random random = new Random(3);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (OutputStream out = new WriteBehindOutputStream(target, 1000, executor)) {
+			for (int i = 0; i < 500; i++) {
+				byte[] bytes = new byte[random.nextInt(2500)];
+				random.nextBytes(bytes);
+				out.write(bytes);
+				out.write(i);
+				expected.write(bytes);
+				expected.write(i);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertArrayEquals(expected.toByteArray(), target.toByteArray());
+	}
+
+	@Test
+	void givenFailingTarget_whenClosed_thenFailureSurfaces() {
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			IOException exception = assertThrows(IOException.class, () -> {
+				try (OutputStream out = new WriteBehindOutputStream(failing, 16, executor)) {
+					out.write(new byte[100]);
+				}
+			});
+			assertEquals("disk full", exception.getMessage());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
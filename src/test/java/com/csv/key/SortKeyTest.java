@@ -0,0 +1,78 @@
+package com.csv.key;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortKeyTest {
+
+	@Test
+	void givenIntColumn_whenSorted_thenNumericOrderIncludingNegatives() {
+		assertEquals(Arrays.asList("-20", "-3", "0", "7", "10", "100"),
+				sortByFirstField("0:int", "10", "-3", "100", "0", "-20", "7"));
+	}
+
+	@Test
+	void givenDescendingColumn_whenSorted_thenReversedOrder() {
+		assertAll(
+				() -> assertEquals(Arrays.asList("100", "10", "7", "-3"), sortByFirstField("0:int:desc", "7", "100", "-3", "10")),
+				() -> assertEquals(Arrays.asList("b", "ab", "a", ""), sortByFirstField("0:desc:nulls-last", "a", "", "ab", "b"))
+		);
+	}
+
+	@Test
+	void givenEmptyFields_whenSorted_thenNullsFirstUnlessNullsLast() {
+		assertAll(
+				() -> assertEquals(Arrays.asList("", "1", "2"), sortByFirstField("0:int", "2", "", "1")),
+				() -> assertEquals(Arrays.asList("1", "2", ""), sortByFirstField("0:int:nulls-last", "2", "", "1"))
+		);
+	}
+
+	@Test
+	void givenStringPrefix_whenComparedInCompositeKey_thenShorterStringFirst() {
+		SortKey sortKey = SortKey.parse("0,1");
+		byte[] shorter = sortKey.encode(new String[]{"ab", "z"});
+		byte[] longer = sortKey.encode(new String[]{"abc", "a"});
+		byte[] withZeroByte = sortKey.encode(new String[]{"ab\u0000", "a"});
+
+		assertAll(
+				() -> assertTrue(SortKey.compare(shorter, longer) < 0),
+				() -> assertTrue(SortKey.compare(shorter, withZeroByte) < 0),
+				() -> assertTrue(SortKey.compare(withZeroByte, longer) < 0)
+		);
+	}
+
+	@Test
+	void givenCompositeKey_whenSorted_thenLaterColumnsBreakTies() {
+		SortKey sortKey = SortKey.parse("1:date,0:decimal:desc");
+		List<String[]> records = new ArrayList<>(Arrays.asList(
+				new String[]{"1.5", "2024-01-02"},
+				new String[]{"-2.25", "2023-12-31"},
+				new String[]{"10", "2024-01-02"},
+				new String[]{"-0.5", "2024-01-02"}
+		));
+		records.sort((a, b) -> SortKey.compare(sortKey.encode(a), sortKey.encode(b)));
+
+		assertEquals(Arrays.asList("-2.25", "10", "1.5", "-0.5"),
+				records.stream().map(record -> record[0]).collect(Collectors.toList()));
+	}
+
+	@Test
+	void givenUnparsableValue_whenEncoded_thenColumnNamedInError() {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> SortKey.parse("2:int").encode(new String[]{"a", "b", "x1"}));
+		assertTrue(e.getMessage().contains("2:int"), e.getMessage());
+	}
+
+	private static List<String> sortByFirstField(String specification, String... values) {
+		SortKey sortKey = SortKey.parse(specification);
+		List<String> sorted = new ArrayList<>(Arrays.asList(values));
+		sorted.sort((a, b) -> SortKey.compare(sortKey.encode(new String[]{a}), sortKey.encode(new String[]{b})));
+		return sorted;
+	}
+}
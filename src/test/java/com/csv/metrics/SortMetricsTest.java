@@ -0,0 +1,123 @@
+package com.csv.metrics;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.service.FileSorter;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortMetricsTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("sort_metrics_test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenMergeSort_whenSorted_thenEveryPhaseCountsAllRecordsAndReportListsThem() throws IOException {
+		FileSorterArgs args = args(2000, "100", "--fan-in", "4", "--merge-parallelism", "1");
+		long inputBytes = Files.size(tempFolder.resolve("input.csv"));
+
+		SortMetrics metrics = sort(args);
+
+		List<PhaseMetrics> phases = metrics.getPhases();
+		PhaseMetrics runGeneration = phases.get(0);
+		PhaseMetrics lastMerge = phases.get(phases.size() - 2);
+		String report = new String(Files.readAllBytes(tempFolder.resolve("report.json")), StandardCharsets.UTF_8);
+		assertAll(
+				() -> assertEquals("run generation", runGeneration.getName()),
+				() -> assertEquals(2000, runGeneration.getRecordsRead()),
+				() -> assertEquals(2000, runGeneration.getRecordsWritten()),
+				() -> assertEquals(20, runGeneration.getRunsOut()),
+				() -> assertTrue(runGeneration.getBytesWritten() > 0),
+				() -> assertEquals(2000, metrics.getInputRecords()),
+				() -> assertTrue(phases.size() >= 4, "run generation, two merge passes and the final output"),
+				() -> assertEquals(2000, lastMerge.getRecordsWritten()),
+				() -> assertEquals(2000, lastMerge.getRecordsRead()),
+				() -> assertTrue(phases.subList(1, phases.size() - 1).stream().allMatch(phase -> phase.getRecordsRead() > 0)),
+				() -> assertEquals(Files.size(tempFolder.resolve("output.csv")), lastMerge.getBytesWritten()),
+				() -> assertEquals("final output", phases.get(phases.size() - 1).getName()),
+				() -> assertTrue(phases.stream().allMatch(PhaseMetrics::isEnded)),
+				() -> assertTrue(report.contains("\"inputRecords\": 2000")),
+				() -> assertTrue(report.contains("\"inputBytes\": " + inputBytes)),
+				() -> assertTrue(report.contains("\"name\": \"merge pass 0\"")),
+				() -> assertEquals(phases.size(), report.split("\"fanIn\"").length - 1),
+				() -> assertEquals(phases.size(), report.split("\"compareMillis\"").length - 1)
+		);
+	}
+
+	@Test
+	void givenSampleSort_whenSorted_thenPhasesOfSampleSortReported() throws IOException {
+		FileSorterArgs args = args(3000, "500", "--algorithm", "sample");
+
+		SortMetrics metrics = sort(args);
+
+		List<String> names = new ArrayList<>();
+		metrics.getPhases().forEach(phase -> names.add(phase.getName()));
+		PhaseMetrics bucketSort = metrics.getPhases().get(2);
+		assertAll(
+				() -> assertEquals(Arrays.asList("sampling", "distribution", "bucket sort"), names),
+				() -> assertEquals(3000, metrics.getInputRecords()),
+				() -> assertEquals(3000, metrics.getPhases().get(1).getRecordsRead()),
+				() -> assertEquals(3000, bucketSort.getRecordsWritten()),
+				() -> assertEquals(Files.size(tempFolder.resolve("output.csv")), bucketSort.getBytesWritten()
+						- bucketSort.getSpillStats().getStoredBytesWritten())
+		);
+	}
+
+	@Test
+	void givenHalfOfExpectedInputRead_whenProgressLine_thenHalfDoneWithEta() {
+		PhaseMetrics phase = new PhaseMetrics("run generation");
+		phase.setExpectedInputBytes(1000);
+
+		phase.addRead(10, 500);
+
+		assertAll(
+				() -> assertEquals(0.5, phase.getProgress()),
+				() -> assertTrue(phase.progressLine().contains("50% done, ETA 0:00:"), phase.progressLine()),
+				() -> assertEquals(-1, new PhaseMetrics("merge").getProgress())
+		);
+	}
+
+	private FileSorterArgs args(int records, String maxRecordsInMemory, String... options) throws IOException {
+		Random random = new Random(3);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < records; i++) {
+			lines.add(String.format("k%05d,%d", random.nextInt(100_000), i));
+		}
+		Files.write(tempFolder.resolve("input.csv"), lines, StandardCharsets.UTF_8);
+		List<String> arguments = new ArrayList<>(Arrays.asList("0", maxRecordsInMemory, tempFolder.resolve("input.csv").toString(),
+				tempFolder.resolve("output.csv").toString(), "2", "--progress", "0",
+				"--report", tempFolder.resolve("report.json").toString()));
+		arguments.addAll(Arrays.asList(options));
+		FileSorterArgs args = new FileSorterArgs(arguments.toArray(new String[0]));
+		args.tempFolder = tempFolder.toString();
+		return args;
+	}
+
+	private SortMetrics sort(FileSorterArgs args) {
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+		return fileSorter.getMetrics();
+	}
+}
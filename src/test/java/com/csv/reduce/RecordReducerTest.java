@@ -0,0 +1,50 @@
+package com.csv.reduce;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordReducerTest {
+
+	@Test
+	void givenDedupModes_whenCombine_thenFirstOrLastRecordKept() {
+		List<String> first = Arrays.asList("k", "1");
+		List<String> last = Arrays.asList("k", "2");
+
+		assertAll(
+				() -> assertSame(first, RecordReducer.forDedup("first").combine(first, last)),
+				() -> assertTrue(RecordReducer.forDedup("first").keepsFirst()),
+				() -> assertSame(last, RecordReducer.forDedup("last").combine(first, last)),
+				() -> assertThrows(IllegalArgumentException.class, () -> RecordReducer.forDedup("middle"))
+		);
+	}
+
+	@Test
+	void givenAggregates_whenRecordsStartedAndCombined_thenColumnsAppendedToFirstRecord() {
+		RecordReducer reducer = RecordReducer.forAggregates("count, sum:1,min:1,max:1,max:2");
+
+		List<String> combined = reducer.combine(
+				reducer.combine(reducer.start(Arrays.asList("k", "2.5", "b")), reducer.start(Arrays.asList("k", "10", "a"))),
+				reducer.start(Arrays.asList("k", "", "c", "extra")));
+
+		assertAll(
+				() -> assertEquals(Arrays.asList("k", "2.5", "b", "3", "12.5", "2.5", "10", "c"), combined),
+				() -> assertEquals("count,sum:1,min:1,max:1,max:2", reducer.getName())
+		);
+	}
+
+	@Test
+	void givenBadAggregateSpecOrValue_whenUsed_thenRejected() {
+		RecordReducer sum = RecordReducer.forAggregates("sum:1");
+
+		assertAll(
+				() -> assertThrows(IllegalArgumentException.class, () -> RecordReducer.forAggregates("avg:1")),
+				() -> assertThrows(IllegalArgumentException.class, () -> RecordReducer.forAggregates("sum")),
+				() -> assertThrows(IllegalArgumentException.class, () -> RecordReducer.forAggregates("count:1")),
+				() -> assertThrows(IllegalArgumentException.class, () -> sum.start(Arrays.asList("k", "ten")))
+		);
+	}
+}
@@ -0,0 +1,155 @@
+package com.csv.service;
+
+import com.csv.CsvSorter;
+import com.csv.config.FileSorterArgs;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateReductionTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("reduction_test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenDedupFirstOverSeveralMergePasses_whenSorted_thenFirstRecordOfEveryKeyInInputOrder() throws Exception {
+		List<String> lines = lines(3000, 400, 1);
+
+		FileSorter fileSorter = sort(args(lines, "50", "--fan-in", "3", "--dedup", "first"));
+
+		Map<String, String> firstByKey = firstByKey(lines);
+		assertAll(
+				() -> assertEquals(new ArrayList<>(firstByKey.values()), readOutput()),
+				() -> assertEquals(3000 - firstByKey.size(), fileSorter.getMetrics().getRecordsReduced()),
+				() -> assertTrue(fileSorter.getMetrics().getPhases().get(0).getRecordsReduced() > 0),
+				() -> assertTrue(fileSorter.getMetrics().getPhases().size() > 3)
+		);
+	}
+
+	@Test
+	void givenDedupLastOnMappedRanges_whenSorted_thenLastRecordOfEveryKey() throws Exception {
+		List<String> lines = lines(80_000, 5000, 2);
+		Map<String, String> lastByKey = new TreeMap<>();
+		for (String line : lines) {
+			lastByKey.put(key(line), line);
+		}
+
+		sort(args(lines, "10000", "--parser", "mmap", "--dedup", "last"));
+
+		assertEquals(new ArrayList<>(lastByKey.values()), readOutput());
+	}
+
+	@Test
+	void givenAggregates_whenSortedWithLimit_thenFirstRecordOfEveryKeyWithItsAggregates() throws Exception {
+		List<String> lines = lines(3000, 400, 3);
+		Map<String, String> firstByKey = firstByKey(lines);
+		List<String> expected = new ArrayList<>();
+		for (Map.Entry<String, String> entry : firstByKey.entrySet()) {
+			long count = 0;
+			BigDecimal sum = BigDecimal.ZERO;
+			long max = Long.MIN_VALUE;
+			for (String line : lines) {
+				if (key(line).equals(entry.getKey())) {
+					long value = Long.parseLong(line.split(",")[1]);
+					count++;
+					sum = sum.add(BigDecimal.valueOf(value));
+					max = Math.max(max, value);
+				}
+			}
+			expected.add(entry.getValue() + "," + count + "," + sum + "," + max);
+		}
+
+		sort(args(lines, "50", "--fan-in", "4", "--aggregate", "count,sum:1,max:1", "--offset", "10", "--limit", "100"));
+
+		assertEquals(expected.subList(10, 110), readOutput());
+	}
+
+	@Test
+	void givenDedupThroughLibraryIterator_whenConsumed_thenOneRecordPerKey() throws IOException {
+		List<List<String>> records = new ArrayList<>();
+		for (String line : lines(1000, 100, 4)) {
+			records.add(Arrays.asList(line.split(",")));
+		}
+		CsvSorter sorter = CsvSorter.builder().threads(2).tempDirectory(tempFolder).maxRecordsInMemory(40)
+				.option("--fan-in", "4").option("--aggregate", "count").build();
+
+		List<String> counts = new ArrayList<>();
+		try (CsvSorter.SortedRecords sorted = sorter.sorted(records.iterator())) {
+			sorted.forEachRemaining(record -> counts.add(record.get(0) + "=" + record.get(record.size() - 1)));
+		}
+
+		Map<String, Integer> expected = new TreeMap<>();
+		records.forEach(record -> expected.merge(record.get(0), 1, Integer::sum));
+		List<String> expectedCounts = new ArrayList<>();
+		expected.forEach((key, count) -> expectedCounts.add(key + "=" + count));
+		assertEquals(expectedCounts, counts);
+	}
+
+	private static List<String> lines(int count, int keys, long seed) {
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			lines.add(String.format("k%05d,%d,%d", random.nextInt(keys), random.nextInt(1000), i));
+		}
+		return lines;
+	}
+
+	private static String key(String line) {
+		return line.substring(0, line.indexOf(','));
+	}
+
+	private static Map<String, String> firstByKey(List<String> lines) {
+		Map<String, String> firstByKey = new TreeMap<>();
+		for (String line : lines) {
+			firstByKey.putIfAbsent(key(line), line);
+		}
+		return new LinkedHashMap<>(firstByKey);
+	}
+
+	private FileSorterArgs args(List<String> lines, String maxRecordsInMemory, String... options) throws IOException {
+		Path input = tempFolder.resolve("input.csv");
+		Files.write(input, lines, StandardCharsets.UTF_8);
+		List<String> arguments = new ArrayList<>(Arrays.asList("0", maxRecordsInMemory, input.toString(),
+				tempFolder.resolve("output.csv").toString(), "3", "--progress", "0"));
+		arguments.addAll(Arrays.asList(options));
+		FileSorterArgs args = new FileSorterArgs(arguments.toArray(new String[0]));
+		args.tempFolder = tempFolder.toString();
+		return args;
+	}
+
+	private FileSorter sort(FileSorterArgs args) {
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+		return fileSorter;
+	}
+
+	private List<String> readOutput() throws IOException {
+		return Files.readAllLines(tempFolder.resolve("output.csv"), StandardCharsets.UTF_8);
+	}
+}
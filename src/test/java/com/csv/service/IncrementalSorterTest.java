@@ -0,0 +1,151 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalSorterTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+	private Path output;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("incremental_test");
+		output = tempFolder.resolve("output.csv");
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenDeltaPastLastKey_whenSortedIncrementally_thenAppendedWithoutReadingTheSortedFile() throws Exception {
+		List<String> day1 = lines(2000, "a", 1);
+		List<String> day2 = lines(500, "b", 2);
+
+		sortIncrementally(day1);
+		FileSorter fileSorter = sortIncrementally(day2);
+
+		List<String> expected = sorted(day1);
+		expected.addAll(sorted(day2));
+		PhaseMetrics incrementalMerge = lastPhase(fileSorter);
+		assertAll(
+				() -> assertEquals(expected, readOutput()),
+				() -> assertEquals("incremental merge", incrementalMerge.getName()),
+				() -> assertEquals(0, incrementalMerge.getRecordsRead()),
+				() -> assertEquals(500, incrementalMerge.getRecordsWritten()),
+				() -> assertEquals(2500, SortManifest.read(output.toString()).getRecords())
+		);
+	}
+
+	@Test
+	void givenOverlappingDelta_whenSortedIncrementally_thenMergedWithSortedRecordsFirstAmongEqualKeys() throws Exception {
+		List<String> day1 = lines(2000, "a", 3);
+		List<String> day2 = lines(700, "a", 4);
+
+		sortIncrementally(day1);
+		FileSorter fileSorter = sortIncrementally(day2);
+
+		List<String> all = new ArrayList<>(day1);
+		all.addAll(day2);
+		assertAll(
+				() -> assertEquals(sorted(all), readOutput()),
+				() -> assertEquals(2000, lastPhase(fileSorter).getRecordsRead()),
+				() -> assertEquals(2700, SortManifest.read(output.toString()).getRecords())
+		);
+	}
+
+	@Test
+	void givenDedupLast_whenSortedIncrementally_thenNewRecordReplacesSortedOneOfItsKey() throws Exception {
+		List<String> day1 = lines(1000, "a", 5);
+		List<String> day2 = lines(300, "a", 6);
+
+		sortIncrementally(day1, "--dedup", "last");
+		sortIncrementally(day2, "--dedup", "last");
+
+		Map<String, String> lastByKey = new TreeMap<>();
+		day1.forEach(line -> lastByKey.put(key(line), line));
+		day2.forEach(line -> lastByKey.put(key(line), line));
+		assertEquals(new ArrayList<>(lastByKey.values()), readOutput());
+	}
+
+	@Test
+	void givenManifestOfAnotherKey_whenSortedIncrementally_thenRejected() throws Exception {
+		sortIncrementally(lines(100, "a", 7));
+
+		assertThrows(IllegalArgumentException.class, () -> sortIncrementally(lines(100, "b", 8), "--key", "1:int"));
+	}
+
+	@Test
+	void givenUnsortedFileWithoutManifest_whenSortedIncrementally_thenRejected() throws Exception {
+		Files.write(output, Arrays.asList("a2,1,x", "a1,2,y"), StandardCharsets.UTF_8);
+
+		assertThrows(IllegalStateException.class, () -> sortIncrementally(lines(100, "a", 9)));
+	}
+
+	private static List<String> lines(int count, String keyPrefix, long seed) {
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			lines.add(String.format("%s%04d,%d,%d", keyPrefix, random.nextInt(1000), i, seed));
+		}
+		return lines;
+	}
+
+	private static String key(String line) {
+		return line.substring(0, line.indexOf(','));
+	}
+
+	private static List<String> sorted(List<String> lines) {
+		List<String> sorted = new ArrayList<>(lines);
+		sorted.sort(Comparator.comparing(IncrementalSorterTest::key));
+		return sorted;
+	}
+
+	private FileSorter sortIncrementally(List<String> lines, String... options) throws IOException {
+		Path input = tempFolder.resolve("input.csv");
+		Files.write(input, lines, StandardCharsets.UTF_8);
+		List<String> arguments = new ArrayList<>(Arrays.asList("0", "300", input.toString(), output.toString(), "2",
+				"--progress", "0", "--incremental", output.toString()));
+		arguments.addAll(Arrays.asList(options));
+		FileSorterArgs args = new FileSorterArgs(arguments.toArray(new String[0]));
+		Path sortFolder = Files.createTempDirectory(tempFolder, "sort_");
+		args.tempFolder = sortFolder.toString();
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		try {
+			fileSorter.sortFile(args);
+		} finally {
+			fileSorter.shutdown();
+			fileUtil.deleteFolder(sortFolder.toFile());
+		}
+		return fileSorter;
+	}
+
+	private static PhaseMetrics lastPhase(FileSorter fileSorter) {
+		List<PhaseMetrics> phases = fileSorter.getMetrics().getPhases();
+		return phases.get(phases.size() - 1);
+	}
+
+	private List<String> readOutput() throws IOException {
+		return Files.readAllLines(output, StandardCharsets.UTF_8);
+	}
+}
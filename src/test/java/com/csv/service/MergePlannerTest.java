@@ -0,0 +1,113 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.RunFileReader;
+import com.csv.model.ChunkGroupDetails;
+import com.csv.model.MergePlan;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergePlannerTest {
+	private static final String[] ARGS = {"0", "50", "input.csv", "output.csv", "4"};
+	private final MergePlanner mergePlanner = new MergePlanner();
+
+	@Test
+	void givenRunsWithinFanIn_whenPlan_thenSingleFinalPass() {
+		MergePlan plan = mergePlanner.plan(new long[]{10, 20, 30}, 4);
+
+		assertAll(
+				() -> assertEquals(1, plan.getPasses().size()),
+				() -> assertEquals(Arrays.asList(0, 1, 2), plan.getPasses().get(0).get(0).getInputChunkNumbers()),
+				() -> assertEquals(0, plan.getIntermediateBytesWritten())
+		);
+	}
+
+	@Test
+	void givenMoreRunsThanFanIn_whenPlan_thenSmallestRunsMergedFirstAndOthersCarriedOver() {
+		// 5 runs with fan-in 4 need 2 passes, the first one only has to merge the 2 smallest runs
+		MergePlan plan = mergePlanner.plan(new long[]{500, 10, 400, 20, 300}, 4);
+		List<ChunkGroupDetails> firstPass = plan.getPasses().get(0);
+
+		assertAll(
+				() -> assertEquals(2, plan.getPasses().size()),
+				() -> assertEquals(Arrays.asList(1, 3), firstPass.get(0).getInputChunkNumbers()),
+				() -> assertEquals(3, firstPass.stream().filter(ChunkGroupDetails::isCarryOver).count()),
+				() -> assertEquals(30, plan.getIntermediateBytesWritten()),
+				() -> assertEquals(4, plan.getPasses().get(1).get(0).getInputChunkNumbers().size())
+		);
+	}
+
+	@Test
+	void givenAdjacentRunsOnly_whenPlan_thenSmallestConsecutiveRunsMergedAndOrderKept() {
+		MergePlan plan = mergePlanner.plan(new long[]{500, 10, 20, 30, 400, 300}, 4, true);
+		List<ChunkGroupDetails> firstPass = plan.getPasses().get(0);
+
+		assertAll(
+				() -> assertEquals(2, plan.getPasses().size()),
+				() -> assertEquals(Arrays.asList(0), firstPass.get(0).getInputChunkNumbers()),
+				() -> assertEquals(Arrays.asList(1, 2, 3), firstPass.get(1).getInputChunkNumbers()),
+				() -> assertEquals(1, firstPass.get(1).getChunkNumber()),
+				() -> assertEquals(Arrays.asList(4), firstPass.get(2).getInputChunkNumbers()),
+				() -> assertEquals(Arrays.asList(0, 1, 2, 3), plan.getPasses().get(1).get(0).getInputChunkNumbers())
+		);
+	}
+
+	@Test
+	void givenManyRuns_whenPlan_thenMinimumNumberOfPasses() {
+		long[] runSizes = new long[100];
+		Arrays.fill(runSizes, 1);
+		MergePlan plan = mergePlanner.plan(runSizes, 4);
+
+		assertEquals(MergePlanner.passesNeeded(100, 4), plan.getPasses().size());
+		for (List<ChunkGroupDetails> pass : plan.getPasses()) {
+			pass.forEach(group -> assertTrue(group.getInputChunkNumbers().size() <= 4));
+		}
+		assertEquals(1, plan.getPasses().get(plan.getPasses().size() - 1).size());
+	}
+
+	@Test
+	void givenFileAndMemoryLimits_whenEffectiveFanIn_thenTightestLimitWins() {
+		FileSorterArgs args = new FileSorterArgs(ARGS);
+		args.fanIn = 1000;
+		args.maxOpenFiles = 216;
+		args.mergeMemory = 64L * 1024 * 1024;
+		args.readBufferSize = 1024;
+		args.writeBufferSize = 1024;
+		assertEquals(49, mergePlanner.effectiveFanIn(args));
+
+		// Room for the 4 groups' output buffers and 16 readers per group
+		args.mergeMemory = 4 * 2 * 1024 + 4 * 16 * RunFileReader.memoryPerReader(1024);
+		assertEquals(16, mergePlanner.effectiveFanIn(args));
+	}
+
+	@Test
+	void givenLimitsBelowFanIn_whenFanInLimit_thenLimitNamedOnlyWhenItLowersFanIn() {
+		FileSorterArgs args = new FileSorterArgs(ARGS);
+		args.fanIn = 1000;
+		args.maxOpenFiles = 216;
+		args.mergeMemory = 64L * 1024 * 1024;
+		args.readBufferSize = 1024;
+		args.writeBufferSize = 1024;
+		String byFiles = mergePlanner.fanInLimit(args);
+
+		args.mergeMemory = 4 * 2 * 1024 + 4 * 16 * RunFileReader.memoryPerReader(1024);
+		String byMemory = mergePlanner.fanInLimit(args);
+
+		args.maxOpenFiles = 20;
+		String exceeded = mergePlanner.fanInLimit(args);
+
+		args.fanIn = 8;
+		args.maxOpenFiles = 216;
+		assertAll(
+				() -> assertTrue(exceeded.startsWith("Fan-in lowered from 1000 to 2 by --max-open-files 20"), exceeded),
+				() -> assertTrue(exceeded.endsWith("which exceeds it"), exceeded),
+				() -> assertTrue(byFiles.startsWith("Fan-in lowered from 1000 to 49 by --max-open-files 216"), byFiles),
+				() -> assertTrue(byMemory.startsWith("Fan-in lowered from 1000 to 16 by --merge-memory"), byMemory),
+				() -> assertNull(mergePlanner.fanInLimit(args))
+		);
+	}
+}
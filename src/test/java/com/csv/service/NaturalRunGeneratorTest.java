@@ -0,0 +1,148 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.config.RunGeneration;
+import com.csv.io.RunFileReader;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NaturalRunGeneratorTest {
+	private static final int MAX_RECORDS_IN_MEMORY = 20;
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+	private FileSorterArgs args;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("natural_runs_test");
+		args = new FileSorterArgs(new String[]{"0", String.valueOf(MAX_RECORDS_IN_MEMORY),
+				tempFolder.resolve("input.csv").toString(), tempFolder.resolve("output.csv").toString(), "2"});
+		args.tempFolder = tempFolder.toString();
+		args.runGeneration = RunGeneration.NATURAL;
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenSortedInput_whenGenerateRuns_thenSingleRunOfWholeInput() throws Exception {
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			keys.add(String.format("k%05d", i));
+		}
+		writeInput(keys);
+
+		assertEquals(1, generateRuns());
+		assertEquals(keys, readRunKeys(0));
+	}
+
+	@Test
+	void givenSortedStretchesBetweenRandomRecords_whenGenerateRuns_thenStretchesBecomeSingleRuns() throws Exception {
+		List<String> keys = new ArrayList<>();
+		Random random = new Random(5);
+		for (int stretch = 0; stretch < 3; stretch++) {
+			for (int i = 0; i < 200; i++) {
+				keys.add(String.format("s%05d", i));
+			}
+			for (int i = 0; i < 2 * MAX_RECORDS_IN_MEMORY; i++) {
+				keys.add(String.format("r%05d", random.nextInt(100_000)));
+			}
+		}
+		writeInput(keys);
+
+		int runCount = generateRuns();
+
+		List<String> allKeys = new ArrayList<>();
+		for (int run = 0; run < runCount; run++) {
+			List<String> runKeys = readRunKeys(run);
+			List<String> sorted = new ArrayList<>(runKeys);
+			Collections.sort(sorted);
+			assertEquals(sorted, runKeys, "run " + run + " is not sorted");
+			allKeys.addAll(runKeys);
+		}
+		Collections.sort(keys);
+		Collections.sort(allKeys);
+		assertEquals(keys, allKeys);
+		// Each stretch is one run and each random stretch two chunks, against 36 runs by chunks
+		assertEquals(9, runCount);
+	}
+
+	@Test
+	void givenEqualKeysAcrossRuns_whenSortFile_thenOutputSortedAndStable() throws Exception {
+		List<String> lines = new ArrayList<>();
+		Random random = new Random(3);
+		for (int i = 0; i < 300; i++) {
+			lines.add("k" + (i < 150 ? i / 10 : random.nextInt(15)) + "," + i);
+		}
+		Files.write(new File(args.inputFileName).toPath(), lines);
+
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+
+		List<String> expected = new ArrayList<>(lines);
+		expected.sort((a, b) -> a.split(",")[0].compareTo(b.split(",")[0]));
+		assertEquals(expected, Files.readAllLines(new File(args.outputFileName).toPath()));
+	}
+
+	@Test
+	void givenSortedInput_whenSortFile_thenOutputIsInput() throws Exception {
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			keys.add(String.format("k%05d", i));
+		}
+		writeInput(keys);
+
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+
+		assertEquals(Files.readAllLines(new File(args.inputFileName).toPath()),
+				Files.readAllLines(new File(args.outputFileName).toPath()));
+	}
+
+	private int generateRuns() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			return new NaturalRunGenerator(fileUtil, executor, executor)
+					.generateRuns(args, Long.MAX_VALUE, new PhaseMetrics("test"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void writeInput(List<String> keys) throws IOException {
+		List<String> lines = new ArrayList<>();
+		keys.forEach(key -> lines.add(key + ",value"));
+		Files.write(new File(args.inputFileName).toPath(), lines);
+	}
+
+	private List<String> readRunKeys(int run) throws IOException {
+		List<String> keys = new ArrayList<>();
+		try (RunFileReader reader = new RunFileReader(fileUtil.getChunkFileName(args, run, 0))) {
+			while (reader.hasRecord()) {
+				keys.add(reader.getCurrentRecord().get(0));
+				reader.nextRecord();
+			}
+		}
+		return keys;
+	}
+}
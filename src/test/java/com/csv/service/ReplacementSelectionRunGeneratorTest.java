@@ -0,0 +1,109 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.io.RunFileReader;
+import com.csv.metrics.PhaseMetrics;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplacementSelectionRunGeneratorTest {
+	private static final int MAX_RECORDS_IN_MEMORY = 20;
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+	private FileSorterArgs args;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("replacement_selection_test");
+		args = new FileSorterArgs(new String[]{"0", String.valueOf(MAX_RECORDS_IN_MEMORY),
+				tempFolder.resolve("input.csv").toString(), tempFolder.resolve("output.csv").toString(), "1"});
+		args.tempFolder = tempFolder.toString();
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenRandomInput_whenGenerateRuns_thenSortedRunsAboutTwiceMemoryLong() throws Exception {
+		List<String> keys = new ArrayList<>();
+		Random random = new Random(11);
+		for (int i = 0; i < 2000; i++) {
+			keys.add(String.format("k%05d", random.nextInt(100_000)));
+		}
+		writeInput(keys);
+
+		int runCount = generateRuns();
+
+		List<String> allKeys = new ArrayList<>();
+		for (int run = 0; run < runCount; run++) {
+			List<String> runKeys = readRunKeys(run);
+			List<String> sorted = new ArrayList<>(runKeys);
+			Collections.sort(sorted);
+			assertEquals(sorted, runKeys, "run " + run + " is not sorted");
+			allKeys.addAll(runKeys);
+		}
+		Collections.sort(keys);
+		Collections.sort(allKeys);
+		assertEquals(keys, allKeys);
+		// Chunking would produce 100 runs, replacement selection about half of that
+		assertTrue(runCount < 65, "expected long runs, got " + runCount);
+	}
+
+	@Test
+	void givenNearlySortedInput_whenExternalMergeSortFile_thenSingleRunWrittenAsOutput() throws Exception {
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			keys.add(String.format("k%05d", i));
+		}
+		// Local disorder within the heap size still yields a single run
+		Collections.swap(keys, 10, 15);
+		Collections.swap(keys, 300, 310);
+		writeInput(keys);
+
+		assertEquals(1, generateRuns());
+
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		assertEquals(1, fileSorter.generateRunsByReplacementSelection(args));
+		fileSorter.shutdown();
+		Collections.sort(keys);
+		List<String> expected = new ArrayList<>();
+		keys.forEach(key -> expected.add(key + ",value"));
+		assertEquals(expected, Files.readAllLines(new File(args.outputFileName).toPath()));
+	}
+
+	private int generateRuns() throws Exception {
+		return new ReplacementSelectionRunGenerator(fileUtil, null).generateRuns(args, new PhaseMetrics("test"));
+	}
+
+	private void writeInput(List<String> keys) throws IOException {
+		List<String> lines = new ArrayList<>();
+		keys.forEach(key -> lines.add(key + ",value"));
+		Files.write(new File(args.inputFileName).toPath(), lines);
+	}
+
+	private List<String> readRunKeys(int run) throws IOException {
+		List<String> keys = new ArrayList<>();
+		try (RunFileReader reader = new RunFileReader(fileUtil.getChunkFileName(args, run, 0))) {
+			while (reader.hasRecord()) {
+				keys.add(reader.getCurrentRecord().get(0));
+				reader.nextRecord();
+			}
+		}
+		return keys;
+	}
+}
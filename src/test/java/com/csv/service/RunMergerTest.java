@@ -0,0 +1,87 @@
+package com.csv.service;
+
+import com.csv.config.MergeEngine;
+import com.csv.io.RunFileReader;
+import com.csv.io.RunFileWriter;
+import com.csv.key.SortKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RunMergerTest {
+	private static final SortKey SORT_KEY = SortKey.singleField(0);
+	private Path tempFolder;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("run_merger_test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		File[] files = tempFolder.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		tempFolder.toFile().delete();
+	}
+
+	@ParameterizedTest
+	@EnumSource(MergeEngine.class)
+	void givenRunsWithDuplicatesAndEmptyRuns_whenMerged_thenOrderedAndStableByRun(MergeEngine mergeEngine) throws IOException {
+		Random random = new Random(7);
+		// 7 runs is not a power of two, and runs 2 and 5 are empty
+		List<List<List<String>>> runs = new ArrayList<>();
+		List<List<String>> expected = new ArrayList<>();
+		for (int run = 0; run < 7; run++) {
+			List<List<String>> records = new ArrayList<>();
+			int size = run == 2 || run == 5 ? 0 : 1 + random.nextInt(40);
+			for (int i = 0; i < size; i++) {
+				records.add(Arrays.asList("k" + random.nextInt(20), "run" + run));
+			}
+			records.sort((a, b) -> a.get(0).compareTo(b.get(0)));
+			runs.add(records);
+			expected.addAll(records);
+		}
+		// A stable sort of the concatenated runs keeps equal keys in run order, as the merge must
+		Collections.sort(expected, (a, b) -> a.get(0).compareTo(b.get(0)));
+
+		assertEquals(expected, merge(mergeEngine, runs));
+	}
+
+	private List<List<String>> merge(MergeEngine mergeEngine, List<List<List<String>>> runs) throws IOException {
+		List<RunFileReader> readers = new ArrayList<>();
+		for (int i = 0; i < runs.size(); i++) {
+			String runFileName = tempFolder.resolve("run_" + i + ".run").toString();
+			try (RunFileWriter writer = new RunFileWriter(runFileName)) {
+				for (List<String> record : runs.get(i)) {
+					writer.write(SORT_KEY.encode(record), record);
+				}
+			}
+			readers.add(new RunFileReader(runFileName));
+		}
+
+		List<List<String>> merged = new ArrayList<>();
+		RunMerger merger = RunMerger.create(mergeEngine, readers);
+		for (RunFileReader smallest = merger.peek(); smallest != null; smallest = merger.peek()) {
+			merged.add(smallest.getCurrentRecord());
+			merger.advance();
+		}
+		return merged;
+	}
+}
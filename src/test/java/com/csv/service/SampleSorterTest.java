@@ -0,0 +1,138 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.key.SortKey;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SampleSorterTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("sample_sort_test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenFewOpenFiles_whenSampleSort_thenOversizedBucketsSplitAgainAndOutputStablySorted() throws IOException {
+		Random random = new Random(5);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			lines.add(String.format("k%05d,%d", random.nextInt(2000), i));
+		}
+		// Four buckets for 3000 records of which 50 fit in memory
+		FileSorterArgs args = sampleSortArgs(lines, "50", "2", "--max-open-files", "24");
+
+		sort(args);
+
+		assertEquals(stablySorted(lines), readOutput());
+		assertTrue(tempFolderIsEmptyButOutput());
+	}
+
+	@Test
+	void givenHeavyDuplicateKey_whenSampleSort_thenDuplicatesKeepInputOrderWithoutFittingInMemory() throws IOException {
+		Random random = new Random(7);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			String key = random.nextInt(10) < 9 ? "same" : String.format("k%04d", random.nextInt(1000));
+			lines.add(key + "," + i);
+		}
+
+		sort(sampleSortArgs(lines, "100", "3"));
+
+		assertEquals(stablySorted(lines), readOutput());
+	}
+
+	@Test
+	void givenMappedInputOverSeveralRanges_whenSampleSort_thenSameOutputAsStableSort() throws IOException {
+		Random random = new Random(13);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 80_000; i++) {
+			lines.add(String.format("k%06d,\"quoted, %d\",%s", random.nextInt(1_000_000), i, "payload payload"));
+		}
+
+		sort(sampleSortArgs(lines, "10000", "4", "--parser", "mmap"));
+
+		List<String> expected = new ArrayList<>();
+		for (String line : stablySorted(lines)) {
+			// The output is written unquoted
+			expected.add(line.replace("\"", ""));
+		}
+		assertEquals(expected, readOutput());
+	}
+
+	@Test
+	void givenSampleWithHeavyKey_whenChooseSplitters_thenHeavyKeyGetsBucketOfItsOwn() {
+		List<byte[]> sample = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			sample.add(key(i < 60 ? "m" : "k" + (char) ('a' + i % 20)));
+		}
+
+		List<byte[]> splitters = SampleSorter.chooseSplitters(sample, 4);
+
+		byte[] heavy = key("m");
+		int bucket = SampleSorter.bucketOf(splitters, heavy, heavy.length);
+		assertAll(
+				() -> assertTrue(bucket > 0 && bucket < splitters.size(), "heavy key in an open-ended bucket"),
+				() -> assertArrayEquals(heavy, splitters.get(bucket - 1)),
+				() -> assertEquals(bucket + 1, SampleSorter.bucketOf(splitters, key("m0"), key("m0").length)),
+				() -> assertEquals(bucket - 1, SampleSorter.bucketOf(splitters, key("kt"), key("kt").length))
+		);
+	}
+
+	private static byte[] key(String value) {
+		return SortKey.singleField(0).encode(new String[]{value});
+	}
+
+	private FileSorterArgs sampleSortArgs(List<String> lines, String maxRecordsInMemory, String numThreads,
+										  String... options) throws IOException {
+		Path input = tempFolder.resolve("input.csv");
+		Files.write(input, lines, StandardCharsets.UTF_8);
+		List<String> arguments = new ArrayList<>(Arrays.asList("0", maxRecordsInMemory, input.toString(),
+				tempFolder.resolve("output.csv").toString(), numThreads, "--algorithm", "sample"));
+		arguments.addAll(Arrays.asList(options));
+		FileSorterArgs args = new FileSorterArgs(arguments.toArray(new String[0]));
+		args.tempFolder = tempFolder.toString();
+		return args;
+	}
+
+	private void sort(FileSorterArgs args) {
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+	}
+
+	private List<String> readOutput() throws IOException {
+		return Files.readAllLines(tempFolder.resolve("output.csv"), StandardCharsets.UTF_8);
+	}
+
+	private boolean tempFolderIsEmptyButOutput() throws IOException {
+		return Files.list(tempFolder).allMatch(path -> path.endsWith("input.csv") || path.endsWith("output.csv"));
+	}
+
+	private static List<String> stablySorted(List<String> lines) {
+		List<String> sorted = new ArrayList<>(lines);
+		sorted.sort(Comparator.comparing(line -> line.substring(0, line.indexOf(','))));
+		return sorted;
+	}
+}
@@ -0,0 +1,157 @@
+package com.csv.service;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.key.SortKey;
+import com.csv.model.SortRecord;
+import com.csv.util.FileUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKSorterTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path tempFolder;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		tempFolder = Files.createTempDirectory("top_k_test");
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(tempFolder.toFile());
+	}
+
+	@Test
+	void givenSmallLimitAndOffset_whenSorted_thenWindowSelectedInOnePassWithTiesInInputOrder() throws Exception {
+		List<String> lines = lines(5000, 300, 3);
+		FileSorterArgs args = args(lines, "1000", "--limit", "40", "--offset", "15");
+
+		assertTrue(TopKSorter.fitsInMemory(fileUtil, args));
+		List<String> phases = sort(args);
+
+		assertAll(
+				() -> assertEquals(window(lines, 15, 40), readOutput()),
+				() -> assertEquals(Arrays.asList("top-k selection"), phases),
+				() -> assertEquals(1, Files.list(tempFolder).filter(path -> !path.endsWith("input.csv")).count())
+		);
+	}
+
+	@Test
+	void givenMappedInputOverSeveralRanges_whenLimitSorted_thenSameWindowAsStableSort() throws Exception {
+		List<String> lines = lines(80_000, 1_000_000, 11);
+
+		sort(args(lines, "10000", "--parser", "mmap", "--limit", "100"));
+
+		assertEquals(window(lines, 0, 100), readOutput());
+	}
+
+	@Test
+	void givenLimitNotFittingInMemory_whenSorted_thenRunsCutAndMergeStopsAtWindow() throws Exception {
+		List<String> lines = lines(3000, 2000, 5);
+		FileSorterArgs args = args(lines, "50", "--limit", "500", "--offset", "100");
+
+		assertFalse(TopKSorter.fitsInMemory(fileUtil, args));
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+
+		long runRecords = fileSorter.getMetrics().getPhases().get(0).getRecordsWritten();
+		assertAll(
+				() -> assertEquals(window(lines, 100, 500), readOutput()),
+				() -> assertTrue(runRecords < 3000, "runs cut at the threshold, " + runRecords + " records spilled")
+		);
+	}
+
+	@Test
+	void givenLimitZero_whenSorted_thenEmptyOutput() throws Exception {
+		sort(args(lines(100, 10, 1), "1000", "--limit", "0"));
+
+		assertEquals(0, Files.size(tempFolder.resolve("output.csv")));
+	}
+
+	@Test
+	void givenSortedRuns_whenCut_thenKeptRecordsHoldTheSmallestAndThresholdFalls() {
+		RunCutoff cutoff = new RunCutoff(100);
+		Random random = new Random(9);
+		List<byte[]> allKeys = new ArrayList<>();
+		List<byte[]> keptKeys = new ArrayList<>();
+		byte[] firstThreshold = null;
+		for (int run = 0; run < 10; run++) {
+			List<SortRecord> records = new ArrayList<>();
+			for (int i = 0; i < 150; i++) {
+				String value = String.format("k%05d", random.nextInt(50_000));
+				byte[] key = SortKey.singleField(0).encode(new String[]{value});
+				records.add(new SortRecord(key, Arrays.asList(value)));
+				allKeys.add(key);
+			}
+			records.sort((a, b) -> SortKey.compare(a.getKey(), b.getKey()));
+			List<SortRecord> kept = cutoff.cut(records);
+			assertTrue(kept.size() <= 100);
+			kept.forEach(record -> keptKeys.add(record.getKey()));
+			if (run == 0) {
+				firstThreshold = cutoff.getThreshold();
+			}
+		}
+		allKeys.sort(SortKey::compare);
+		keptKeys.sort(SortKey::compare);
+
+		byte[] first = firstThreshold;
+		assertAll(
+				() -> assertTrue(keptKeys.size() < 600, keptKeys.size() + " records kept"),
+				() -> assertArrayEquals(allKeys.subList(0, 100).toArray(), keptKeys.subList(0, 100).toArray()),
+				() -> assertTrue(SortKey.compare(cutoff.getThreshold(), first) < 0)
+		);
+	}
+
+	private static List<String> lines(int count, int keys, long seed) {
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			lines.add(String.format("k%07d,%d,payload", random.nextInt(keys), i));
+		}
+		return lines;
+	}
+
+	private static List<String> window(List<String> lines, int offset, int limit) {
+		List<String> sorted = new ArrayList<>(lines);
+		sorted.sort(Comparator.comparing(line -> line.substring(0, line.indexOf(','))));
+		return sorted.subList(offset, offset + limit);
+	}
+
+	private FileSorterArgs args(List<String> lines, String maxRecordsInMemory, String... options) throws IOException {
+		Path input = tempFolder.resolve("input.csv");
+		Files.write(input, lines, StandardCharsets.UTF_8);
+		List<String> arguments = new ArrayList<>(Arrays.asList("0", maxRecordsInMemory, input.toString(),
+				tempFolder.resolve("output.csv").toString(), "3", "--progress", "0"));
+		arguments.addAll(Arrays.asList(options));
+		FileSorterArgs args = new FileSorterArgs(arguments.toArray(new String[0]));
+		args.tempFolder = tempFolder.toString();
+		return args;
+	}
+
+	private List<String> sort(FileSorterArgs args) {
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		fileSorter.sortFile(args);
+		fileSorter.shutdown();
+		List<String> phases = new ArrayList<>();
+		fileSorter.getMetrics().getPhases().forEach(phase -> phases.add(phase.getName()));
+		return phases;
+	}
+
+	private List<String> readOutput() throws IOException {
+		return Files.readAllLines(tempFolder.resolve("output.csv"), StandardCharsets.UTF_8);
+	}
+}
@@ -1,6 +1,5 @@
 package com.csv.util;
 
-import com.csv.Main;
 import com.csv.config.FileSorterArgs;
 import com.opencsv.CSVReader;
 import com.opencsv.exceptions.CsvValidationException;
@@ -10,6 +9,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -37,15 +37,17 @@ public class FileUtilTest {
 	);
 	private static final FileUtil fileUtil = new FileUtil();
 
+	private static File testFolder;
+
 	@BeforeAll
 	static void setUp() {
-		Main.tempFolder = new File(TEMP_DIR);
-
+		testFolder = new File(TEMP_DIR);
+		testFolder.mkdir();
 	}
 
 	@AfterAll
 	static void tearDown() {
-		fileUtil.deleteFolder(Main.tempFolder);
+		fileUtil.deleteFolder(testFolder);
 		fileUtil.deleteFolder(new File(OUTPUT_FILE_NAME));
 	}
 	@AfterEach
@@ -53,19 +55,20 @@ public class FileUtilTest {
 	}
 
 	@Test
-	void givenNoTempFolderExists_whenCreateTempFolder_thenTempFolderCreated() {
-		fileUtil.deleteFolder(Main.tempFolder);
-		assertFalse(Main.tempFolder.exists());
-		fileUtil.createTempFolder();
+	void givenParentFolder_whenCreateTempFolder_thenNewFolderOfItsOwnCreatedEveryTime() {
+		File first = fileUtil.createTempFolder(testFolder);
+		File second = fileUtil.createTempFolder(testFolder);
 		assertAll(
-				() -> assertTrue(Main.tempFolder.exists()),
-				() -> assertTrue(Main.tempFolder.isDirectory())
+				() -> assertTrue(first.isDirectory()),
+				() -> assertTrue(second.isDirectory()),
+				() -> assertNotEquals(first, second),
+				() -> assertEquals(testFolder.getAbsoluteFile(), first.getAbsoluteFile().getParentFile())
 		);
 	}
 
 	@Test
 	void givenTempFolderExistsWithFiles_whenDeleteFolder_thenFolderAndFilesDeleted() {
-		File tempFolder = fileUtil.createTempFolder();
+		File tempFolder = fileUtil.createTempFolder(testFolder);
 		File testFile = new File(tempFolder, "test.txt");
 
 		assertAll(
@@ -82,7 +85,7 @@ public class FileUtilTest {
 
 	@Test
 	void givenCsvFileWithRecords_whenReadChunk_thenRecordsReadCorrectly() throws IOException, CsvValidationException {
-		File tempFolder = fileUtil.createTempFolder();
+		File tempFolder = fileUtil.createTempFolder(testFolder);
 		String testFilePath = tempFolder.getAbsolutePath() + File.separator + TEST_FILE_NAME;
 		fileUtil.writeChunkToFile(TEST_DATA, testFilePath);
 		try (CSVReader csvReader = new CSVReader(new FileReader(testFilePath))) {
@@ -96,9 +99,25 @@ public class FileUtilTest {
 		}
 	}
 
+	@Test
+	void givenByteBudget_whenReadChunk_thenChunkCutByEstimatedSize() throws IOException, CsvValidationException {
+		File tempFolder = fileUtil.createTempFolder(testFolder);
+		String testFilePath = tempFolder.getAbsolutePath() + File.separator + TEST_FILE_NAME;
+		fileUtil.writeChunkToFile(TEST_DATA, testFilePath);
+		long firstRecordBytes = estimateRecordBytes(FIRST_RECORD.toArray(new String[0]));
+		try (CSVReader csvReader = new CSVReader(new FileReader(testFilePath))) {
+			List<List<String>> firstChunk = fileUtil.readChunk(TEST_DATA.size(), firstRecordBytes + 1, csvReader);
+			List<List<String>> secondChunk = fileUtil.readChunk(TEST_DATA.size(), 1, csvReader);
+			assertAll(
+					() -> assertEquals(Arrays.asList(FIRST_RECORD, SECOND_RECORD), firstChunk),
+					() -> assertEquals(Arrays.asList(THIRD_RECORD), secondChunk)
+			);
+		}
+	}
+
 	@Test
 	void givenDataList_whenWriteChunkToFile_thenFileContainsCorrectData() throws IOException {
-		File tempFolder = fileUtil.createTempFolder();
+		File tempFolder = fileUtil.createTempFolder(testFolder);
 		String testFilePath = tempFolder.getAbsolutePath() + File.separator + TEST_FILE_NAME;
 		fileUtil.writeChunkToFile(TEST_DATA, testFilePath);
 
@@ -115,18 +134,19 @@ public class FileUtilTest {
 	@Test
 	void givenChunkNumberAndPassNumber_whenGetChunkFileName_thenFileNameGeneratedCorrectly() {
 		FileSorterArgs args = new FileSorterArgs(ARGS);
-		Main.tempFolder = new File(TEMP_DIR);
+		args.tempFolder = TEMP_DIR;
 		int chunkNumber = 1;
 		int passNumber = 2;
 		String chunkFileName = fileUtil.getChunkFileName(args,1, 2);
-		assertEquals(TEMP_DIR + File.separator + "pass_" + passNumber + "_chunk_" + chunkNumber + ".csv", chunkFileName);	}
+		assertEquals(TEMP_DIR + File.separator + "pass_" + passNumber + "_chunk_" + chunkNumber + ".run", chunkFileName);	}
 
 	@Test
 	void givenTemporaryChunkFile_whenCreateFinalOutputFile_thenFileIsRenamed() throws IOException {
-		File tempFolder = fileUtil.createTempFolder();
+		File tempFolder = fileUtil.createTempFolder(testFolder);
 		String outputFileName = "output.csv";
 		FileSorterArgs args = new FileSorterArgs(FileUtilTest.ARGS);
 		args.outputFileName = outputFileName;
+		args.tempFolder = tempFolder.getPath();
 
 		// Create a temporary chunk file
 		String tempChunkFileName = fileUtil.getChunkFileName(args,0, 1);
@@ -139,4 +159,14 @@ public class FileUtilTest {
 		// Check if the output file exists and the temporary chunk file is renamed
 		assertTrue(Files.exists(Paths.get(outputFileName))); // Output file should exist
 	}
+
+	@Test
+	void givenNoFinalChunkFile_whenCreateFinalOutputFile_thenFileNotFound() {
+		FileSorterArgs args = new FileSorterArgs(FileUtilTest.ARGS);
+		args.outputFileName = "missing_output.csv";
+		args.tempFolder = fileUtil.createTempFolder(testFolder).getPath();
+
+		assertThrows(FileNotFoundException.class, () -> fileUtil.createFinalOutputFile(args, 1));
+		assertFalse(Files.exists(Paths.get(args.outputFileName)));
+	}
 }
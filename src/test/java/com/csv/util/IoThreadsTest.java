@@ -0,0 +1,48 @@
+package com.csv.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IoThreadsTest {
+
+	@Test
+	void givenBlockingTasks_whenSubmittedToExecutor_thenAllRunAtOnceOnNamedThreads() throws Exception {
+		for (boolean virtual : new boolean[]{false, true}) {
+			ExecutorService executor = IoThreads.newExecutor("test-io", virtual);
+			try {
+				// Every task waits for all the others, which only works if none waits for a free thread
+				int tasks = 50;
+				CountDownLatch started = new CountDownLatch(tasks);
+				List<Future<String>> names = new ArrayList<>();
+				for (int i = 0; i < tasks; i++) {
+					names.add(executor.submit(() -> {
+						started.countDown();
+						assertTrue(started.await(10, TimeUnit.SECONDS));
+						return Thread.currentThread().getName();
+					}));
+				}
+				for (Future<String> name : names) {
+					assertEquals("test-io", name.get());
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	@Test
+	void givenPlatformThreads_whenFactoryCreatesThread_thenDaemon() {
+		Thread thread = IoThreads.factory("test-io", false).newThread(() -> {
+		});
+		assertTrue(thread.isDaemon());
+		assertEquals("test-io", thread.getName());
+	}
+}
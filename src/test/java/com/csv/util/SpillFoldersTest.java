@@ -0,0 +1,140 @@
+package com.csv.util;
+
+import com.csv.config.FileSorterArgs;
+import com.csv.config.TempPlacement;
+import com.csv.service.FileSorter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpillFoldersTest {
+	private final FileUtil fileUtil = new FileUtil();
+	private Path root;
+	private FileSorterArgs args;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		root = Files.createTempDirectory("spill_folders_test");
+		Files.createDirectory(root.resolve("disk1"));
+		Files.createDirectory(root.resolve("disk2"));
+		Files.createDirectory(root.resolve("disk3"));
+		args = new FileSorterArgs(new String[]{"0", "20", root.resolve("input.csv").toString(),
+				root.resolve("output.csv").toString(), "2", "--temp-dirs",
+				root.resolve("disk1") + "," + root.resolve("disk2") + "," + root.resolve("disk3"), "--progress", "0"});
+	}
+
+	@AfterEach
+	void tearDown() {
+		fileUtil.deleteFolder(root.toFile());
+	}
+
+	@Test
+	void givenTempDirs_whenCreateTempFolders_thenOneFolderUnderEachAndFirstIsTempFolder() {
+		List<File> folders = fileUtil.createTempFolders(args, root.toFile());
+
+		assertEquals(3, folders.size());
+		for (int i = 0; i < folders.size(); i++) {
+			assertEquals(root.resolve("disk" + (i + 1)).toFile(), folders.get(i).getParentFile());
+		}
+		assertEquals(folders.get(0).getPath(), args.tempFolder);
+		assertEquals(folders, args.spillFolders.getFolders());
+	}
+
+	@Test
+	void givenNoTempDirs_whenCreateTempFolders_thenSingleFolderAndNoSpillFolders() {
+		args.tempDirs = new ArrayList<>();
+
+		List<File> folders = fileUtil.createTempFolders(args, root.toFile());
+
+		assertEquals(1, folders.size());
+		assertEquals(root.toFile(), folders.get(0).getParentFile());
+		assertNull(args.spillFolders);
+	}
+
+	@Test
+	void givenRoundRobin_whenRunsNamed_thenSpreadEvenlyAndEachKeepsItsFolder() {
+		List<File> folders = fileUtil.createTempFolders(args, root.toFile());
+
+		int[] perFolder = new int[folders.size()];
+		for (int chunk = 0; chunk < 30; chunk++) {
+			String name = fileUtil.getChunkFileName(args, chunk, 0);
+			assertEquals(name, fileUtil.getChunkFileName(args, chunk, 0));
+			perFolder[folders.indexOf(new File(name).getParentFile())]++;
+		}
+		assertArrayEquals(new int[]{10, 10, 10}, perFolder);
+	}
+
+	@Test
+	void givenMovedChunk_whenMoveChunk_thenStaysInItsFolder() throws IOException {
+		fileUtil.createTempFolders(args, root.toFile());
+		String source = fileUtil.getChunkFileName(args, 5, 0);
+		Files.write(new File(source).toPath(), Collections.singletonList("run"));
+
+		fileUtil.moveChunk(args, 5, 0, 2, 1);
+
+		String target = fileUtil.getChunkFileName(args, 2, 1);
+		assertEquals(new File(source).getParent(), new File(target).getParent());
+		assertTrue(new File(target).exists());
+	}
+
+	@Test
+	void givenFoldersOnOneFileSystem_whenDeviceOf_thenSameDeviceAndOutsidePathsHaveNone() {
+		List<File> folders = fileUtil.createTempFolders(args, root.toFile());
+		SpillFolders spillFolders = new SpillFolders(folders, TempPlacement.ROUND_ROBIN);
+
+		Set<Integer> devices = new HashSet<>();
+		for (File folder : folders) {
+			devices.add(spillFolders.deviceOf(new File(folder, "run").getPath()));
+		}
+		assertEquals(Collections.singleton(0), devices);
+		assertEquals(-1, spillFolders.deviceOf(root.resolve("output.csv").toString()));
+	}
+
+	@Test
+	void givenTempDirs_whenSortFileWithMergePasses_thenOutputSorted() throws Exception {
+		List<String> lines = new ArrayList<>();
+		Random random = new Random(17);
+		for (int i = 0; i < 2000; i++) {
+			lines.add(String.format("k%05d,%d", random.nextInt(100_000), i));
+		}
+		Files.write(new File(args.inputFileName).toPath(), lines);
+		args.fanIn = 4;
+		List<File> folders = fileUtil.createTempFolders(args, root.toFile());
+
+		FileSorter fileSorter = new FileSorter(fileUtil);
+		try {
+			fileSorter.sortFile(args);
+		} finally {
+			fileSorter.shutdown();
+		}
+
+		List<String> expected = new ArrayList<>(lines);
+		Collections.sort(expected);
+		List<String> output = Files.readAllLines(new File(args.outputFileName).toPath());
+		List<String> outputKeys = new ArrayList<>();
+		output.forEach(line -> outputKeys.add(line.split(",")[0]));
+		List<String> sortedKeys = new ArrayList<>(outputKeys);
+		Collections.sort(sortedKeys);
+		assertEquals(sortedKeys, outputKeys);
+		Collections.sort(output);
+		assertEquals(expected, output);
+		for (File folder : folders) {
+			assertTrue(Arrays.stream(folder.list()).anyMatch(name -> name.endsWith(".run")),
+					"no runs in " + folder);
+		}
+	}
+}